@@ -0,0 +1,148 @@
+package objects;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.Bag;
+import sim.util.geo.AttributeValue;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * The attributes of a layer's geometries held column by column, following a LayerSchema: an
+ * int [], double [] or String [] for each column, indexed by the position of the geometry in
+ * the layer. Missing values are held as MISSING_INT, NaN or null. Repeated strings (road
+ * classes, say) are shared rather than held once per geometry.
+ *
+ */
+public class AttributeTable {
+
+	public static final int MISSING_INT = Integer.MIN_VALUE;
+
+	final LayerSchema schema;
+	final MasonGeometry [] geometries;
+	final IdentityHashMap <MasonGeometry, Integer> ids;
+	final Object [] columns;
+
+	AttributeTable(LayerSchema schema, MasonGeometry [] geometries){
+		this.schema = schema;
+		this.geometries = geometries;
+		ids = new IdentityHashMap <MasonGeometry, Integer> (2 * geometries.length);
+		for(int i = 0; i < geometries.length; i++)
+			ids.put(geometries[i], i);
+		columns = new Object [schema.numColumns()];
+	}
+
+	/**
+	 * Gather the schema's columns from a layer which has been read. Columns not wanted on the
+	 * geometries themselves are then taken off them.
+	 */
+	public static AttributeTable build(GeomVectorField layer, LayerSchema schema){
+		Bag all = layer.getGeometries();
+		MasonGeometry [] geometries = new MasonGeometry [all.size()];
+		for(int i = 0; i < geometries.length; i++)
+			geometries[i] = (MasonGeometry) all.get(i);
+		AttributeTable table = new AttributeTable(schema, geometries);
+
+		HashMap <String, String> strings = new HashMap <String, String> ();
+		for(int c = 0; c < schema.numColumns(); c++){
+			LayerSchema.Column column = schema.getColumn(c);
+			int n = geometries.length;
+			int [] ints = null;
+			double [] doubles = null;
+			String [] strs = null;
+			switch(column.type){
+			case INTEGER: table.columns[c] = ints = new int [n]; break;
+			case DOUBLE: table.columns[c] = doubles = new double [n]; break;
+			case STRING: table.columns[c] = strs = new String [n]; break;
+			}
+
+			for(int i = 0; i < n; i++){
+				Object value = value(geometries[i], column.name);
+				switch(column.type){
+				case INTEGER:
+					ints[i] = value instanceof Number ? ((Number) value).intValue()
+							: value == null ? MISSING_INT : parseInt(value.toString());
+					break;
+				case DOUBLE:
+					doubles[i] = value instanceof Number ? ((Number) value).doubleValue()
+							: value == null ? Double.NaN : parseDouble(value.toString());
+					break;
+				case STRING:
+					strs[i] = value == null ? null : intern(value.toString(), strings);
+					break;
+				}
+				if(value != null && !column.onGeometry)
+					geometries[i].getAttributes().remove(column.name);
+			}
+		}
+		return table;
+	}
+
+	static Object value(MasonGeometry mg, String attribute){
+		if(!mg.hasAttribute(attribute)) return null;
+		Object value = mg.getAttribute(attribute);
+		return value instanceof AttributeValue ? ((AttributeValue) value).getValue() : value;
+	}
+
+	static int parseInt(String s){
+		try {
+			return (int) Double.parseDouble(s.trim());
+		} catch (NumberFormatException e){
+			return MISSING_INT;
+		}
+	}
+
+	static double parseDouble(String s){
+		try {
+			return Double.parseDouble(s.trim());
+		} catch (NumberFormatException e){
+			return Double.NaN;
+		}
+	}
+
+	static String intern(String s, HashMap <String, String> strings){
+		String shared = strings.get(s);
+		if(shared == null){
+			strings.put(s, s);
+			shared = s;
+		}
+		return shared;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// QUERIES ////////////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	public LayerSchema getSchema(){ return schema; }
+
+	public int numRows(){ return geometries.length; }
+
+	public boolean hasColumn(String name){ return schema.indexOf(name) >= 0; }
+
+	/** @return the position of the geometry in the layer, or -1 if it is not part of it */
+	public int id(MasonGeometry mg){
+		Integer id = ids.get(mg);
+		return id == null ? -1 : id;
+	}
+
+	public MasonGeometry getGeometry(int id){ return geometries[id]; }
+
+	/** @return the values of an INTEGER column, by geometry id. The array must not be modified. */
+	public int [] getIntColumn(String name){ return (int []) column(name, LayerSchema.Type.INTEGER); }
+
+	/** @return the values of a DOUBLE column, by geometry id. The array must not be modified. */
+	public double [] getDoubleColumn(String name){ return (double []) column(name, LayerSchema.Type.DOUBLE); }
+
+	/** @return the values of a STRING column, by geometry id. The array must not be modified. */
+	public String [] getStringColumn(String name){ return (String []) column(name, LayerSchema.Type.STRING); }
+
+	Object column(String name, LayerSchema.Type type){
+		int c = schema.indexOf(name);
+		if(c < 0)
+			throw new IllegalArgumentException("No column " + name + " in " + schema.getName());
+		if(schema.getColumn(c).type != type)
+			throw new IllegalArgumentException("Column " + name + " of " + schema.getName() + " is not " + type);
+		return columns[c];
+	}
+}
@@ -0,0 +1,225 @@
+package objects;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import sim.field.geo.GeomVectorField;
+import sim.io.geo.ShapeFileImporter;
+import sim.util.Bag;
+
+/**
+ * Reads a model's vector layers side by side on a small pool of worker threads. Each layer is
+ * handed over as soon as it has been asked for, and whoever needs a layer waits for that layer
+ * alone (see await()), so the road network can be built while the boundary and flood layers
+ * are still being read. Work which needs every layer, such as standardising the layers' MBRs,
+ * is handed to whenAllLoaded() and done by whichever worker reads the last layer, so that no
+ * one need wait for it; awaitAll() waits for every layer and that work both.
+ *
+ * A layer given a LayerSchema has only the schema's columns read from its DBF, and they are
+ * gathered into an AttributeTable (see getTable()) once the layer is in.
+ *
+ */
+public class LayerLoader {
+
+	ExecutorService workers;
+	LinkedHashMap <GeomVectorField, Future <?>> loads = new LinkedHashMap <GeomVectorField, Future <?>> ();
+	HashMap <GeomVectorField, AttributeTable> tables = new HashMap <GeomVectorField, AttributeTable> ();
+	int pending = 0; // layers still being read
+	ArrayList <Runnable> whenDone = new ArrayList <Runnable> ();
+
+	/**
+	 * @param numThreads - the most layers to read at once
+	 */
+	public LayerLoader(int numThreads){
+		workers = Executors.newFixedThreadPool(Math.max(1, numThreads));
+	}
+
+	/**
+	 * Start reading a shapefile into a layer
+	 *
+	 * @param layer - the layer to fill
+	 * @param filename - the shapefile
+	 * @param layerDescription - the name of the layer, for reporting
+	 * @param attributes - optional: include only the given attributes
+	 */
+	public void load(final GeomVectorField layer, final String filename, final String layerDescription,
+			final Bag attributes){
+		load(layer, new Runnable(){
+			public void run(){
+				readInVectorLayer(layer, filename, layerDescription, attributes);
+			}
+		});
+	}
+
+	/**
+	 * Start reading the columns of a schema from a shapefile into a layer
+	 *
+	 * @param layer - the layer to fill
+	 * @param filename - the shapefile
+	 * @param layerDescription - the name of the layer, for reporting
+	 * @param schema - the columns to read
+	 */
+	public void load(final GeomVectorField layer, final String filename, final String layerDescription,
+			final LayerSchema schema){
+		load(layer, schema, new Runnable(){
+			public void run(){
+				readInVectorLayer(layer, filename, layerDescription, schema);
+			}
+		});
+	}
+
+	/**
+	 * Start filling a layer in some other way, such as from a snapshot
+	 */
+	public void load(GeomVectorField layer, Runnable reader){
+		load(layer, null, reader);
+	}
+
+	/**
+	 * Start filling a layer in some other way, then gather the columns of the schema
+	 * @param schema - the columns to gather, or null for none
+	 */
+	public synchronized void load(final GeomVectorField layer, final LayerSchema schema, final Runnable reader){
+		pending++;
+		loads.put(layer, workers.submit(new Runnable(){
+			public void run(){
+				try {
+					reader.run();
+					if(schema == null) return;
+					AttributeTable table = AttributeTable.build(layer, schema);
+					synchronized(LayerLoader.this){
+						tables.put(layer, table);
+					}
+				} finally {
+					loaded();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Do something once every layer so far given to the loader has been read. It is done by the
+	 * worker which reads the last layer, before that layer counts as read, or at once by the
+	 * caller if every layer is in already.
+	 */
+	public void whenAllLoaded(Runnable action){
+		synchronized(this){
+			if(pending > 0){
+				whenDone.add(action);
+				return;
+			}
+		}
+		action.run();
+	}
+
+	/** count a layer as read, and if it was the last, do what was waiting for them all */
+	void loaded(){
+		Runnable [] actions;
+		synchronized(this){
+			if(--pending > 0 || whenDone.isEmpty()) return;
+			actions = whenDone.toArray(new Runnable [whenDone.size()]);
+			whenDone.clear();
+		}
+		for(Runnable action: actions)
+			action.run();
+	}
+
+	/**
+	 * Wait until the layer has been read
+	 * @return the columns read from it, or null if it was given no schema
+	 */
+	public AttributeTable getTable(GeomVectorField layer){
+		await(layer);
+		synchronized(this){
+			return tables.get(layer);
+		}
+	}
+
+	/**
+	 * Wait until the layer has been read. A layer never given to the loader is returned at once.
+	 * @return the layer
+	 */
+	public GeomVectorField await(GeomVectorField layer){
+		Future <?> f;
+		synchronized(this){
+			f = loads.get(layer);
+		}
+		if(f == null) return layer;
+		try {
+			f.get();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while reading layers", e);
+		} catch (ExecutionException e){
+			throw new RuntimeException("Failed to read a layer", e.getCause());
+		}
+		return layer;
+	}
+
+	/**
+	 * Wait until every layer has been read, and whatever was waiting for them all has been done,
+	 * then let the workers go
+	 */
+	public void awaitAll(){
+		GeomVectorField [] layers;
+		synchronized(this){
+			layers = loads.keySet().toArray(new GeomVectorField [loads.size()]);
+		}
+		try {
+			for(GeomVectorField layer: layers)
+				await(layer);
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Let the workers go once they have finished whatever they were given
+	 */
+	public void shutdown(){
+		workers.shutdown();
+	}
+
+	/**
+	 * Read a shapefile into a layer, reporting how long it took in one line so that layers read
+	 * together do not garble one another's messages
+	 */
+	@SuppressWarnings("deprecation")
+	public static void readInVectorLayer(GeomVectorField layer, String filename, String layerDescription,
+			Bag attributes){
+		long startTime = System.currentTimeMillis();
+		try {
+			File file = new File(filename);
+			if(attributes == null || attributes.size() == 0)
+				ShapeFileImporter.read(file.toURL(), layer);
+			else
+				ShapeFileImporter.read(file.toURL(), layer, attributes);
+			System.out.println("Read in '" + layerDescription + "' from: " + filename + " in "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read only the columns of a schema from a shapefile into a layer
+	 */
+	@SuppressWarnings("deprecation")
+	public static void readInVectorLayer(GeomVectorField layer, String filename, String layerDescription,
+			LayerSchema schema){
+		long startTime = System.currentTimeMillis();
+		try {
+			ShapeFileImporter.read(new File(filename).toURL(), layer, schema.getAttributeNames());
+			System.out.println("Read in '" + layerDescription + "' from: " + filename + " in "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
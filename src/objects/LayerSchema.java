@@ -0,0 +1,94 @@
+package objects;
+
+import sim.util.Bag;
+
+/**
+ * The attributes of a vector layer that the models actually read. Only these columns are taken
+ * from the shapefile's DBF (see LayerLoader), and they are gathered into an AttributeTable of
+ * typed arrays. A column is also left on each MasonGeometry only where something still reads it
+ * from there, such as the planar graph's edges or a portrayal.
+ *
+ */
+public class LayerSchema {
+
+	public enum Type { INTEGER, DOUBLE, STRING }
+
+	public static class Column {
+		public final String name;
+		public final Type type;
+		public final boolean onGeometry; // whether to leave the value on each MasonGeometry too
+
+		Column(String name, Type type, boolean onGeometry){
+			this.name = name;
+			this.type = type;
+			this.onGeometry = onGeometry;
+		}
+	}
+
+	/** The ITN roads */
+	public static final LayerSchema ROADS = new LayerSchema("Road Network",
+			column("ROAD_ID", Type.INTEGER, true), // copied onto the planar graph's edges
+			column("open", Type.STRING, false), // kept only in RoadAttributes, which opens and closes roads
+			column("TYPE", Type.STRING, false)); // the class of road
+
+	/** The LSOA boundaries */
+	public static final LayerSchema BOUNDARIES = new LayerSchema("Boundaries",
+			column("LSOA11CD", Type.STRING, false), // names the areas
+			column("DP0010001", Type.INTEGER, true)); // the population, shaded by EngDBasicWithUI
+
+	/**
+	 * The flood zones, of which only the shapes are used. ShapeFileImporter reads every column
+	 * when it is given none, so one short column is asked for; flood zone layers without it
+	 * are read with no attributes at all.
+	 */
+	public static final LayerSchema FLOOD_ZONES = new LayerSchema("Flood Zone",
+			column("TYPE", Type.STRING, false)); // the flood zone, which is never read
+
+	final String name;
+	final Column [] columns;
+
+	/**
+	 * @param name - a name for the layer, for reporting
+	 * @param columns - the columns to read: at least one, as ShapeFileImporter would read every
+	 * column if given none
+	 */
+	public LayerSchema(String name, Column... columns){
+		if(columns.length == 0)
+			throw new IllegalArgumentException("The schema of '" + name + "' must ask for at least one column");
+		this.name = name;
+		this.columns = columns;
+	}
+
+	public static Column column(String name, Type type, boolean onGeometry){
+		return new Column(name, type, onGeometry);
+	}
+
+	public String getName(){ return name; }
+
+	public int numColumns(){ return columns.length; }
+
+	public Column getColumn(int i){ return columns[i]; }
+
+	/** @return the position of the named column, or -1 if there is none */
+	public int indexOf(String name){
+		for(int i = 0; i < columns.length; i++)
+			if(columns[i].name.equals(name)) return i;
+		return -1;
+	}
+
+	/** @return the names of the columns */
+	public String [] getNames(){
+		String [] result = new String [columns.length];
+		for(int i = 0; i < columns.length; i++)
+			result[i] = columns[i].name;
+		return result;
+	}
+
+	/** @return the names of the columns, in the form ShapeFileImporter takes them */
+	public Bag getAttributeNames(){
+		Bag result = new Bag();
+		for(Column c: columns)
+			result.add(c.name);
+		return result;
+	}
+}
@@ -0,0 +1,352 @@
+package objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+
+import objects.network.GeoNode;
+import objects.network.ListEdge;
+import objects.network.RoadAttributes;
+import objects.network.SnapIndex;
+import objects.network.WorkerPool;
+import sim.field.geo.GeomVectorField;
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.Bag;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateArrays;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Reads road LineStrings into a MASON network of ListEdges, as
+ * NetworkUtilities.multipartNetworkCleanup() does, but quickly enough for a large ITN extract.
+ * Rather than querying a Continuous2D and the roads added so far for every point, the work is
+ * done in passes:
+ *
+ * 1. the ends of the lines are merged into nodes, each end joining the first node within
+ * 		resolution of it, found through a hash of the coordinates into cells of that size;
+ * 2. each line is cut wherever one of its points falls within resolution of a node;
+ * 3. the stretches of road between nodes are put in a SnapIndex, and any stretch passing within
+ * 		resolution of a node it does not end at (as where one road ends at the side of another)
+ * 		is split there.
+ *
+ * The second and third passes are spread over a pool of worker threads, and their results are
+ * merged in the order of the input, so the network is the same however many threads are used.
+ *
+ */
+public class NetworkCleanup {
+
+	double resolution;
+	GeometryFactory fa;
+	WorkerPool workers;
+
+	// the road lines, with repeated points removed, and the positions in the layer of the roads
+	// they came from; begun afresh by each build
+	ArrayList <Coordinate []> lines;
+	ArrayList <Integer> sources;
+	int [] startNodes, endNodes;
+
+	// the nodes, and the hash of their positions into cells of size resolution
+	ArrayList <Coordinate> nodes;
+	HashMap <Long, ArrayList <Integer>> cells;
+
+	/**
+	 * A stretch of road between two nodes
+	 */
+	static class Piece {
+		int source, from, to;
+		Coordinate [] coords;
+
+		Piece(int source, int from, int to, Coordinate [] coords){
+			this.source = source;
+			this.from = from;
+			this.to = to;
+			this.coords = coords;
+		}
+	}
+
+	/**
+	 * @param resolution - how close two points must be to count as the same node
+	 * @param numThreads - the number of workers to use
+	 */
+	public NetworkCleanup(double resolution, GeometryFactory fa, int numThreads){
+		this.resolution = resolution;
+		this.fa = fa;
+		workers = new WorkerPool(numThreads);
+	}
+
+	/**
+	 * @param roadLayer - the roads; geometries other than LineStrings are ignored
+	 * @param roadTable - the columns read from the roads (see LayerSchema.ROADS and LayerLoader.getTable())
+	 * @return the network, whose nodes are GeoNodes and whose edges are ListEdges carrying the
+	 * road geometry and referring to the road it came from in a RoadAttributes taken from the table
+	 */
+	public Network build(GeomVectorField roadLayer, AttributeTable roadTable){
+		return build(roadLayer, new RoadAttributes(roadTable));
+	}
+
+	/**
+	 * Build a network from a layer. A cleanup may build any number of networks, one at a time.
+	 *
+	 * @param roadLayer - the roads; geometries other than LineStrings are ignored
+	 * @param attributes - the attributes of the roads, by position in the layer
+	 * @return the network, whose nodes are GeoNodes and whose edges are ListEdges carrying the
+	 * road geometry and referring to the road it came from in attributes
+	 */
+	public synchronized Network build(GeomVectorField roadLayer, RoadAttributes attributes){
+		long startTime = System.currentTimeMillis();
+		lines = new ArrayList <Coordinate []> ();
+		sources = new ArrayList <Integer> ();
+		nodes = new ArrayList <Coordinate> ();
+		cells = new HashMap <Long, ArrayList <Integer>> ();
+
+		Bag roads = roadLayer.getGeometries();
+		for(int i = 0; i < roads.size(); i++){
+			MasonGeometry mg = (MasonGeometry) roads.get(i);
+			if(!(mg.geometry instanceof LineString) || mg.geometry.isEmpty()) continue;
+			Coordinate [] pts = CoordinateArrays.removeRepeatedPoints(mg.geometry.getCoordinates());
+			if(pts.length < 2) continue; // an unconnected point
+			lines.add(pts);
+			sources.add(i);
+		}
+
+		// the ends of the lines become the nodes, in order, so this pass is not shared out
+		startNodes = new int [lines.size()];
+		endNodes = new int [lines.size()];
+		for(int i = 0; i < lines.size(); i++){
+			Coordinate [] pts = lines.get(i);
+			startNodes[i] = node(pts[0], true);
+			endNodes[i] = node(pts[pts.length - 1], true);
+		}
+
+		// cut the lines at the nodes
+		ArrayList <Callable <ArrayList <Piece>>> cutTasks = new ArrayList <Callable <ArrayList <Piece>>> ();
+		for(final int [] range: workers.ranges(lines.size()))
+			cutTasks.add(new Callable <ArrayList <Piece>> (){
+				public ArrayList <Piece> call(){
+					ArrayList <Piece> result = new ArrayList <Piece> ();
+					for(int i = range[0]; i < range[1]; i++)
+						cut(i, result);
+					return result;
+				}
+			});
+		final ArrayList <Piece> pieces = new ArrayList <Piece> ();
+		for(ArrayList <Piece> batch: run(cutTasks))
+			pieces.addAll(batch);
+
+		// find the nodes which lie along the pieces
+		Object [] ids = new Object [pieces.size()], froms = new Object [pieces.size()],
+				tos = new Object [pieces.size()];
+		LineString [] pieceLines = new LineString [pieces.size()];
+		for(int p = 0; p < pieces.size(); p++){
+			Piece piece = pieces.get(p);
+			ids[p] = p;
+			froms[p] = piece.from;
+			tos[p] = piece.to;
+			pieceLines[p] = fa.createLineString(piece.coords);
+		}
+		final SnapIndex index = new SnapIndex(ids, pieceLines, froms, tos);
+		ArrayList <Callable <ArrayList <Long>>> findTasks = new ArrayList <Callable <ArrayList <Long>>> ();
+		for(final int [] range: workers.ranges(nodes.size()))
+			findTasks.add(new Callable <ArrayList <Long>> (){
+				public ArrayList <Long> call(){
+					ArrayList <Long> result = new ArrayList <Long> ();
+					ArrayList <Integer> near = new ArrayList <Integer> ();
+					for(int v = range[0]; v < range[1]; v++){
+						Coordinate c = nodes.get(v);
+						near.clear();
+						index.edgesWithin(c.x, c.y, resolution, near);
+						for(int p: near){
+							Piece piece = pieces.get(p);
+							if(piece.from != v && piece.to != v)
+								result.add(((long) p << 32) | v);
+						}
+					}
+					return result;
+				}
+			});
+		ArrayList <Long> crossings = new ArrayList <Long> ();
+		for(ArrayList <Long> batch: run(findTasks))
+			crossings.addAll(batch);
+		long [] sorted = new long [crossings.size()];
+		for(int i = 0; i < sorted.length; i++)
+			sorted[i] = crossings.get(i);
+		Arrays.sort(sorted);
+
+		// split the pieces at the nodes along them
+		final HashMap <Integer, int []> bisections = new HashMap <Integer, int []> ();
+		for(int i = 0; i < sorted.length; ){
+			int p = (int) (sorted[i] >>> 32), j = i;
+			while(j < sorted.length && (int) (sorted[j] >>> 32) == p) j++;
+			int [] vs = new int [j - i];
+			for(int k = i; k < j; k++)
+				vs[k - i] = (int) sorted[k];
+			bisections.put(p, vs);
+			i = j;
+		}
+		ArrayList <Callable <ArrayList <Piece>>> splitTasks = new ArrayList <Callable <ArrayList <Piece>>> ();
+		for(final int [] range: workers.ranges(pieces.size()))
+			splitTasks.add(new Callable <ArrayList <Piece>> (){
+				public ArrayList <Piece> call(){
+					ArrayList <Piece> result = new ArrayList <Piece> ();
+					for(int p = range[0]; p < range[1]; p++){
+						int [] vs = bisections.get(p);
+						if(vs == null) result.add(pieces.get(p));
+						else split(pieces.get(p), vs, result);
+					}
+					return result;
+				}
+			});
+		ArrayList <Piece> edges = new ArrayList <Piece> ();
+		for(ArrayList <Piece> batch: run(splitTasks))
+			edges.addAll(batch);
+
+		// put the network together in the order of the input
+		Network net = new Network(false);
+		GeoNode [] geoNodes = new GeoNode [nodes.size()];
+		for(Piece piece: edges){
+			for(int v: new int [] {piece.from, piece.to})
+				if(geoNodes[v] == null)
+					geoNodes[v] = new GeoNode(fa.createPoint(nodes.get(v)));
+			LineString line = fa.createLineString(piece.coords);
+			ListEdge edge = new ListEdge(new Edge(geoNodes[piece.from], geoNodes[piece.to], new MasonGeometry(line)),
+					line.getLength());
+			edge.setFeature(attributes, sources.get(piece.source));
+			net.addEdge(edge);
+		}
+
+		System.out.println("Built road network of " + net.getAllNodes().size() + " nodes and "
+				+ edges.size() + " edges from " + lines.size() + " lines in "
+				+ (System.currentTimeMillis() - startTime) + "ms (" + sorted.length + " roads split)");
+		return net;
+	}
+
+	/**
+	 * @param create - whether to make a new node if there is none within resolution
+	 * @return the first node made within resolution of the point, or -1 if there is none and
+	 * none was to be made
+	 */
+	int node(Coordinate c, boolean create){
+		long cx = (long) Math.floor(c.x / resolution), cy = (long) Math.floor(c.y / resolution);
+		int best = -1;
+		for(long i = cx - 1; i <= cx + 1; i++)
+			for(long j = cy - 1; j <= cy + 1; j++){
+				ArrayList <Integer> cell = cells.get(key(i, j));
+				if(cell == null) continue;
+				for(int v: cell)
+					if((best < 0 || v < best) && nodes.get(v).distance(c) <= resolution)
+						best = v;
+			}
+		if(best >= 0 || !create) return best;
+
+		best = nodes.size();
+		nodes.add(c);
+		ArrayList <Integer> cell = cells.get(key(cx, cy));
+		if(cell == null){
+			cell = new ArrayList <Integer> ();
+			cells.put(key(cx, cy), cell);
+		}
+		cell.add(best);
+		return best;
+	}
+
+	static long key(long i, long j){ return (i << 32) ^ (j & 0xffffffffL); }
+
+	/**
+	 * Cut a line into pieces at each of its points lying within resolution of a node
+	 */
+	void cut(int line, ArrayList <Piece> result){
+		Coordinate [] pts = lines.get(line);
+		int start = startNodes[line];
+		ArrayList <Coordinate> points = new ArrayList <Coordinate> ();
+		points.add(nodes.get(start));
+		for(int k = 1; k < pts.length; k++){
+			int v = k == pts.length - 1 ? endNodes[line] : node(pts[k], false);
+			if(v < 0){
+				points.add(pts[k]);
+				continue;
+			}
+			points.add(nodes.get(v));
+			Coordinate [] cs = CoordinateArrays.removeRepeatedPoints(points.toArray(new Coordinate [points.size()]));
+			if(cs.length >= 2){ // otherwise the point merely joins the node at which the piece starts
+				result.add(new Piece(line, start, v, cs));
+				start = v;
+			}
+			points.clear();
+			points.add(nodes.get(start));
+		}
+	}
+
+	/**
+	 * Split a piece at each of the given nodes, which lie within resolution of it
+	 */
+	void split(Piece piece, int [] vs, ArrayList <Piece> result){
+		Coordinate [] cs = piece.coords;
+
+		// where each node falls along the piece, as the segment plus the share of it before the node
+		final double [] at = new double [vs.length];
+		Integer [] order = new Integer [vs.length];
+		for(int i = 0; i < vs.length; i++){
+			Coordinate c = nodes.get(vs[i]);
+			double bestDist = Double.POSITIVE_INFINITY;
+			for(int s = 0; s + 1 < cs.length; s++){
+				double t = project(cs[s], cs[s + 1], c);
+				double d = c.distance(new Coordinate(cs[s].x + t * (cs[s + 1].x - cs[s].x),
+						cs[s].y + t * (cs[s + 1].y - cs[s].y)));
+				if(d < bestDist){
+					bestDist = d;
+					at[i] = s + t;
+				}
+			}
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator <Integer> (){
+			public int compare(Integer a, Integer b){ return Double.compare(at[a], at[b]); }
+		});
+
+		int from = piece.from, next = 1;
+		ArrayList <Coordinate> points = new ArrayList <Coordinate> ();
+		points.add(cs[0]);
+		for(int i: order){
+			for(; next < cs.length - 1 && next < at[i]; next++)
+				points.add(cs[next]);
+			points.add(nodes.get(vs[i]));
+			add(piece.source, from, vs[i], points, result);
+			from = vs[i];
+			points.clear();
+			points.add(nodes.get(from));
+		}
+		for(; next < cs.length; next++)
+			points.add(cs[next]);
+		add(piece.source, from, piece.to, points, result);
+	}
+
+	static void add(int source, int from, int to, ArrayList <Coordinate> points, ArrayList <Piece> result){
+		Coordinate [] cs = CoordinateArrays.removeRepeatedPoints(points.toArray(new Coordinate [points.size()]));
+		if(cs.length >= 2)
+			result.add(new Piece(source, from, to, cs));
+	}
+
+	/**
+	 * @return how far along the segment from a to b, from 0 to 1, is the point nearest to c
+	 */
+	static double project(Coordinate a, Coordinate b, Coordinate c){
+		double dx = b.x - a.x, dy = b.y - a.y;
+		double len2 = dx * dx + dy * dy;
+		if(len2 == 0) return 0;
+		double t = ((c.x - a.x) * dx + (c.y - a.y) * dy) / len2;
+		return t < 0 ? 0 : (t > 1 ? 1 : t);
+	}
+
+	/**
+	 * @return the results of the tasks, in the order of the tasks
+	 */
+	<T> ArrayList <T> run(ArrayList <Callable <T>> tasks){
+		return workers.invokeAll(tasks, "building the road network");
+	}
+}
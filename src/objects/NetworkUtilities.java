@@ -2,7 +2,6 @@ package objects;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 
 import sim.field.continuous.Continuous2D;
 import sim.field.geo.GeomVectorField;
@@ -10,11 +9,13 @@ import sim.field.network.Edge;
 import sim.field.network.Network;
 import sim.util.Bag;
 import sim.util.Double2D;
-import sim.util.geo.AttributeValue;
 import sim.util.geo.MasonGeometry;
 import sim.util.geo.PointMoveTo;
 import objects.network.AStarNew;
+import objects.network.ComponentConnector;
+import objects.network.Components;
 import objects.network.ListEdge;
+import objects.network.RoadAttributes;
 import objects.network.GeoNode;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -24,7 +25,6 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
 
-import ec.util.MersenneTwisterFast;
 
 /**
  * Reads the roadLayer geometries into a MASON network and cleans up the resulting product so that
@@ -107,20 +107,6 @@ public class NetworkUtilities{
 					MasonGeometry newFront = new MasonGeometry(frontLine);
 					mg.geometry = backLine;
 
-        			for(String attr: mg.getAttributes().keySet()){
-        				Object value = ((AttributeValue)mg.getAttribute(attr)).getValue();
-        				if(value instanceof String)
-        					newFront.addStringAttribute(attr, (String)value);
-        				else if(value instanceof Integer)
-        					newFront.addIntegerAttribute(attr, (Integer)value);
-        				else if(value instanceof Double)
-        					newFront.addDoubleAttribute(attr, (Double)value);
-        				else
-        					newFront.addAttribute(attr, value);
-        			}
-
-					
-					
 			        fields.addGeometry(newFront);
 			        PointMoveTo newPoint = new PointMoveTo();
 			        newPoint.setCoordinate(backLine.getCoordinate());
@@ -137,6 +123,13 @@ public class NetworkUtilities{
 			        Edge edBackEd = new Edge(node, nEnd, mg);
 			        ListEdge edBack = new ListEdge(edBackEd, nEnd.getGeometry().distance(node.getGeometry()));
 
+			        // both halves still refer to the road the split edge was cut from
+			        ListEdge split = geomToEdgeMapping.get(mg);
+			        if(split != null){
+			        	edFront.setFeature(split.getAttributes(), split.getFeature());
+			        	edBack.setFeature(split.getAttributes(), split.getFeature());
+			        }
+
 					// add the geometries to the network
 			        
 			        testEdgeForIssues(edFront);
@@ -202,10 +195,13 @@ public class NetworkUtilities{
 	
 	/**
 	 * Reads the roadLayer geometries into a MASON network and cleans up the resulting product so that
-	 * the road network consists only of a large, fully-connected component.
+	 * the road network consists only of a large, fully-connected component. The points are looked
+	 * up one at a time, which is too slow for a large ITN extract, but this is the network the
+	 * faster overload below is checked against.
+	 * @param roadTable - the columns read from the roads (see LayerSchema.ROADS), which the edges refer to
 	 */
-	public static Network multipartNetworkCleanup(GeomVectorField roadLayer, Bag roadNodes, double resolution, 
-			GeometryFactory fa, MersenneTwisterFast random, double roadWidth){
+	public static Network multipartNetworkCleanup(GeomVectorField roadLayer, AttributeTable roadTable,
+			double resolution, GeometryFactory fa){
 
 		// read the geometries from a GeomVectorField into a proper MASON Network
 		
@@ -217,11 +213,13 @@ public class NetworkUtilities{
 		HashMap <MasonGeometry, ListEdge> geometryToEdgeMapping = new HashMap <MasonGeometry, ListEdge> (); 
 		
 		Bag geometries = roadLayer.getGeometries();
+		RoadAttributes attributes = new RoadAttributes(roadTable);
 		Network net = new Network(false);
 		
 		int testIndex = 0;
 		
-		for(Object o: geometries){
+		for(int feature = 0; feature < geometries.size(); feature++){
+			Object o = geometries.get(feature);
 			
 			// we're only dealing with LineStrings here!
 			if(((MasonGeometry)o).geometry instanceof LineString){
@@ -272,23 +270,13 @@ public class NetworkUtilities{
 	        			// create the edge
 	        			LineString mgLS = fa.createLineString(points.toArray(new Coordinate [points.size()]));
 	        			MasonGeometry mg = new MasonGeometry(mgLS);
-	        			for(String attr: ((MasonGeometry)o).getAttributes().keySet()){
-	        				Object value = ((AttributeValue)((MasonGeometry)o).getAttribute(attr)).getValue();
-	        				if(value instanceof String)
-	        					mg.addStringAttribute(attr, (String)value);
-	        				else if(value instanceof Integer)
-	        					mg.addIntegerAttribute(attr, (Integer)value);
-	        				else if(value instanceof Double)
-	        					mg.addDoubleAttribute(attr, (Double)value);
-	        				else
-	        					mg.addAttribute(attr, value);
-	        			}
 	        			
 	        			// add all appropriate records
 	        			addedRoads.addGeometry(mg);
 	    		        linkToNodeMapping.put(mg, new GeoNode [] {nStart, thisNode});
 
 	    		        ListEdge ed = new ListEdge(new Edge(nStart, thisNode, mg), ((LineString)mg.geometry).getLength());
+	    		        ed.setFeature(attributes, feature);
 	    	        	net.addEdge(ed);
 	    	        	testEdgeForIssues(ed);
 	    	        	geometryToEdgeMapping.put(mg, ed);
@@ -309,90 +297,49 @@ public class NetworkUtilities{
 		
 	//	testNetworkForIssues(net);
 		
-		// clean up the MASON network
-		
-		// get all of the nodes associated with the largest connected subcomponent we can find
-		roadNodes = new Bag();
-		roadNodes.addAll(getSubcomponents(net, random));
+		return keepLargestComponent(net);
+	}
+
+	/**
+	 * Reads the roadLayer geometries into a MASON network as above, but through a NetworkCleanup,
+	 * which hashes the road ends into a grid, finds roads bisected by other roads' ends with a
+	 * segment index and shares the work out over a pool of worker threads. The network is the
+	 * same however many threads are used.
+	 */
+	public static Network multipartNetworkCleanup(GeomVectorField roadLayer, AttributeTable roadTable,
+			double resolution, GeometryFactory fa, int numThreads){
+		Network net = new NetworkCleanup(resolution, fa, numThreads).build(roadLayer, roadTable);
+		return keepLargestComponent(net);
+	}
+
+	/**
+	 * Cleans up a MASON network so that it consists only of its largest connected component
+	 */
+	static Network keepLargestComponent(Network net){
 		
-		// remove all nodes that are not part of that largest connected subcomponent from the network
-		Bag badNodes = new Bag(net.getAllNodes());
-		badNodes.removeAll(roadNodes);		
-		for(Object o: badNodes){
-			net.removeNode(o);
+		// remove all nodes that are not part of the largest connected subcomponent from the network
+		Components components = Components.of(net);
+		Object [] nodes = net.getAllNodes().toArray();
+		for(int i = 0; i < nodes.length; i++){
+			if(components.label(i) != components.largest())
+				net.removeNode(nodes[i]);
 		}
 		
 	//	testNetworkForIssues(net);
-		// save the results of this cleanup to the global variables
-		roadNodes = new Bag();
-		roadNodes.addAll(net.getAllNodes());
 		return(net);
 	}
 	
 	/**
-	 * Takes a network and returns a large connected subcomponent
+	 * Takes a network and returns its largest connected subcomponent. Every component is
+	 * labelled in one pass (see Components).
 	 * @param network - the network of nodes
-	 * @return a bag of all the nodes in the largest connected component found
+	 * @return a bag of all the nodes in the largest connected component
 	 */
-	static Bag getSubcomponents(Network network, MersenneTwisterFast random){
-		
-		// record-keeping
-		ArrayList <Bag> subcomponents = new ArrayList <Bag> ();
-		int biggestIndex = -1;
-		int biggestSize = -1;
-		
-		Bag nodes = new Bag(network.getAllNodes());
-		int count = nodes.size() / 50;
-		
-		// pass over the list of nodes, selecting a node at random from the remaining pool
-		// and searching until all of the nodes connected to it have been found
-		for(int i = 0; i < count; i++){
-			
-			// select a node at random from those which remain
-			GeoNode n = ((GeoNode) nodes.get(random.nextInt(nodes.size())));
-			
-			HashSet closedSet = new HashSet();
-			ArrayList openSet = new ArrayList();
-			Bag found = new Bag();
-			
-			openSet.add(n); // add the root node for consideration
-			
-			// so long as there are more nodes whose connections have not yet been
-			// fully explored, continue looking
-			while(openSet.size() > 0){
-				
-				GeoNode nprime = (GeoNode) openSet.remove(openSet.size() - 1);
-				found.add(nprime);
-				closedSet.add(nprime);
-				
-				// consider all connected nodes
-				for(Object o: network.getEdges(nprime, null)){
-					
-					Edge e = (Edge) o;
-					GeoNode n2 = ((GeoNode)e.getOtherNode(nprime));
-					
-					// if this is a new node, add it
-					if(! (closedSet.contains(n2) || openSet.contains(n2))){
-						openSet.add(n2);
-					}
-				}
-			}
-			
-			// store this newly found connected component
-			subcomponents.add(found);
-			if(closedSet.size() > biggestSize){
-				biggestSize = closedSet.size();
-				biggestIndex = i;
-			}
-			
-			// clean up and, conditionally, terminate the search
-			nodes.removeAll(found);
-			int s = nodes.size();
-			if(s == 0 || s < biggestSize) 
-				i = count;
-		}
-
-		return(subcomponents.get(biggestIndex));
+	static Bag getSubcomponents(Network network){
+		Components components = Components.of(network);
+		if(components.largest() < 0)
+			return new Bag();
+		return components.getNodes(components.largest());
 	}
 	
 	/**
@@ -415,88 +362,14 @@ public class NetworkUtilities{
 	}
 	
 	/**
-	 * Uses A* to attach unconnected components of a subgraph as efficiently as is possible
+	 * Attaches the unconnected components of a subgraph as cheaply as is possible, by way of a
+	 * single search from all of the components at once (see ComponentConnector)
 	 * 
 	 * @param subgraph - the subnetwork of unconnected components
 	 * @param all - a more full network, of which subgraph is a subgraph (predictably enough)
 	 */
 	public static void attachUnconnectedComponents(Network subgraph, Network all){
-		
-		AStarNew astar = new AStarNew();
-
-		// get an initial list of all of the connected components
-		ArrayList <Bag> components = connectedComponents(subgraph);
-		
-		int i = 0, j = 1; // indices to help compare the graphs
-		
-		// while there are unconnected components and all of the combinations of components have
-		// yet to be compared, continue trying to merge components
-		while(components.size() > 1 && i < components.size() - 1){
-
-			// the two subcomponents to connect
-			Bag component1 = components.get(i);
-			Bag component2 = components.get(j);
-			
-			// the set of nodes contained in both components
-//			ArrayList <Object> allNodes = new ArrayList <Object> ();
-/*			HashSet <Object> allNodes = new HashSet <Object> ();
-			allNodes.addAll(component1);
-			allNodes.addAll(component2);
-	*/		
-			// calculate an A* path n the larger network between random elements of the two components 
-//			ArrayList <Edge> es = astar.astarWeightedPath((GeoNode) component1.get(0), (GeoNode) component2.get(0), 
-//					all, allNodes, 1.);
-			ArrayList <Edge> es = astar.astarPath((GeoNode) component1.get(0), (GeoNode) component2.get(0), all);
-			
-			// if no such path exists, the components are truly disconnected. We do not attempt
-			// to merge them further, and instead increase the indices 
-			if(es == null){
-				
-				// reenter the pair of components so they are not lost
-				components.add(i, component1);
-				components.add(j, component2);
-				
-				// if our second component is the last in the set, increase i; otherwise increment j
-				if(++j > components.size() - 1) { 
-					i++;
-					j = i + 1;
-				}
-				continue; // DO NOT try to add the nonexistant edges to this set!
-			}
-			
-			// otherwise, proceed with merging!
-			components.remove(j); // get rid of old version of component 2 FIRST (or it will mess up order)
-			components.remove(i); // get rid of old version of component 1
-
-			
-			// go through the connecting edges and add their edges to the graph and their nodes to the components
-			for(Edge e: es){
-				
-				Object from = e.from();
-				Object to = e.to();
-				
-				// don't want to re-add component-internal edges
-				if( (component1.contains(from) && component1.contains(to)) || 
-					(component2.contains(from) && component2.contains(to))) 
-						continue;
-				else{
-					subgraph.addEdge(from, to, e.info);
-					
-					// add newly found nodes to component1, to which component2 will be added
-					// (we forbear combining the two until lest we exclude edges that go directly between
-					// nodes from C1 and C2)
-					if(! (component1.contains(from) || component2.contains(from))) component1.add(from);
-					if(! (component1.contains(to) || component2.contains(to))) component1.add(to);
-				}
-			}
-			
-			// merge the two sets of nodes
-			component1.addAll(component2);
-
-			// save the component
-			components.add(i, component1);			
-		}
-		
+		new ComponentConnector(all).connect(subgraph);
 	}
 	
 	/**
@@ -505,52 +378,7 @@ public class NetworkUtilities{
 	 * @return an ArrayList of Bag of connected nodes
 	 */
 	public static ArrayList <Bag> connectedComponents(Network graph){
-		ArrayList <Bag> subcomponents = new ArrayList <Bag> ();
-		Bag nodes = new Bag(graph.getAllNodes());
-		
-		// create components as long as nodes exist which have not been assigned to a component
-		while(nodes.size() > 0){
-			
-			Bag connected = new Bag(); // the component's nodes
-			Bag toExplore = new Bag(); // the nodes yet to explore
-
-			// begin a new component based around the first remaining node
-			Object n = nodes.remove(nodes.size() - 1);
-			connected.add(n);
-			toExplore.add(n);
-
-			// while there are nodes associated with the root node to explore, continue
-			// perusing their links and adding associated nodes
-			while(toExplore.size() > 0){
-				
-				n = toExplore.remove(toExplore.size() - 1); // explore the first in the set
-				
-				// consider all of the nodes to which this newly considered node connects
-				for(Object o: graph.getEdges(n, null)){
-					
-					Edge e = (Edge) o;
-					Object other = null;
-					if(e.from() == n) other = e.to();
-					else other = e.from();
-					
-					// if we haven't already found and stored this node, add it to the list
-					// of nodes to consider in the future
-					if(! connected.contains(other)){
-						connected.add(other);
-						toExplore.add(other);
-					}	
-				}
-				
-			}
-			
-			// remove all of the nodes we've found from the list of unclassified nodes
-			nodes.removeAll(connected); 
-			
-			// store our newly-found component
-			subcomponents.add(connected);
-		}
-		
-		return subcomponents;
+		return Components.of(graph).getComponents();
 	}
 	
 	public static boolean validPath(ArrayList <Edge> path, Network network){
@@ -559,7 +387,7 @@ public class NetworkUtilities{
 			return false;
 
 		for(Edge e: path){
-			if(((MasonGeometry)e.info).getStringAttribute("open").equals("CLOSED"))
+			if(RoadAttributes.isClosed(e))
 					return false;
 		}
 		return true;
@@ -19,6 +19,7 @@ import sim.util.Bag;
 import sim.util.geo.MasonGeometry;
 import objects.network.GeoNode;
 import objects.network.ListEdge;
+import objects.network.RoadAttributes;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -213,7 +214,9 @@ public class PopSynth {
 		// read in data
 		GeomVectorField field = readInVectors(censusTractFilename);
 		GeomVectorField roads = readInVectors(roadsFilename);
-		roadNetwork = NetworkUtilities.multipartNetworkCleanup(roads, new Bag(), resolution, gf, random, 0);
+		AttributeTable roadTable = AttributeTable.build(roads, LayerSchema.ROADS);
+		roadNetwork = NetworkUtilities.multipartNetworkCleanup(roads, roadTable, resolution, gf,
+				Runtime.getRuntime().availableProcessors());
 
 		HashMap <MasonGeometry, ArrayList <GeoNode>> nodesTractMapping = getNodesTractMapping(field, roadNetwork);
 		
@@ -708,8 +711,8 @@ public class PopSynth {
 				// find the opposite node
 				ListEdge edge = (ListEdge) p;
 				
-				String type = ((MasonGeometry)edge.getInfo()).getStringAttribute("TYPE");
-				if(!type.equals("residential"))
+				String type = RoadAttributes.getRoadClassName(edge);
+				if(!"residential".equals(type))
 					continue;
 				
 				GeoNode otherNode = (GeoNode) edge.getTo();
@@ -743,8 +746,8 @@ public class PopSynth {
 			ArrayList <ListEdge> residentialRoads = new ArrayList <ListEdge> ();
 			for(ListEdge e: edgesTractMapping.get(tract)){
 
-				String type = ((MasonGeometry)e.info).getStringAttribute("TYPE");
-				if(type.equals("residential")){
+				String type = RoadAttributes.getRoadClassName(e);
+				if("residential".equals(type)){
 					Geometry gm = ((MasonGeometry)e.info).geometry;
 					residentialRoadLength += ((MasonGeometry)e.info).geometry.getLength();
 					residentialRoads.add(e);
@@ -200,48 +200,41 @@ public class AgentCopy extends TrafficAgent implements Serializable {
 	 * Navigate
 	 * 
 	 * Attempt to move along the existing path. If the road is impassible, a RoadClosure 
-	 * is raised and the Agent attempts to replan its path to its target. If that replanning 
-	 * fails, the Agent defaults to trying to wander toward its target.
+	 * is raised and the Agent repairs its path to its target around the closed road, redoing
+	 * only the part of the search the closure affects (see headFor). If there is no way round,
+	 * the Agent defaults to trying to wander toward its target.
 	 */
 	public int navigate(double resolution){
 		
 		
 		myLastSpeed = -1; // reset this for accuracy in reporting
 		
-		// attempt to utilize the superclass's movement method
+		// attempt to utilize the superclass's movement method, which repairs the path if the
+		// Agent runs into a closed road
 		int moveSuccess = super.navigate(resolution);
 		
-		// if the move didn't succeed, but the Agent still has a path (meaning that it
-		// hasn't arrived at its destination) the Agent knows that there's a problem with
-		// the road and registers a ROAD CLOSURE.
-		if(moveSuccess < 0 && path != null){
+		// if the move didn't succeed and the path couldn't be repaired, the Agent knows that 
+		// there's a problem with the road and registers a ROAD CLOSURE.
+		if(moveSuccess < 0 && targetDestination != null && edge != null){
 			
 			this.familiarRoadNetwork.removeEdge(edge);
-
-			// try to plan a new path to the target destination
-			int headForSuccess = headFor(this.targetDestination, familiarRoadNetwork);
-			
-			// if pathplanning failed, switch to wandering
-			if(headForSuccess == -1){ 
-				
-				// pick the road that gets you closest to your target destination, and try to plan again from there!
-				for(Object o: world.roadNodesLayer.getObjectsWithinDistance(node, 1000)){
-	                GeoNode other = (GeoNode) o;
-	                headFor(other.geometry.getCoordinate(), world.roadLayer);
-	                if(path != null) // if the Agent has found a path, great! Go from there
-	                	return 1;
-				}
-				
-				// if none of the major roads provided a way out, the attempt to move has failed
-				return -1;
+			if(replanner != null) // the planner must be told, or it will go on reckoning with the road
+				replanner.closeEdge(edge);
+
+			// pick the road that gets you closest to your target destination, and try to plan again from there!
+			for(Object o: world.roadNodesLayer.getObjectsWithinDistance(node, 1000)){
+                GeoNode other = (GeoNode) o;
+                headFor(other.geometry.getCoordinate(), familiarRoadNetwork);
+                if(path != null) // if the Agent has found a path, great! Go from there
+                	return 1;
 			}
 			
-			// report on the success of the Agent in trying to move
-			return headForSuccess;
+			// if none of the major roads provided a way out, the attempt to move has failed
+			return -1;
 		}
 		
 		// otherwise the attempt at moving was successful!
-		else return 1;
+		else return moveSuccess;
 	}
 	
 	/**
@@ -333,18 +326,60 @@ public class AgentCopy extends TrafficAgent implements Serializable {
 	/////// UTILITIES //////////////////////////////////////////////////////////////////////////////
 	////////////////////////////////////////////////////////////////////////////////////////////////
 
+	/**
+	 * Set up a course to take the Agent to the junction nearest the given coordinates. The path
+	 * is planned incrementally, so that navigate() can repair it cheaply if a road along it is
+	 * found to be closed.
+	 * 
+	 * @param place - the target destination
+	 * @param roadNetwork - the network in which to travel
+	 * @return 1 for success, -1 for a failure to find a path, -2 for failure based on the provided destination or current position
+	 */
 	int headFor(Coordinate place, Network roadNetwork) {
 
+		if(place == null || node == null){
+			System.out.println((int)world.schedule.getTime() + "\t" + this.myID + "\tMOVE_ERROR_no_destination_or_position");
+			return -2;
+		}
+
 		// first, record from where the agent is starting
 		startPoint = this.geometry.getCoordinate();
 		goalPoint = null;
 
+		GeoNode destinationNode = closestNode(place, roadNetwork);
+		if(destinationNode == null){
+			System.out.println((int)world.schedule.getTime() + "\t" + this.myID + "\tMOVE_ERROR_invalid_destination_node");
+			return -2;
+		}
+
+		// plan incrementally, so that the path can be repaired if a road along it is closed
+		path = null;
+		if(!setPath(planIncrementally(destinationNode, roadNetwork)))
+			return -1;
+
 		// set up the coordinates
 		this.startIndex = segment.getStartIndex();
 		this.endIndex = segment.getEndIndex();
 
 		return 1;
 	}
+
+	/**
+	 * @return the junction of the network nearest to the place, or null if it has none
+	 */
+	static GeoNode closestNode(Coordinate place, Network roadNetwork){
+		GeoNode best = null;
+		double bestDistance = Double.MAX_VALUE;
+		for(Object o: roadNetwork.getAllNodes()){
+			GeoNode n = (GeoNode) o;
+			double d = n.geometry.getCoordinate().distance(place);
+			if(d < bestDistance){
+				bestDistance = d;
+				best = n;
+			}
+		}
+		return best;
+	}
 		
 
 	/**
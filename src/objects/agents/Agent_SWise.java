@@ -15,8 +15,11 @@ import sim.field.network.Edge;
 import sim.field.network.Network;
 import sim.util.geo.MasonGeometry;
 import objects.agents.TrafficAgent;
+import objects.network.CSRGraph;
 import objects.network.GeoNode;
+import objects.network.RoadAttributes;
 import objects.network.ListEdge;
+import objects.network.PathCursor;
 
 import com.vividsolutions.jts.geom.*;
 import com.vividsolutions.jts.linearref.LengthIndexedLine;
@@ -88,8 +91,9 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 	double size = 3;
 	Coordinate targetDestination = null;
 		
-	public Agent_SWise(String id, Coordinate position, Coordinate base, EmergentCrime world, GeomVectorField layer, Network network){		
-		this(id, position, base, world, 2000, layer, network);
+	public Agent_SWise(String id, Coordinate position, Coordinate base, EmergentCrime world, GeomVectorField layer, Network network,
+			CSRGraph roadGraph){		
+		this(id, position, base, world, 2000, layer, network, roadGraph);
 	}
 	
 	/**
@@ -97,9 +101,10 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 	 * @param position
 	 * @param base
 	 * @param world
+	 * @param roadGraph - CSRGraph.fromNetwork(network), built once by the model and shared by every Agent
 	 */
 	public Agent_SWise(String id, Coordinate position, Coordinate base, EmergentCrime world, double speed, 
-			GeomVectorField layer, Network network){
+			GeomVectorField layer, Network network, CSRGraph roadGraph){
 
 		super((new GeometryFactory()).createPoint(position));
 		
@@ -158,6 +163,7 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 		space.addGeometry(this);
 		
 		roadNetwork = network;
+		setRoadGraph(roadGraph);
 	}
 
 	/**
@@ -178,6 +184,9 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 				updateLoc(segment.extractPoint(currentIndex));				
 
 			if(time < 0){
+				// if the route can be repaired around the closed road, carry on next time
+				if(repairPath())
+					return 1;
 				return -1;
 			}
 			else
@@ -185,6 +194,19 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 		}
 		return -1;		
 	}
+
+	/**
+	 * Tell the planner about the closed road and set a course for the destination again. The
+	 * search toward the destination is kept from the last call to headFor, so only the part
+	 * of it that the closure affects is redone.
+	 * @return whether a new path was laid in
+	 */
+	protected boolean repairPath(){
+		if(replanner == null || targetDestination == null) return false;
+		if(edge != null)
+			replanner.edgeChanged(edge);
+		return headFor(targetDestination) == 1;
+	}
 	
 	/**
 	 * 
@@ -204,21 +226,21 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 
 			// if we have arrived and there is no other edge in the path, we have finished our journey: 
 			// reset the path and return the remaining time
-			if(goalPoint == null && path.size() == 0 && (currentIndex <= startIndex || currentIndex >= endIndex )){
+			if(goalPoint == null && !path.hasNext() && (currentIndex <= startIndex || currentIndex >= endIndex )){
 				path = null;
 				return time;
 			}
 			
 			// make sure that there is another edge in the path
-			if(path.size() > 0) { 
+			if(path.hasNext()) { 
 
 				// take the next edge
-				Edge newEdge = path.remove(path.size() - 1);				
+				Edge newEdge = path.getPath().networkEdge(path.next());				
 				edge = newEdge;
 
 				// make sure it's open
 				// if it's not, return an error!
-				if(((MasonGeometry)newEdge.info).getStringAttribute("open").equals("CLOSED")){
+				if(RoadAttributes.isClosed(newEdge)){
 					updateLoc(node.geometry.getCoordinate());
 					edge = newEdge;
 					path = null;
@@ -244,7 +266,7 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 				
 				
 				// if that was the last edge and we have a goal point, resize the expanse
-				if(path.size() == 0 && goalPoint != null){ 
+				if(!path.hasNext() && goalPoint != null){ 
 					double goalIndex = segment.project(goalPoint);
 					if(currentIndex < goalIndex)
 						endIndex = goalIndex;
@@ -308,7 +330,7 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 			time = 0;
 
 		// don't overshoot if we're on the last bit!
-		if(goalPoint != null && path.size() == 0){
+		if(goalPoint != null && !path.hasNext()){
 			double idealIndex = segment.indexOf(goalPoint);
 			if((direction == 1 && idealIndex <= currentIndex) || (direction == -1 && idealIndex >= currentIndex)){
 				currentIndex = idealIndex;
@@ -319,7 +341,7 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 
 		updateLoc(segment.extractPoint(currentIndex));
 		
-		if(path.size() == 0 && arrived()){
+		if(!path.hasNext() && arrived()){
 			path = null;
 		}
 		return time;
@@ -437,10 +459,12 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 
 		// FINDING A PATH /////////////////////
 
-		path = pathfinder.astarPath(node, destinationNode, roadNetwork);
+		// plan incrementally, so that the path can be repaired if a road along it is closed
+		path = null;
+		ArrayList <Edge> edges = planIncrementally(destinationNode, roadNetwork);
 
 		// if it fails, give up
-		if (path == null){
+		if (edges == null){
 			return -1;
 		}
 
@@ -463,8 +487,8 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 		}
 
 		// reset stuff
-		if(path.size() == 0 && targetDestination.distance(geometry.getCoordinate()) > world.spatialResolution){
-			path.add(edge);
+		if(edges.size() == 0 && targetDestination.distance(geometry.getCoordinate()) > world.spatialResolution){
+			edges.add(edge);
 			node = (GeoNode) edge.getOtherNode(node); // because it will look for the other side in the navigation!!! Tricky!!
 		}
 
@@ -483,8 +507,8 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 			
 			// make sure the point is on the last edge
 			Edge lastEdge;
-			if (path.size() > 0)
-				lastEdge = path.get(0);
+			if (edges.size() > 0)
+				lastEdge = edges.get(0);
 			else
 				lastEdge = edge;
 
@@ -492,7 +516,7 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 			if(!lastEdge.equals(myLastEdge) && ((MasonGeometry)lastEdge.info).geometry.distance(goalPointGeometry) > EmergentCrime.spatialResolution){
 				if(lastEdge.getFrom().equals(myLastEdge.getFrom()) || lastEdge.getFrom().equals(myLastEdge.getTo()) 
 						|| lastEdge.getTo().equals(myLastEdge.getFrom()) || lastEdge.getTo().equals(myLastEdge.getTo()))
-					path.add(0, myLastEdge);
+					edges.add(0, myLastEdge);
 				else{
 					System.out.println((int)world.schedule.getTime() + "\t" + this.myID + "\tMOVE_ERROR_goal_point_edge_is_not_included_in_the_path");
 					return -2;
@@ -501,6 +525,12 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 			
 		}
 
+		// lay in the path, which starts from the node toward which the Agent is now facing
+		if(!setPath(edges)){
+			System.out.println((int)world.schedule.getTime() + "\t" + this.myID + "\tMOVE_ERROR_path_does_not_join_up");
+			return -2;
+		}
+
 		// set up the coordinates
 		this.startIndex = segment.getStartIndex();
 		this.endIndex = segment.getEndIndex();
@@ -572,7 +602,7 @@ public class Agent_SWise extends TrafficAgent implements Serializable {
 		currentGoal = (Coordinate) c.clone();
 	}
 	
-	public ArrayList <Edge> getPath(){
+	public PathCursor getPath(){
 		return path;
 	}
 	
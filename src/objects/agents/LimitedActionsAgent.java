@@ -1,8 +1,10 @@
 package objects.agents;
 
 import java.util.ArrayList;
+import java.util.List;
 
-import objects.network.AStar;
+import objects.network.CompactPath;
+import objects.network.PathCursor;
 import sim.EngDBasicCopy;
 import sim.engine.SimState;
 import sim.engine.Steppable;
@@ -28,7 +30,7 @@ import com.vividsolutions.jts.planargraph.Node;
  * @author KJGarbutt
  *
  */
-public final class LimitedActionsAgent implements Steppable	{
+public final class LimitedActionsAgent implements Steppable, RoutedAgent	{
     private static final long serialVersionUID = -1113018274619047013L;
 
     ////////////////////////////////////////////////////////////////
@@ -53,12 +55,11 @@ public final class LimitedActionsAgent implements Steppable	{
     GeomPlanarGraphEdge currentEdge = null;
     int linkDirection = 1;
     public double speed = 0; // useful for graph
-    ArrayList<GeomPlanarGraphDirectedEdge> pathFromHomeToWork =
-        new ArrayList<GeomPlanarGraphDirectedEdge>();
-    int indexOnPath = 0;
-    int pathDirection = 1;
+    CompactPath pathFromHomeToWork = null; // shared with other Agents on the same route
+    PathCursor cursor = null; // this Agent's place along the path, and its direction
     public boolean reachedDestination = false;
     PointMoveTo pointMoveTo = new PointMoveTo();
+    List<GeomPlanarGraphDirectedEdge> plannedPath = null; // planned ahead of start, if at all
 
     //static private GeometryFactory fact = new GeometryFactory();
 
@@ -106,7 +107,7 @@ public final class LimitedActionsAgent implements Steppable	{
    public boolean start(EngDBasicCopy state)	{
        findNewAStarPath(state);
 
-       if (pathFromHomeToWork.isEmpty())	{
+       if (pathFromHomeToWork == null)	{
     	   System.out.println("Initialization of a LimitedActions Agent (" +homeTract
               		+ ") failed: it is located in a part of the network that cannot access"
               		+ "the given goal node");
@@ -118,32 +119,104 @@ public final class LimitedActionsAgent implements Steppable	{
 
 
    /**
-    * Plots a path between the Agent's home Node and its work Node
+    * The junction at which the Agent's path to work starts, so that the paths of many
+    * Agents can be planned together
+    *
+    * @return the junction, or null if the Agent is not at one
     */
-   private void findNewAStarPath(EngDBasicCopy geoTest)	{
+   public Node getRouteStart(EngDBasicCopy geoTest)	{
+       return geoTest.network.findNode(location.geometry.getCoordinate());
+   }
+
+
+   public Node getRouteGoal()	{
+       return workNode;
+   }
+
+
+   /**
+    * Hands the Agent its path to work, planned ahead of its start
+    */
+   public void setPlannedRoute(List<GeomPlanarGraphDirectedEdge> path)	{
+       plannedPath = path;
+   }
+
+
+   /**
+    * Replans the rest of the current trip from the end of the edge being travelled, e.g.
+    * to take account of congestion. The part of the path already travelled is kept.
+    *
+    * @return whether a new route was laid in
+    */
+   public boolean reroute(EngDBasicCopy geoTest)	{
+       if (segment == null || reachedDestination || cursor == null)	{
+           return false;
+       }
+       int index = cursor.getIndex();
+       GeomPlanarGraphDirectedEdge current = pathFromHomeToWork.directedEdge(index);
+       boolean toWork = cursor.getDirection() > 0;
+       Node from = toWork ? current.getToNode() : current.getFromNode();
+       Node to = toWork ? workNode : homeNode;
+       if (from == to)	{
+           return false;
+       }
+       CompactPath route = CompactPath.fromPlanarPath(geoTest.roadGraph, geoTest.planPath(from, to));
+       if (route == null || route.size() == 0)	{
+           return false;
+       }
+
+       // splice the new route onto the part of the path travelled so far, keeping the path
+       // ordered from home to work
+       pathFromHomeToWork = pathFromHomeToWork.splice(index, route, toWork);
+       cursor.reset(pathFromHomeToWork, toWork ? index : route.size());
+       return true;
+   }
+
+
+   /**
+    * Finds the path between the Agent's current junction and its work Node
+    *
+    * @return the path, empty if there is none, or null if the Agent is not at a junction
+    */
+   private List<GeomPlanarGraphDirectedEdge> findPath(EngDBasicCopy geoTest)	{
 
        // get the home and work Nodes with which this Agent is associated
-       Node currentJunction = geoTest.network.findNode(location.geometry.getCoordinate());
+       Node currentJunction = getRouteStart(geoTest);
        //System.out.println("currentJunction: " +currentJunction);
-       Node destinationJunction = workNode;
+       Node destinationJunction = getRouteGoal();
 
        if (currentJunction == null)	{
-           return; // just a check
+           return null; // just a check
+       }
+       // find the appropriate path between them
+       return geoTest.planPath(currentJunction, destinationJunction);
+   }
+
+
+   /**
+    * Plots a path between the Agent's home Node and its work Node
+    */
+   private void findNewAStarPath(EngDBasicCopy geoTest)	{
+
+       // use the path planned ahead of time, if there is one
+       List<GeomPlanarGraphDirectedEdge> path = plannedPath;
+       plannedPath = null;
+       if (path == null)	{
+           path = findPath(geoTest);
        }
-       // find the appropriate A* path between them
-       AStar pathfinder = new AStar();
-       ArrayList<GeomPlanarGraphDirectedEdge> path =
-           pathfinder.astarPath(currentJunction, destinationJunction);
 
        // if the path works, lay it in
        if (path != null && path.size() > 0)	{
 
-           // save it
-           pathFromHomeToWork = path;
+           // save it, sharing the copy held by any other Agent on the same route
+           pathFromHomeToWork = CompactPath.fromPlanarPath(geoTest.roadGraph, path);
+           if (pathFromHomeToWork == null)	{
+               return; // not a path through the road network
+           }
+           cursor = new PathCursor(pathFromHomeToWork);
 
            // set up how to traverse this first link
-           GeomPlanarGraphEdge edge =
-               (GeomPlanarGraphEdge) path.get(0).getEdge();
+           GeomPlanarGraphEdge edge = pathFromHomeToWork.planarEdge(cursor.next());
            setupEdge(edge);
 
            // update the current position for this link
@@ -177,7 +250,7 @@ public final class LimitedActionsAgent implements Steppable	{
 
        // make sure that we're heading in the right direction
        boolean toWork3 = ((EngDBasicCopy) state).goToWork3;
-       if ((toWork3 && pathDirection < 0) || (!toWork3 && pathDirection > 0))	{
+       if ((toWork3 && cursor.getDirection() < 0) || (!toWork3 && cursor.getDirection() > 0))	{
            flipPath();
        }
 
@@ -209,7 +282,9 @@ public final class LimitedActionsAgent implements Steppable	{
     */
    public void flipPath()	{
        reachedDestination = false;
-       pathDirection = -pathDirection;
+       if (cursor != null)	{
+           cursor.flip();
+       }
        linkDirection = -linkDirection;
    }
 
@@ -221,23 +296,16 @@ public final class LimitedActionsAgent implements Steppable	{
     */
    void transitionToNextEdge(double residualMove)	{
 
-       // update the counter for where the index on the path is
-       indexOnPath += pathDirection;
-
        // check to make sure the Agent has not reached the end
-       // of the path already
-       if ((pathDirection > 0 && indexOnPath >= pathFromHomeToWork.size())
-           || (pathDirection < 0 && indexOnPath < 0))// depends on where you're going!
-       {
+       // of the path already (depends on where you're going!)
+       if (!cursor.hasNext())	{
            //System.out.println(this + " has reached its destination");
            reachedDestination = true;
-           indexOnPath -= pathDirection; // make sure index is correct
            return;
        }
 
        // move to the next edge in the path
-       GeomPlanarGraphEdge edge =
-           (GeomPlanarGraphEdge) pathFromHomeToWork.get(indexOnPath).getEdge();
+       GeomPlanarGraphEdge edge = pathFromHomeToWork.planarEdge(cursor.next());
        setupEdge(edge);
        speed = progress(residualMove);
        currentIndex += speed;
@@ -5,13 +5,19 @@ import java.util.HashMap;
 
 import sim.field.geo.GeomVectorField;
 import sim.field.network.Edge;
+import sim.field.network.Network;
 import sim.util.Bag;
 import sim.util.geo.MasonGeometry;
 import sim.util.geo.PointMoveTo;
 //import sun.tools.tree.ThisExpression;
 import objects.network.AStarNew;
+import objects.network.CSRGraph;
+import objects.network.CompactPath;
+import objects.network.DStarLite;
 import objects.GeometryUtilities;
 import objects.network.GeoNode;
+import objects.network.PathCursor;
+import objects.network.RouteCache;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -36,7 +42,9 @@ public class MobileAgent extends SpatialAgent {
 	protected Edge edge;
 	protected LengthIndexedLine segment = null;
 	protected double startIndex = 0., endIndex = 0., currentIndex = 0.;
-	protected ArrayList<Edge> path = null;
+	protected PathCursor path = null; // place along a path which may be shared with other agents
+	protected CSRGraph roadGraph = null; // the network in the form paths are held in
+	protected DStarLite replanner = null; // keeps the search toward the current goal, if used
 
 	// attributes
 	protected double speed = 0;
@@ -49,6 +57,65 @@ public class MobileAgent extends SpatialAgent {
 	public MobileAgent(Coordinate c){ super((new GeometryFactory()).createPoint(c)); }
 	public MobileAgent(Point p){ super(p); }
 
+	/**
+	 * Share the routes this agent plans with other agents using the same cache. Paths taken
+	 * from the cache are copies, so they can be consumed as usual.
+	 * @param cache - the shared cache, or null to stop sharing
+	 */
+	public void setRouteCache(RouteCache <Edge> cache){ pathfinder.setCache(cache); }
+
+	/**
+	 * Hold paths in terms of the given graph. The graph is built once by the model and shared
+	 * by every agent travelling the same network, so that agents on the same route share one
+	 * copy of it. Edges which an agent's NetworkView adds to the network are not in the shared
+	 * graph, so a path along one of them cannot be laid in.
+	 * @param graph - a CSRGraph built from the (base) network with CSRGraph.fromNetwork
+	 */
+	public void setRoadGraph(CSRGraph graph){ roadGraph = graph; }
+
+	/**
+	 * Lay in a path in the format returned by AStarNew
+	 * @param edges - the edges, ordered from the goal back to the agent's node, or null
+	 * @return whether the path was laid in; false if it is not made of edges of the road graph
+	 */
+	protected boolean setPath(ArrayList <Edge> edges){
+		if(edges == null) return false;
+		if(roadGraph == null)
+			throw new IllegalStateException("No road graph to hold the path in: the model must "
+					+ "share one with setRoadGraph()");
+		CompactPath p = CompactPath.fromNetworkPath(roadGraph, edges, node);
+		if(p == null) return false;
+		path = new PathCursor(p);
+		return true;
+	}
+
+	/**
+	 * Plan a path from the agent's current node to the goal, keeping the search so that the path
+	 * can be repaired cheaply if roads along it are closed (see repairPath). The path is not
+	 * laid in, so that it can be extended first: pass it on to setPath.
+	 * @param goal - the node toward which to travel
+	 * @param network - the network in which to travel
+	 * @return the edges, ordered from the goal back to the agent's node, or null if there is no path
+	 */
+	protected ArrayList <Edge> planIncrementally(GeoNode goal, Network network){
+		if(replanner == null || replanner.getGoal() != goal || replanner.getNetwork() != network)
+			replanner = new DStarLite(network, goal);
+		return replanner.path(node);
+	}
+
+	/**
+	 * After the agent has run into a closed road, bring the incremental planner up to date and
+	 * find a new path from the agent's node, repeating only the part of the search that the
+	 * closure has affected
+	 * @return whether a new path was found; false if the agent is not planning incrementally
+	 */
+	protected boolean repairPath(){
+		if(replanner == null || node == null) return false;
+		if(edge != null)
+			replanner.edgeChanged(edge);
+		return setPath(replanner.path(node));
+	}
+
 	public HashMap <String, Object> getPositionalInformation(){
 		HashMap <String, Object> results = new HashMap <String, Object> ();
 		results.put("node", node);
@@ -84,10 +151,10 @@ public class MobileAgent extends SpatialAgent {
 		if(arrived()){
 			
 			// make sure that there is another edge in the path
-			if(path.size() > 0){ 
+			if(path.hasNext()){ 
 			
 				// take the next edge
-				edge = path.remove(path.size() - 1);
+				edge = path.getPath().networkEdge(path.next());
 				
 				// format the edge's geometry so that we can move along it conveniently
 				LineString ls = (LineString)((MasonGeometry)edge.info).geometry;
@@ -0,0 +1,40 @@
+package objects.agents;
+
+import java.util.List;
+
+import sim.EngDBasicCopy;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+import com.vividsolutions.jts.planargraph.Node;
+
+/**
+ * An agent whose route can be planned ahead of its start, e.g. in one batch with the routes of
+ * other agents, and planned again while under way
+ *
+ */
+public interface RoutedAgent {
+
+	/**
+	 * @param world - the world in which the agent will travel
+	 * @return the junction from which the agent's route starts, or null if it is not at one
+	 */
+	public Node getRouteStart(EngDBasicCopy world);
+
+	/**
+	 * @return the junction at which the agent's route ends
+	 */
+	public Node getRouteGoal();
+
+	/**
+	 * Hold a route planned ahead of time until the agent starts
+	 * @param path - the directed edges from start to goal, empty if there is no path
+	 */
+	public void setPlannedRoute(List<GeomPlanarGraphDirectedEdge> path);
+
+	/**
+	 * Plan the rest of the agent's current trip again, e.g. because traffic has changed
+	 * @param world - the world in which the agent is travelling
+	 * @return whether the agent's route was replaced
+	 */
+	public boolean reroute(EngDBasicCopy world);
+}
@@ -4,6 +4,7 @@ import sim.field.network.Edge;
 import sim.util.geo.MasonGeometry;
 import objects.network.ListEdge;
 import objects.network.GeoNode;
+import objects.network.RoadAttributes;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -48,21 +49,21 @@ public class TrafficAgent extends MobileAgent {
 
 			// if we have arrived and there is no other edge in the path, we have finished our journey: 
 			// reset the path and return the remaining time
-			if(goalPoint == null && path.size() == 0 && (currentIndex <= startIndex || currentIndex >= endIndex )){
+			if(goalPoint == null && !path.hasNext() && (currentIndex <= startIndex || currentIndex >= endIndex )){
 				path = null;
 				return time;
 			}
 			
 			// make sure that there is another edge in the path
-			if(path.size() > 0) { 
+			if(path.hasNext()) { 
 
 				// take the next edge
-				Edge newEdge = path.remove(path.size() - 1);				
+				Edge newEdge = path.getPath().networkEdge(path.next());				
 				edge = newEdge;
 
 				// make sure it's open
 				// if it's not, return an error!
-				if(((MasonGeometry)newEdge.info).getStringAttribute("open").equals("CLOSED")){
+				if(RoadAttributes.isClosed(newEdge)){
 					updateLoc(node.geometry.getCoordinate());
 					edge = newEdge;
 					path = null;
@@ -83,7 +84,7 @@ public class TrafficAgent extends MobileAgent {
 				
 				
 				// if that was the last edge and we have a goal point, resize the expanse
-				if(path.size() == 0 && goalPoint != null){ 
+				if(!path.hasNext() && goalPoint != null){ 
 					double goalIndex = segment.project(goalPoint);
 					if(currentIndex < goalIndex)
 						endIndex = goalIndex;
@@ -147,7 +148,7 @@ public class TrafficAgent extends MobileAgent {
 			time = 0;
 
 		// don't overshoot if we're on the last bit!
-		if(goalPoint != null && path.size() == 0){
+		if(goalPoint != null && !path.hasNext()){
 			double idealIndex = segment.indexOf(goalPoint);
 			if((direction == 1 && idealIndex <= currentIndex) || (direction == -1 && idealIndex >= currentIndex)){
 				currentIndex = idealIndex;
@@ -158,7 +159,7 @@ public class TrafficAgent extends MobileAgent {
 
 		updateLoc(segment.extractPoint(currentIndex));
 		
-		if(path.size() == 0 && arrived()){
+		if(!path.hasNext() && arrived()){
 			path = null;
 		}
 		return time;
@@ -180,6 +181,9 @@ public class TrafficAgent extends MobileAgent {
 				updateLoc(segment.extractPoint(currentIndex));				
 
 			if(time < 0){
+				// if the route can be repaired around the closed road, carry on next time
+				if(repairPath())
+					return 1;
 				return -1;
 			}
 			else
@@ -0,0 +1,586 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.Bag;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.planargraph.DirectedEdge;
+import com.vividsolutions.jts.planargraph.Node;
+
+/**
+ * The search engine behind AStar and AStarNew. Rather than scanning lists for the best open node
+ * and checking list membership for the closed set, every node reached by a search is given a
+ * dense id, its A* information is kept in arrays indexed by that id, and the open set is an
+ * indexed binary heap which supports decrease-key.
+ *
+ * The arrays are kept between searches and only the entries touched by the last search are
+ * reset, so engines should be reused: get() returns one engine per thread.
+ *
+ */
+public class AStarEngine {
+
+	static final ThreadLocal <AStarEngine> engines = new ThreadLocal <AStarEngine> (){
+		protected AStarEngine initialValue(){ return new AStarEngine(); }
+	};
+
+	/**
+	 * @return the engine belonging to the calling thread
+	 */
+	public static AStarEngine get(){ return engines.get(); }
+
+	// the ids of the nodes reached so far in the current search
+	HashMap <Object, Integer> ids = new HashMap <Object, Integer> ();
+	int numNodes = 0;
+
+	// per-node A* information, indexed by id
+	Object [] nodes;
+	Object [] edgeFrom; // the edge by which the node was discovered
+	int [] cameFrom; // the id of the node from which it was most profitably linked
+	double [] gx, hx;
+	boolean [] closed;
+
+	IndexedHeap open;
+
+	// the same again for the backward half of a bidirectional search, where edgeFrom is the
+	// edge leading out of the node toward the goal
+	Object [] edgeFromB;
+	int [] cameFromB;
+	double [] gxB;
+	boolean [] closedB;
+
+	IndexedHeap openB;
+
+	int nodesExpanded = 0; // record-keeping
+
+	/**
+	 * The cost of a path through a MASON network, built up one edge at a time
+	 */
+	public interface PathCost {
+
+		/**
+		 * @param costSoFar - the cost of the path as far as the node the edge leaves
+		 * @param edge - the edge followed
+		 * @param next - the node the edge leads to
+		 * @return the cost of the path once it has reached next
+		 */
+		double extend(double costSoFar, Edge edge, GeoNode next);
+	}
+
+	/** The length of the path: the sum of the straight-line distances between the nodes */
+	public static final PathCost DISTANCE = new PathCost(){
+		public double extend(double costSoFar, Edge edge, GeoNode next){
+			return costSoFar + length(edge);
+		}
+	};
+
+	/**
+	 * @param weighted - the edges and nodes to weight
+	 * @param weight - the factor by which an edge's length is multiplied, and a path's cost on
+	 * 		reaching a node
+	 * @return the cost used by astarWeightedPath(): the length of the path, with the weighted
+	 * edges' lengths and the cost of paths into weighted nodes multiplied by weight
+	 */
+	public static PathCost weighted(final HashSet <Object> weighted, final double weight){
+		return new PathCost(){
+			public double extend(double costSoFar, Edge edge, GeoNode next){
+				double edgeFactor = weighted.contains(edge) ? weight : 1;
+				double nodeFactor = weighted.contains(next) ? weight : 1;
+				return nodeFactor * (costSoFar + edgeFactor * length(edge));
+			}
+		};
+	}
+
+	public AStarEngine(){
+		this(1024);
+	}
+
+	public AStarEngine(int capacity){
+		nodes = new Object [capacity];
+		edgeFrom = new Object [capacity];
+		cameFrom = new int [capacity];
+		gx = new double [capacity];
+		hx = new double [capacity];
+		closed = new boolean [capacity];
+		open = new IndexedHeap(capacity);
+		edgeFromB = new Object [capacity];
+		cameFromB = new int [capacity];
+		gxB = new double [capacity];
+		closedB = new boolean [capacity];
+		openB = new IndexedHeap(capacity);
+	}
+
+	/**
+	 * @return the number of nodes closed by the most recent search
+	 */
+	public int getNodesExpanded(){ return nodesExpanded; }
+
+	/**
+	 * Finds a path between the start and goal nodes of a planar graph, following the directed
+	 * edges out of each node
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @return an ordered list of the directed edges from start to goal, empty if there is no path
+	 */
+	public ArrayList <GeomPlanarGraphDirectedEdge> astarPath(Node start, Node goal){
+
+		ArrayList <GeomPlanarGraphDirectedEdge> result = new ArrayList <GeomPlanarGraphDirectedEdge> ();
+
+		// initial check
+		if(start == null || goal == null){
+			System.out.println("Error: invalid node provided to AStar");
+			return result;
+		}
+
+		reset();
+		Coordinate goalCoord = goal.getCoordinate();
+		int s = idOf(start);
+		gx[s] = 0;
+		hx[s] = start.getCoordinate().distance(goalCoord);
+		open.insertOrDecrease(s, hx[s]);
+
+		while(!open.isEmpty()){ // while there are reachable nodes to investigate
+
+			int x = open.poll(); // the shortest path so far
+			Node xnode = (Node) nodes[x];
+			if(xnode == goal){ // we have found the shortest possible path to the goal!
+				int n = x;
+				while(cameFrom[n] >= 0){
+					result.add((GeomPlanarGraphDirectedEdge) edgeFrom[n]);
+					n = cameFrom[n];
+				}
+				Collections.reverse(result);
+				return result;
+			}
+			closed[x] = true;
+			nodesExpanded++;
+
+			// check all the edges out from this Node
+			for(Object o: xnode.getOutEdges().getEdges()){
+				DirectedEdge l = (DirectedEdge) o;
+				Node next = l.getToNode();
+				int y = idOf(next);
+				if(closed[y]) continue; // it has already been considered
+
+				double tentativeCost = gx[x] + l.getFromNode().getCoordinate().distance(next.getCoordinate());
+				if(!open.contains(y)){
+					hx[y] = next.getCoordinate().distance(goalCoord);
+				}
+				else if(tentativeCost >= gx[y])
+					continue;
+
+				// store A* information about this promising candidate node
+				cameFrom[y] = x;
+				edgeFrom[y] = l;
+				gx[y] = tentativeCost;
+				open.insertOrDecrease(y, tentativeCost + hx[y]);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Finds a path between the start and goal nodes within the given MASON network
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @param network - the network in which the path should exist
+	 * @return either a list of the connecting edges, ordered from the goal back to the start,
+	 * or else null
+	 */
+	public ArrayList <Edge> astarPath(GeoNode start, GeoNode goal, Network network){
+		return astarPath(start, goal, network, DISTANCE);
+	}
+
+	/**
+	 * Finds a path between the start and goal nodes within the given MASON network, costing
+	 * paths as given rather than by their length. The straight-line distance to the goal remains
+	 * the heuristic. A weighted search, like the weighted searches this replaces, only follows
+	 * edges out of each node, so it keeps to the direction of a directed network; a search by
+	 * plain DISTANCE follows every edge at each node, as astarPath always has.
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @param network - the network in which the path should exist
+	 * @param cost - the cost of extending a path by an edge
+	 * @return either a list of the connecting edges, ordered from the goal back to the start,
+	 * or else null
+	 */
+	public ArrayList <Edge> astarPath(GeoNode start, GeoNode goal, Network network, PathCost cost){
+
+		// initial check
+		if(start == null || goal == null){
+			System.out.println("Error: invalid node provided to AStar");
+			return null;
+		}
+
+		// if they're the same place, the path is empty but certainly exists
+		if(start == goal)
+			return new ArrayList <Edge> ();
+
+		reset();
+		int s = idOf(start);
+		gx[s] = 0;
+		hx[s] = heuristic(start, goal);
+		open.insertOrDecrease(s, hx[s]);
+
+		while(!open.isEmpty()){ // while there are reachable nodes to investigate
+
+			int x = open.poll(); // the shortest path so far
+			GeoNode xnode = (GeoNode) nodes[x];
+			if(xnode == goal) // we have found the shortest possible path to the goal!
+				return reconstructPath(x);
+			closed[x] = true;
+			nodesExpanded++;
+
+			// check all the edges from this Node
+			Bag edges = cost == DISTANCE ? network.getEdges(xnode, null) : network.getEdgesOut(xnode);
+			for(Object o: edges){
+				Edge l = (Edge) o;
+				GeoNode next = (GeoNode) l.getOtherNode(xnode);
+				int y = idOf(next);
+				if(closed[y]) continue; // it has already been considered
+
+				double tentativeCost = cost.extend(gx[x], l, next);
+				if(!open.contains(y)){
+					hx[y] = heuristic(next, goal);
+				}
+				else if(tentativeCost >= gx[y])
+					continue;
+
+				// store A* information about this promising candidate node
+				cameFrom[y] = x;
+				edgeFrom[y] = l;
+				gx[y] = tentativeCost;
+				open.insertOrDecrease(y, tentativeCost + hx[y]);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Finds a path from the start to whichever of the goal nodes is nearest by the network. The
+	 * goals are held in a hash set, so recognising one costs the same however many there are,
+	 * and the heuristic is the straight-line distance to the nearest goal, looked up in a grid
+	 * over the goals' positions rather than by measuring the distance to every one of them.
+	 *
+	 * @param start - the node from which to start
+	 * @param goals - the set of goal nodes
+	 * @param network - the network in which the path should exist, whose edges are followed
+	 * 		out of each node
+	 * @return either a list of the connecting edges, ordered from the goal reached back to the
+	 * start, or else null (including when the start is itself a goal)
+	 */
+	public ArrayList <Edge> astarPath(GeoNode start, Collection <GeoNode> goals, Network network){
+
+		// initial check
+		if(start == null || goals == null || goals.size() == 0){
+			System.out.println("Error: invalid nodeset provided to AStar");
+			return null;
+		}
+
+		HashSet <GeoNode> goalSet = new HashSet <GeoNode> (goals);
+		if(goalSet.contains(start))
+			return null;
+		PointGrid goalGrid = PointGrid.forGeoNodes(new ArrayList <GeoNode> (goalSet));
+
+		reset();
+		int s = idOf(start);
+		gx[s] = 0;
+		hx[s] = nearestGoal(start, goalGrid);
+		open.insertOrDecrease(s, hx[s]);
+
+		while(!open.isEmpty()){ // while there are reachable nodes to investigate
+
+			int x = open.poll(); // the shortest path so far
+			GeoNode xnode = (GeoNode) nodes[x];
+			if(goalSet.contains(xnode)) // we have found the shortest possible path to a goal!
+				return reconstructPath(x);
+			closed[x] = true;
+			nodesExpanded++;
+
+			// check all the edges out from this Node
+			for(Object o: network.getEdgesOut(xnode)){
+				Edge l = (Edge) o;
+				GeoNode next = (GeoNode) l.getOtherNode(xnode);
+				int y = idOf(next);
+				if(closed[y]) continue; // it has already been considered
+
+				double tentativeCost = gx[x] + length(l);
+				if(!open.contains(y)){
+					hx[y] = nearestGoal(next, goalGrid);
+				}
+				else if(tentativeCost >= gx[y])
+					continue;
+
+				// store A* information about this promising candidate node
+				cameFrom[y] = x;
+				edgeFrom[y] = l;
+				gx[y] = tentativeCost;
+				open.insertOrDecrease(y, tentativeCost + hx[y]);
+			}
+		}
+
+		System.out.println("A* ERROR: No path found. Graph has only " + nodesExpanded + " nodes associated with it");
+		return null;
+	}
+
+	static double nearestGoal(GeoNode node, PointGrid goals){
+		Coordinate c = node.geometry.getCoordinate();
+		return goals.nearestDistance(c.x, c.y);
+	}
+
+	/**
+	 * Finds a path between the start and goal nodes by searching from both ends at once,
+	 * following directed edges out of nodes going forward and into them going back. Each half is
+	 * guided toward the other end by half the difference of the straight-line distances to the
+	 * two ends, which keeps the halves consistent with one another, and the search stops once
+	 * the cheapest keys left in the two queues together can no longer improve on the best path
+	 * found through any node reached from both sides.
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @param useHeuristic - if false, the halves are plain Dijkstra searches
+	 * @return an ordered list of the directed edges from start to goal, empty if there is no path
+	 */
+	public ArrayList <GeomPlanarGraphDirectedEdge> bidirectionalPath(Node start, Node goal,
+			boolean useHeuristic){
+
+		ArrayList <GeomPlanarGraphDirectedEdge> result = new ArrayList <GeomPlanarGraphDirectedEdge> ();
+		if(start == null || goal == null){
+			System.out.println("Error: invalid node provided to AStar");
+			return result;
+		}
+
+		int meet = bidirectionalSearch(start, goal, null, useHeuristic);
+		if(meet < 0) return result;
+
+		for(int n = meet; cameFrom[n] >= 0; n = cameFrom[n])
+			result.add((GeomPlanarGraphDirectedEdge) edgeFrom[n]);
+		Collections.reverse(result);
+		for(int n = meet; cameFromB[n] >= 0; n = cameFromB[n])
+			result.add((GeomPlanarGraphDirectedEdge) edgeFromB[n]);
+		return result;
+	}
+
+	/**
+	 * Finds a path between the start and goal nodes within the given MASON network by searching
+	 * from both ends at once
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @param network - the network in which the path should exist
+	 * @param useHeuristic - if false, the halves are plain Dijkstra searches
+	 * @return either a list of the connecting edges, ordered from the goal back to the start,
+	 * or else null
+	 * @see #bidirectionalPath(Node, Node, boolean)
+	 */
+	public ArrayList <Edge> bidirectionalPath(GeoNode start, GeoNode goal, Network network,
+			boolean useHeuristic){
+
+		if(start == null || goal == null){
+			System.out.println("Error: invalid node provided to AStar");
+			return null;
+		}
+		if(start == goal)
+			return new ArrayList <Edge> ();
+
+		int meet = bidirectionalSearch(start, goal, network, useHeuristic);
+		if(meet < 0) return null;
+
+		// the edges from the meeting point on to the goal, taken from the goal end...
+		ArrayList <Edge> toGoal = new ArrayList <Edge> ();
+		for(int n = meet; cameFromB[n] >= 0; n = cameFromB[n])
+			toGoal.add((Edge) edgeFromB[n]);
+		Collections.reverse(toGoal);
+
+		// ...followed by the edges from the meeting point back to the start
+		for(int n = meet; cameFrom[n] >= 0; n = cameFrom[n])
+			toGoal.add((Edge) edgeFrom[n]);
+		return toGoal;
+	}
+
+	/**
+	 * The search behind both bidirectionalPath methods. With a null network the nodes are those
+	 * of a planar graph; otherwise they are GeoNodes of the (undirected) network.
+	 *
+	 * @return the id of the node at which the best path passes from one half to the other, or
+	 * -1 if there is no path
+	 */
+	int bidirectionalSearch(Object start, Object goal, Network network, boolean useHeuristic){
+		reset();
+		Coordinate startCoord = coordinate(start), goalCoord = coordinate(goal);
+		double potentialScale = useHeuristic ? .5 : 0;
+
+		int s = idOf(start), t = idOf(goal);
+		gx[s] = 0;
+		gxB[t] = 0;
+		double span = potentialScale * startCoord.distance(goalCoord);
+		open.insertOrDecrease(s, span);
+		openB.insertOrDecrease(t, span);
+
+		double best = s == t ? 0 : Double.POSITIVE_INFINITY;
+		int meet = s == t ? s : -1;
+
+		while(!open.isEmpty() && !openB.isEmpty()
+				&& open.minKey() + openB.minKey() < best){
+
+			boolean forward = open.size() <= openB.size(); // grow the smaller frontier
+			IndexedHeap heap = forward ? open : openB;
+			int x = heap.poll();
+			Object xnode = nodes[x];
+			Collection <?> edges = network != null ? network.getEdges(xnode, null)
+					: ((Node) xnode).getOutEdges().getEdges();
+
+			// make room for every neighbour now, so that the arrays stay put during the loop
+			while(numNodes + edges.size() > nodes.length) grow();
+			double [] g = forward ? gx : gxB, other = forward ? gxB : gx;
+			boolean [] done = forward ? closed : closedB;
+			int [] from = forward ? cameFrom : cameFromB;
+			Object [] via = forward ? edgeFrom : edgeFromB;
+			double sign = forward ? 1 : -1;
+
+			done[x] = true;
+			nodesExpanded++;
+
+			for(Object o: edges){
+
+				// work out the neighbour and the edge leading between them in the direction of travel
+				Object next, travelled;
+				if(network != null){
+					next = ((Edge) o).getOtherNode(xnode);
+					travelled = o;
+				}
+				else {
+					DirectedEdge de = (DirectedEdge) o;
+					next = de.getToNode();
+					travelled = forward ? de : de.getSym();
+					if(travelled == null) continue; // a one-way edge cannot be followed backward
+				}
+
+				int y = idOf(next);
+				if(done[y]) continue;
+
+				Coordinate c = coordinate(next);
+				double tentativeCost = g[x] + coordinate(xnode).distance(c);
+				if(tentativeCost >= g[y]) continue;
+
+				from[y] = x;
+				via[y] = travelled;
+				g[y] = tentativeCost;
+				double potential = potentialScale * (c.distance(goalCoord) - c.distance(startCoord));
+				heap.insertOrDecrease(y, tentativeCost + sign * potential);
+
+				if(tentativeCost + other[y] < best){
+					best = tentativeCost + other[y];
+					meet = y;
+				}
+			}
+		}
+		return meet;
+	}
+
+	static Coordinate coordinate(Object node){
+		if(node instanceof GeoNode) return ((GeoNode) node).geometry.getCoordinate();
+		return ((Node) node).getCoordinate();
+	}
+
+	/**
+	 * Takes the id of the node at which a search has ended and returns the edges which found it,
+	 * ordered from that node back to the start (the order in which MobileAgents consume a path)
+	 */
+	ArrayList <Edge> reconstructPath(int n){
+		ArrayList <Edge> result = new ArrayList <Edge> ();
+		while(cameFrom[n] >= 0){
+			result.add((Edge) edgeFrom[n]);
+			n = cameFrom[n];
+		}
+		return result;
+	}
+
+	/**
+	 * The same estimate used by AStarNew: Euclidean distance plus any delay associated with
+	 * either of the GeoNodes
+	 */
+	double heuristic(GeoNode x, GeoNode y){
+		int nodeCost = 0;
+		if(x.hasAttribute("delay"))
+			nodeCost += x.getIntegerAttribute("delay");
+		if(y.hasAttribute("delay"))
+			nodeCost += y.getIntegerAttribute("delay");
+		return nodeCost + x.geometry.getCoordinate().distance(y.geometry.getCoordinate());
+	}
+
+	/**
+	 * @return the cost of an edge: the straight-line distance between its end nodes, as in
+	 * every other engine (see CSRGraph)
+	 */
+	static double length(Edge e){
+		return ((GeoNode)e.from()).geometry.getCoordinate().distance(((GeoNode)e.to()).geometry.getCoordinate());
+	}
+
+	/**
+	 * @return the id of the given node in the current search, assigning it a fresh one if it
+	 * has not yet been reached
+	 */
+	int idOf(Object node){
+		Integer id = ids.get(node);
+		if(id != null) return id;
+
+		if(numNodes == nodes.length) grow();
+		int i = numNodes++;
+		ids.put(node, i);
+		nodes[i] = node;
+		edgeFrom[i] = null;
+		cameFrom[i] = -1;
+		gx[i] = Double.POSITIVE_INFINITY;
+		hx[i] = 0;
+		closed[i] = false;
+		edgeFromB[i] = null;
+		cameFromB[i] = -1;
+		gxB[i] = Double.POSITIVE_INFINITY;
+		closedB[i] = false;
+		return i;
+	}
+
+	/**
+	 * Prepare for a new search, clearing out only those entries used by the last one
+	 */
+	void reset(){
+		Arrays.fill(nodes, 0, numNodes, null);
+		Arrays.fill(edgeFrom, 0, numNodes, null);
+		Arrays.fill(edgeFromB, 0, numNodes, null);
+		ids.clear();
+		open.clear();
+		openB.clear();
+		numNodes = 0;
+		nodesExpanded = 0;
+	}
+
+	void grow(){
+		int capacity = 2 * nodes.length;
+		nodes = Arrays.copyOf(nodes, capacity);
+		edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+		cameFrom = Arrays.copyOf(cameFrom, capacity);
+		gx = Arrays.copyOf(gx, capacity);
+		hx = Arrays.copyOf(hx, capacity);
+		closed = Arrays.copyOf(closed, capacity);
+		open.ensureCapacity(capacity);
+		edgeFromB = Arrays.copyOf(edgeFromB, capacity);
+		cameFromB = Arrays.copyOf(cameFromB, capacity);
+		gxB = Arrays.copyOf(gxB, capacity);
+		closedB = Arrays.copyOf(closedB, capacity);
+		openB.ensureCapacity(capacity);
+	}
+}
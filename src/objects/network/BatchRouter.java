@@ -0,0 +1,291 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Finds many routes at once. Identical (start, goal) pairs are searched for only once, and pairs
+ * sharing a start or a goal are answered together by a single Dijkstra search, run forward from
+ * the shared start or backward from the shared goal and stopped as soon as every node wanted has
+ * been reached. The remaining pairs are searched for one at a time by A*. The searches are spread
+ * over a pool of worker threads, kept from one batch to the next, and the paths come back in the
+ * order in which they were asked for.
+ *
+ */
+public class BatchRouter {
+
+	CSRAStar pointSearch;
+	CSRGraph graph;
+	double [] weights;
+	WorkerPool workers;
+	Stats lastStats = null;
+
+	ThreadLocal <Search> searches = new ThreadLocal <Search> (){
+		protected Search initialValue(){ return new Search(graph.numNodes()); }
+	};
+
+	/**
+	 * Counts and timings for one batch
+	 */
+	public static class Stats {
+		public int queries, uniquePairs, groupedSearches, groupedPairs, pointSearches, threads;
+		public long millis;
+
+		public String toString(){
+			return queries + " routes (" + uniquePairs + " distinct) by " + groupedSearches
+					+ " one-to-many searches covering " + groupedPairs + " and " + pointSearches
+					+ " single searches, on " + threads + " threads in " + millis + "ms";
+		}
+	}
+
+	/**
+	 * @param pointSearch - the search for pairs which share neither start nor goal; its graph and
+	 * 		arc weights are used for every route
+	 * @param numThreads - the number of workers to use
+	 */
+	public BatchRouter(CSRAStar pointSearch, int numThreads){
+		this(pointSearch, new WorkerPool(numThreads));
+	}
+
+	/**
+	 * @param workers - the pool of workers to use, which may be shared with other work
+	 */
+	public BatchRouter(CSRAStar pointSearch, WorkerPool workers){
+		this.pointSearch = pointSearch;
+		this.graph = pointSearch.graph;
+		this.weights = pointSearch.weights;
+		this.workers = workers;
+	}
+
+	public CSRGraph getGraph(){ return graph; }
+
+	public CSRAStar getSearch(){ return pointSearch; }
+
+	/** @return the statistics of the most recent batch, or null if there has been none */
+	public Stats getLastStats(){ return lastStats; }
+
+	/**
+	 * Find the cheapest path for every pair of nodes
+	 *
+	 * @param starts - the start node of each pair
+	 * @param goals - the goal node of each pair
+	 * @return the arcs of each pair's path in the order travelled, or null where there is no
+	 * path, in the same order as the pairs. Duplicate pairs share the same array, which must
+	 * not be modified.
+	 */
+	public int [][] route(int [] starts, int [] goals){
+		long startTime = System.currentTimeMillis();
+		Stats stats = new Stats();
+		stats.queries = starts.length;
+
+		// find the distinct pairs
+		HashMap <Long, Integer> pairIds = new HashMap <Long, Integer> ();
+		int [] pairOf = new int [starts.length];
+		ArrayList <Integer> uniqueQueries = new ArrayList <Integer> ();
+		for(int i = 0; i < starts.length; i++){
+			Long key = ((long) starts[i] << 32) | (goals[i] & 0xffffffffL);
+			Integer id = pairIds.get(key);
+			if(id == null){
+				id = uniqueQueries.size();
+				pairIds.put(key, id);
+				uniqueQueries.add(i);
+			}
+			pairOf[i] = id;
+		}
+		int numPairs = uniqueQueries.size();
+		final int [] s = new int [numPairs], t = new int [numPairs];
+		for(int p = 0; p < numPairs; p++){
+			s[p] = starts[uniqueQueries.get(p)];
+			t[p] = goals[uniqueQueries.get(p)];
+		}
+		stats.uniquePairs = numPairs;
+
+		// group the pairs by whichever end they share with the most others
+		HashMap <Integer, ArrayList <Integer>> byStart = group(s), byGoal = group(t);
+		HashMap <Integer, ArrayList <Integer>> fromStart = new HashMap <Integer, ArrayList <Integer>> (),
+				toGoal = new HashMap <Integer, ArrayList <Integer>> ();
+		final ArrayList <Integer> singles = new ArrayList <Integer> ();
+		for(int p = 0; p < numPairs; p++){
+			int shareStart = byStart.get(s[p]).size(), shareGoal = byGoal.get(t[p]).size();
+			if(shareStart > 1 && shareStart >= shareGoal) add(fromStart, s[p], p);
+			else if(shareGoal > 1) add(toGoal, t[p], p);
+			else singles.add(p);
+		}
+
+		// a group left with a single pair after the others went elsewhere is searched for alone
+		ArrayList <int []> groups = new ArrayList <int []> ();
+		ArrayList <Boolean> reversed = new ArrayList <Boolean> ();
+		for(int pass = 0; pass < 2; pass++)
+			for(ArrayList <Integer> members: (pass == 0 ? fromStart : toGoal).values()){
+				if(members.size() == 1){
+					singles.add(members.get(0));
+					continue;
+				}
+				int [] g = new int [members.size()];
+				for(int i = 0; i < g.length; i++)
+					g[i] = members.get(i);
+				groups.add(g);
+				reversed.add(pass == 1);
+				stats.groupedPairs += g.length;
+			}
+		stats.groupedSearches = groups.size();
+		stats.pointSearches = singles.size();
+
+		// one task for each group, and the single pairs in small batches
+		final int [][] paths = new int [numPairs][];
+		ArrayList <Callable <Object>> tasks = new ArrayList <Callable <Object>> ();
+		for(int i = 0; i < groups.size(); i++){
+			final int [] g = groups.get(i);
+			final boolean backward = reversed.get(i);
+			tasks.add(new Callable <Object> (){
+				public Object call(){
+					searches.get().oneToMany(g, s, t, backward, paths);
+					return null;
+				}
+			});
+		}
+		for(int [] range: workers.ranges(singles.size())){
+			final int first = range[0], last = range[1];
+			tasks.add(new Callable <Object> (){
+				public Object call(){
+					for(int j = first; j < last; j++){
+						int p = singles.get(j);
+						paths[p] = s[p] == t[p] ? new int [0] : pointSearch.path(s[p], t[p]);
+					}
+					return null;
+				}
+			});
+		}
+		stats.threads = workers.threadsFor(tasks.size());
+		workers.invokeAll(tasks, "planning routes");
+
+		int [][] result = new int [starts.length][];
+		for(int i = 0; i < starts.length; i++)
+			result[i] = paths[pairOf[i]];
+
+		stats.millis = System.currentTimeMillis() - startTime;
+		lastStats = stats;
+		return result;
+	}
+
+	static HashMap <Integer, ArrayList <Integer>> group(int [] ends){
+		HashMap <Integer, ArrayList <Integer>> result = new HashMap <Integer, ArrayList <Integer>> ();
+		for(int p = 0; p < ends.length; p++)
+			add(result, ends[p], p);
+		return result;
+	}
+
+	static void add(HashMap <Integer, ArrayList <Integer>> groups, int key, int p){
+		ArrayList <Integer> members = groups.get(key);
+		if(members == null){
+			members = new ArrayList <Integer> ();
+			groups.put(key, members);
+		}
+		members.add(p);
+	}
+
+	/**
+	 * Per-thread search state
+	 */
+	class Search {
+
+		double [] dist;
+		int [] parentArc;
+		int [] wanted; // how many pairs of the current group end at each node
+		int [] touched;
+		int numTouched = 0;
+		IndexedHeap open;
+
+		Search(int n){
+			dist = new double [n];
+			parentArc = new int [n];
+			wanted = new int [n];
+			touched = new int [n];
+			open = new IndexedHeap(n);
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		}
+
+		void reset(){
+			for(int i = 0; i < numTouched; i++){
+				int n = touched[i];
+				dist[n] = Double.POSITIVE_INFINITY;
+				wanted[n] = 0;
+			}
+			numTouched = 0;
+			open.clear();
+		}
+
+		void touch(int n){
+			if(dist[n] == Double.POSITIVE_INFINITY && wanted[n] == 0)
+				touched[numTouched++] = n;
+		}
+
+		/**
+		 * Answer a group of pairs sharing a start (or, searching backward, a goal) with one Dijkstra
+		 * search, which stops once the far end of every pair has been settled
+		 */
+		void oneToMany(int [] group, int [] s, int [] t, boolean backward, int [][] paths){
+			reset();
+			CSRGraph g = graph;
+			int root = backward ? t[group[0]] : s[group[0]];
+
+			int remaining = 0;
+			for(int p: group){
+				int end = backward ? s[p] : t[p];
+				touch(end);
+				if(wanted[end]++ == 0) remaining++;
+			}
+
+			touch(root);
+			dist[root] = 0;
+			parentArc[root] = -1;
+			open.insertOrDecrease(root, 0);
+
+			while(!open.isEmpty() && remaining > 0){
+				int x = open.poll();
+				if(wanted[x] > 0) remaining--;
+				double dx = dist[x];
+
+				int first = backward ? g.inOffsets[x] : g.offsets[x];
+				int end = backward ? g.inOffsets[x + 1] : g.offsets[x + 1];
+				for(int i = first; i < end; i++){
+					int a = backward ? g.inArcs[i] : i;
+					int y = backward ? g.sources[a] : g.targets[a];
+					double tentative = dx + weights[a];
+					if(tentative >= dist[y]) continue;
+					touch(y);
+					dist[y] = tentative;
+					parentArc[y] = a;
+					open.insertOrDecrease(y, tentative);
+				}
+			}
+
+			for(int p: group)
+				paths[p] = path(backward ? s[p] : t[p], backward);
+		}
+
+		/**
+		 * @return the arcs from the search's root to the node (or, backward, from the node to the
+		 * root) in the order travelled, or null if the node was not reached
+		 */
+		int [] path(int node, boolean backward){
+			if(dist[node] == Double.POSITIVE_INFINITY) return null;
+			int length = 0;
+			for(int n = node; parentArc[n] >= 0; n = next(n, backward))
+				length++;
+			int [] result = new int [length];
+			int i = backward ? 0 : length;
+			for(int n = node; parentArc[n] >= 0; n = next(n, backward)){
+				if(backward) result[i++] = parentArc[n];
+				else result[--i] = parentArc[n];
+			}
+			return result;
+		}
+
+		int next(int n, boolean backward){
+			return backward ? graph.targets[parentArc[n]] : graph.sources[parentArc[n]];
+		}
+	}
+}
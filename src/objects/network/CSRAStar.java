@@ -0,0 +1,220 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import sim.field.network.Edge;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+/**
+ * A* search over a CSRGraph, with a pluggable heuristic and arc weights. The search state lives
+ * in arrays indexed by node id which are kept between queries (one set per thread), so a query
+ * allocates nothing but its result.
+ *
+ */
+public class CSRAStar {
+
+	/**
+	 * An estimate of the remaining cost from a node to the goal. It must never overestimate
+	 * the true cost under the weights in use, or the paths found will not be shortest.
+	 */
+	public interface Heuristic {
+		public double estimate(int node, int goal);
+	}
+
+	/**
+	 * Straight-line distance, which is admissible whenever arc weights are at least as large as
+	 * the distance between their endpoints (true of arc lengths)
+	 */
+	public static Heuristic euclidean(final CSRGraph graph){
+		return new Heuristic(){
+			public double estimate(int node, int goal){
+				return graph.distance(node, goal);
+			}
+		};
+	}
+
+	/** No estimate at all: the search becomes Dijkstra's algorithm */
+	public static final Heuristic NONE = new Heuristic(){
+		public double estimate(int node, int goal){ return 0; }
+	};
+
+	CSRGraph graph;
+	double [] weights;
+	Heuristic heuristic;
+	Components components = null;
+
+	ThreadLocal <State> states = new ThreadLocal <State> (){
+		protected State initialValue(){ return new State(graph.numNodes()); }
+	};
+
+	/**
+	 * @param graph - the graph to search
+	 * @param weights - the cost of each arc, or null to use the arc lengths. Arcs with infinite
+	 * 		cost are never used
+	 * @param heuristic - the estimate of the remaining cost, or null for the Euclidean distance
+	 */
+	public CSRAStar(CSRGraph graph, double [] weights, Heuristic heuristic){
+		this.graph = graph;
+		this.weights = weights == null ? graph.lengths : weights;
+		this.heuristic = heuristic == null ? euclidean(graph) : heuristic;
+	}
+
+	public CSRAStar(CSRGraph graph){
+		this(graph, null, null);
+	}
+
+	public CSRGraph getGraph(){ return graph; }
+	public Heuristic getHeuristic(){ return heuristic; }
+
+	/**
+	 * Give up at once on searches between nodes in different components, rather than searching
+	 * the whole of the start's component before finding there is no path
+	 * @param components - the components of the graph under the weights in use (see
+	 * 		Components.of(graph, weights)), or null to search every time
+	 */
+	public void setComponents(Components components){ this.components = components; }
+
+	/**
+	 * @return the number of nodes closed by the calling thread's most recent search
+	 */
+	public int getNodesExpanded(){ return states.get().expanded; }
+
+	/**
+	 * @return the cost of the path found by the calling thread's most recent search
+	 */
+	public double getPathCost(){ return states.get().cost; }
+
+	/**
+	 * Find the cheapest path from s to t
+	 * @return the arcs of the path in the order travelled, or null if there is no path
+	 */
+	public int [] path(int s, int t){
+		State st = states.get();
+		if(!st.search(s, t)) return null;
+
+		int length = 0;
+		for(int n = t; st.parentArc[n] >= 0; n = graph.sources[st.parentArc[n]])
+			length++;
+		int [] result = new int [length];
+		for(int n = t; st.parentArc[n] >= 0; n = graph.sources[st.parentArc[n]])
+			result[--length] = st.parentArc[n];
+		return result;
+	}
+
+	/**
+	 * Finds the cheapest path between two nodes of the planar graph, in the format used by AStar
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @return the directed edges from start to goal, empty if there is no path
+	 */
+	public ArrayList <GeomPlanarGraphDirectedEdge> planarPath(Object start, Object goal){
+		int s = graph.nodeId(start), t = graph.nodeId(goal);
+		if(s < 0 || t < 0)
+			return new ArrayList <GeomPlanarGraphDirectedEdge> ();
+		int [] path = path(s, t);
+		if(path == null)
+			return new ArrayList <GeomPlanarGraphDirectedEdge> ();
+		return graph.toPlanarPath(path);
+	}
+
+	/**
+	 * Finds the cheapest path between two nodes of a MASON network, in the format used by AStarNew
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @return the edges, ordered from the goal back to the start, or null if there is no path
+	 */
+	public ArrayList <Edge> networkPath(GeoNode start, GeoNode goal){
+		int s = graph.nodeId(start), t = graph.nodeId(goal);
+		if(s < 0 || t < 0)
+			return null;
+		int [] path = path(s, t);
+		if(path == null)
+			return null;
+		return graph.toNetworkPath(path);
+	}
+
+	/**
+	 * @return the cost of the cheapest path from s to t, or infinity if there is none
+	 */
+	public double distance(int s, int t){
+		State st = states.get();
+		st.search(s, t);
+		return st.cost;
+	}
+
+	/**
+	 * Per-thread search state
+	 */
+	class State {
+
+		double [] gx;
+		int [] parentArc;
+		boolean [] closed;
+		int [] touched;
+		int numTouched = 0;
+		IndexedHeap open;
+
+		int expanded = 0;
+		double cost;
+
+		State(int n){
+			gx = new double [n];
+			parentArc = new int [n];
+			closed = new boolean [n];
+			touched = new int [n];
+			open = new IndexedHeap(n);
+			Arrays.fill(gx, Double.POSITIVE_INFINITY);
+		}
+
+		void reset(){
+			for(int i = 0; i < numTouched; i++){
+				int n = touched[i];
+				gx[n] = Double.POSITIVE_INFINITY;
+				closed[n] = false;
+			}
+			numTouched = 0;
+			open.clear();
+			expanded = 0;
+			cost = Double.POSITIVE_INFINITY;
+		}
+
+		boolean search(int s, int t){
+			reset();
+			if(components != null && !components.connected(s, t))
+				return false;
+			CSRGraph g = graph;
+
+			gx[s] = 0;
+			parentArc[s] = -1;
+			touched[numTouched++] = s;
+			open.insertOrDecrease(s, heuristic.estimate(s, t));
+
+			while(!open.isEmpty()){
+				int x = open.poll();
+				if(x == t){
+					cost = gx[t];
+					return true;
+				}
+				closed[x] = true;
+				expanded++;
+
+				for(int a = g.offsets[x]; a < g.offsets[x + 1]; a++){
+					int y = g.targets[a];
+					if(closed[y]) continue;
+					double tentative = gx[x] + weights[a];
+					if(tentative >= gx[y]) continue;
+
+					if(gx[y] == Double.POSITIVE_INFINITY)
+						touched[numTouched++] = y;
+					gx[y] = tentative;
+					parentArc[y] = a;
+					open.insertOrDecrease(y, tentative + heuristic.estimate(y, t));
+				}
+			}
+			return false;
+		}
+	}
+}
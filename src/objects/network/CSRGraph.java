@@ -0,0 +1,366 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.Bag;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+import sim.util.geo.GeomPlanarGraphEdge;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.planargraph.DirectedEdge;
+import com.vividsolutions.jts.planargraph.Node;
+import com.vividsolutions.jts.planargraph.PlanarGraph;
+
+/**
+ * An immutable, compressed sparse row copy of a road network. Every node is given a dense int id
+ * and every directed edge ("arc") a dense int id, with the arcs leaving node n stored at
+ * positions firstArc(n) to endArc(n) - 1. Targets, lengths and ROAD_IDs live in primitive arrays,
+ * so searches over the graph need no Bags, iterators or HashMap lookups.
+ *
+ * The graph can be built from either a GeomPlanarGraph, in which case every arc maps back onto
+ * the GeomPlanarGraphDirectedEdge it was built from, or from a MASON Network, in which case every
+ * arc maps back onto its Edge (usually a ListEdge). An undirected Network contributes one arc in
+ * each direction for every Edge.
+ *
+ * The length of an arc is the straight-line distance between its end nodes, whatever the shape
+ * of the road, which is the cost AStar and AStarEngine give an edge. Every engine built on the
+ * graph therefore finds the same routes as they do, only faster.
+ *
+ */
+public final class CSRGraph {
+
+	final int numNodes, numArcs;
+
+	// forward adjacency: the arcs leaving node n are offsets[n] .. offsets[n+1]-1
+	final int [] offsets;
+	final int [] sources, targets;
+	final double [] lengths;
+	final int [] roadIds; // -1 where the underlying edge has no ROAD_ID
+	final int [] twins; // the arc running the other way along the same edge, or -1
+
+	// reverse adjacency: the arcs entering node n are inArcs[inOffsets[n] .. inOffsets[n+1]-1]
+	final int [] inOffsets;
+	final int [] inArcs;
+
+	// node coordinates, for heuristics
+	final double [] xs, ys;
+
+	// mappings back onto the original structures
+	final Object [] nodes;
+	final Object [] arcs;
+	final HashMap <Object, Integer> nodeIds;
+	final HashMap <Object, Integer> arcIds; // an edge's first arc
+
+	CSRGraph(Object [] nodes, double [] xs, double [] ys, int [] arcSources, int [] arcTargets,
+			double [] arcLengths, int [] arcRoadIds, Object [] arcObjects, Object [] twinKeys){
+
+		this.numNodes = nodes.length;
+		this.numArcs = arcSources.length;
+		this.nodes = nodes;
+		this.xs = xs;
+		this.ys = ys;
+
+		nodeIds = new HashMap <Object, Integer> (2 * numNodes);
+		for(int i = 0; i < numNodes; i++)
+			nodeIds.put(nodes[i], i);
+
+		// counting sort of the arcs by source node
+		offsets = new int [numNodes + 1];
+		for(int i = 0; i < numArcs; i++)
+			offsets[arcSources[i] + 1]++;
+		for(int i = 0; i < numNodes; i++)
+			offsets[i + 1] += offsets[i];
+
+		int [] fill = offsets.clone();
+		int [] order = new int [numArcs];
+		for(int i = 0; i < numArcs; i++)
+			order[fill[arcSources[i]]++] = i;
+
+		sources = new int [numArcs];
+		targets = new int [numArcs];
+		lengths = new double [numArcs];
+		roadIds = new int [numArcs];
+		arcs = new Object [numArcs];
+		arcIds = new HashMap <Object, Integer> (2 * numArcs);
+		for(int a = 0; a < numArcs; a++){
+			int i = order[a];
+			sources[a] = arcSources[i];
+			targets[a] = arcTargets[i];
+			lengths[a] = arcLengths[i];
+			roadIds[a] = arcRoadIds[i];
+			arcs[a] = arcObjects[i];
+			if(!arcIds.containsKey(arcObjects[i]))
+				arcIds.put(arcObjects[i], a);
+		}
+
+		// pair up arcs which run in opposite directions along the same underlying edge
+		twins = new int [numArcs];
+		HashMap <Object, Integer> firstSeen = new HashMap <Object, Integer> ();
+		for(int a = 0; a < numArcs; a++){
+			twins[a] = -1;
+			Object key = twinKeys[order[a]];
+			Integer other = firstSeen.remove(key);
+			if(other == null)
+				firstSeen.put(key, a);
+			else {
+				twins[a] = other;
+				twins[other] = a;
+			}
+		}
+
+		// the reverse adjacency
+		inOffsets = new int [numNodes + 1];
+		for(int a = 0; a < numArcs; a++)
+			inOffsets[targets[a] + 1]++;
+		for(int i = 0; i < numNodes; i++)
+			inOffsets[i + 1] += inOffsets[i];
+		fill = inOffsets.clone();
+		inArcs = new int [numArcs];
+		for(int a = 0; a < numArcs; a++)
+			inArcs[fill[targets[a]]++] = a;
+	}
+
+	/**
+	 * Builds a CSR graph from the directed edges of a planar graph (e.g. the GeomPlanarGraph
+	 * built by EngDBasic.createNetwork())
+	 *
+	 * @param graph - the planar graph
+	 * @return the CSR representation of the graph
+	 */
+	public static CSRGraph fromPlanarGraph(PlanarGraph graph){
+
+		ArrayList <Object> nodeList = new ArrayList <Object> ();
+		HashMap <Object, Integer> ids = new HashMap <Object, Integer> ();
+		for(Iterator <?> it = graph.nodeIterator(); it.hasNext();){
+			Node n = (Node) it.next();
+			ids.put(n, nodeList.size());
+			nodeList.add(n);
+		}
+
+		ArrayList <DirectedEdge> dirEdges = new ArrayList <DirectedEdge> ();
+		for(Object o: nodeList)
+			for(Object e: ((Node)o).getOutEdges().getEdges())
+				dirEdges.add((DirectedEdge) e);
+
+		int n = nodeList.size(), m = dirEdges.size();
+		double [] xs = new double [n], ys = new double [n];
+		for(int i = 0; i < n; i++){
+			Coordinate c = ((Node)nodeList.get(i)).getCoordinate();
+			xs[i] = c.x;
+			ys[i] = c.y;
+		}
+
+		int [] from = new int [m], to = new int [m], roadIds = new int [m];
+		double [] lengths = new double [m];
+		Object [] arcObjects = new Object [m], twinKeys = new Object [m];
+		for(int i = 0; i < m; i++){
+			DirectedEdge de = dirEdges.get(i);
+			from[i] = ids.get(de.getFromNode());
+			to[i] = ids.get(de.getToNode());
+			arcObjects[i] = de;
+			twinKeys[i] = de.getEdge() != null ? de.getEdge() : de;
+
+			lengths[i] = de.getFromNode().getCoordinate().distance(de.getToNode().getCoordinate());
+
+			roadIds[i] = -1;
+			if(de.getEdge() instanceof GeomPlanarGraphEdge){
+				GeomPlanarGraphEdge ge = (GeomPlanarGraphEdge) de.getEdge();
+				if(ge.hasAttribute("ROAD_ID"))
+					roadIds[i] = ge.getIntegerAttribute("ROAD_ID");
+			}
+		}
+
+		return new CSRGraph(nodeList.toArray(), xs, ys, from, to, lengths, roadIds, arcObjects, twinKeys);
+	}
+
+	/**
+	 * Builds a CSR graph from a MASON network of GeoNodes (e.g. the network produced by
+	 * NetworkUtilities.multipartNetworkCleanup()). Edges of an undirected network become a pair
+	 * of arcs, one in each direction.
+	 *
+	 * @param network - the network
+	 * @return the CSR representation of the network
+	 */
+	public static CSRGraph fromNetwork(Network network){
+
+		Bag allNodes = network.getAllNodes();
+		int n = allNodes.size();
+		Object [] nodeArray = new Object [n];
+		HashMap <Object, Integer> ids = new HashMap <Object, Integer> (2 * n);
+		double [] xs = new double [n], ys = new double [n];
+		for(int i = 0; i < n; i++){
+			Object o = allNodes.get(i);
+			nodeArray[i] = o;
+			ids.put(o, i);
+			Coordinate c = ((MasonGeometry)o).geometry.getCoordinate();
+			xs[i] = c.x;
+			ys[i] = c.y;
+		}
+
+		boolean directed = network.isDirected();
+		ArrayList <Edge> edgeList = new ArrayList <Edge> ();
+		ArrayList <Integer> fromList = new ArrayList <Integer> (), toList = new ArrayList <Integer> ();
+		HashSet <Object> seen = new HashSet <Object> ();
+		for(int i = 0; i < n; i++){
+			Object node = nodeArray[i];
+
+			// in an undirected network, every edge touching the node leads away from it
+			Bag edges = directed ? network.getEdgesOut(node) : network.getEdges(node, null);
+			seen.clear();
+			for(Object o: edges){
+				Edge e = (Edge) o;
+				if(!seen.add(e)) continue;
+				edgeList.add(e);
+				fromList.add(i);
+				toList.add(ids.get(directed ? e.to() : e.getOtherNode(node)));
+			}
+		}
+
+		int m = edgeList.size();
+		int [] from = new int [m], to = new int [m], roadIds = new int [m];
+		double [] lengths = new double [m];
+		Object [] arcObjects = edgeList.toArray();
+		for(int i = 0; i < m; i++){
+			Edge e = edgeList.get(i);
+			from[i] = fromList.get(i);
+			to[i] = toList.get(i);
+			double dx = xs[from[i]] - xs[to[i]], dy = ys[from[i]] - ys[to[i]];
+			lengths[i] = Math.sqrt(dx * dx + dy * dy);
+			roadIds[i] = RoadAttributes.getRoadId(e);
+		}
+
+		return new CSRGraph(nodeArray, xs, ys, from, to, lengths, roadIds, arcObjects, arcObjects);
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// ACCESSORS //////////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	public int numNodes(){ return numNodes; }
+	public int numArcs(){ return numArcs; }
+
+	/** @return the first arc leaving the given node */
+	public int firstArc(int node){ return offsets[node]; }
+	/** @return one past the last arc leaving the given node */
+	public int endArc(int node){ return offsets[node + 1]; }
+	/** @return the first index into the reverse adjacency for the given node (see inArc()) */
+	public int firstInArc(int node){ return inOffsets[node]; }
+	/** @return one past the last index into the reverse adjacency for the given node */
+	public int endInArc(int node){ return inOffsets[node + 1]; }
+	/** @return the arc at the given position of the reverse adjacency */
+	public int inArc(int i){ return inArcs[i]; }
+
+	public int source(int arc){ return sources[arc]; }
+	public int target(int arc){ return targets[arc]; }
+	public double length(int arc){ return lengths[arc]; }
+	public int roadId(int arc){ return roadIds[arc]; }
+	public int twin(int arc){ return twins[arc]; }
+
+	public double x(int node){ return xs[node]; }
+	public double y(int node){ return ys[node]; }
+
+	/**
+	 * @return the straight-line distance between two nodes
+	 */
+	public double distance(int a, int b){
+		double dx = xs[a] - xs[b], dy = ys[a] - ys[b];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * @return a hash of the graph's structure and arc lengths, used to check that data derived
+	 * from a graph (and perhaps saved to disk) still matches it
+	 */
+	public long fingerprint(){
+		long h = 1125899906842597L;
+		h = 31 * h + numNodes;
+		h = 31 * h + numArcs;
+		for(int a = 0; a < numArcs; a++){
+			h = 31 * h + sources[a];
+			h = 31 * h + targets[a];
+			h = 31 * h + Double.doubleToLongBits(lengths[a]);
+		}
+		return h;
+	}
+
+	/**
+	 * @return a copy of the arc lengths, to be used as the basis for alternative arc weights
+	 */
+	public double [] copyLengths(){ return lengths.clone(); }
+
+	/**
+	 * @return the id of the given node (a JTS Node or GeoNode), or -1 if it is not in the graph
+	 */
+	public int nodeId(Object node){
+		Integer id = nodeIds.get(node);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the id of the (first) arc built from the given GeomPlanarGraphDirectedEdge or
+	 * Edge, or -1 if it is not in the graph
+	 */
+	public int arcId(Object edge){
+		Integer id = arcIds.get(edge);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the arc which leads from one node to the other, or -1 if there is none
+	 */
+	public int arcBetween(int from, int to){
+		for(int a = offsets[from]; a < offsets[from + 1]; a++)
+			if(targets[a] == to) return a;
+		return -1;
+	}
+
+	public Object getNode(int node){ return nodes[node]; }
+
+	/** @return the GeomPlanarGraphDirectedEdge or Edge from which the arc was built */
+	public Object getArc(int arc){ return arcs[arc]; }
+
+	public GeomPlanarGraphDirectedEdge getDirectedEdge(int arc){
+		return (GeomPlanarGraphDirectedEdge) arcs[arc];
+	}
+
+	public GeomPlanarGraphEdge getPlanarEdge(int arc){
+		return (GeomPlanarGraphEdge) ((DirectedEdge) arcs[arc]).getEdge();
+	}
+
+	public Edge getNetworkEdge(int arc){
+		return (Edge) arcs[arc];
+	}
+
+	/**
+	 * Converts a sequence of arcs into the path format used by the planar graph Agents
+	 * @param path - arcs, ordered from start to goal
+	 * @return the directed edges, ordered from start to goal
+	 */
+	public ArrayList <GeomPlanarGraphDirectedEdge> toPlanarPath(int [] path){
+		ArrayList <GeomPlanarGraphDirectedEdge> result = new ArrayList <GeomPlanarGraphDirectedEdge> (path.length);
+		for(int a: path)
+			result.add((GeomPlanarGraphDirectedEdge) arcs[a]);
+		return result;
+	}
+
+	/**
+	 * Converts a sequence of arcs into the path format used by MobileAgents, which consume
+	 * their paths from the end of the list
+	 * @param path - arcs, ordered from start to goal
+	 * @return the edges, ordered from goal back to start
+	 */
+	public ArrayList <Edge> toNetworkPath(int [] path){
+		ArrayList <Edge> result = new ArrayList <Edge> (path.length);
+		for(int a: path)
+			result.add((Edge) arcs[a]);
+		Collections.reverse(result);
+		return result;
+	}
+}
@@ -0,0 +1,141 @@
+package objects.network;
+
+import java.util.ArrayList;
+
+/**
+ * A static grid of square cells over a set of items, each held in every cell its bounding box
+ * overlaps: points (see PointGrid) or the segments of roads (see SnapIndex). The bounding box of
+ * all the items is divided into cells holding about one item each, and the items are sorted
+ * into cells once, so the item nearest to a location, or all of those within some distance of
+ * it, can be found by looking in only a few cells. Subclasses say how far an item is from a
+ * location.
+ *
+ */
+abstract class CellGrid {
+
+	double minX, minY, cellSize;
+	int cols, rows;
+	int [] cellStart; // the items in cell c are items[cellStart[c]] to items[cellStart[c+1]-1]
+	int [] items;
+
+	/**
+	 * Lay the grid out over the items and sort them into its cells
+	 *
+	 * @param x0 - one corner of each item's bounding box
+	 * @param y0
+	 * @param x1 - the opposite corner, which for a point is the same
+	 * @param y1
+	 */
+	void index(double [] x0, double [] y0, double [] x1, double [] y1){
+		int n = x0.length;
+		minX = Double.POSITIVE_INFINITY;
+		minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; i++){
+			minX = Math.min(minX, Math.min(x0[i], x1[i]));
+			minY = Math.min(minY, Math.min(y0[i], y1[i]));
+			maxX = Math.max(maxX, Math.max(x0[i], x1[i]));
+			maxY = Math.max(maxY, Math.max(y0[i], y1[i]));
+		}
+		if(n == 0){
+			minX = minY = maxX = maxY = 0;
+		}
+
+		double width = maxX - minX, height = maxY - minY;
+		cellSize = Math.sqrt(width * height / Math.max(1, n));
+		if(!(cellSize > 0)) cellSize = Math.max(width, height) / Math.max(1, n);
+		if(!(cellSize > 0)) cellSize = 1;
+
+		// long, thin extents would otherwise give far more cells than items
+		while((long)((width / cellSize) + 1) * (long)((height / cellSize) + 1) > 2L * n + 16)
+			cellSize *= 1.5;
+		cols = (int)(width / cellSize) + 1;
+		rows = (int)(height / cellSize) + 1;
+
+		// counting sort of the items into every cell their bounding boxes overlap
+		cellStart = new int [cols * rows + 1];
+		for(int i = 0; i < n; i++)
+			for(int c = col(Math.min(x0[i], x1[i])); c <= col(Math.max(x0[i], x1[i])); c++)
+				for(int r = row(Math.min(y0[i], y1[i])); r <= row(Math.max(y0[i], y1[i])); r++)
+					cellStart[cell(c, r) + 1]++;
+		for(int c = 0; c < cols * rows; c++)
+			cellStart[c + 1] += cellStart[c];
+		items = new int [cellStart[cols * rows]];
+		int [] fill = new int [cols * rows];
+		for(int i = 0; i < n; i++)
+			for(int c = col(Math.min(x0[i], x1[i])); c <= col(Math.max(x0[i], x1[i])); c++)
+				for(int r = row(Math.min(y0[i], y1[i])); r <= row(Math.max(y0[i], y1[i])); r++){
+					int k = cell(c, r);
+					items[cellStart[k] + fill[k]++] = i;
+				}
+	}
+
+	/**
+	 * @return the square of the distance from (x, y) to the item
+	 */
+	abstract double distance2(int item, double x, double y);
+
+	/**
+	 * @return the item nearest to (x, y), the first given of any as near, or -1 if none is
+	 * within maxDistance of it
+	 */
+	int nearest(double x, double y, double maxDistance){
+		if(items.length == 0) return -1;
+		int cx = col(x), cy = row(y);
+		int best = -1;
+		double bestDist = Double.POSITIVE_INFINITY;
+
+		// search outward ring by ring until no unsearched cell can hold anything closer
+		int maxRing = Math.max(cols, rows);
+		for(int r = 0; r <= maxRing; r++){
+			for(int i = cx - r; i <= cx + r; i++){
+				if(i < 0 || i >= cols) continue;
+				boolean edgeColumn = i == cx - r || i == cx + r;
+				for(int j = cy - r; j <= cy + r; j += edgeColumn ? 1 : 2 * r){
+					if(j < 0 || j >= rows) continue;
+					int c = cell(i, j);
+					for(int k = cellStart[c]; k < cellStart[c + 1]; k++){
+						int item = items[k];
+						double d = distance2(item, x, y);
+						if(d < bestDist || (d == bestDist && item < best)){
+							bestDist = d;
+							best = item;
+						}
+					}
+				}
+			}
+			// anything in ring r+1 or beyond is at least r cells away
+			double reach = r * cellSize;
+			if(best >= 0 && Math.sqrt(bestDist) <= reach) break;
+			if(reach > maxDistance) break;
+		}
+		if(best >= 0 && Math.sqrt(bestDist) > maxDistance) return -1;
+		return best;
+	}
+
+	/**
+	 * Find every item within the given distance of (x, y)
+	 * @param result - the list to which the items are added; an item held in several cells
+	 * 		may be added more than once
+	 */
+	void within(double x, double y, double distance, ArrayList <Integer> result){
+		double d2 = distance * distance;
+		for(int i = col(x - distance); i <= col(x + distance); i++)
+			for(int j = row(y - distance); j <= row(y + distance); j++){
+				int c = cell(i, j);
+				for(int k = cellStart[c]; k < cellStart[c + 1]; k++)
+					if(distance2(items[k], x, y) <= d2)
+						result.add(items[k]);
+			}
+	}
+
+	int col(double x){
+		return Math.max(0, Math.min(cols - 1, (int) Math.floor((x - minX) / cellSize)));
+	}
+
+	int row(double y){
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - minY) / cellSize)));
+	}
+
+	int cell(int col, int row){ return row * cols + col; }
+}
@@ -0,0 +1,138 @@
+package objects.network;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.WeakHashMap;
+
+import sim.field.network.Edge;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+import sim.util.geo.GeomPlanarGraphEdge;
+
+import com.vividsolutions.jts.planargraph.DirectedEdge;
+
+/**
+ * An immutable path through a CSRGraph, held as the ids of its arcs in the order travelled.
+ * Paths are interned, so agents following the same route share a single array; each agent
+ * keeps its own place along the path in a PathCursor.
+ *
+ */
+public final class CompactPath {
+
+	// the paths in use; once no agent holds a path, it is dropped
+	static final WeakHashMap <CompactPath, WeakReference <CompactPath>> interned =
+			new WeakHashMap <CompactPath, WeakReference <CompactPath>> ();
+
+	final CSRGraph graph;
+	final int [] arcs;
+	final int hash;
+
+	CompactPath(CSRGraph graph, int [] arcs){
+		this.graph = graph;
+		this.arcs = arcs;
+		this.hash = 31 * System.identityHashCode(graph) + Arrays.hashCode(arcs);
+	}
+
+	/**
+	 * @param graph - the graph through which the path runs
+	 * @param arcs - the arcs of the path in the order travelled. The array is copied if the
+	 * 		path has not been seen before.
+	 * @return the shared instance of the path
+	 */
+	public static CompactPath intern(CSRGraph graph, int [] arcs){
+		CompactPath key = new CompactPath(graph, arcs);
+		synchronized(interned){
+			WeakReference <CompactPath> ref = interned.get(key);
+			CompactPath result = ref == null ? null : ref.get();
+			if(result == null){
+				result = new CompactPath(graph, arcs.clone());
+				interned.put(result, new WeakReference <CompactPath> (result));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @param path - the directed edges of a planar graph path, ordered from start to goal
+	 * @return the shared instance of the path, or null if any of the edges is not in the graph
+	 */
+	public static CompactPath fromPlanarPath(CSRGraph graph, List <? extends DirectedEdge> path){
+		int [] result = new int [path.size()];
+		for(int i = 0; i < result.length; i++){
+			result[i] = graph.arcId(path.get(i));
+			if(result[i] < 0) return null;
+		}
+		return intern(graph, result);
+	}
+
+	/**
+	 * @param path - the edges of a MASON network path, ordered from the goal back to the start
+	 * 		as AStarNew returns them
+	 * @param start - the node at which the path starts, which sets the way each edge is travelled
+	 * @return the shared instance of the path, or null if it does not fit the graph
+	 */
+	public static CompactPath fromNetworkPath(CSRGraph graph, List <Edge> path, Object start){
+		int [] result = new int [path.size()];
+		int node = graph.nodeId(start);
+		for(int i = 0; i < result.length; i++){
+			int a = graph.arcId(path.get(path.size() - 1 - i));
+			if(a >= 0 && graph.sources[a] != node)
+				a = graph.twins[a];
+			if(a < 0 || graph.sources[a] != node) return null;
+			result[i] = a;
+			node = graph.targets[a];
+		}
+		return intern(graph, result);
+	}
+
+	public CSRGraph getGraph(){ return graph; }
+
+	public int size(){ return arcs.length; }
+
+	/** @return the id of the ith arc of the path */
+	public int arc(int i){ return arcs[i]; }
+
+	public GeomPlanarGraphDirectedEdge directedEdge(int i){ return graph.getDirectedEdge(arcs[i]); }
+
+	public GeomPlanarGraphEdge planarEdge(int i){ return graph.getPlanarEdge(arcs[i]); }
+
+	public Edge networkEdge(int i){ return graph.getNetworkEdge(arcs[i]); }
+
+	/**
+	 * Replace the part of the path on one side of an arc with a new route
+	 *
+	 * @param index - the arc to keep, with everything on the other side of it
+	 * @param route - the new route. Forward, it runs on from the end of the arc; backward, it
+	 * 		runs from the start of the arc back to where the new path should begin, and is added
+	 * 		in reverse, each arc by its twin where it has one (agents travelling a path backward
+	 * 		only use its roads).
+	 * @param forward - whether to replace the part of the path after the arc, or that before it
+	 * @return the shared instance of the new path. Travelling backward, the kept arc is at index
+	 * route.size() in it.
+	 */
+	public CompactPath splice(int index, CompactPath route, boolean forward){
+		int [] result;
+		if(forward){
+			result = Arrays.copyOf(arcs, index + 1 + route.arcs.length);
+			System.arraycopy(route.arcs, 0, result, index + 1, route.arcs.length);
+		}
+		else {
+			int n = route.arcs.length;
+			result = new int [n + arcs.length - index];
+			for(int i = 0; i < n; i++){
+				int a = route.arcs[n - 1 - i];
+				result[i] = graph.twins[a] >= 0 ? graph.twins[a] : a;
+			}
+			System.arraycopy(arcs, index, result, n, arcs.length - index);
+		}
+		return intern(graph, result);
+	}
+
+	public boolean equals(Object o){
+		if(!(o instanceof CompactPath)) return false;
+		CompactPath p = (CompactPath) o;
+		return p.graph == graph && p.hash == hash && Arrays.equals(p.arcs, arcs);
+	}
+
+	public int hashCode(){ return hash; }
+}
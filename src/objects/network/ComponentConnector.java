@@ -0,0 +1,133 @@
+package objects.network;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+
+/**
+ * Joins the disconnected components of a subnetwork using the edges of a fuller network which
+ * contains it. A single Dijkstra search, started from every node of the subnetwork at once,
+ * finds for every node of the full network the nearest component and the way back to it. Every
+ * edge whose ends are nearest to different components then gives a link between them, costing
+ * the length of the edge plus both ways back, and the cheapest links that join all the
+ * components are chosen as a minimum spanning tree over the components.
+ *
+ * This replaces an A* search between every pair of components in turn, and the tree of links
+ * is never longer than twice the shortest possible.
+ *
+ */
+public class ComponentConnector {
+
+	final CSRGraph graph;
+
+	int componentsJoined = 0;
+
+	/**
+	 * @param all - the full network, which must contain every node of the subnetworks to join
+	 */
+	public ComponentConnector(Network all){
+		this(CSRGraph.fromNetwork(all));
+	}
+
+	/**
+	 * @param graph - the full network, as built from the Network whose Edges are to be added
+	 */
+	public ComponentConnector(CSRGraph graph){
+		this.graph = graph;
+	}
+
+	/** @return the number of links made between components by the last call to connect() */
+	public int getComponentsJoined(){ return componentsJoined; }
+
+	/**
+	 * Add to the subgraph the edges of the full network which most cheaply join its components.
+	 * Components which cannot be reached from one another in the full network are left apart.
+	 *
+	 * @param subgraph - the subnetwork of unconnected components
+	 * @return the number of edges added
+	 */
+	public int connect(Network subgraph){
+		long startTime = System.currentTimeMillis();
+		componentsJoined = 0;
+		Components components = Components.of(subgraph);
+		int numComponents = components.numComponents();
+		if(numComponents < 2) return 0;
+
+		// search outwards from every node of the subgraph at once, noting for each node of the
+		// full network the component it was reached from
+		int n = graph.numNodes();
+		final double [] dist = new double [n];
+		int [] origin = new int [n], parentArc = new int [n];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		Arrays.fill(origin, -1);
+		Arrays.fill(parentArc, -1);
+		IndexedHeap open = new IndexedHeap(n);
+		for(int i = 0; i < components.numNodes(); i++){
+			int v = graph.nodeId(components.nodes[i]);
+			if(v < 0) continue;
+			dist[v] = 0;
+			origin[v] = components.label(i);
+			open.insertOrDecrease(v, 0);
+		}
+		while(!open.isEmpty()){
+			int x = open.poll();
+			for(int a = graph.offsets[x]; a < graph.offsets[x + 1]; a++){
+				int y = graph.targets[a];
+				double d = dist[x] + graph.lengths[a];
+				if(d >= dist[y]) continue;
+				dist[y] = d;
+				origin[y] = origin[x];
+				parentArc[y] = a;
+				open.insertOrDecrease(y, d);
+			}
+		}
+
+		// every arc between the regions of two components is a possible link
+		int numLinks = 0;
+		Integer [] links = new Integer [graph.numArcs()];
+		final double [] costs = new double [graph.numArcs()];
+		for(int a = 0; a < graph.numArcs(); a++){
+			int u = graph.sources[a], v = graph.targets[a];
+			if(origin[u] < 0 || origin[v] < 0 || origin[u] == origin[v]) continue;
+			costs[a] = dist[u] + graph.lengths[a] + dist[v];
+			links[numLinks++] = a;
+		}
+		Arrays.sort(links, 0, numLinks, new Comparator <Integer> (){
+			public int compare(Integer a, Integer b){
+				int c = Double.compare(costs[a], costs[b]);
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+
+		// take the cheapest links which join components not yet joined
+		int [] parents = Components.parents(numComponents);
+		HashSet <Edge> added = new HashSet <Edge> ();
+		for(int i = 0; i < numLinks && componentsJoined < numComponents - 1; i++){
+			int a = links[i];
+			int cu = Components.find(parents, origin[graph.sources[a]]);
+			int cv = Components.find(parents, origin[graph.targets[a]]);
+			if(cu == cv) continue;
+			Components.union(parents, cu, cv);
+			componentsJoined++;
+
+			addEdge(subgraph, a, added);
+			for(int v: new int [] {graph.sources[a], graph.targets[a]})
+				for(int b = parentArc[v]; b >= 0; b = parentArc[graph.sources[b]])
+					addEdge(subgraph, b, added);
+		}
+
+		System.out.println("Made " + componentsJoined + " links between " + numComponents
+				+ " components, adding " + added.size() + " edges, in "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+		return added.size();
+	}
+
+	void addEdge(Network subgraph, int arc, HashSet <Edge> added){
+		Edge e = (Edge) graph.arcs[arc];
+		if(added.add(e))
+			subgraph.addEdge(e.from(), e.to(), e.info);
+	}
+}
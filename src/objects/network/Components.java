@@ -0,0 +1,161 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.Bag;
+
+/**
+ * The connected components of a road network, found in a single pass over its edges with a
+ * union-find over int node ids. Every node is given the label of its component, the labels
+ * running from 0 in the order in which the components' first nodes appear, so the labelling (and
+ * the choice of largest component, ties going to the lowest label) is the same on every run.
+ *
+ * The components also serve as a reachability oracle for routing: two nodes in different
+ * components can never be joined by a path, so a search between them can be skipped. Edges are
+ * treated as two-way, so on a network with one-way arcs a positive answer means only that a path
+ * may exist; a negative answer is always right.
+ *
+ */
+public class Components {
+
+	final int [] labels;
+	final int [] sizes;
+	final int largest;
+
+	// the nodes, in id order, and the way back from a node to its id
+	final Object [] nodes;
+	final HashMap <Object, Integer> nodeIds;
+
+	Components(Object [] nodes, HashMap <Object, Integer> nodeIds, int [] parents){
+		this.nodes = nodes;
+		this.nodeIds = nodeIds;
+
+		// every root is the lowest id in its set, so it is labelled before the rest of the set
+		int n = parents.length, count = 0;
+		labels = new int [n];
+		for(int i = 0; i < n; i++){
+			int root = find(parents, i);
+			labels[i] = root == i ? count++ : labels[root];
+		}
+		sizes = new int [count];
+		for(int i = 0; i < n; i++)
+			sizes[labels[i]]++;
+
+		int best = -1;
+		for(int c = 0; c < count; c++)
+			if(best < 0 || sizes[c] > sizes[best]) best = c;
+		largest = best;
+	}
+
+	/**
+	 * Find the components of a MASON network
+	 */
+	public static Components of(Network network){
+		Bag all = network.getAllNodes();
+		Object [] nodes = all.toArray();
+		HashMap <Object, Integer> nodeIds = new HashMap <Object, Integer> (2 * nodes.length);
+		for(int i = 0; i < nodes.length; i++)
+			nodeIds.put(nodes[i], i);
+
+		int [] parents = parents(nodes.length);
+		for(int i = 0; i < nodes.length; i++)
+			for(Object o: network.getEdgesOut(nodes[i])){
+				Integer j = nodeIds.get(((Edge) o).getOtherNode(nodes[i]));
+				if(j != null) union(parents, i, j);
+			}
+		return new Components(nodes, nodeIds, parents);
+	}
+
+	/**
+	 * Find the components of a CSRGraph, using only the arcs which can be travelled
+	 * @param weights - the cost of each arc, or null to use every arc. Arcs with infinite cost
+	 * 		are left out, as they are by the searches.
+	 */
+	public static Components of(CSRGraph graph, double [] weights){
+		int [] parents = parents(graph.numNodes());
+		for(int a = 0; a < graph.numArcs(); a++)
+			if(weights == null || weights[a] < Double.POSITIVE_INFINITY)
+				union(parents, graph.sources[a], graph.targets[a]);
+		return new Components(graph.nodes, graph.nodeIds, parents);
+	}
+
+	static int [] parents(int n){
+		int [] parents = new int [n];
+		for(int i = 0; i < n; i++)
+			parents[i] = i;
+		return parents;
+	}
+
+	/** @return the root of i's set, halving the path to it on the way */
+	static int find(int [] parents, int i){
+		while(parents[i] != i){
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	/** joins the sets of i and j under the lower of their roots */
+	static void union(int [] parents, int i, int j){
+		i = find(parents, i);
+		j = find(parents, j);
+		if(i < j) parents[j] = i;
+		else if(j < i) parents[i] = j;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// QUERIES ////////////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	public int numNodes(){ return labels.length; }
+
+	public int numComponents(){ return sizes.length; }
+
+	/** @return the label of every node, by node id. The array must not be modified. */
+	public int [] getLabels(){ return labels; }
+
+	/** @return the label of the node with the given id */
+	public int label(int node){ return labels[node]; }
+
+	/** @return the label of the node, or -1 if it is not part of the network */
+	public int label(Object node){
+		Integer id = nodeIds.get(node);
+		return id == null ? -1 : labels[id];
+	}
+
+	/** @return the number of nodes in the component */
+	public int size(int label){ return sizes[label]; }
+
+	/** @return the label of the largest component, or -1 if there are no nodes */
+	public int largest(){ return largest; }
+
+	/** @return whether a path between the two nodes may exist */
+	public boolean connected(int a, int b){ return labels[a] == labels[b]; }
+
+	/** @return whether a path between the two nodes may exist */
+	public boolean connected(Object a, Object b){
+		int la = label(a);
+		return la >= 0 && la == label(b);
+	}
+
+	/** @return the nodes of the component, in node order */
+	public Bag getNodes(int label){
+		Bag result = new Bag(sizes[label]);
+		for(int i = 0; i < labels.length; i++)
+			if(labels[i] == label) result.add(nodes[i]);
+		return result;
+	}
+
+	/** @return the nodes of every component, in label order */
+	public ArrayList <Bag> getComponents(){
+		ArrayList <Bag> result = new ArrayList <Bag> (sizes.length);
+		for(int c = 0; c < sizes.length; c++)
+			result.add(new Bag(sizes[c]));
+		for(int i = 0; i < labels.length; i++)
+			result.get(labels[i]).add(nodes[i]);
+		return result;
+	}
+}
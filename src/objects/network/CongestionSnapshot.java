@@ -0,0 +1,96 @@
+package objects.network;
+
+/**
+ * Travel times over the road graph, taken from a snapshot of how many vehicles are on each road.
+ * Each snapshot is written into an array of its own while routes are still being planned on the
+ * last one, and only then made current, with a search of its own, so threads planning routes
+ * never wait on, or see half of, an update. An array is never written again once it is current,
+ * so a search which started on an earlier snapshot finishes on the times it started with.
+ *
+ */
+public class CongestionSnapshot {
+
+	// as in the agents' own progress(): a road slows down once it holds more than one vehicle
+	// for every VEHICLE_SPACING / CAPACITY_FACTOR units of its length
+	public static final double CAPACITY_FACTOR = 1000, VEHICLE_SPACING = 5;
+
+	CSRGraph graph;
+	double [] freeFlow; // the cost of each arc when empty
+	CSRAStar.Heuristic heuristic;
+	volatile CSRAStar current; // the search over the current snapshot, which holds its times
+	int refreshes = 0;
+
+	/**
+	 * @param graph - the road graph; until the first snapshot, travel times are the arc lengths
+	 */
+	public CongestionSnapshot(CSRGraph graph){
+		this(graph, null);
+	}
+
+	/**
+	 * @param graph - the road graph
+	 * @param freeFlow - the cost of each arc when there is no traffic on it, which traffic
+	 * 		scales up; at least the arc's length. Null means the arc lengths.
+	 */
+	public CongestionSnapshot(CSRGraph graph, double [] freeFlow){
+		this.graph = graph;
+		this.freeFlow = freeFlow == null ? graph.copyLengths() : freeFlow.clone();
+		// travel times are never less than lengths, so the straight-line distance is still admissible
+		heuristic = CSRAStar.euclidean(graph);
+		current = new CSRAStar(graph, this.freeFlow.clone(), heuristic);
+	}
+
+	/**
+	 * @param length - the length of the road
+	 * @param vehicles - the number of vehicles on it
+	 * @return the time taken to travel the road, in the same units as its length at free-flow speed
+	 */
+	public static double travelTime(double length, double vehicles){
+		return length * slowdown(length, vehicles);
+	}
+
+	/**
+	 * @return how many times longer it takes to travel a road of the given length when the
+	 * given number of vehicles are on it than when it is empty
+	 */
+	public static double slowdown(double length, double vehicles){
+		if(vehicles <= 0 || length <= 0) return 1;
+		return 1 / Math.min(1, CAPACITY_FACTOR * length / (vehicles * VEHICLE_SPACING));
+	}
+
+	/**
+	 * Write a new snapshot into a fresh array and make it the current one. Searches already
+	 * under way keep the times they started with.
+	 * @param occupancy - the number of vehicles on each arc
+	 */
+	public synchronized void publish(double [] occupancy){
+		double [] times = new double [freeFlow.length];
+		for(int a = 0; a < times.length; a++)
+			times[a] = freeFlow[a] * slowdown(graph.lengths[a], occupancy[a]);
+		current = new CSRAStar(graph, times, heuristic);
+		refreshes++;
+	}
+
+	/**
+	 * Close an arc for good, so that no search uses it whatever the traffic. A search already
+	 * under way may or may not see the change.
+	 */
+	public synchronized void close(int arc){
+		freeFlow[arc] = Double.POSITIVE_INFINITY;
+		current.weights[arc] = Double.POSITIVE_INFINITY;
+	}
+
+	/** @return the current travel time of each arc. The array must not be modified. */
+	public double [] getWeights(){ return current.weights; }
+
+	/**
+	 * @return a search by travel time over the current snapshot. Each snapshot has a search of
+	 * its own, so one taken before a snapshot is published keeps to the times before it.
+	 */
+	public CSRAStar getSearch(){ return current; }
+
+	public CSRGraph getGraph(){ return graph; }
+
+	/** @return the number of snapshots published so far */
+	public int getRefreshes(){ return refreshes; }
+}
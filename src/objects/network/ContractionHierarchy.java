@@ -0,0 +1,670 @@
+package objects.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import sim.field.network.Edge;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+/**
+ * Contraction Hierarchies over a CSRGraph. Preprocessing contracts the nodes one at a time in
+ * order of importance, adding a shortcut wherever removing a node would otherwise lengthen a
+ * shortest path. A query is then a bidirectional Dijkstra search which only ever moves "upward"
+ * to more important nodes, so it settles a tiny fraction of the graph. Shortcuts remember the two
+ * edges they replace, so paths are unpacked back into arcs of the original graph.
+ *
+ * Preprocessing the whole county takes a while, so the hierarchy can be saved to disk and
+ * reloaded by later runs (see loadOrBuild()). A saved hierarchy records the fingerprint of the
+ * graph it was built from and is ignored if the graph has changed.
+ *
+ */
+public class ContractionHierarchy {
+
+	static final int MAGIC = 0x43484731; // "CHG1"
+
+	// how hard the preprocessing looks for witness paths which make a shortcut unnecessary
+	public static int witnessSettleLimit = 500;
+	public static int simulationSettleLimit = 50;
+
+	CSRGraph graph;
+	int numNodes, numArcs;
+	long fingerprint;
+
+	int [] rank; // the order in which each node was contracted
+
+	// every edge of the hierarchy. Edges 0 .. numArcs-1 are the arcs of the original graph;
+	// the rest are shortcuts, each standing in for the pair of edges child1 + child2
+	int numEdges;
+	int [] edgeFrom, edgeTo, child1, child2;
+	double [] edgeWeight;
+
+	// the upward search graph: edges leaving each node toward higher-ranked nodes
+	int [] upOffsets, upEdges;
+	// the downward search graph: edges entering each node from higher-ranked nodes
+	int [] downOffsets, downEdges;
+
+	ThreadLocal <Query> queries = new ThreadLocal <Query> (){
+		protected Query initialValue(){ return new Query(); }
+	};
+
+	ContractionHierarchy(CSRGraph graph){
+		this.graph = graph;
+		this.numNodes = graph.numNodes();
+		this.numArcs = graph.numArcs();
+		this.fingerprint = graph.fingerprint();
+	}
+
+	/**
+	 * Load the hierarchy for the graph from the given file, or if there is no such file (or it was
+	 * built from a different graph) contract the graph and save the result to the file
+	 *
+	 * @param file - where the preprocessed hierarchy is kept
+	 * @param graph - the road graph
+	 * @return the hierarchy
+	 */
+	public static ContractionHierarchy loadOrBuild(File file, CSRGraph graph){
+		ContractionHierarchy ch = null;
+		if(file.exists()){
+			try {
+				ch = load(file, graph);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if(ch != null)
+			return ch;
+
+		ch = build(graph);
+		try {
+			ch.save(file);
+		} catch (IOException e) {
+			System.out.println("Could not save contraction hierarchy to " + file);
+			e.printStackTrace();
+		}
+		return ch;
+	}
+
+	/**
+	 * Contract the given graph
+	 * @param graph - the road graph
+	 * @return the resulting hierarchy
+	 */
+	public static ContractionHierarchy build(CSRGraph graph){
+		System.out.print("Contracting road network (" + graph.numNodes() + " nodes)...");
+		ContractionHierarchy ch = new ContractionHierarchy(graph);
+		new Contractor(ch).run();
+		ch.buildSearchGraphs();
+		System.out.println("done: " + (ch.numEdges - ch.numArcs) + " shortcuts");
+		return ch;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// QUERIES ////////////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Finds the shortest path between two nodes of a planar graph, in the format used by AStar
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @return the directed edges from start to goal, empty if there is no path
+	 */
+	public ArrayList <GeomPlanarGraphDirectedEdge> planarPath(Object start, Object goal){
+		int s = graph.nodeId(start), t = graph.nodeId(goal);
+		if(s < 0 || t < 0)
+			return new ArrayList <GeomPlanarGraphDirectedEdge> ();
+		int [] path = arcPath(s, t);
+		if(path == null)
+			return new ArrayList <GeomPlanarGraphDirectedEdge> ();
+		return graph.toPlanarPath(path);
+	}
+
+	/**
+	 * Finds the shortest path between two nodes of a MASON network, in the format used by AStarNew
+	 *
+	 * @param start - the node from which to start
+	 * @param goal - the goal node
+	 * @return the edges, ordered from the goal back to the start, or null if there is no path
+	 */
+	public ArrayList <Edge> networkPath(GeoNode start, GeoNode goal){
+		int s = graph.nodeId(start), t = graph.nodeId(goal);
+		if(s < 0 || t < 0)
+			return null;
+		int [] path = arcPath(s, t);
+		if(path == null)
+			return null;
+		return graph.toNetworkPath(path);
+	}
+
+	/**
+	 * @return the length of the shortest path between the two nodes, or infinity if there is none
+	 */
+	public double distance(int s, int t){
+		Query q = queries.get();
+		q.search(s, t);
+		return q.best;
+	}
+
+	/**
+	 * @return the arcs of the original graph making up the shortest path from s to t, or null if
+	 * there is no path
+	 */
+	public int [] arcPath(int s, int t){
+		Query q = queries.get();
+		q.search(s, t);
+		if(q.meeting < 0)
+			return null;
+		return q.unpack();
+	}
+
+	public CSRGraph getGraph(){ return graph; }
+
+	public int getNumShortcuts(){ return numEdges - numArcs; }
+
+	/**
+	 * The state of a bidirectional upward search, kept between queries by each thread
+	 */
+	class Query {
+
+		double [] distF = new double [numNodes], distB = new double [numNodes];
+		int [] parentF = new int [numNodes], parentB = new int [numNodes]; // edge by which reached
+		IndexedHeap heapF = new IndexedHeap(numNodes), heapB = new IndexedHeap(numNodes);
+		int [] touched = new int [numNodes];
+		boolean [] isTouched = new boolean [numNodes];
+		int numTouched = 0;
+
+		double best;
+		int meeting;
+		int settled; // record-keeping
+
+		Query(){
+			Arrays.fill(distF, Double.POSITIVE_INFINITY);
+			Arrays.fill(distB, Double.POSITIVE_INFINITY);
+		}
+
+		void touch(int n){
+			if(isTouched[n]) return;
+			isTouched[n] = true;
+			touched[numTouched++] = n;
+			parentF[n] = parentB[n] = -1;
+		}
+
+		void reset(){
+			for(int i = 0; i < numTouched; i++){
+				int n = touched[i];
+				distF[n] = distB[n] = Double.POSITIVE_INFINITY;
+				isTouched[n] = false;
+			}
+			numTouched = 0;
+			heapF.clear();
+			heapB.clear();
+		}
+
+		void search(int s, int t){
+			reset();
+			best = Double.POSITIVE_INFINITY;
+			meeting = -1;
+			settled = 0;
+
+			touch(s);
+			touch(t);
+			distF[s] = 0;
+			distB[t] = 0;
+			heapF.insertOrDecrease(s, 0);
+			heapB.insertOrDecrease(t, 0);
+
+			while(!heapF.isEmpty() || !heapB.isEmpty()){
+
+				// each direction can stop once its frontier is no closer than the best meeting found
+				boolean forwardDone = heapF.isEmpty() || heapF.minKey() >= best;
+				boolean backwardDone = heapB.isEmpty() || heapB.minKey() >= best;
+				if(forwardDone && backwardDone) break;
+
+				boolean forward = !forwardDone && (backwardDone || heapF.minKey() <= heapB.minKey());
+				if(forward){
+					int u = heapF.poll();
+					settled++;
+					if(distB[u] < Double.POSITIVE_INFINITY && distF[u] + distB[u] < best){
+						best = distF[u] + distB[u];
+						meeting = u;
+					}
+					for(int i = upOffsets[u]; i < upOffsets[u + 1]; i++){
+						int e = upEdges[i];
+						int v = edgeTo[e];
+						double d = distF[u] + edgeWeight[e];
+						touch(v);
+						if(d < distF[v]){
+							distF[v] = d;
+							parentF[v] = e;
+							heapF.insertOrDecrease(v, d);
+						}
+					}
+				}
+				else {
+					int u = heapB.poll();
+					settled++;
+					if(distF[u] < Double.POSITIVE_INFINITY && distF[u] + distB[u] < best){
+						best = distF[u] + distB[u];
+						meeting = u;
+					}
+					for(int i = downOffsets[u]; i < downOffsets[u + 1]; i++){
+						int e = downEdges[i];
+						int v = edgeFrom[e];
+						double d = distB[u] + edgeWeight[e];
+						touch(v);
+						if(d < distB[v]){
+							distB[v] = d;
+							parentB[v] = e;
+							heapB.insertOrDecrease(v, d);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the original arcs along the path through the meeting node, from start to goal
+		 */
+		int [] unpack(){
+
+			// collect the hierarchy edges in order
+			ArrayList <Integer> edges = new ArrayList <Integer> ();
+			for(int n = meeting; parentF[n] >= 0; n = edgeFrom[parentF[n]])
+				edges.add(parentF[n]);
+			Collections.reverse(edges);
+			for(int n = meeting; parentB[n] >= 0; n = edgeTo[parentB[n]])
+				edges.add(parentB[n]);
+
+			// expand the shortcuts
+			int [] result = new int [16];
+			int size = 0;
+			int [] stack = new int [16];
+			for(int e: edges){
+				int top = 0;
+				stack[top++] = e;
+				while(top > 0){
+					int x = stack[--top];
+					if(x < numArcs){
+						if(size == result.length) result = Arrays.copyOf(result, 2 * size);
+						result[size++] = x;
+					}
+					else {
+						if(top + 2 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+						stack[top++] = child2[x]; // pushed first, so that child1 comes out first
+						stack[top++] = child1[x];
+					}
+				}
+			}
+			return Arrays.copyOf(result, size);
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// PREPROCESSING //////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Sort the edges of the hierarchy into the upward and downward search graphs
+	 */
+	void buildSearchGraphs(){
+		upOffsets = new int [numNodes + 1];
+		downOffsets = new int [numNodes + 1];
+		for(int e = 0; e < numEdges; e++){
+			if(rank[edgeFrom[e]] < rank[edgeTo[e]])
+				upOffsets[edgeFrom[e] + 1]++;
+			else if(rank[edgeFrom[e]] > rank[edgeTo[e]])
+				downOffsets[edgeTo[e] + 1]++;
+		}
+		for(int i = 0; i < numNodes; i++){
+			upOffsets[i + 1] += upOffsets[i];
+			downOffsets[i + 1] += downOffsets[i];
+		}
+		upEdges = new int [upOffsets[numNodes]];
+		downEdges = new int [downOffsets[numNodes]];
+		int [] upFill = upOffsets.clone(), downFill = downOffsets.clone();
+		for(int e = 0; e < numEdges; e++){
+			if(rank[edgeFrom[e]] < rank[edgeTo[e]])
+				upEdges[upFill[edgeFrom[e]]++] = e;
+			else if(rank[edgeFrom[e]] > rank[edgeTo[e]])
+				downEdges[downFill[edgeTo[e]]++] = e;
+		}
+	}
+
+	/**
+	 * Performs the node contraction, accumulating the shortcut edges and node ranks
+	 */
+	static class Contractor {
+
+		ContractionHierarchy ch;
+		CSRGraph graph;
+		int n;
+
+		// growable edge storage
+		int numEdges;
+		int [] from, to, c1, c2;
+		double [] weight;
+
+		// dynamic adjacency: ids of the edges leaving and entering each node
+		int [][] out, in;
+		int [] outSize, inSize;
+
+		boolean [] contracted;
+		int [] deletedNeighbours;
+		int [] level; // the depth of the hierarchy beneath each node
+
+		// the distinct uncontracted neighbours of a node (see neighbours())
+		int [] neighbourhood;
+		boolean [] inNeighbourhood;
+
+		// witness search state
+		double [] dist;
+		int [] settledCount;
+		int [] touched;
+		int numTouched = 0;
+		IndexedHeap heap;
+
+		Contractor(ContractionHierarchy ch){
+			this.ch = ch;
+			this.graph = ch.graph;
+			this.n = graph.numNodes();
+			int m = graph.numArcs();
+
+			int capacity = Math.max(16, 2 * m);
+			from = new int [capacity];
+			to = new int [capacity];
+			c1 = new int [capacity];
+			c2 = new int [capacity];
+			weight = new double [capacity];
+
+			out = new int [n][];
+			in = new int [n][];
+			outSize = new int [n];
+			inSize = new int [n];
+			for(int i = 0; i < n; i++){
+				out[i] = new int [Math.max(2, graph.endArc(i) - graph.firstArc(i))];
+				in[i] = new int [Math.max(2, graph.endInArc(i) - graph.firstInArc(i))];
+			}
+			for(int a = 0; a < m; a++)
+				addEdge(graph.source(a), graph.target(a), graph.length(a), -1, -1);
+
+			contracted = new boolean [n];
+			deletedNeighbours = new int [n];
+			level = new int [n];
+			neighbourhood = new int [n];
+			inNeighbourhood = new boolean [n];
+			dist = new double [n];
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			touched = new int [n];
+			heap = new IndexedHeap(n);
+		}
+
+		int addEdge(int f, int t, double w, int child1, int child2){
+			if(numEdges == from.length){
+				int capacity = 2 * numEdges;
+				from = Arrays.copyOf(from, capacity);
+				to = Arrays.copyOf(to, capacity);
+				c1 = Arrays.copyOf(c1, capacity);
+				c2 = Arrays.copyOf(c2, capacity);
+				weight = Arrays.copyOf(weight, capacity);
+			}
+			int e = numEdges++;
+			from[e] = f;
+			to[e] = t;
+			weight[e] = w;
+			c1[e] = child1;
+			c2[e] = child2;
+
+			if(outSize[f] == out[f].length) out[f] = Arrays.copyOf(out[f], 2 * outSize[f]);
+			out[f][outSize[f]++] = e;
+			if(inSize[t] == in[t].length) in[t] = Arrays.copyOf(in[t], 2 * inSize[t]);
+			in[t][inSize[t]++] = e;
+			return e;
+		}
+
+		void run(){
+
+			// initial priorities
+			IndexedHeap queue = new IndexedHeap(n);
+			for(int v = 0; v < n; v++)
+				queue.insertOrDecrease(v, priority(v));
+
+			ch.rank = new int [n];
+			int order = 0;
+			while(!queue.isEmpty()){
+				int v = queue.poll();
+
+				// lazy update: if the node has become less attractive, put it back
+				double p = priority(v);
+				if(!queue.isEmpty() && p > queue.minKey()){
+					queue.insertOrDecrease(v, p);
+					continue;
+				}
+
+				contract(v, false);
+				contracted[v] = true;
+				ch.rank[v] = order++;
+
+				// the neighbours' priorities have changed
+				int numNeighbours = neighbours(v);
+				for(int i = 0; i < numNeighbours; i++){
+					int w = neighbourhood[i];
+					deletedNeighbours[w]++;
+					level[w] = Math.max(level[w], level[v] + 1);
+					queue.update(w, priority(w));
+				}
+			}
+
+			ch.numEdges = numEdges;
+			ch.edgeFrom = Arrays.copyOf(from, numEdges);
+			ch.edgeTo = Arrays.copyOf(to, numEdges);
+			ch.child1 = Arrays.copyOf(c1, numEdges);
+			ch.child2 = Arrays.copyOf(c2, numEdges);
+			ch.edgeWeight = Arrays.copyOf(weight, numEdges);
+		}
+
+		/**
+		 * The importance of a node: the number of shortcuts its contraction would add less the
+		 * number of edges it would remove (weighted double), plus the number of its neighbours
+		 * already contracted and the depth of the hierarchy beneath it
+		 */
+		double priority(int v){
+			int removed = 0;
+			for(int i = 0; i < outSize[v]; i++)
+				if(!contracted[to[out[v][i]]]) removed++;
+			for(int i = 0; i < inSize[v]; i++)
+				if(!contracted[from[in[v][i]]]) removed++;
+			int shortcuts = contract(v, true);
+			return 2 * (shortcuts - removed) + deletedNeighbours[v] + level[v];
+		}
+
+		/**
+		 * Gather the distinct uncontracted neighbours of v into neighbourhood[]
+		 * @return the number of neighbours found
+		 */
+		int neighbours(int v){
+			int count = 0;
+			for(int i = 0; i < outSize[v]; i++){
+				int w = to[out[v][i]];
+				if(contracted[w] || inNeighbourhood[w]) continue;
+				inNeighbourhood[w] = true;
+				neighbourhood[count++] = w;
+			}
+			for(int i = 0; i < inSize[v]; i++){
+				int u = from[in[v][i]];
+				if(contracted[u] || inNeighbourhood[u]) continue;
+				inNeighbourhood[u] = true;
+				neighbourhood[count++] = u;
+			}
+			for(int i = 0; i < count; i++)
+				inNeighbourhood[neighbourhood[i]] = false;
+			return count;
+		}
+
+		/**
+		 * Contract the node, adding the shortcuts it requires
+		 * @param v - the node to contract
+		 * @param simulate - if true, only count the shortcuts
+		 * @return the number of shortcuts required
+		 */
+		int contract(int v, boolean simulate){
+			int shortcuts = 0;
+			int limit = simulate ? simulationSettleLimit : witnessSettleLimit;
+
+			// the largest cost of leaving v
+			double maxOut = 0;
+			for(int j = 0; j < outSize[v]; j++){
+				int e = out[v][j];
+				if(!contracted[to[e]]) maxOut = Math.max(maxOut, weight[e]);
+			}
+
+			int numIn = inSize[v];
+			for(int i = 0; i < numIn; i++){
+				int eIn = in[v][i];
+				int u = from[eIn];
+				if(contracted[u] || u == v) continue;
+
+				witnessSearch(u, v, weight[eIn] + maxOut, limit);
+
+				int numOut = outSize[v];
+				for(int j = 0; j < numOut; j++){
+					int eOut = out[v][j];
+					int w = to[eOut];
+					if(contracted[w] || w == v || w == u) continue;
+
+					double viaV = weight[eIn] + weight[eOut];
+					if(dist[w] <= viaV) continue; // a witness path exists
+
+					shortcuts++;
+					if(!simulate)
+						addEdge(u, w, viaV, eIn, eOut);
+				}
+			}
+			return shortcuts;
+		}
+
+		/**
+		 * Dijkstra from u over the uncontracted nodes other than v, giving up beyond maxDist or
+		 * after settling limit nodes
+		 */
+		void witnessSearch(int u, int v, double maxDist, int limit){
+			for(int i = 0; i < numTouched; i++)
+				dist[touched[i]] = Double.POSITIVE_INFINITY;
+			numTouched = 0;
+			heap.clear();
+
+			dist[u] = 0;
+			touched[numTouched++] = u;
+			heap.insertOrDecrease(u, 0);
+
+			int settled = 0;
+			while(!heap.isEmpty() && settled < limit){
+				int x = heap.poll();
+				settled++;
+				if(dist[x] > maxDist) break;
+				for(int i = 0; i < outSize[x]; i++){
+					int e = out[x][i];
+					int y = to[e];
+					if(y == v || contracted[y]) continue;
+					double d = dist[x] + weight[e];
+					if(d < dist[y]){
+						if(dist[y] == Double.POSITIVE_INFINITY)
+							touched[numTouched++] = y;
+						dist[y] = d;
+						heap.insertOrDecrease(y, d);
+					}
+				}
+			}
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// PERSISTENCE ////////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Write the hierarchy to the given file. It is written beside the file first and only then
+	 * moved over it, so a save which fails part way leaves any earlier hierarchy as it was.
+	 */
+	public void save(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(numNodes);
+			out.writeInt(numArcs);
+			out.writeLong(fingerprint);
+			for(int i = 0; i < numNodes; i++)
+				out.writeInt(rank[i]);
+			out.writeInt(numEdges);
+			for(int e = numArcs; e < numEdges; e++){ // the original arcs come from the graph
+				out.writeInt(edgeFrom[e]);
+				out.writeInt(edgeTo[e]);
+				out.writeInt(child1[e]);
+				out.writeInt(child2[e]);
+				out.writeDouble(edgeWeight[e]);
+			}
+		} finally {
+			out.close();
+		}
+
+		if(file.exists() && !file.delete())
+			throw new IOException("Could not replace " + file);
+		if(!temp.renameTo(file))
+			throw new IOException("Could not move " + temp + " to " + file);
+	}
+
+	/**
+	 * Read a hierarchy from the given file
+	 * @param file - the saved hierarchy
+	 * @param graph - the graph from which the hierarchy was built
+	 * @return the hierarchy, or null if the file does not match the graph
+	 */
+	public static ContractionHierarchy load(File file, CSRGraph graph) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			ContractionHierarchy ch = new ContractionHierarchy(graph);
+			if(in.readInt() != MAGIC || in.readInt() != ch.numNodes || in.readInt() != ch.numArcs
+					|| in.readLong() != ch.fingerprint){
+				System.out.println("Contraction hierarchy in " + file + " does not match the road network");
+				return null;
+			}
+
+			ch.rank = new int [ch.numNodes];
+			for(int i = 0; i < ch.numNodes; i++)
+				ch.rank[i] = in.readInt();
+
+			int m = ch.numEdges = in.readInt();
+			ch.edgeFrom = new int [m];
+			ch.edgeTo = new int [m];
+			ch.child1 = new int [m];
+			ch.child2 = new int [m];
+			ch.edgeWeight = new double [m];
+			for(int e = 0; e < ch.numArcs; e++){
+				ch.edgeFrom[e] = graph.source(e);
+				ch.edgeTo[e] = graph.target(e);
+				ch.child1[e] = ch.child2[e] = -1;
+				ch.edgeWeight[e] = graph.length(e);
+			}
+			for(int e = ch.numArcs; e < m; e++){
+				ch.edgeFrom[e] = in.readInt();
+				ch.edgeTo[e] = in.readInt();
+				ch.child1[e] = in.readInt();
+				ch.child2[e] = in.readInt();
+				ch.edgeWeight[e] = in.readDouble();
+			}
+			ch.buildSearchGraphs();
+			return ch;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Incremental path planning toward a fixed goal within a MASON network, by D* Lite (Koenig and
+ * Likhachev, 2002). The search runs backward from the goal and its state is kept between
+ * queries, so when the traveller moves on or roads are closed or reopened, only the part of
+ * the search affected by the change is redone rather than planning again from scratch.
+ *
+ * One instance serves one traveller: the search is focused on the traveller's current position,
+ * which is expected to move along the path it has been given.
+ *
+ */
+public class DStarLite {
+
+	Network network;
+	GeoNode goal, last; // last is the start position for which keys were last computed
+	double km = 0; // how far the heuristic's reference point has moved since the search began
+
+	// roads closed that have nowhere else to record it (see RoadAttributes.setClosed()), and the
+	// changes still to be taken into account
+	HashSet <Edge> closed = new HashSet <Edge> ();
+	ArrayList <Edge> changed = new ArrayList <Edge> ();
+
+	// per-node search information, indexed by id
+	HashMap <Object, Integer> ids = new HashMap <Object, Integer> ();
+	int numNodes = 0;
+	Object [] nodes = new Object [256];
+	double [] g = new double [256], rhs = new double [256];
+
+	IndexedHeap open = new IndexedHeap(256);
+
+	int nodesExpanded = 0; // record-keeping
+
+	/**
+	 * @param network - the (undirected) network to travel
+	 * @param goal - the node to which paths are wanted
+	 */
+	public DStarLite(Network network, GeoNode goal){
+		this.network = network;
+		this.goal = goal;
+		int t = idOf(goal);
+		rhs[t] = 0;
+		open.insertOrUpdate(t, 0, 0);
+	}
+
+	public GeoNode getGoal(){ return goal; }
+
+	public Network getNetwork(){ return network; }
+
+	/**
+	 * @return the number of nodes expanded by all queries so far
+	 */
+	public int getNodesExpanded(){ return nodesExpanded; }
+
+	/**
+	 * Finds the best path from the given node to the goal, reusing as much of the previous
+	 * search as still holds
+	 *
+	 * @param start - the traveller's current node
+	 * @return either a list of the connecting edges, ordered from the goal back to the start,
+	 * or else null
+	 */
+	public ArrayList <Edge> path(GeoNode start){
+		if(start == goal)
+			return new ArrayList <Edge> ();
+
+		if(last == null) last = start;
+		else if(start != last){
+			km += heuristic(last, start);
+			last = start;
+		}
+		applyChanges();
+
+		int s = idOf(start);
+		computeShortestPath(s);
+		if(g[s] == Double.POSITIVE_INFINITY)
+			return null;
+
+		// follow the cheapest successor from each node down to the goal
+		ArrayList <Edge> result = new ArrayList <Edge> ();
+		Object node = start;
+		HashSet <Object> visited = new HashSet <Object> ();
+		while(node != goal){
+			if(!visited.add(node)) return null; // cannot happen with consistent values
+			Edge best = null;
+			double bestCost = Double.POSITIVE_INFINITY;
+			for(Object o: network.getEdges(node, null)){
+				Edge e = (Edge) o;
+				double c = cost(e) + valueOf(e.getOtherNode(node));
+				if(c < bestCost){
+					bestCost = c;
+					best = e;
+				}
+			}
+			if(best == null) return null;
+			result.add(best);
+			node = best.getOtherNode(node);
+		}
+
+		// ordered from the goal back to the start, the order in which MobileAgents consume paths
+		ArrayList <Edge> reversed = new ArrayList <Edge> (result.size());
+		for(int i = result.size() - 1; i >= 0; i--)
+			reversed.add(result.get(i));
+		return reversed;
+	}
+
+	/**
+	 * Close a road, recording it in the road's attributes (see RoadAttributes.setClosed()) so
+	 * that everything reading them sees it too; only a road with nowhere to record it is kept
+	 * closed by this planner alone. It will be avoided from the next query on. Roads marked as
+	 * CLOSED by anything else are always avoided too, but a change to a road the planner has
+	 * already reckoned with must be passed on to edgeChanged().
+	 */
+	public void closeEdge(Edge e){
+		if(!RoadAttributes.setClosed(e, true)) closed.add(e);
+		changed.addAll(RoadAttributes.edgesOfRoad(e, network));
+	}
+
+	/**
+	 * Reopen a road, recording it in the road's attributes
+	 */
+	public void reopenEdge(Edge e){
+		closed.remove(e);
+		RoadAttributes.setClosed(e, false);
+		changed.addAll(RoadAttributes.edgesOfRoad(e, network));
+	}
+
+	/**
+	 * Bring the planner's view of a road up to date with whether it is marked as closed, after
+	 * something else has opened or closed it
+	 */
+	public void edgeChanged(Edge e){
+		changed.addAll(RoadAttributes.edgesOfRoad(e, network));
+	}
+
+	/**
+	 * @return whether the road is marked as CLOSED (see RoadAttributes.isClosed())
+	 */
+	public static boolean isMarkedClosed(Edge e){
+		return RoadAttributes.isClosed(e);
+	}
+
+	/**
+	 * Account for roads whose cost has changed since the last query: only the values of their
+	 * endpoints need be recomputed here, with any knock-on effects handled by the search
+	 */
+	void applyChanges(){
+		for(Edge e: changed){
+			for(Object node: new Object [] {e.from(), e.to()}){
+				int u = idOf(node);
+				if(node != goal) rhs[u] = bestSuccessor(node);
+				updateVertex(u);
+			}
+		}
+		changed.clear();
+	}
+
+	void computeShortestPath(int s){
+		while(!open.isEmpty()){
+			double sk1 = Math.min(g[s], rhs[s]), sk2 = sk1;
+			sk1 += km; // the start is its own reference point, so its heuristic is zero
+			double k1 = open.minKey(), k2 = open.minTie();
+			boolean topIsLower = k1 < sk1 || (k1 == sk1 && k2 < sk2);
+			if(!topIsLower && rhs[s] == g[s]) break;
+
+			int u = open.peek();
+			Object unode = nodes[u];
+			double m = Math.min(g[u], rhs[u]);
+			double n1 = m + heuristic(last, (GeoNode) unode) + km;
+			if(k1 < n1 || (k1 == n1 && k2 < m)){ // the key is out of date
+				open.insertOrUpdate(u, n1, m);
+				continue;
+			}
+
+			nodesExpanded++;
+			if(g[u] > rhs[u]){ // overconsistent: its value can be settled
+				g[u] = rhs[u];
+				open.remove(u);
+				for(Object o: network.getEdges(unode, null)){
+					Edge e = (Edge) o;
+					Object p = e.getOtherNode(unode);
+					int pi = idOf(p);
+					if(p != goal) rhs[pi] = Math.min(rhs[pi], cost(e) + g[u]);
+					updateVertex(pi);
+				}
+			}
+			else { // underconsistent: its value has risen, so everything that relied on it must be redone
+				g[u] = Double.POSITIVE_INFINITY;
+				if(unode != goal) rhs[u] = bestSuccessor(unode);
+				updateVertex(u);
+				for(Object o: network.getEdges(unode, null)){
+					Object p = ((Edge) o).getOtherNode(unode);
+					int pi = idOf(p);
+					if(p != goal) rhs[pi] = bestSuccessor(p);
+					updateVertex(pi);
+				}
+			}
+		}
+	}
+
+	void updateVertex(int u){
+		if(g[u] != rhs[u]){
+			double m = Math.min(g[u], rhs[u]);
+			open.insertOrUpdate(u, m + heuristic(last, (GeoNode) nodes[u]) + km, m);
+		}
+		else open.remove(u);
+	}
+
+	/**
+	 * @return the lowest cost of reaching the goal from the node through any of its neighbours
+	 */
+	double bestSuccessor(Object node){
+		double best = Double.POSITIVE_INFINITY;
+		for(Object o: network.getEdges(node, null)){
+			Edge e = (Edge) o;
+			best = Math.min(best, cost(e) + valueOf(e.getOtherNode(node)));
+		}
+		return best;
+	}
+
+	double valueOf(Object node){
+		Integer id = ids.get(node);
+		return id == null ? Double.POSITIVE_INFINITY : g[id];
+	}
+
+	double cost(Edge e){
+		if(closed.contains(e) || isMarkedClosed(e)) return Double.POSITIVE_INFINITY;
+		return coordinate(e.from()).distance(coordinate(e.to()));
+	}
+
+	double heuristic(GeoNode a, GeoNode b){
+		if(a == null) return 0;
+		return coordinate(a).distance(coordinate(b));
+	}
+
+	static Coordinate coordinate(Object node){
+		return ((GeoNode) node).geometry.getCoordinate();
+	}
+
+	int idOf(Object node){
+		Integer id = ids.get(node);
+		if(id != null) return id;
+
+		if(numNodes == nodes.length){
+			int capacity = 2 * nodes.length;
+			nodes = Arrays.copyOf(nodes, capacity);
+			g = Arrays.copyOf(g, capacity);
+			rhs = Arrays.copyOf(rhs, capacity);
+		}
+		int i = numNodes++;
+		ids.put(node, i);
+		nodes[i] = node;
+		g[i] = Double.POSITIVE_INFINITY;
+		rhs[i] = Double.POSITIVE_INFINITY;
+		return i;
+	}
+}
@@ -0,0 +1,196 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+import sim.util.geo.GeomPlanarGraphEdge;
+
+/**
+ * Shortest paths to a small, fixed set of destinations (hospitals, BRC offices and the like).
+ * Rather than searching once per agent, one reverse Dijkstra is run from each destination, giving
+ * a tree of the best way there from every node of the network; any agent's path is then read
+ * off the tree for its destination in time proportional to the length of the path.
+ *
+ * The trees keep their own copy of the arc costs. When a road is closed or reopened, each tree
+ * is repaired in place, searching again only the part of the network whose paths have changed.
+ * Paths may be read by many threads at once; a closure waits for those reads to finish, and
+ * holds back any more until every tree has been repaired.
+ *
+ */
+public class DestinationTrees {
+
+	CSRGraph graph;
+	double [] weights, initialWeights;
+	HashMap <Integer, ShortestPathTree> trees = new HashMap <Integer, ShortestPathTree> ();
+	IndexedHeap heap;
+	ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * @param graph - the road graph
+	 * @param destinations - the ids of the destination nodes; duplicates are ignored
+	 * @param weights - the cost of each arc, or null to use the arc lengths. The array is copied.
+	 */
+	public DestinationTrees(CSRGraph graph, int [] destinations, double [] weights){
+		this.graph = graph;
+		this.weights = weights == null ? graph.copyLengths() : weights.clone();
+		initialWeights = this.weights.clone();
+		heap = new IndexedHeap(graph.numNodes());
+
+		for(int d: destinations){
+			if(trees.containsKey(d)) continue;
+			ShortestPathTree tree = new ShortestPathTree(graph, true);
+			tree.grow(new int [] {d}, this.weights, heap);
+			trees.put(d, tree);
+		}
+	}
+
+	/**
+	 * Build trees for the given destination nodes of a planar graph
+	 * @param destinations - the nodes; any which are not part of the graph are skipped
+	 */
+	public static DestinationTrees forNodes(CSRGraph graph, Iterable <?> destinations){
+		return forNodes(graph, destinations, null);
+	}
+
+	/**
+	 * Build trees for the given destination nodes of a planar graph, under the given arc costs
+	 * @param weights - the cost of each arc, or null to use the arc lengths
+	 */
+	public static DestinationTrees forNodes(CSRGraph graph, Iterable <?> destinations, double [] weights){
+		ArrayList <Integer> ids = new ArrayList <Integer> ();
+		for(Object o: destinations){
+			int id = graph.nodeId(o);
+			if(id >= 0) ids.add(id);
+		}
+		int [] result = new int [ids.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = ids.get(i);
+		return new DestinationTrees(graph, result, weights);
+	}
+
+	public CSRGraph getGraph(){ return graph; }
+
+	public int getNumTrees(){ return trees.size(); }
+
+	/** @return whether there is a tree for the given destination node */
+	public boolean covers(Object destination){
+		int id = graph.nodeId(destination);
+		return id >= 0 && trees.containsKey(id);
+	}
+
+	/**
+	 * @return the tree for the given destination node id, or null if there is none. The tree is
+	 * repaired in place when a road is closed, so it should not be read while one may be.
+	 */
+	public ShortestPathTree getTree(int destination){ return trees.get(destination); }
+
+	/**
+	 * @return the arcs from the start to the destination, in the order travelled, or null if
+	 * there is no path or no tree for the destination
+	 */
+	public int [] path(int start, int destination){
+		ShortestPathTree tree = trees.get(destination);
+		if(tree == null) return null;
+		lock.readLock().lock();
+		try {
+			return tree.path(start);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the cost of the best path from the start to the destination, or infinity if there
+	 * is no path or no tree for the destination
+	 */
+	public double distance(int start, int destination){
+		ShortestPathTree tree = trees.get(destination);
+		if(tree == null) return Double.POSITIVE_INFINITY;
+		lock.readLock().lock();
+		try {
+			return tree.distance(start);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Read a path off the tree for the destination, in the format used by AStar
+	 *
+	 * @param start - the node from which to start
+	 * @param destination - one of the destination nodes
+	 * @return the directed edges from start to destination, empty if there is no path, or null
+	 * if there is no tree for the destination
+	 */
+	public ArrayList <GeomPlanarGraphDirectedEdge> planarPath(Object start, Object destination){
+		int t = graph.nodeId(destination);
+		if(t < 0 || !trees.containsKey(t))
+			return null;
+		int s = graph.nodeId(start);
+		int [] path = s < 0 ? null : path(s, t);
+		if(path == null)
+			return new ArrayList <GeomPlanarGraphDirectedEdge> ();
+		return graph.toPlanarPath(path);
+	}
+
+	/**
+	 * Change the cost of an arc, repairing every tree
+	 * @param arc - the arc
+	 * @param weight - its new cost; infinity closes it
+	 */
+	public void setWeight(int arc, double weight){
+		lock.writeLock().lock();
+		try {
+			double old = weights[arc];
+			if(old == weight) return;
+			weights[arc] = weight;
+			for(ShortestPathTree tree: trees.values())
+				tree.update(arc, old, heap);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Close a road in both directions
+	 * @param road - an edge of the planar graph from which the CSRGraph was built
+	 */
+	public void close(GeomPlanarGraphEdge road){
+		lock.writeLock().lock(); // no path is read with the road closed one way only
+		try {
+			for(int i = 0; i < 2; i++){
+				int a = graph.arcId(road.getDirEdge(i));
+				if(a >= 0) setWeight(a, Double.POSITIVE_INFINITY);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reopen a closed road in both directions, at the cost it had when the trees were built
+	 */
+	public void reopen(GeomPlanarGraphEdge road){
+		lock.writeLock().lock();
+		try {
+			for(int i = 0; i < 2; i++){
+				int a = graph.arcId(road.getDirEdge(i));
+				if(a >= 0) setWeight(a, initialWeights[a]);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** @return whether the arc is currently closed */
+	public boolean isClosed(int arc){
+		lock.readLock().lock();
+		try {
+			return weights[arc] == Double.POSITIVE_INFINITY;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package objects.network;
+
+import java.util.HashMap;
+import java.util.List;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * How much of each arc of the road graph lies within flood zones 2 and 3. The roads are matched
+ * against the flood polygons once, when the network is built, so that routing only ever looks
+ * up the result: an arc's cost can be raised in proportion to how much of it floods, or the arc
+ * can be left out altogether.
+ *
+ */
+public class FloodExposure {
+
+	public static final int NONE = 0, ZONE_2 = 2, ZONE_3 = 3;
+
+	CSRGraph graph;
+	double [] fraction2, fraction3; // the share of each arc's length lying in each zone
+	byte [] zones; // the highest zone each arc enters, or NONE
+
+	FloodExposure(CSRGraph graph){
+		this.graph = graph;
+		fraction2 = new double [graph.numArcs()];
+		fraction3 = new double [graph.numArcs()];
+		zones = new byte [graph.numArcs()];
+	}
+
+	/**
+	 * Match every road of a planar road graph against the flood zones, spreading the roads over
+	 * a pool of worker threads
+	 *
+	 * @param graph - the road graph, built from a GeomPlanarGraph
+	 * @param zone2 - the polygons of flood zone 2
+	 * @param zone3 - the polygons of flood zone 3
+	 * @param numThreads - the number of workers to use
+	 */
+	public static FloodExposure classify(CSRGraph graph, GeomVectorField zone2, GeomVectorField zone3,
+			int numThreads){
+		long startTime = System.currentTimeMillis();
+		final FloodExposure result = new FloodExposure(graph);
+		final STRtree index2 = index(zone2), index3 = index(zone3);
+
+		int numArcs = graph.numArcs();
+		WorkerPool.forEach(numThreads, numArcs, new WorkerPool.Range(){
+			public void run(int first, int last){
+				// prepared geometries build their own indices lazily, so each batch keeps its own
+				HashMap <Geometry, PreparedGeometry> prepared = new HashMap <Geometry, PreparedGeometry> ();
+				for(int a = first; a < last; a++)
+					result.classify(a, index2, index3, prepared);
+			}
+		}, "classifying roads");
+
+		System.out.println("Classified " + numArcs + " arcs against the flood zones in "
+				+ (System.currentTimeMillis() - startTime) + "ms: " + count(result, ZONE_2)
+				+ " in zone 2, " + count(result, ZONE_3) + " in zone 3");
+		return result;
+	}
+
+	/**
+	 * An index of the polygons of a layer, ready to be queried from several threads at once
+	 */
+	static STRtree index(GeomVectorField layer){
+		STRtree index = new STRtree();
+		if(layer != null && layer.getGeometries() != null)
+			for(Object o: layer.getGeometries()){
+				Geometry g = ((MasonGeometry) o).geometry;
+				index.insert(g.getEnvelopeInternal(), g);
+			}
+		index.build(); // queries would otherwise build it on first use
+		return index;
+	}
+
+	void classify(int arc, STRtree index2, STRtree index3, HashMap <Geometry, PreparedGeometry> prepared){
+		int twin = graph.twin(arc);
+		if(twin >= 0 && twin < arc) return; // the road is done along with its other direction
+
+		LineString line = graph.getPlanarEdge(arc).getLine();
+		double f2 = fraction(line, index2, prepared), f3 = fraction(line, index3, prepared);
+		byte zone = (byte) (f3 > 0 ? ZONE_3 : f2 > 0 ? ZONE_2 : NONE);
+		for(int a: twin < 0 ? new int [] {arc} : new int [] {arc, twin}){
+			fraction2[a] = f2;
+			fraction3[a] = f3;
+			zones[a] = zone;
+		}
+	}
+
+	/**
+	 * @return the share of the line's length lying within the polygons of the index
+	 */
+	static double fraction(LineString line, STRtree index, HashMap <Geometry, PreparedGeometry> prepared){
+		double length = line.getLength(), inside = 0;
+		List <?> candidates = index.query(line.getEnvelopeInternal());
+		for(Object o: candidates){
+			Geometry polygon = (Geometry) o;
+			PreparedGeometry p = prepared.get(polygon);
+			if(p == null){
+				p = PreparedGeometryFactory.prepare(polygon);
+				prepared.put(polygon, p);
+			}
+			if(!p.intersects(line)) continue;
+			if(p.covers(line) || length == 0) return 1;
+			// only roads crossing a zone's edge need the exact overlap
+			inside += polygon.intersection(line).getLength();
+		}
+		return length == 0 ? 0 : Math.min(1, inside / length);
+	}
+
+	static int count(FloodExposure exposure, int zone){
+		int result = 0;
+		for(byte z: exposure.zones)
+			if(z == zone) result++;
+		return result;
+	}
+
+	public CSRGraph getGraph(){ return graph; }
+
+	/** @return the highest flood zone the arc enters, or NONE */
+	public int getZone(int arc){ return zones[arc]; }
+
+	/** @return the share of the arc's length which lies in flood zone 2 */
+	public double getFraction2(int arc){ return fraction2[arc]; }
+
+	/** @return the share of the arc's length which lies in flood zone 3 */
+	public double getFraction3(int arc){ return fraction3[arc]; }
+
+	/** @return the number of arcs whose highest zone is the given one */
+	public int countInZone(int zone){ return count(this, zone); }
+
+	/**
+	 * Arc costs for routing around the flood zones. The part of an arc lying in a zone costs its
+	 * length times that zone's multiplier; any part in zone 2 which is not also in zone 3 counts
+	 * as zone 2.
+	 *
+	 * @param zone2Multiplier - the cost of each unit of length in zone 2; at least 1
+	 * @param zone3Multiplier - the cost of each unit of length in zone 3; at least 1
+	 * @param excludeZone3 - whether arcs entering zone 3 should not be used at all
+	 * @return the cost of each arc. Costs are never less than lengths, so the straight-line
+	 * distance remains an admissible heuristic.
+	 */
+	public double [] weights(double zone2Multiplier, double zone3Multiplier, boolean excludeZone3){
+		zone2Multiplier = Math.max(1, zone2Multiplier);
+		zone3Multiplier = Math.max(1, zone3Multiplier);
+		double [] result = new double [graph.numArcs()];
+		for(int a = 0; a < result.length; a++){
+			if(excludeZone3 && zones[a] == ZONE_3){
+				result[a] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			double only2 = Math.max(0, fraction2[a] - fraction3[a]);
+			result[a] = graph.length(a) * (1 + (zone2Multiplier - 1) * only2
+					+ (zone3Multiplier - 1) * fraction3[a]);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,209 @@
+package objects.network;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap over integer ids with double-valued keys. Each id knows its own position
+ * in the heap, so the key of an id already in the heap can be lowered in O(log n) rather than
+ * having to search for it.
+ *
+ */
+public class IndexedHeap {
+
+	int [] heap; // the ids, in heap order
+	int [] position; // the position of each id in the heap, or -1 if it is not present
+	double [] keys; // the key of each id
+	double [] ties; // the secondary key of each id, which decides between equal keys
+	int size = 0;
+
+	public IndexedHeap(int capacity){
+		capacity = Math.max(capacity, 16);
+		heap = new int [capacity];
+		position = new int [capacity];
+		keys = new double [capacity];
+		ties = new double [capacity];
+		Arrays.fill(position, -1);
+	}
+
+	/**
+	 * Make sure that ids up to (but not including) capacity can be stored
+	 * @param capacity - the number of ids the heap must be able to hold
+	 */
+	public void ensureCapacity(int capacity){
+		if(capacity <= position.length) return;
+		int newCapacity = Math.max(capacity, 2 * position.length);
+		heap = Arrays.copyOf(heap, newCapacity);
+		keys = Arrays.copyOf(keys, newCapacity);
+		ties = Arrays.copyOf(ties, newCapacity);
+		int oldCapacity = position.length;
+		position = Arrays.copyOf(position, newCapacity);
+		Arrays.fill(position, oldCapacity, newCapacity, -1);
+	}
+
+	public boolean isEmpty(){ return size == 0; }
+
+	public int size(){ return size; }
+
+	public boolean contains(int id){
+		return id < position.length && position[id] >= 0;
+	}
+
+	public double getKey(int id){ return keys[id]; }
+
+	public double getTie(int id){ return ties[id]; }
+
+	/**
+	 * @return the key of the id at the top of the heap
+	 */
+	public double minKey(){ return keys[heap[0]]; }
+
+	/**
+	 * @return the secondary key of the id at the top of the heap
+	 */
+	public double minTie(){ return ties[heap[0]]; }
+
+	/**
+	 * @return the id at the top of the heap, without removing it
+	 */
+	public int peek(){ return heap[0]; }
+
+	/**
+	 * Add the id to the heap, or lower its key if it is already present and the new key is smaller
+	 * @param id - the id to add
+	 * @param key - the key associated with the id
+	 * @return whether the heap changed
+	 */
+	public boolean insertOrDecrease(int id, double key){
+		ensureCapacity(id + 1);
+		if(position[id] < 0){
+			keys[id] = key;
+			ties[id] = 0;
+			heap[size] = id;
+			position[id] = size;
+			size++;
+			siftUp(size - 1);
+			return true;
+		}
+		else if(key < keys[id]){
+			keys[id] = key;
+			ties[id] = 0;
+			siftUp(position[id]);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Add the id to the heap or change its place in it, ordering by key and then by tie, so
+	 * that ids are compared by the pair (key, tie) lexicographically
+	 */
+	public void insertOrUpdate(int id, double key, double tie){
+		ensureCapacity(id + 1);
+		if(position[id] < 0){
+			keys[id] = key;
+			ties[id] = tie;
+			heap[size] = id;
+			position[id] = size;
+			size++;
+			siftUp(size - 1);
+		}
+		else {
+			keys[id] = key;
+			ties[id] = tie;
+			siftUp(position[id]);
+			siftDown(position[id]);
+		}
+	}
+
+	/**
+	 * Change the key of an id which is already in the heap, in either direction. An id which
+	 * is not in the heap is left out of it, as in remove()
+	 */
+	public void update(int id, double key){
+		if(!contains(id)) return;
+		double old = keys[id];
+		keys[id] = key;
+		ties[id] = 0;
+		if(key < old) siftUp(position[id]);
+		else siftDown(position[id]);
+	}
+
+	/**
+	 * Remove and return the id with the smallest key
+	 */
+	public int poll(){
+		int result = heap[0];
+		size--;
+		if(size > 0){
+			heap[0] = heap[size];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		position[result] = -1;
+		return result;
+	}
+
+	/**
+	 * Remove the given id from the heap, if it is present
+	 */
+	public void remove(int id){
+		if(!contains(id)) return;
+		int i = position[id];
+		size--;
+		if(i < size){
+			heap[i] = heap[size];
+			position[heap[i]] = i;
+			siftUp(i);
+			siftDown(position[heap[i]]);
+		}
+		position[id] = -1;
+	}
+
+	/**
+	 * Empty the heap. Only the ids still in the heap are touched, so this is cheap
+	 * after a search that has been run to completion.
+	 */
+	public void clear(){
+		for(int i = 0; i < size; i++)
+			position[heap[i]] = -1;
+		size = 0;
+	}
+
+	void siftUp(int i){
+		int id = heap[i];
+		double key = keys[id], tie = ties[id];
+		while(i > 0){
+			int parent = (i - 1) >>> 1;
+			int p = heap[parent];
+			if(keys[p] < key || (keys[p] == key && ties[p] <= tie)) break;
+			heap[i] = p;
+			position[p] = i;
+			i = parent;
+		}
+		heap[i] = id;
+		position[id] = i;
+	}
+
+	void siftDown(int i){
+		int id = heap[i];
+		double key = keys[id], tie = ties[id];
+		int half = size >>> 1;
+		while(i < half){
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if(right < size && precedes(heap[right], heap[child]))
+				child = right;
+			int c = heap[child];
+			if(key < keys[c] || (key == keys[c] && tie <= ties[c])) break;
+			heap[i] = c;
+			position[c] = i;
+			i = child;
+		}
+		heap[i] = id;
+		position[id] = i;
+	}
+
+	boolean precedes(int a, int b){
+		return keys[a] < keys[b] || (keys[a] == keys[b] && ties[a] < ties[b]);
+	}
+}
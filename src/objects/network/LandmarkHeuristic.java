@@ -0,0 +1,227 @@
+package objects.network;
+
+import java.util.ArrayList;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * The ALT (A*, Landmarks, Triangle inequality) heuristic. The exact distances to and from a
+ * handful of landmark nodes are computed in advance; for any landmark L, the triangle inequality
+ * gives both d(L,t) - d(L,v) and d(v,L) - d(t,L) as lower bounds on d(v,t), and the heuristic
+ * is the best such bound over all of the landmarks. Landmarks which lie "behind" the goal make
+ * for tight bounds even where the straight line is a poor guide, e.g. around the Broads or along
+ * rivers with few crossings.
+ *
+ * The bounds remain admissible if arc costs later rise (a road is closed or congested), though
+ * they become weaker; if costs fall, the tables must be rebuilt.
+ *
+ */
+public class LandmarkHeuristic implements CSRAStar.Heuristic {
+
+	CSRGraph graph;
+	int [] landmarks;
+	double [][] fromLandmark; // fromLandmark[k][v] = d(landmark k, v)
+	double [][] toLandmark; // toLandmark[k][v] = d(v, landmark k)
+
+	/**
+	 * Precompute the distance tables for the given landmarks
+	 *
+	 * @param graph - the graph to be searched
+	 * @param landmarks - the ids of the landmark nodes
+	 * @param weights - the arc costs the searches will use, or null for the arc lengths
+	 */
+	public LandmarkHeuristic(CSRGraph graph, int [] landmarks, double [] weights){
+		this.graph = graph;
+		this.landmarks = landmarks.clone();
+		fromLandmark = new double [landmarks.length][];
+		toLandmark = new double [landmarks.length][];
+
+		IndexedHeap heap = new IndexedHeap(graph.numNodes());
+		for(int k = 0; k < landmarks.length; k++){
+			int [] root = new int [] {landmarks[k]};
+			ShortestPathTree tree = new ShortestPathTree(graph, false);
+			tree.grow(root, weights, heap);
+			fromLandmark[k] = tree.dist;
+
+			tree = new ShortestPathTree(graph, true);
+			tree.grow(root, weights, heap);
+			toLandmark[k] = tree.dist;
+		}
+	}
+
+	public int [] getLandmarks(){ return landmarks.clone(); }
+
+	public int getNumLandmarks(){ return landmarks.length; }
+
+	public double estimate(int node, int goal){
+		double best = 0;
+		for(int k = 0; k < landmarks.length; k++){
+			double [] from = fromLandmark[k], to = toLandmark[k];
+
+			// pairs involving unreachable nodes say nothing, so they are skipped
+			if(from[goal] < Double.POSITIVE_INFINITY && from[node] < Double.POSITIVE_INFINITY){
+				double d = from[goal] - from[node];
+				if(d > best) best = d;
+			}
+			if(to[node] < Double.POSITIVE_INFINITY && to[goal] < Double.POSITIVE_INFINITY){
+				double d = to[node] - to[goal];
+				if(d > best) best = d;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Choose landmarks by farthest-point selection: each new landmark is the node farthest (by
+	 * road) from all of those chosen so far, which spreads them around the edge of the network.
+	 *
+	 * @param graph - the graph from which to choose
+	 * @param numLandmarks - the number of landmarks wanted
+	 * @param weights - the arc costs, or null for the arc lengths
+	 * @param random - used to pick the node from which selection starts
+	 * @return the ids of the landmarks, possibly fewer than requested if the graph is tiny
+	 */
+	public static int [] selectFarthest(CSRGraph graph, int numLandmarks, double [] weights,
+			MersenneTwisterFast random){
+		int n = graph.numNodes();
+		if(n == 0) return new int [0];
+
+		IndexedHeap heap = new IndexedHeap(n);
+		ShortestPathTree tree = new ShortestPathTree(graph, false);
+
+		// the first landmark is the node farthest from a random starting point, so that it lies
+		// on the periphery rather than wherever the random pick happened to fall
+		int [] chosen = new int [] {random.nextInt(n)};
+		tree.grow(chosen, weights, heap);
+		ArrayList <Integer> landmarks = new ArrayList <Integer> ();
+		int next = farthest(tree);
+
+		while(next >= 0 && landmarks.size() < numLandmarks){
+			landmarks.add(next);
+			chosen = toArray(landmarks);
+			tree.grow(chosen, weights, heap);
+			next = farthest(tree);
+			if(next >= 0 && tree.dist[next] == 0) next = -1; // every reachable node is a landmark
+		}
+		return toArray(landmarks);
+	}
+
+	/**
+	 * Choose landmarks around the boundary of the network: the plane is divided into equal
+	 * sectors about the centre of the nodes' bounding box and the node farthest from the centre
+	 * in each sector becomes a landmark. Cheaper than farthest-point selection, as no searches
+	 * are needed, but blind to the shape of the network itself.
+	 *
+	 * @param graph - the graph from which to choose
+	 * @param numLandmarks - the number of sectors
+	 * @return the ids of the landmarks, one for each sector containing any nodes
+	 */
+	public static int [] selectBoundary(CSRGraph graph, int numLandmarks){
+		int n = graph.numNodes();
+		if(n == 0 || numLandmarks <= 0) return new int [0];
+
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int v = 0; v < n; v++){
+			minX = Math.min(minX, graph.xs[v]);
+			maxX = Math.max(maxX, graph.xs[v]);
+			minY = Math.min(minY, graph.ys[v]);
+			maxY = Math.max(maxY, graph.ys[v]);
+		}
+		double cx = (minX + maxX) / 2, cy = (minY + maxY) / 2;
+
+		int [] best = new int [numLandmarks];
+		double [] bestDist = new double [numLandmarks];
+		for(int i = 0; i < numLandmarks; i++){
+			best[i] = -1;
+			bestDist[i] = -1;
+		}
+
+		for(int v = 0; v < n; v++){
+			double dx = graph.xs[v] - cx, dy = graph.ys[v] - cy;
+			double angle = Math.atan2(dy, dx) + Math.PI; // 0 to 2 pi
+			int sector = Math.min(numLandmarks - 1, (int)(angle / (2 * Math.PI) * numLandmarks));
+			double d = dx * dx + dy * dy;
+			if(d > bestDist[sector]){
+				bestDist[sector] = d;
+				best[sector] = v;
+			}
+		}
+
+		ArrayList <Integer> landmarks = new ArrayList <Integer> ();
+		for(int v: best)
+			if(v >= 0) landmarks.add(v);
+		return toArray(landmarks);
+	}
+
+	/**
+	 * Search between the same origin-destination pairs using the Euclidean heuristic and the
+	 * given one, reporting how many nodes each had to expand. The two should agree on the cost
+	 * of every path; any disagreement means the heuristic is not admissible, and is an error.
+	 *
+	 * @param graph - the graph to search
+	 * @param weights - the arc costs, or null for the arc lengths
+	 * @param heuristic - the heuristic to compare against straight-line distance
+	 * @param origins - the start node of each pair
+	 * @param destinations - the goal node of each pair
+	 * @return the total nodes expanded by the Euclidean and given heuristics, in that order
+	 * @throws IllegalStateException if the two found paths of different cost
+	 */
+	public static long [] compare(CSRGraph graph, double [] weights, CSRAStar.Heuristic heuristic,
+			int [] origins, int [] destinations){
+		CSRAStar euclidean = new CSRAStar(graph, weights, null);
+		CSRAStar other = new CSRAStar(graph, weights, heuristic);
+
+		long euclideanExpanded = 0, otherExpanded = 0;
+		int mismatches = 0;
+		for(int i = 0; i < origins.length; i++){
+			double d1 = euclidean.distance(origins[i], destinations[i]);
+			euclideanExpanded += euclidean.getNodesExpanded();
+			double d2 = other.distance(origins[i], destinations[i]);
+			otherExpanded += other.getNodesExpanded();
+			if(Math.abs(d1 - d2) > 1e-6 * Math.max(1, d1))
+				mismatches++;
+		}
+
+		System.out.println("Nodes expanded over " + origins.length + " pairs: Euclidean "
+				+ euclideanExpanded + ", compared heuristic " + otherExpanded);
+		if(mismatches > 0)
+			throw new IllegalStateException("Path costs differed for " + mismatches + " of "
+					+ origins.length + " pairs: the heuristic is not admissible");
+		return new long [] {euclideanExpanded, otherExpanded};
+	}
+
+	/**
+	 * As above, over randomly chosen pairs of nodes
+	 */
+	public static long [] compare(CSRGraph graph, double [] weights, CSRAStar.Heuristic heuristic,
+			int numPairs, MersenneTwisterFast random){
+		int [] origins = new int [numPairs], destinations = new int [numPairs];
+		for(int i = 0; i < numPairs; i++){
+			origins[i] = random.nextInt(graph.numNodes());
+			destinations[i] = random.nextInt(graph.numNodes());
+		}
+		return compare(graph, weights, heuristic, origins, destinations);
+	}
+
+	/** @return the reached node farthest from the tree's roots, or -1 if there is none */
+	static int farthest(ShortestPathTree tree){
+		int best = -1;
+		double bestDist = -1;
+		for(int v = 0; v < tree.dist.length; v++){
+			double d = tree.dist[v];
+			if(d < Double.POSITIVE_INFINITY && d > bestDist){
+				bestDist = d;
+				best = v;
+			}
+		}
+		return best;
+	}
+
+	static int [] toArray(ArrayList <Integer> list){
+		int [] result = new int [list.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = list.get(i);
+		return result;
+	}
+}
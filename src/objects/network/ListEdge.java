@@ -10,9 +10,15 @@ public class ListEdge extends Edge {
 	private static final long serialVersionUID = 1L;
 	ArrayList <Object> elements = new ArrayList <Object> ();
 	double length = 1.;
+
+	// the road this edge was cut from, whose attributes are shared by all of its edges
+	RoadAttributes attributes = null;
+	int feature = -1;
 	
 	public ListEdge(Edge e) {
 		super(e);
+		if(e instanceof ListEdge)
+			setFeature(((ListEdge) e).attributes, ((ListEdge) e).feature);
 	}
 
 	public boolean equals(Object o){
@@ -32,10 +38,38 @@ public class ListEdge extends Edge {
 	}
 	
 	public ListEdge(Edge e, double length) {
-		super(e);
+		this(e);
 		this.length = length;
 	}
 
+	/**
+	 * @param attributes - the attributes of the roads
+	 * @param feature - the road this edge was cut from
+	 */
+	public void setFeature(RoadAttributes attributes, int feature){
+		this.attributes = attributes;
+		this.feature = feature;
+	}
+
+	public RoadAttributes getAttributes(){ return attributes; }
+
+	/** @return the road this edge was cut from, or -1 if it is not known */
+	public int getFeature(){ return feature; }
+
+	public boolean isClosed(){
+		return attributes == null ? RoadAttributes.isClosed(this) : attributes.closed[feature];
+	}
+
+	/** @return the code of the class of road, or -1 if it is not known */
+	public int getRoadClass(){
+		return attributes == null ? -1 : attributes.roadClasses[feature];
+	}
+
+	/** @return the ROAD_ID of the road, or -1 if it is not known */
+	public int getRoadId(){
+		return attributes == null ? RoadAttributes.getRoadId(this) : attributes.roadIds[feature];
+	}
+
 	public void addElement(Object o){
 		elements.add(o);
 	}
@@ -0,0 +1,454 @@
+package objects.network;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.Bag;
+import sim.util.geo.AttributeValue;
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+import sim.util.geo.GeomPlanarGraphEdge;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateArrays;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.planargraph.Node;
+
+/**
+ * A binary copy of a road layer and the planar graph built from it, so that a run can start
+ * without parsing the shapefile or matching up the ends of the roads again. The snapshot holds
+ * the nodes of the graph, and for every road its end nodes, the x and y of its points (any z is
+ * dropped) and the chosen attributes (always including ROAD_ID).
+ *
+ * A snapshot is written once, after the shapefile has been read, and is afterwards loaded through
+ * a memory-mapped FileChannel. It is stamped with a checksum of the shapefile (its .shp and .dbf)
+ * and of the attributes chosen, so a snapshot of an older shapefile is ignored, and with a
+ * checksum of its own contents, so a damaged one is too.
+ *
+ * The file is laid out as: the magic number, version and source checksum; the numbers of strings,
+ * attributes, nodes, roads and points; a table of strings; the attribute names (as string ids);
+ * the nodes as x, y pairs; for every road its start and end nodes (-1 for a road too short to be
+ * an edge) and the index past its last point; the points as x, y pairs; for every road and
+ * attribute a type tag and value; and lastly a CRC32 of everything before it.
+ *
+ */
+public class NetworkSnapshot {
+
+	public static final int MAGIC = 0x4e534e31; // "NSN1"
+	public static final int VERSION = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// the type tags of attribute values
+	static final byte NONE = 0, INTEGER = 1, DOUBLE = 2, STRING = 3, LONG = 4, BOOLEAN = 5;
+
+	String [] attributes;
+	double [] nodeXs, nodeYs;
+	int [] startNodes, endNodes;
+
+	// the roads, as read from the shapefile or recreated from the snapshot
+	MasonGeometry [] roads;
+
+	NetworkSnapshot(){}
+
+	public int numNodes(){ return nodeXs.length; }
+
+	public int numRoads(){ return roads.length; }
+
+	public String [] getAttributes(){ return attributes.clone(); }
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// CAPTURE AND USE ////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Take a snapshot of a road layer which has been read from a shapefile
+	 *
+	 * @param roadLayer - the roads
+	 * @param attributes - the attributes to keep, or null to keep every attribute found
+	 * @return the snapshot, or null if the layer holds anything other than LineStrings
+	 */
+	public static NetworkSnapshot capture(GeomVectorField roadLayer, String [] attributes){
+		Bag geometries = roadLayer.getGeometries();
+		NetworkSnapshot s = new NetworkSnapshot();
+		s.roads = new MasonGeometry [geometries.size()];
+		TreeSet <String> names = new TreeSet <String> ();
+		if(attributes != null)
+			names.addAll(Arrays.asList(attributes));
+		names.add("ROAD_ID");
+		for(int i = 0; i < s.roads.length; i++){
+			s.roads[i] = (MasonGeometry) geometries.get(i);
+			if(!(s.roads[i].geometry instanceof LineString))
+				return null;
+			if(attributes == null)
+				names.addAll(s.roads[i].getAttributes().keySet());
+		}
+		s.attributes = names.toArray(new String [names.size()]);
+
+		// the ends of the roads become nodes just as in GeomPlanarGraph.createFromGeomField()
+		HashMap <Coordinate, Integer> nodeIds = new HashMap <Coordinate, Integer> ();
+		ArrayList <Coordinate> nodes = new ArrayList <Coordinate> ();
+		s.startNodes = new int [s.roads.length];
+		s.endNodes = new int [s.roads.length];
+		for(int i = 0; i < s.roads.length; i++){
+			Coordinate [] cs = CoordinateArrays.removeRepeatedPoints(s.roads[i].geometry.getCoordinates());
+			if(cs.length < 2){
+				s.startNodes[i] = s.endNodes[i] = -1;
+				continue;
+			}
+			s.startNodes[i] = nodeId(cs[0], nodeIds, nodes);
+			s.endNodes[i] = nodeId(cs[cs.length - 1], nodeIds, nodes);
+		}
+		s.nodeXs = new double [nodes.size()];
+		s.nodeYs = new double [nodes.size()];
+		for(int i = 0; i < s.nodeXs.length; i++){
+			s.nodeXs[i] = nodes.get(i).x;
+			s.nodeYs[i] = nodes.get(i).y;
+		}
+		return s;
+	}
+
+	static int nodeId(Coordinate c, HashMap <Coordinate, Integer> nodeIds, ArrayList <Coordinate> nodes){
+		Integer id = nodeIds.get(c);
+		if(id == null){
+			id = nodes.size();
+			nodeIds.put(c, id);
+			nodes.add(c);
+		}
+		return id;
+	}
+
+	/**
+	 * Add the roads to a layer, as ShapeFileImporter.read() would
+	 */
+	public void fill(GeomVectorField roadLayer){
+		for(MasonGeometry road: roads)
+			roadLayer.addGeometry(road);
+	}
+
+	/**
+	 * @return the planar graph of the roads, the same as GeomPlanarGraph.createFromGeomField()
+	 * would build, but from the stored nodes rather than by looking up the ends of every road
+	 */
+	public GeomPlanarGraph createGraph(){
+		Graph graph = new Graph();
+		Node [] nodes = new Node [nodeXs.length];
+		for(int i = 0; i < nodes.length; i++){
+			nodes[i] = new Node(new Coordinate(nodeXs[i], nodeYs[i]));
+			graph.addNode(nodes[i]);
+		}
+		for(int i = 0; i < roads.length; i++){
+			if(startNodes[i] < 0) continue;
+			LineString line = (LineString) roads[i].geometry;
+			Coordinate [] cs = CoordinateArrays.removeRepeatedPoints(line.getCoordinates());
+			Node from = nodes[startNodes[i]], to = nodes[endNodes[i]];
+			GeomPlanarGraphDirectedEdge de0 = new GeomPlanarGraphDirectedEdge(from, to, cs[1], true);
+			GeomPlanarGraphDirectedEdge de1 = new GeomPlanarGraphDirectedEdge(to, from, cs[cs.length - 2], false);
+			GeomPlanarGraphEdge edge = new GeomPlanarGraphEdge(line);
+			edge.setDirectedEdges(de0, de1);
+			edge.setAttributes(roads[i].getAttributes());
+			graph.addEdge(edge);
+		}
+		return graph;
+	}
+
+	/**
+	 * Opens up the protected means of adding to a planar graph
+	 */
+	static class Graph extends GeomPlanarGraph {
+		void addNode(Node n){ add(n); }
+		void addEdge(GeomPlanarGraphEdge e){ add(e); }
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// READING AND WRITING ////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * @param shapefile - the .shp file, beside which its .dbf is expected
+	 * @param attributes - the attributes to keep, or null for all of them
+	 * @return a checksum of the shapefile's geometries and attributes and the attributes chosen,
+	 * 		with which a snapshot is stamped
+	 */
+	public static long sourceChecksum(File shapefile, String [] attributes) throws IOException {
+		String path = shapefile.getPath();
+		File dbf = new File(path.substring(0, path.length() - 4) + ".dbf");
+		CRC32 crc = new CRC32();
+		byte [] chunk = new byte [1 << 16];
+		long h = 17;
+		for(File f: new File [] {shapefile, dbf}){
+			if(!f.exists()) continue;
+			crc.reset();
+			FileInputStream in = new FileInputStream(f);
+			try {
+				for(int n; (n = in.read(chunk)) > 0; )
+					crc.update(chunk, 0, n);
+			} finally {
+				in.close();
+			}
+			h = 31 * (31 * h + f.length()) + crc.getValue();
+		}
+		return 31 * h + (attributes == null ? 0 : Arrays.hashCode(attributes));
+	}
+
+	/**
+	 * Write the snapshot, through a temporary file so that a run stopped part of the way through
+	 * leaves no half-written snapshot behind
+	 *
+	 * @param file - where to write the snapshot
+	 * @param source - the checksum of the shapefile the roads were read from (see sourceChecksum())
+	 */
+	public void write(File file, long source) throws IOException {
+		long startTime = System.currentTimeMillis();
+
+		// gather the strings, so that each is written only once
+		LinkedHashMap <String, Integer> strings = new LinkedHashMap <String, Integer> ();
+		for(String a: attributes)
+			stringId(a, strings);
+		for(MasonGeometry road: roads)
+			for(String a: attributes){
+				Object value = value(road, a);
+				if(value != null && type(value) == STRING)
+					stringId(value.toString(), strings);
+			}
+		int numPoints = 0;
+		for(MasonGeometry road: roads)
+			numPoints += road.geometry.getNumPoints();
+
+		File temp = new File(file.getPath() + ".tmp");
+		CheckedOutputStream checked = new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), 1 << 16), new CRC32());
+		DataOutputStream out = new DataOutputStream(checked);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source);
+			out.writeInt(strings.size());
+			out.writeInt(attributes.length);
+			out.writeInt(nodeXs.length);
+			out.writeInt(roads.length);
+			out.writeInt(numPoints);
+
+			for(String str: strings.keySet()){
+				byte [] bytes = str.getBytes(UTF8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			for(String a: attributes)
+				out.writeInt(strings.get(a));
+			for(int i = 0; i < nodeXs.length; i++){
+				out.writeDouble(nodeXs[i]);
+				out.writeDouble(nodeYs[i]);
+			}
+			int end = 0;
+			for(int i = 0; i < roads.length; i++){
+				end += roads[i].geometry.getNumPoints();
+				out.writeInt(startNodes[i]);
+				out.writeInt(endNodes[i]);
+				out.writeInt(end);
+			}
+			for(MasonGeometry road: roads)
+				for(Coordinate c: road.geometry.getCoordinates()){
+					out.writeDouble(c.x);
+					out.writeDouble(c.y);
+				}
+			for(MasonGeometry road: roads)
+				for(String a: attributes){
+					Object value = value(road, a);
+					byte type = value == null ? NONE : type(value);
+					out.writeByte(type);
+					switch(type){
+					case INTEGER: out.writeInt((Integer) value); break;
+					case DOUBLE: out.writeDouble(((Number) value).doubleValue()); break;
+					case STRING: out.writeInt(strings.get(value.toString())); break;
+					case LONG: out.writeLong((Long) value); break;
+					case BOOLEAN: out.writeBoolean((Boolean) value); break;
+					}
+				}
+			out.flush();
+			out.writeLong(checked.getChecksum().getValue());
+		} finally {
+			out.close();
+		}
+
+		if(file.exists() && !file.delete())
+			throw new IOException("Could not replace " + file);
+		if(!temp.renameTo(file))
+			throw new IOException("Could not move " + temp + " to " + file);
+		System.out.println("Wrote network snapshot of " + roads.length + " roads to " + file
+				+ " in " + (System.currentTimeMillis() - startTime) + "ms");
+	}
+
+	static Object value(MasonGeometry road, String attribute){
+		if(!road.hasAttribute(attribute)) return null;
+		Object value = road.getAttribute(attribute);
+		return value instanceof AttributeValue ? ((AttributeValue) value).getValue() : value;
+	}
+
+	/** @return the tag under which a value is stored; anything unusual is kept as its String */
+	static byte type(Object value){
+		if(value instanceof Integer) return INTEGER;
+		if(value instanceof Double || value instanceof Float) return DOUBLE;
+		if(value instanceof Long) return LONG;
+		if(value instanceof Boolean) return BOOLEAN;
+		return STRING;
+	}
+
+	static int stringId(String s, LinkedHashMap <String, Integer> strings){
+		Integer id = strings.get(s);
+		if(id == null){
+			id = strings.size();
+			strings.put(s, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Load a snapshot
+	 *
+	 * @param file - the snapshot
+	 * @param source - the checksum of the shapefile the snapshot should have been taken from
+	 * 		(see sourceChecksum())
+	 * @param fa - the factory with which to create the roads' LineStrings
+	 * @return the snapshot, or null if there is none, or it is of another shapefile or version,
+	 * 		or it is damaged
+	 */
+	public static NetworkSnapshot load(File file, long source, GeometryFactory fa) throws IOException {
+		if(!file.exists()) return null;
+		long startTime = System.currentTimeMillis();
+
+		// look at the header before mapping the file, so that a stale snapshot is not held open
+		DataInputStream header = new DataInputStream(new FileInputStream(file));
+		try {
+			if(file.length() < 44 || header.readInt() != MAGIC || header.readInt() != VERSION){
+				System.out.println("Ignoring " + file + ", which is not a network snapshot of this version");
+				return null;
+			}
+			if(header.readLong() != source){
+				System.out.println("Ignoring " + file + ", which was taken from another version of the roads");
+				return null;
+			}
+		} finally {
+			header.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close(); // the mapping stays valid
+		}
+
+		// check the contents against the checksum at the end
+		int length = buffer.capacity() - 8;
+		CRC32 crc = new CRC32();
+		byte [] chunk = new byte [1 << 16];
+		ByteBuffer contents = buffer.duplicate();
+		contents.limit(length);
+		while(contents.hasRemaining()){
+			int n = Math.min(chunk.length, contents.remaining());
+			contents.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+		}
+		if(crc.getValue() != buffer.getLong(length)){
+			System.out.println("Ignoring " + file + ", which is damaged");
+			return null;
+		}
+
+		try {
+			NetworkSnapshot s = read(buffer, fa);
+			System.out.println("Loaded network snapshot of " + s.roads.length + " roads from " + file
+					+ " in " + (System.currentTimeMillis() - startTime) + "ms");
+			return s;
+		} catch (RuntimeException e){ // running off the end, or a value of no known type
+			System.out.println("Ignoring " + file + ", which is damaged");
+			return null;
+		}
+	}
+
+	static NetworkSnapshot read(ByteBuffer in, GeometryFactory fa){
+		in.position(16); // past the magic number, version and source checksum
+		int numStrings = in.getInt(), numAttributes = in.getInt(), numNodes = in.getInt(),
+				numRoads = in.getInt(), numPoints = in.getInt();
+
+		String [] strings = new String [numStrings];
+		for(int i = 0; i < numStrings; i++){
+			byte [] bytes = new byte [in.getInt()];
+			in.get(bytes);
+			strings[i] = new String(bytes, UTF8);
+		}
+
+		NetworkSnapshot s = new NetworkSnapshot();
+		s.attributes = new String [numAttributes];
+		for(int i = 0; i < numAttributes; i++)
+			s.attributes[i] = strings[in.getInt()];
+
+		double [] xy = new double [2 * numNodes];
+		in.asDoubleBuffer().get(xy);
+		in.position(in.position() + 8 * xy.length);
+		s.nodeXs = new double [numNodes];
+		s.nodeYs = new double [numNodes];
+		for(int i = 0; i < numNodes; i++){
+			s.nodeXs[i] = xy[2 * i];
+			s.nodeYs[i] = xy[2 * i + 1];
+		}
+
+		int [] ends = new int [3 * numRoads];
+		in.asIntBuffer().get(ends);
+		in.position(in.position() + 4 * ends.length);
+		s.startNodes = new int [numRoads];
+		s.endNodes = new int [numRoads];
+
+		xy = new double [2 * numPoints];
+		in.asDoubleBuffer().get(xy);
+		in.position(in.position() + 8 * xy.length);
+
+		s.roads = new MasonGeometry [numRoads];
+		int start = 0;
+		for(int i = 0; i < numRoads; i++){
+			s.startNodes[i] = ends[3 * i];
+			s.endNodes[i] = ends[3 * i + 1];
+			int end = ends[3 * i + 2];
+			Coordinate [] cs = new Coordinate [end - start];
+			for(int j = 0; j < cs.length; j++)
+				cs[j] = new Coordinate(xy[2 * (start + j)], xy[2 * (start + j) + 1]);
+			s.roads[i] = new MasonGeometry(fa.createLineString(cs));
+			start = end;
+		}
+
+		for(MasonGeometry road: s.roads)
+			for(String a: s.attributes){
+				switch(in.get()){
+				case INTEGER: road.addIntegerAttribute(a, in.getInt()); break;
+				case DOUBLE: road.addDoubleAttribute(a, in.getDouble()); break;
+				case STRING: road.addStringAttribute(a, strings[in.getInt()]); break;
+				case LONG: road.addAttribute(a, in.getLong()); break;
+				case BOOLEAN: road.addAttribute(a, in.get() != 0); break;
+				case NONE: break;
+				default: throw new IllegalStateException("Unknown attribute type");
+				}
+			}
+		return s;
+	}
+}
@@ -0,0 +1,377 @@
+package objects.network;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.Bag;
+
+/**
+ * One agent's picture of the road network: a shared base network, which is never changed, plus
+ * the roads the agent has found to be closed or has learned of besides. Only the differences are
+ * stored, so a view costs next to nothing until the agent's picture starts to differ from the
+ * base, unlike a copy of the whole network.
+ *
+ * A view can be passed anywhere a Network is used (AStarNew, DStarLite, CSRGraph.fromNetwork
+ * and so on). Edges are read straight from the base wherever the view does not differ. Every
+ * change is made to the view alone: removing a node removes its edges and hides it, clearing
+ * hides the whole base, and updating an edge replaces it with a new Edge, as the base's Edges
+ * are shared by every view. The adjacency lists and matrices are built from what the view shows.
+ *
+ */
+public class NetworkView extends Network {
+
+	private static final long serialVersionUID = 1L;
+
+	static final Edge [] NO_EDGES = new Edge [0];
+
+	Network base;
+
+	// the differences from the base, each created when first needed
+	HashSet <Edge> removed = null;
+	HashMap <Object, Bag> addedOut = null, addedIn = null;
+	HashSet <Object> changedNodes = null; // nodes whose edges differ from those in the base
+	Bag addedNodes = null;
+	HashSet <Object> removedNodes = null; // nodes of the base hidden by removeNode()
+	boolean baseHidden = false; // set by clear(), after which only what is added is shown
+
+	// the nodes shown and their indices, kept once the nodes differ from the base's
+	Bag nodes = null;
+	HashMap <Object, Integer> nodeIndices = null;
+
+	/**
+	 * @param base - the shared network, which must not change while views of it are in use
+	 */
+	public NetworkView(Network base){
+		super(base.isDirected());
+		this.base = base;
+	}
+
+	public Network getBase(){ return base; }
+
+	/** @return whether the view shows the base just as it is */
+	public boolean isUnchanged(){
+		return changedNodes == null && !nodesDiffer();
+	}
+
+	/** @return whether the edge of the base has been removed from this view */
+	public boolean isRemoved(Edge e){
+		return baseHidden || (removed != null && removed.contains(e));
+	}
+
+	/**
+	 * Forget every difference from the base
+	 */
+	public void reset(){
+		removed = null;
+		addedOut = addedIn = null;
+		changedNodes = null;
+		addedNodes = null;
+		removedNodes = null;
+		baseHidden = false;
+		nodesChanged();
+	}
+
+	boolean changed(Object node){ return changedNodes != null && changedNodes.contains(node); }
+
+	boolean nodesDiffer(){ return addedNodes != null || removedNodes != null || baseHidden; }
+
+	/** forget the nodes shown, to be worked out again when next asked for */
+	void nodesChanged(){
+		nodes = null;
+		nodeIndices = null;
+	}
+
+	/** @return the edges the base holds at the node, or null if the base is hidden */
+	Bag fromBase(Bag edges){ return baseHidden ? null : edges; }
+
+	public Bag getEdgesOut(Object node){
+		if(!changed(node)) return baseHidden ? new Bag() : base.getEdgesOut(node);
+		return merge(fromBase(base.getEdgesOut(node)), addedOut.get(node), new Bag());
+	}
+
+	public Bag getEdgesIn(Object node){
+		if(!changed(node)) return baseHidden ? new Bag() : base.getEdgesIn(node);
+		return merge(fromBase(base.getEdgesIn(node)), addedIn.get(node), new Bag());
+	}
+
+	public Bag getEdges(Object node, Bag bag){
+		if(!changed(node) && !baseHidden) return base.getEdges(node, bag);
+		if(bag == null) bag = new Bag();
+		else bag.clear();
+		if(!changed(node)) return bag;
+		merge(fromBase(base.getEdgesOut(node)), addedOut.get(node), bag);
+		if(isDirected())
+			merge(fromBase(base.getEdgesIn(node)), addedIn.get(node), bag);
+		return bag;
+	}
+
+	/**
+	 * @return the edges of the base less those removed, plus those added
+	 */
+	Bag merge(Bag fromBase, Bag added, Bag result){
+		if(fromBase != null)
+			for(Object o: fromBase)
+				if(!removed.contains(o)) result.add(o);
+		if(added != null)
+			result.addAll(added);
+		return result;
+	}
+
+	/** @return whether the view shows the edge */
+	boolean contains(Edge e){
+		return getEdgesOut(e.from()).contains(e);
+	}
+
+	/** @return whether the base holds the edge, whether or not the view shows it */
+	boolean inBase(Edge e){
+		return base.getEdgesOut(e.from()).contains(e);
+	}
+
+	public Bag getAllNodes(){
+		if(!nodesDiffer()) return base.getAllNodes();
+		if(nodes == null){
+			nodes = new Bag();
+			if(!baseHidden)
+				for(Object node: base.getAllNodes())
+					if(removedNodes == null || !removedNodes.contains(node)) nodes.add(node);
+			if(addedNodes != null)
+				nodes.addAll(addedNodes);
+			nodeIndices = new HashMap <Object, Integer> (2 * nodes.numObjs);
+			for(int i = 0; i < nodes.numObjs; i++)
+				nodeIndices.put(nodes.objs[i], i);
+		}
+		return nodes;
+	}
+
+	public int getNodeIndex(Object node){
+		if(!nodesDiffer()) return base.getNodeIndex(node);
+		getAllNodes();
+		Integer index = nodeIndices.get(node);
+		return index == null ? -1 : index;
+	}
+
+	public void addNode(Object node){
+		if(!baseHidden && base.getNodeIndex(node) >= 0){
+			if(removedNodes != null && removedNodes.remove(node)) // shown again, without its edges
+				nodesChanged();
+			return;
+		}
+		if(addedNodes == null) addedNodes = new Bag();
+		if(!addedNodes.contains(node)){
+			addedNodes.add(node);
+			nodesChanged();
+		}
+	}
+
+	/**
+	 * Remove a node and every edge at it from this view only
+	 *
+	 * @return the node, or null if the view did not show it
+	 */
+	public Object removeNode(Object node){
+		if(getNodeIndex(node) < 0) return null;
+		for(Object o: getEdges(node, null))
+			removeEdge((Edge) o);
+		if(addedNodes == null || !addedNodes.remove(node)){
+			if(removedNodes == null) removedNodes = new HashSet <Object> ();
+			removedNodes.add(node);
+		}
+		nodesChanged();
+		return node;
+	}
+
+	/**
+	 * Hide every node and edge, of the base and added alike. The base is untouched, and reset()
+	 * shows it again.
+	 *
+	 * @return the nodes which were shown
+	 */
+	public Bag clear(){
+		Bag shown = new Bag(getAllNodes());
+		reset();
+		baseHidden = true;
+		return shown;
+	}
+
+	public Bag removeAllNodes(){ return clear(); }
+
+	public void addEdge(Object from, Object to, Object info){
+		addEdge(new Edge(from, to, info));
+	}
+
+	/**
+	 * Add an edge to this view only. An edge of the base which was removed is simply restored,
+	 * and one which is still shown is not added again.
+	 */
+	public void addEdge(Edge e){
+		addNode(e.from());
+		addNode(e.to());
+		if(baseHidden || !inBase(e)){
+			noteChange(e);
+			add(addedOut, e.from(), e);
+			add(addedIn, e.to(), e);
+			if(!isDirected() && e.from() != e.to()){ // as in Network, either end can be left by the edge
+				add(addedOut, e.to(), e);
+				add(addedIn, e.from(), e);
+			}
+		}
+		else if(isRemoved(e))
+			removed.remove(e);
+	}
+
+	/**
+	 * Remove an edge from this view only
+	 *
+	 * @return the edge, or null if the view did not show it
+	 */
+	public Edge removeEdge(Edge e){
+		if(!contains(e)) return null;
+		noteChange(e);
+		boolean wasAdded = false;
+		for(Object node: new Object [] {e.from(), e.to()}){
+			if(remove(addedOut, node, e)) wasAdded = true;
+			if(remove(addedIn, node, e)) wasAdded = true;
+		}
+		if(!wasAdded) removed.add(e);
+		return e;
+	}
+
+	/** @return whether the edge had been added at the node */
+	static boolean remove(HashMap <Object, Bag> added, Object node, Edge e){
+		Bag edges = added.get(node);
+		return edges != null && edges.remove(e);
+	}
+
+	void noteChange(Edge e){
+		if(changedNodes == null){
+			removed = new HashSet <Edge> ();
+			addedOut = new HashMap <Object, Bag> ();
+			addedIn = new HashMap <Object, Bag> ();
+			changedNodes = new HashSet <Object> ();
+		}
+		changedNodes.add(e.from());
+		changedNodes.add(e.to());
+	}
+
+	/**
+	 * Replace an edge with one between the given nodes. The base's Edge is shared with every
+	 * other view and so is never changed; a new Edge takes its place in this view.
+	 *
+	 * @return the new edge, or null if the view did not show the old one
+	 */
+	public Edge updateEdge(Edge edge, Object from, Object to, Object info){
+		if(removeEdge(edge) == null) return null;
+		Edge updated = new Edge(from, to, info);
+		addEdge(updated);
+		return updated;
+	}
+
+	public Edge getEdge(Object from, Object to){
+		for(Object o: getEdgesOut(from)){
+			Edge e = (Edge) o;
+			if(e.getOtherNode(from) == to) return e;
+		}
+		return null;
+	}
+
+	public Bag getEdges(Object from, Object to, Bag bag){
+		if(bag == null) bag = new Bag();
+		else bag.clear();
+		for(Object o: getEdgesOut(from))
+			if(((Edge) o).getOtherNode(from) == to) bag.add(o);
+		return bag;
+	}
+
+	/**
+	 * @return for each node, in the order of getAllNodes(), the edges leaving it (or reaching it)
+	 */
+	public Edge [][] getAdjacencyList(boolean outEdges){
+		Bag all = getAllNodes();
+		Edge [][] list = new Edge [all.numObjs][];
+		for(int i = 0; i < list.length; i++){
+			Bag edges = outEdges ? getEdgesOut(all.objs[i]) : getEdgesIn(all.objs[i]);
+			list[i] = new Edge [edges.numObjs];
+			for(int j = 0; j < edges.numObjs; j++)
+				list[i][j] = (Edge) edges.objs[j];
+		}
+		return list;
+	}
+
+	/**
+	 * @return an edge from the ith node to the jth at [i][j], or null if there is none
+	 */
+	public Edge [][] getAdjacencyMatrix(){
+		Bag all = getAllNodes();
+		Edge [][] matrix = new Edge [all.numObjs][all.numObjs];
+		for(int i = 0; i < all.numObjs; i++)
+			for(Object o: getEdgesOut(all.objs[i])){
+				Edge e = (Edge) o;
+				matrix[i][getNodeIndex(e.getOtherNode(all.objs[i]))] = e;
+			}
+		return matrix;
+	}
+
+	/**
+	 * @return every edge from the ith node to the jth at [i][j], an empty array if there is none
+	 */
+	public Edge [][][] getMultigraphAdjacencyMatrix(){
+		Bag all = getAllNodes();
+		int n = all.numObjs;
+		Edge [][][] matrix = new Edge [n][n][];
+		int [] counts = new int [n];
+		for(int i = 0; i < n; i++){
+			Bag out = getEdgesOut(all.objs[i]);
+			int [] targets = new int [out.numObjs];
+			for(int k = 0; k < targets.length; k++){
+				targets[k] = getNodeIndex(((Edge) out.objs[k]).getOtherNode(all.objs[i]));
+				counts[targets[k]]++;
+			}
+			for(int j = 0; j < n; j++){
+				matrix[i][j] = counts[j] == 0 ? NO_EDGES : new Edge [counts[j]];
+				counts[j] = 0;
+			}
+			for(int k = 0; k < targets.length; k++)
+				matrix[i][targets[k]][counts[targets[k]]++] = (Edge) out.objs[k];
+			for(int k = 0; k < targets.length; k++)
+				counts[targets[k]] = 0;
+		}
+		return matrix;
+	}
+
+	/**
+	 * @return a view of the same base with the same differences, which can then differ on its own
+	 */
+	public Network cloneGraph(){
+		NetworkView copy = new NetworkView(base);
+		if(changedNodes != null){
+			copy.removed = new HashSet <Edge> (removed);
+			copy.addedOut = copy(addedOut);
+			copy.addedIn = copy(addedIn);
+			copy.changedNodes = new HashSet <Object> (changedNodes);
+		}
+		if(addedNodes != null)
+			copy.addedNodes = new Bag(addedNodes);
+		if(removedNodes != null)
+			copy.removedNodes = new HashSet <Object> (removedNodes);
+		copy.baseHidden = baseHidden;
+		return copy;
+	}
+
+	static HashMap <Object, Bag> copy(HashMap <Object, Bag> added){
+		HashMap <Object, Bag> result = new HashMap <Object, Bag> ();
+		for(Object node: added.keySet())
+			result.put(node, new Bag(added.get(node)));
+		return result;
+	}
+
+	static void add(HashMap <Object, Bag> added, Object node, Edge e){
+		Bag edges = added.get(node);
+		if(edges == null){
+			edges = new Bag();
+			added.put(node, edges);
+		}
+		edges.add(e);
+	}
+}
@@ -0,0 +1,64 @@
+package objects.network;
+
+/**
+ * One traveller's place along a shared CompactPath, and the way it is going. The cursor starts
+ * before the first arc; each call to next() moves it onto the following arc in the direction of
+ * travel, so the path itself is never consumed and can be travelled back again after flip().
+ *
+ */
+public class PathCursor {
+
+	CompactPath path;
+	int index = -1;
+	int direction = 1;
+
+	public PathCursor(CompactPath path){
+		this.path = path;
+	}
+
+	public CompactPath getPath(){ return path; }
+
+	/** @return the position of the current arc in the path, or -1 before the first */
+	public int getIndex(){ return index; }
+
+	/** @return 1 if travelling from the start of the path toward its end, -1 otherwise */
+	public int getDirection(){ return direction; }
+
+	/** @return whether there is another arc in the direction of travel */
+	public boolean hasNext(){
+		int i = index + direction;
+		return i >= 0 && i < path.size();
+	}
+
+	/**
+	 * Move onto the next arc in the direction of travel
+	 * @return the position of the new current arc, or -1 if there was no other arc, in which
+	 * case the cursor stays where it was
+	 */
+	public int next(){
+		if(!hasNext()) return -1;
+		index += direction;
+		return index;
+	}
+
+	/** @return the number of arcs beyond the current one in the direction of travel */
+	public int remaining(){
+		return direction > 0 ? path.size() - 1 - index : index;
+	}
+
+	/** @return the id of the current arc */
+	public int currentArc(){ return path.arc(index); }
+
+	/** Turn around, to travel the path the other way */
+	public void flip(){ direction = -direction; }
+
+	/**
+	 * Carry on along a different path, keeping the direction of travel
+	 * @param path - the new path
+	 * @param index - the position of the current arc in the new path
+	 */
+	public void reset(CompactPath path, int index){
+		this.path = path;
+		this.index = index;
+	}
+}
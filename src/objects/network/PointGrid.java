@@ -0,0 +1,78 @@
+package objects.network;
+
+import java.util.ArrayList;
+
+/**
+ * A static spatial index over a set of points: the points' bounding box is divided into a grid
+ * of square cells holding about one point each, so the point nearest to any location, or all
+ * of those within some distance of it, can be found by looking in only a few cells.
+ *
+ */
+public class PointGrid extends CellGrid {
+
+	double [] xs, ys;
+	Object [] objects;
+
+	/**
+	 * @param xs - the x coordinates of the points
+	 * @param ys - the y coordinates of the points
+	 * @param objects - the object to associate with each point, or null
+	 */
+	public PointGrid(double [] xs, double [] ys, Object [] objects){
+		this.xs = xs;
+		this.ys = ys;
+		this.objects = objects;
+		index(xs, ys, xs, ys);
+	}
+
+	/**
+	 * Index the coordinates of the given GeoNodes
+	 */
+	public static PointGrid forGeoNodes(ArrayList <GeoNode> nodes){
+		int n = nodes.size();
+		double [] xs = new double [n], ys = new double [n];
+		for(int i = 0; i < n; i++){
+			GeoNode node = nodes.get(i);
+			xs[i] = node.geometry.getCoordinate().x;
+			ys[i] = node.geometry.getCoordinate().y;
+		}
+		return new PointGrid(xs, ys, nodes.toArray());
+	}
+
+	public int size(){ return xs.length; }
+
+	public double getX(int i){ return xs[i]; }
+	public double getY(int i){ return ys[i]; }
+
+	/** @return the object associated with the ith point, or null if none were given */
+	public Object getObject(int i){ return objects == null ? null : objects[i]; }
+
+	double distance2(int p, double x, double y){
+		double dx = xs[p] - x, dy = ys[p] - y;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * @return the index of the point nearest to (x, y), or -1 if there are no points
+	 */
+	public int nearest(double x, double y){
+		return nearest(x, y, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @return the distance from (x, y) to the nearest point, or infinity if there are none
+	 */
+	public double nearestDistance(double x, double y){
+		int p = nearest(x, y);
+		if(p < 0) return Double.POSITIVE_INFINITY;
+		return Math.hypot(xs[p] - x, ys[p] - y);
+	}
+
+	/**
+	 * Find every point within the given distance of (x, y)
+	 * @param result - the list to which the indices of the points are added
+	 */
+	public void within(double x, double y, double distance, ArrayList <Integer> result){
+		super.within(x, y, distance, result);
+	}
+}
@@ -0,0 +1,207 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import objects.AttributeTable;
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * The attributes of the roads of a layer, held column by column and keyed by each road's
+ * position in the layer (its feature id). When a road is cut into several edges of a network,
+ * each ListEdge holds only the feature id of the road it came from (see ListEdge.setFeature())
+ * rather than a copy of every attribute, and movement and routing read typed values from here
+ * instead of looking up strings in each edge's attribute map:
+ *
+ * - whether the road is closed (its "open" attribute reads CLOSED), which may be changed;
+ * - the class of road (its TYPE), as an int code, the names of which are kept once;
+ * - its ROAD_ID.
+ *
+ * This is the one record of which roads are closed: the "open" attribute is read from the layer
+ * once and not left on the roads (see LayerSchema.ROADS), and roads are opened and closed here
+ * (see setClosed()). Anything else can still be read off the original road (see getFeature()).
+ *
+ */
+public class RoadAttributes {
+
+	public static final String CLOSED = "CLOSED";
+
+	final MasonGeometry [] features;
+	final boolean [] closed;
+	final int [] roadClasses;
+	final int [] roadIds; // -1 where there is no ROAD_ID
+	int numClosed = 0;
+
+	// the feature of each ROAD_ID
+	final HashMap <Integer, Integer> featuresOfRoads = new HashMap <Integer, Integer> ();
+
+	// the names of the classes of road, by code
+	final ArrayList <String> classNames = new ArrayList <String> ();
+	final HashMap <String, Integer> classCodes = new HashMap <String, Integer> ();
+
+	RoadAttributes(int n){
+		features = new MasonGeometry [n];
+		closed = new boolean [n];
+		roadClasses = new int [n];
+		roadIds = new int [n];
+	}
+
+	/**
+	 * Take the attributes from the columns read from a road layer (see LayerSchema.ROADS)
+	 */
+	public RoadAttributes(AttributeTable table){
+		this(table.numRows());
+		String [] open = table.hasColumn("open") ? table.getStringColumn("open") : null;
+		String [] types = table.hasColumn("TYPE") ? table.getStringColumn("TYPE") : null;
+		int [] ids = table.hasColumn("ROAD_ID") ? table.getIntColumn("ROAD_ID") : null;
+		for(int i = 0; i < features.length; i++){
+			features[i] = table.getGeometry(i);
+			closed[i] = open != null && CLOSED.equals(open[i]);
+			roadClasses[i] = classCode(types == null ? null : types[i]);
+			roadIds[i] = ids == null || ids[i] == AttributeTable.MISSING_INT ? -1 : ids[i];
+			if(closed[i]) numClosed++;
+			if(roadIds[i] >= 0) featuresOfRoads.put(roadIds[i], i);
+		}
+	}
+
+	/** @return the code of the class of road, a new one if it has not been seen before */
+	int classCode(String name){
+		Integer code = classCodes.get(name);
+		if(code == null){
+			code = classNames.size();
+			classNames.add(name);
+			classCodes.put(name, code);
+		}
+		return code;
+	}
+
+	public int numFeatures(){ return features.length; }
+
+	/** @return the original road, from which any other attribute can be read */
+	public MasonGeometry getFeature(int feature){ return features[feature]; }
+
+	public boolean isClosed(int feature){ return closed[feature]; }
+
+	/**
+	 * Open or close a road, and with it every edge cut from it
+	 */
+	public void setClosed(int feature, boolean isClosed){
+		if(closed[feature] == isClosed) return;
+		closed[feature] = isClosed;
+		numClosed += isClosed ? 1 : -1;
+	}
+
+	/** @return the number of roads closed */
+	public int numClosed(){ return numClosed; }
+
+	public int getRoadClass(int feature){ return roadClasses[feature]; }
+
+	/** @return the name of the class of road, or null if the road has no TYPE */
+	public String getRoadClassName(int feature){ return classNames.get(roadClasses[feature]); }
+
+	/** @return the code of the named class of road, or -1 if no road is of that class */
+	public int getClassCode(String name){
+		Integer code = classCodes.get(name);
+		return code == null ? -1 : code;
+	}
+
+	public int numRoadClasses(){ return classNames.size(); }
+
+	/** @return the road's ROAD_ID, or -1 if it has none */
+	public int getRoadId(int feature){ return roadIds[feature]; }
+
+	/** @return the road with the ROAD_ID, or -1 if there is none */
+	public int getFeatureOfRoad(int roadId){
+		Integer feature = featuresOfRoads.get(roadId);
+		return feature == null ? -1 : feature;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// EDGES //////////////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * @return whether the edge's road is closed, read from the store where the edge refers to
+	 * one and otherwise from the "open" attribute of the edge's own geometry, which is then the
+	 * only record of it
+	 */
+	public static boolean isClosed(Edge e){
+		if(e instanceof ListEdge && ((ListEdge) e).attributes != null)
+			return ((ListEdge) e).isClosed();
+		if(!(e.info instanceof MasonGeometry)) return false;
+		MasonGeometry mg = (MasonGeometry) e.info;
+		return mg.hasAttribute("open") && CLOSED.equals(mg.getStringAttribute("open"));
+	}
+
+	/**
+	 * Open or close the edge's road, wherever isClosed() reads it from: in the store, which
+	 * opens or closes every edge cut from the road, or else on the edge's own geometry
+	 * @return false if the edge has neither, so that there is nowhere to record it
+	 */
+	public static boolean setClosed(Edge e, boolean isClosed){
+		if(e instanceof ListEdge && ((ListEdge) e).attributes != null){
+			ListEdge l = (ListEdge) e;
+			l.attributes.setClosed(l.feature, isClosed);
+			return true;
+		}
+		if(!(e.info instanceof MasonGeometry)) return false;
+		MasonGeometry mg = (MasonGeometry) e.info;
+		if(isClosed)
+			mg.addStringAttribute("open", CLOSED);
+		else
+			mg.getAttributes().remove("open");
+		return true;
+	}
+
+	/**
+	 * @return the edges cut from the same road as the edge and joined to it through one another,
+	 * the edge included; just the edge if it does not refer to a road in a store
+	 */
+	public static ArrayList <Edge> edgesOfRoad(Edge e, Network network){
+		ArrayList <Edge> result = new ArrayList <Edge> ();
+		result.add(e);
+		if(!(e instanceof ListEdge) || ((ListEdge) e).attributes == null) return result;
+		ListEdge l = (ListEdge) e;
+		HashSet <Edge> seen = new HashSet <Edge> (result);
+		for(int i = 0; i < result.size(); i++){
+			Edge next = result.get(i);
+			for(Object node: new Object [] {next.from(), next.to()})
+				for(Object o: network.getEdges(node, null)){
+					if(!(o instanceof ListEdge)) continue;
+					ListEdge other = (ListEdge) o;
+					if(other.attributes == l.attributes && other.feature == l.feature && seen.add(other))
+						result.add(other);
+				}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the name of the class of the edge's road, or null if it has none
+	 */
+	public static String getRoadClassName(Edge e){
+		if(e instanceof ListEdge && ((ListEdge) e).attributes != null){
+			ListEdge l = (ListEdge) e;
+			return l.attributes.getRoadClassName(l.feature);
+		}
+		if(!(e.info instanceof MasonGeometry)) return null;
+		MasonGeometry mg = (MasonGeometry) e.info;
+		return mg.hasAttribute("TYPE") ? mg.getStringAttribute("TYPE") : null;
+	}
+
+	/**
+	 * @return the edge's ROAD_ID, or -1 if it has none
+	 */
+	public static int getRoadId(Edge e){
+		if(e instanceof ListEdge && ((ListEdge) e).attributes != null){
+			ListEdge l = (ListEdge) e;
+			return l.attributes.getRoadId(l.feature);
+		}
+		if(!(e.info instanceof MasonGeometry)) return -1;
+		MasonGeometry mg = (MasonGeometry) e.info;
+		return mg.hasAttribute("ROAD_ID") ? mg.getIntegerAttribute("ROAD_ID") : -1;
+	}
+}
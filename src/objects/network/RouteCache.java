@@ -0,0 +1,125 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of planned routes, shared between agents so that identical journeys (e.g. the
+ * many agents created from a single row of the population file) are only planned once. Routes
+ * are stored as unmodifiable lists and handed out as such, so callers which consume their path
+ * must take a copy. When the cache is full the least recently used route is dropped.
+ *
+ * Keys compare the network, start and goal by identity, so routes planned over a cloned or
+ * rebuilt network are never confused with those of the original. If a network's costs change
+ * in place (e.g. a road is closed), the routes over it should be invalidated.
+ *
+ * All methods are synchronized, so a single cache can be used from any number of threads.
+ *
+ */
+public class RouteCache <E> {
+
+	int capacity;
+	LinkedHashMap <Key, List <E>> routes;
+
+	long hits = 0, misses = 0; // record-keeping
+
+	/**
+	 * @param capacity - the maximum number of routes to hold
+	 */
+	public RouteCache(int capacity){
+		this.capacity = capacity;
+		routes = new LinkedHashMap <Key, List <E>> (16, .75f, true){
+			protected boolean removeEldestEntry(Map.Entry <Key, List <E>> eldest){
+				return size() > RouteCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param network - the network over which the route was planned
+	 * @param start - the node from which the route starts
+	 * @param goal - the goal node
+	 * @return the cached route, or null if there is none
+	 */
+	public synchronized List <E> get(Object network, Object start, Object goal){
+		List <E> route = routes.get(new Key(network, start, goal));
+		if(route == null) misses++;
+		else hits++;
+		return route;
+	}
+
+	/**
+	 * Store a route, replacing any held for the same journey
+	 *
+	 * @return the stored, unmodifiable version of the route
+	 */
+	public synchronized List <E> put(Object network, Object start, Object goal, List <E> route){
+		List <E> stored = Collections.unmodifiableList(new ArrayList <E> (route));
+		routes.put(new Key(network, start, goal), stored);
+		return stored;
+	}
+
+	/**
+	 * Drop every route planned over the given network
+	 */
+	public synchronized void invalidate(Object network){
+		Iterator <Key> keys = routes.keySet().iterator();
+		while(keys.hasNext())
+			if(keys.next().network == network)
+				keys.remove();
+	}
+
+	public synchronized void clear(){ routes.clear(); }
+
+	public synchronized int size(){ return routes.size(); }
+
+	public int getCapacity(){ return capacity; }
+
+	public synchronized long getHits(){ return hits; }
+
+	public synchronized long getMisses(){ return misses; }
+
+	/** @return the proportion of lookups which found a route, or 0 if there have been none */
+	public synchronized double getHitRate(){
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : hits / (double) lookups;
+	}
+
+	public synchronized void resetCounters(){
+		hits = 0;
+		misses = 0;
+	}
+
+	public synchronized String toString(){
+		return "RouteCache: " + routes.size() + "/" + capacity + " routes, " + hits + " hits, "
+				+ misses + " misses";
+	}
+
+	/**
+	 * A journey: the network and its endpoints, compared by identity
+	 */
+	static class Key {
+		Object network, start, goal;
+		int hash;
+
+		Key(Object network, Object start, Object goal){
+			this.network = network;
+			this.start = start;
+			this.goal = goal;
+			hash = 31 * (31 * System.identityHashCode(network) + System.identityHashCode(start))
+					+ System.identityHashCode(goal);
+		}
+
+		public int hashCode(){ return hash; }
+
+		public boolean equals(Object o){
+			if(!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return k.network == network && k.start == start && k.goal == goal;
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package objects.network;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+
+import sim.field.geo.GeomVectorField;
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.io.geo.ShapeFileImporter;
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.GeomPlanarGraphEdge;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.planargraph.Node;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Times the routing engines against one another over the same road graph and the same
+ * origin-destination pairs. The graph is either read from a road shapefile (by default the
+ * Norfolk ITN) or generated as a jittered grid with some links missing. The pairs are drawn
+ * from the largest connected part of the graph with a fixed seed, so that runs can be compared.
+ *
+ * For each engine the latency percentiles, throughput, bytes allocated and nodes expanded per
+ * route are printed and appended to a CSV file, one row per engine, so that results can be
+ * tracked from one release to the next.
+ *
+ * Usage: RoutingBenchmark [-shapefile file | -grid size] [-pairs n] [-seed n] [-warmup rounds]
+ * 		[-out file.csv] [-label name]
+ *
+ */
+public class RoutingBenchmark {
+
+	static final String HEADER = "date,label,graph,nodes,arcs,engine,routes,found,mean_us,"
+			+ "p50_us,p90_us,p99_us,max_us,routes_per_s,bytes_per_route,nodes_expanded_per_route";
+
+	/**
+	 * One engine under test, searching between nodes given by their ids in the CSRGraph
+	 */
+	static abstract class Engine {
+		String name;
+
+		Engine(String name){ this.name = name; }
+
+		/** @return whether a path was found */
+		abstract boolean route(int s, int t);
+
+		/** @return the number of nodes expanded by the last route, or -1 if the engine does not say */
+		int nodesExpanded(){ return -1; }
+	}
+
+	/**
+	 * The measurements for one engine
+	 */
+	static class Result {
+		String engine;
+		long [] nanos;
+		int found;
+		long totalNanos, bytes = -1, expanded = -1;
+
+		double percentile(double p){
+			int i = (int) Math.ceil(p * nanos.length) - 1;
+			return nanos[Math.max(0, Math.min(nanos.length - 1, i))] / 1000.;
+		}
+
+		double mean(){ return totalNanos / 1000. / nanos.length; }
+
+		double throughput(){ return nanos.length / (totalNanos / 1e9); }
+
+		String toString(String graphName, int numNodes, int numArcs, String label, String date){
+			int n = nanos.length;
+			return date + "," + label + "," + graphName + "," + numNodes + "," + numArcs + ","
+					+ engine + "," + n + "," + found + "," + format(mean()) + ","
+					+ format(percentile(.5)) + "," + format(percentile(.9)) + ","
+					+ format(percentile(.99)) + "," + format(percentile(1)) + ","
+					+ format(throughput()) + "," + (bytes < 0 ? "" : format(bytes / (double) n)) + ","
+					+ (expanded < 0 ? "" : format(expanded / (double) n));
+		}
+
+		static String format(double d){ return String.format(Locale.UK, "%.2f", d); }
+	}
+
+	public static void main(String [] args) throws IOException {
+		String shapefile = "src/data/Final_ITN.shp", out = "routing_benchmark.csv", label = "";
+		int gridSize = -1, numPairs = 1000, warmup = 2;
+		long seed = 1;
+		for(int i = 0; i < args.length - 1; i += 2){
+			String key = args[i], value = args[i + 1];
+			if(key.equals("-shapefile")) shapefile = value;
+			else if(key.equals("-grid")) gridSize = Integer.parseInt(value);
+			else if(key.equals("-pairs")) numPairs = Integer.parseInt(value);
+			else if(key.equals("-seed")) seed = Long.parseLong(value);
+			else if(key.equals("-warmup")) warmup = Integer.parseInt(value);
+			else if(key.equals("-out")) out = value;
+			else if(key.equals("-label")) label = value;
+			else throw new IllegalArgumentException("Unknown option " + key);
+		}
+
+		MersenneTwisterFast random = new MersenneTwisterFast(seed);
+		GeomVectorField roads = gridSize > 0 ? grid(gridSize, random) : read(shapefile);
+		String graphName = gridSize > 0 ? "grid" + gridSize : new File(shapefile).getName();
+
+		GeomPlanarGraph planar = new GeomPlanarGraph();
+		planar.createFromGeomField(roads);
+		CSRGraph graph = CSRGraph.fromPlanarGraph(planar);
+		System.out.println("Benchmarking " + graphName + ": " + graph.numNodes() + " nodes, "
+				+ graph.numArcs() + " arcs");
+
+		int [][] pairs = drawPairs(graph, numPairs, random);
+		ArrayList <Engine> engines = engines(graph, toNetwork(graph), random);
+
+		String date = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+		File file = new File(out);
+		boolean isNew = !file.exists() || file.length() == 0;
+		BufferedWriter w = new BufferedWriter(new FileWriter(file, true));
+		try {
+			if(isNew){
+				w.write(HEADER);
+				w.newLine();
+			}
+			for(Engine engine: engines){
+				for(int i = 0; i < warmup; i++)
+					measure(engine, pairs);
+				Result r = measure(engine, pairs);
+				String line = r.toString(graphName, graph.numNodes(), graph.numArcs(), label, date);
+				System.out.println(line);
+				w.write(line);
+				w.newLine();
+			}
+		} finally {
+			w.close();
+		}
+		System.out.println("Results appended to " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Route between every pair once with the given engine
+	 */
+	static Result measure(Engine engine, int [][] pairs){
+		Result r = new Result();
+		r.engine = engine.name;
+		r.nanos = new long [pairs.length];
+		long expanded = 0;
+		boolean counted = true;
+
+		long bytesBefore = allocatedBytes();
+		for(int i = 0; i < pairs.length; i++){
+			long start = System.nanoTime();
+			boolean found = engine.route(pairs[i][0], pairs[i][1]);
+			r.nanos[i] = System.nanoTime() - start;
+			if(found) r.found++;
+			int e = engine.nodesExpanded();
+			if(e < 0) counted = false;
+			else expanded += e;
+		}
+		long bytesAfter = allocatedBytes();
+
+		for(long t: r.nanos)
+			r.totalNanos += t;
+		Arrays.sort(r.nanos);
+		if(bytesBefore >= 0 && bytesAfter >= 0) r.bytes = bytesAfter - bytesBefore;
+		if(counted) r.expanded = expanded;
+		return r;
+	}
+
+	/**
+	 * @return the number of bytes allocated so far by the calling thread, or -1 if the JVM
+	 * does not say
+	 */
+	static long allocatedBytes(){
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		if(!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Set up every engine over the same graph
+	 * @param roads - the graph as a MASON network, whose nodes are GeoNodes in the same order as
+	 * 		the nodes of the CSRGraph
+	 */
+	static ArrayList <Engine> engines(final CSRGraph graph, final Network roads, MersenneTwisterFast random){
+		final Object [] geoNodes = roads.getAllNodes().toArray();
+		ArrayList <Engine> engines = new ArrayList <Engine> ();
+
+		engines.add(new Engine("AStar"){
+			AStar astar = new AStar();
+			boolean route(int s, int t){
+				return s == t || !astar.astarPath((Node) graph.nodes[s], (Node) graph.nodes[t]).isEmpty();
+			}
+			int nodesExpanded(){ return AStarEngine.get().getNodesExpanded(); }
+		});
+		engines.add(new Engine("AStar-bidirectional"){
+			AStar astar = new AStar();
+			boolean route(int s, int t){
+				return s == t || !astar.astarPath((Node) graph.nodes[s], (Node) graph.nodes[t], true).isEmpty();
+			}
+			int nodesExpanded(){ return AStarEngine.get().getNodesExpanded(); }
+		});
+		engines.add(new Engine("AStarNew"){
+			AStarNew astar = new AStarNew();
+			boolean route(int s, int t){
+				return astar.astarPath((GeoNode) geoNodes[s], (GeoNode) geoNodes[t], roads) != null;
+			}
+			int nodesExpanded(){ return AStarEngine.get().getNodesExpanded(); }
+		});
+		engines.add(new Engine("AStar_SWise"){
+			AStar_SWise astar = new AStar_SWise();
+			boolean route(int s, int t){
+				return astar.astarWeightedPath((GeoNode) geoNodes[s], (GeoNode) geoNodes[t], roads,
+						new java.util.HashSet <Object> (), 1) != null;
+			}
+			int nodesExpanded(){ return AStarEngine.get().getNodesExpanded(); }
+		});
+		engines.add(csrEngine("CSRAStar", new CSRAStar(graph)));
+
+		long start = System.currentTimeMillis();
+		int [] landmarks = LandmarkHeuristic.selectFarthest(graph, 16, null, random);
+		engines.add(csrEngine("CSRAStar-landmarks", new CSRAStar(graph, null,
+				new LandmarkHeuristic(graph, landmarks, null))));
+		System.out.println("Landmarks chosen in " + (System.currentTimeMillis() - start) + "ms");
+
+		start = System.currentTimeMillis();
+		final ContractionHierarchy hierarchy = ContractionHierarchy.build(graph);
+		System.out.println("Contraction hierarchy built in " + (System.currentTimeMillis() - start) + "ms");
+		engines.add(new Engine("ContractionHierarchy"){
+			boolean route(int s, int t){ return hierarchy.arcPath(s, t) != null; }
+		});
+		return engines;
+	}
+
+	static Engine csrEngine(String name, final CSRAStar search){
+		return new Engine(name){
+			boolean route(int s, int t){ return search.path(s, t) != null; }
+			int nodesExpanded(){ return search.getNodesExpanded(); }
+		};
+	}
+
+	/**
+	 * @return the graph as an undirected MASON network of GeoNodes, as the agents use, with the
+	 * nodes added in the order of their ids and each edge carrying its planar graph edge
+	 */
+	static Network toNetwork(CSRGraph graph){
+		GeometryFactory fa = new GeometryFactory();
+		Network network = new Network(false);
+		GeoNode [] geoNodes = new GeoNode [graph.numNodes()];
+		for(int i = 0; i < geoNodes.length; i++){
+			geoNodes[i] = new GeoNode(fa.createPoint(((Node) graph.nodes[i]).getCoordinate()));
+			network.addNode(geoNodes[i]);
+		}
+		HashMap <Object, Object> added = new HashMap <Object, Object> ();
+		for(int a = 0; a < graph.numArcs(); a++){
+			GeomPlanarGraphEdge road = graph.getPlanarEdge(a);
+			if(added.put(road, road) != null) continue; // both ways along a road are one edge
+			network.addEdge(new Edge(geoNodes[graph.sources[a]], geoNodes[graph.targets[a]], road));
+		}
+		return network;
+	}
+
+	/**
+	 * @return pairs of distinct nodes, both in the largest weakly connected part of the graph
+	 */
+	static int [][] drawPairs(CSRGraph graph, int numPairs, MersenneTwisterFast random){
+		int [] component = largestComponent(graph);
+		int [][] pairs = new int [numPairs][2];
+		for(int i = 0; i < numPairs; i++){
+			pairs[i][0] = component[random.nextInt(component.length)];
+			do {
+				pairs[i][1] = component[random.nextInt(component.length)];
+			} while(component.length > 1 && pairs[i][1] == pairs[i][0]);
+		}
+		return pairs;
+	}
+
+	static int [] largestComponent(CSRGraph graph){
+		int n = graph.numNodes();
+		int [] label = new int [n], stack = new int [n], sizes = new int [n];
+		Arrays.fill(label, -1);
+		int numComponents = 0, best = 0;
+		for(int root = 0; root < n; root++){
+			if(label[root] >= 0) continue;
+			int c = numComponents++, top = 0;
+			label[root] = c;
+			stack[top++] = root;
+			while(top > 0){
+				int x = stack[--top];
+				sizes[c]++;
+				for(int i = graph.offsets[x]; i < graph.offsets[x + 1]; i++)
+					top = visit(graph.targets[i], c, label, stack, top);
+				for(int i = graph.inOffsets[x]; i < graph.inOffsets[x + 1]; i++)
+					top = visit(graph.sources[graph.inArcs[i]], c, label, stack, top);
+			}
+			if(sizes[c] > sizes[best]) best = c;
+		}
+
+		int [] result = new int [numComponents == 0 ? 0 : sizes[best]];
+		for(int v = 0, j = 0; v < n; v++)
+			if(label[v] == best) result[j++] = v;
+		return result;
+	}
+
+	static int visit(int y, int c, int [] label, int [] stack, int top){
+		if(label[y] >= 0) return top;
+		label[y] = c;
+		stack[top++] = y;
+		return top;
+	}
+
+	static GeomVectorField read(String shapefile) throws IOException {
+		GeomVectorField roads = new GeomVectorField();
+		try {
+			ShapeFileImporter.read(new File(shapefile).toURI().toURL(), roads);
+		} catch (Exception e){
+			throw new IOException("Failed to read " + shapefile, e);
+		}
+		return roads;
+	}
+
+	/**
+	 * @return a size by size grid of roads 100m apart, with the junctions moved by up to 20m
+	 * and a tenth of the roads left out, so that routes are not all alike
+	 */
+	static GeomVectorField grid(int size, MersenneTwisterFast random){
+		GeometryFactory fa = new GeometryFactory();
+		Coordinate [][] junctions = new Coordinate [size][size];
+		for(int i = 0; i < size; i++)
+			for(int j = 0; j < size; j++)
+				junctions[i][j] = new Coordinate(i * 100 + random.nextDouble() * 20,
+						j * 100 + random.nextDouble() * 20);
+
+		GeomVectorField roads = new GeomVectorField();
+		for(int i = 0; i < size; i++)
+			for(int j = 0; j < size; j++){
+				if(i + 1 < size && random.nextDouble() < .9)
+					roads.addGeometry(new MasonGeometry(fa.createLineString(
+							new Coordinate [] {junctions[i][j], junctions[i + 1][j]})));
+				if(j + 1 < size && random.nextDouble() < .9)
+					roads.addGeometry(new MasonGeometry(fa.createLineString(
+							new Coordinate [] {junctions[i][j], junctions[i][j + 1]})));
+			}
+		return roads;
+	}
+}
@@ -0,0 +1,256 @@
+package objects.network;
+
+import java.util.Arrays;
+
+/**
+ * The result of a Dijkstra search run to completion over a CSRGraph from one or more roots.
+ * A forward tree holds the distance from the nearest root to every node; a reverse tree (built
+ * over the incoming arcs) holds the distance from every node to its nearest root. Either way the
+ * arc by which each node was reached is kept, so any node's path can be read off the tree in
+ * time proportional to the length of the path.
+ *
+ */
+public class ShortestPathTree {
+
+	CSRGraph graph;
+	boolean reverse;
+	double [] weights; // the arc costs the tree was grown with
+	double [] dist;
+	int [] parentArc; // -1 for the roots and unreached nodes
+	int [] origin; // the root from which each node was reached, or -1
+
+	ShortestPathTree(CSRGraph graph, boolean reverse){
+		this.graph = graph;
+		this.reverse = reverse;
+		int n = graph.numNodes();
+		dist = new double [n];
+		parentArc = new int [n];
+		origin = new int [n];
+	}
+
+	/**
+	 * Grow a tree from a single root
+	 * @see #build(CSRGraph, int[], boolean, double[])
+	 */
+	public static ShortestPathTree build(CSRGraph graph, int root, boolean reverse, double [] weights){
+		return build(graph, new int [] {root}, reverse, weights);
+	}
+
+	/**
+	 * Run Dijkstra's algorithm from all of the roots at once
+	 *
+	 * @param graph - the graph to search
+	 * @param roots - the nodes from which to search
+	 * @param reverse - if true, search backward along incoming arcs, so that distances are
+	 * 		measured from each node to the roots
+	 * @param weights - the cost of each arc, or null to use the arc lengths. Arcs with infinite
+	 * 		cost are never used
+	 * @return the completed tree
+	 */
+	public static ShortestPathTree build(CSRGraph graph, int [] roots, boolean reverse, double [] weights){
+		ShortestPathTree tree = new ShortestPathTree(graph, reverse);
+		tree.grow(roots, weights, new IndexedHeap(graph.numNodes()));
+		return tree;
+	}
+
+	/**
+	 * (Re)compute the tree from the given roots, reusing the tree's arrays and the given heap
+	 */
+	void grow(int [] roots, double [] weights, IndexedHeap heap){
+		if(weights == null) weights = graph.lengths;
+		this.weights = weights;
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		Arrays.fill(parentArc, -1);
+		Arrays.fill(origin, -1);
+		heap.clear();
+
+		for(int r: roots){
+			dist[r] = 0;
+			origin[r] = r;
+			heap.insertOrDecrease(r, 0);
+		}
+		settle(heap);
+	}
+
+	/**
+	 * Bring the tree up to date after the cost of an arc has changed in the weights array it was
+	 * grown with. If the cost rose and the arc was part of the tree, only the nodes whose paths
+	 * ran through it are searched again; if it fell, only the nodes which now gain a shorter
+	 * path are updated.
+	 *
+	 * @param arc - the arc whose cost has changed
+	 * @param oldWeight - its previous cost
+	 * @param heap - working space, which must be large enough to hold every node
+	 */
+	void update(int arc, double oldWeight, IndexedHeap heap){
+		double w = weights[arc];
+		int near = reverse ? graph.targets[arc] : graph.sources[arc]; // the end nearer the roots
+		int far = reverse ? graph.sources[arc] : graph.targets[arc];
+		heap.clear();
+
+		if(w < oldWeight){
+			double d = dist[near] + w;
+			if(d < dist[far]){
+				dist[far] = d;
+				parentArc[far] = arc;
+				origin[far] = origin[near];
+				heap.insertOrDecrease(far, d);
+				settle(heap);
+			}
+		}
+		else if(w > oldWeight && parentArc[far] == arc){
+
+			// gather the subtree hanging from the arc: every node in it has lost its path
+			IntStack subtree = new IntStack();
+			IntStack pending = new IntStack();
+			pending.push(far);
+			while(pending.size > 0){
+				int u = pending.pop();
+				subtree.push(u);
+				if(reverse){
+					for(int i = graph.inOffsets[u]; i < graph.inOffsets[u + 1]; i++){
+						int a = graph.inArcs[i];
+						if(parentArc[graph.sources[a]] == a) pending.push(graph.sources[a]);
+					}
+				}
+				else {
+					for(int a = graph.offsets[u]; a < graph.offsets[u + 1]; a++)
+						if(parentArc[graph.targets[a]] == a) pending.push(graph.targets[a]);
+				}
+			}
+			for(int i = 0; i < subtree.size; i++){
+				int v = subtree.items[i];
+				dist[v] = Double.POSITIVE_INFINITY;
+				parentArc[v] = -1;
+				origin[v] = -1;
+			}
+
+			// reconnect each of them by its best arc from the rest of the tree, then search on
+			for(int i = 0; i < subtree.size; i++){
+				int v = subtree.items[i];
+				if(reverse){
+					for(int a = graph.offsets[v]; a < graph.offsets[v + 1]; a++)
+						reconnect(v, graph.targets[a], a);
+				}
+				else {
+					for(int j = graph.inOffsets[v]; j < graph.inOffsets[v + 1]; j++){
+						int a = graph.inArcs[j];
+						reconnect(v, graph.sources[a], a);
+					}
+				}
+				if(parentArc[v] >= 0) heap.insertOrDecrease(v, dist[v]);
+			}
+			settle(heap);
+		}
+	}
+
+	/** offer node v a path through its neighbour u by arc a */
+	void reconnect(int v, int u, int a){
+		double d = dist[u] + weights[a];
+		if(d < dist[v]){
+			dist[v] = d;
+			parentArc[v] = a;
+			origin[v] = origin[u];
+		}
+	}
+
+	/**
+	 * Run Dijkstra's algorithm onward from the nodes in the heap
+	 */
+	void settle(IndexedHeap heap){
+		double [] weights = this.weights;
+		CSRGraph g = graph;
+		while(!heap.isEmpty()){
+			int u = heap.poll();
+			double du = dist[u];
+			if(reverse){
+				for(int i = g.inOffsets[u]; i < g.inOffsets[u + 1]; i++){
+					int a = g.inArcs[i];
+					int v = g.sources[a];
+					double d = du + weights[a];
+					if(d < dist[v]){
+						dist[v] = d;
+						parentArc[v] = a;
+						origin[v] = origin[u];
+						heap.insertOrDecrease(v, d);
+					}
+				}
+			}
+			else {
+				for(int a = g.offsets[u]; a < g.offsets[u + 1]; a++){
+					int v = g.targets[a];
+					double d = du + weights[a];
+					if(d < dist[v]){
+						dist[v] = d;
+						parentArc[v] = a;
+						origin[v] = origin[u];
+						heap.insertOrDecrease(v, d);
+					}
+				}
+			}
+		}
+	}
+
+	public CSRGraph getGraph(){ return graph; }
+
+	public boolean isReverse(){ return reverse; }
+
+	/** @return the distance between the node and its nearest root, or infinity if unreached */
+	public double distance(int node){ return dist[node]; }
+
+	public boolean reached(int node){ return dist[node] < Double.POSITIVE_INFINITY; }
+
+	/** @return the arc by which the node was reached, or -1 */
+	public int parentArc(int node){ return parentArc[node]; }
+
+	/** @return the root nearest to the node, or -1 if it was not reached */
+	public int origin(int node){ return origin[node]; }
+
+	/**
+	 * @return the distances of every node, indexed by node id. This is the tree's own array and
+	 * must not be modified.
+	 */
+	public double [] distances(){ return dist; }
+
+	/**
+	 * Read a path off the tree
+	 * @param node - any node of the graph
+	 * @return for a forward tree, the arcs from the nearest root to the node; for a reverse tree,
+	 * the arcs from the node to its nearest root. Either way they are in the order travelled.
+	 * Returns null if the node was not reached.
+	 */
+	public int [] path(int node){
+		if(!reached(node)) return null;
+
+		int length = 0;
+		for(int n = node; parentArc[n] >= 0; n = next(n))
+			length++;
+
+		int [] result = new int [length];
+		int i = reverse ? 0 : length - 1;
+		for(int n = node; parentArc[n] >= 0; n = next(n)){
+			result[i] = parentArc[n];
+			i += reverse ? 1 : -1;
+		}
+		return result;
+	}
+
+	/** A growable stack of ints */
+	static class IntStack {
+		int [] items = new int [16];
+		int size = 0;
+
+		void push(int i){
+			if(size == items.length) items = Arrays.copyOf(items, 2 * size);
+			items[size++] = i;
+		}
+
+		int pop(){ return items[--size]; }
+	}
+
+	/** @return the next node along the tree toward the root */
+	int next(int node){
+		int a = parentArc[node];
+		return reverse ? graph.targets[a] : graph.sources[a];
+	}
+}
@@ -0,0 +1,302 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.geo.GeomPlanarGraphEdge;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.planargraph.PlanarGraph;
+
+/**
+ * Finds where points join the road network. Every straight segment of every road is held in a
+ * grid of square cells (see CellGrid), as PointGrid holds points, and a point is projected
+ * exactly onto the segments in the cells around it, ring by ring, until no unsearched cell can
+ * hold anything closer. A single query gives the road, the point on it, the point's offset along the road's
+ * LengthIndexedLine and the end of the road nearest along it.
+ *
+ */
+public class SnapIndex extends CellGrid {
+
+	/**
+	 * Where a point joins the network
+	 */
+	public static class Snap {
+		public final Object edge; // the road
+		public final Coordinate point; // the nearest point on the road
+		public final double offset; // the distance of that point along the road from its start
+		public final double distance; // the distance from the point to the road
+		public final Object node; // whichever end of the road is nearer along it
+
+		Snap(Object edge, Coordinate point, double offset, double distance, Object node){
+			this.edge = edge;
+			this.point = point;
+			this.offset = offset;
+			this.distance = distance;
+			this.node = node;
+		}
+	}
+
+	// the roads, each with the node at the start and end of its line
+	Object [] edges, startNodes, endNodes;
+	double [] lengths;
+
+	// the segments, and for each the road it belongs to and how far along the road it starts
+	double [] x0, y0, x1, y1, segmentOffsets;
+	int [] segmentEdges;
+
+	PointGrid nodeGrid;
+
+	/**
+	 * @param edges - the roads
+	 * @param lines - the geometry of each road
+	 * @param startNodes - the node at the first coordinate of each road's line
+	 * @param endNodes - the node at the last coordinate of each road's line
+	 */
+	public SnapIndex(Object [] edges, LineString [] lines, Object [] startNodes, Object [] endNodes){
+		this.edges = edges;
+		this.startNodes = startNodes;
+		this.endNodes = endNodes;
+		int m = edges.length;
+		lengths = new double [m];
+
+		int n = 0;
+		for(LineString line: lines)
+			n += Math.max(0, line.getNumPoints() - 1);
+		x0 = new double [n];
+		y0 = new double [n];
+		x1 = new double [n];
+		y1 = new double [n];
+		segmentOffsets = new double [n];
+		segmentEdges = new int [n];
+
+		int s = 0;
+		for(int e = 0; e < m; e++){
+			Coordinate [] cs = lines[e].getCoordinates();
+			double offset = 0;
+			for(int i = 0; i + 1 < cs.length; i++, s++){
+				x0[s] = cs[i].x;
+				y0[s] = cs[i].y;
+				x1[s] = cs[i + 1].x;
+				y1[s] = cs[i + 1].y;
+				segmentOffsets[s] = offset;
+				segmentEdges[s] = e;
+				offset += cs[i].distance(cs[i + 1]);
+			}
+			lengths[e] = offset;
+		}
+		index(x0, y0, x1, y1);
+
+		// the ends of the roads
+		ArrayList <Object> nodes = new ArrayList <Object> ();
+		ArrayList <Coordinate> positions = new ArrayList <Coordinate> ();
+		HashSet <Object> seen = new HashSet <Object> ();
+		for(int e = 0; e < m; e++){
+			if(seen.add(startNodes[e])){
+				nodes.add(startNodes[e]);
+				positions.add(lines[e].getCoordinateN(0));
+			}
+			if(seen.add(endNodes[e])){
+				nodes.add(endNodes[e]);
+				positions.add(lines[e].getCoordinateN(lines[e].getNumPoints() - 1));
+			}
+		}
+		double [] xs = new double [nodes.size()], ys = new double [nodes.size()];
+		for(int i = 0; i < xs.length; i++){
+			xs[i] = positions.get(i).x;
+			ys[i] = positions.get(i).y;
+		}
+		nodeGrid = new PointGrid(xs, ys, nodes.toArray());
+	}
+
+	/**
+	 * Index the roads of a planar graph, such as a GeomPlanarGraph. The edges are the
+	 * GeomPlanarGraphEdges and the nodes the graph's Nodes.
+	 */
+	public static SnapIndex forPlanarGraph(PlanarGraph graph){
+		int m = graph.getEdges().size();
+		Object [] edges = new Object [m], starts = new Object [m], ends = new Object [m];
+		LineString [] lines = new LineString [m];
+		int i = 0;
+		for(Object o: graph.getEdges()){
+			GeomPlanarGraphEdge e = (GeomPlanarGraphEdge) o;
+			edges[i] = e;
+			lines[i] = e.getLine();
+			starts[i] = e.getDirEdge(0).getFromNode();
+			ends[i] = e.getDirEdge(0).getToNode();
+			i++;
+		}
+		return new SnapIndex(edges, lines, starts, ends);
+	}
+
+	/**
+	 * Index the roads of a MASON network whose nodes are MasonGeometries, such as GeoNodes. An
+	 * edge's line is the geometry it carries, or else the straight line between its nodes.
+	 */
+	public static SnapIndex forNetwork(Network network){
+		ArrayList <Object> edges = new ArrayList <Object> (), starts = new ArrayList <Object> (),
+				ends = new ArrayList <Object> ();
+		ArrayList <LineString> lines = new ArrayList <LineString> ();
+		HashSet <Object> seen = new HashSet <Object> ();
+		for(Object node: network.getAllNodes())
+			for(Object o: network.getEdges(node, null)){
+				Edge e = (Edge) o;
+				if(!seen.add(e)) continue;
+				Coordinate from = ((MasonGeometry) e.from()).geometry.getCoordinate(),
+						to = ((MasonGeometry) e.to()).geometry.getCoordinate();
+				LineString line = null;
+				if(e.info instanceof MasonGeometry && ((MasonGeometry) e.info).geometry instanceof LineString)
+					line = (LineString) ((MasonGeometry) e.info).geometry;
+				else
+					line = ((MasonGeometry) e.from()).geometry.getFactory().createLineString(
+							new Coordinate [] {from, to});
+
+				// the line may have been drawn from either end
+				boolean reversed = line.getCoordinateN(0).distance(from) > line.getCoordinateN(0).distance(to);
+				edges.add(e);
+				lines.add(line);
+				starts.add(reversed ? e.to() : e.from());
+				ends.add(reversed ? e.from() : e.to());
+			}
+		return new SnapIndex(edges.toArray(), lines.toArray(new LineString [lines.size()]),
+				starts.toArray(), ends.toArray());
+	}
+
+	public int numEdges(){ return edges.length; }
+
+	public int numSegments(){ return x0.length; }
+
+	/**
+	 * @return where the point joins the network, or null if there are no roads
+	 */
+	public Snap snap(Coordinate c){
+		return snap(c.x, c.y, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param maxDistance - how far from the point a road may be
+	 * @return where the point joins the network, or null if no road is within maxDistance of it
+	 */
+	public Snap snap(double x, double y, double maxDistance){
+		int s = nearestSegment(x, y, maxDistance);
+		if(s < 0) return null;
+
+		double t = project(s, x, y);
+		double px = x0[s] + t * (x1[s] - x0[s]), py = y0[s] + t * (y1[s] - y0[s]);
+		int e = segmentEdges[s];
+		double offset = segmentOffsets[s] + t * Math.hypot(x1[s] - x0[s], y1[s] - y0[s]);
+		Object node = offset <= lengths[e] / 2 ? startNodes[e] : endNodes[e];
+		return new Snap(edges[e], new Coordinate(px, py), offset, Math.hypot(px - x, py - y), node);
+	}
+
+	/** @return the road nearest to the point, or null if there are no roads */
+	public Object nearestEdge(Coordinate c){
+		int s = nearestSegment(c.x, c.y, Double.POSITIVE_INFINITY);
+		return s < 0 ? null : edges[segmentEdges[s]];
+	}
+
+	/** @return the road end nearest to the point, whichever road it is on, or null if there are none */
+	public Object nearestNode(Coordinate c){
+		int p = nodeGrid.nearest(c.x, c.y);
+		return p < 0 ? null : nodeGrid.getObject(p);
+	}
+
+	/**
+	 * @return every road end within the given distance of the point
+	 */
+	public ArrayList <Object> nodesWithin(Coordinate c, double distance){
+		ArrayList <Integer> found = new ArrayList <Integer> ();
+		nodeGrid.within(c.x, c.y, distance, found);
+		ArrayList <Object> result = new ArrayList <Object> (found.size());
+		for(int p: found)
+			result.add(nodeGrid.getObject(p));
+		return result;
+	}
+
+	/**
+	 * Find every road passing within the given distance of (x, y)
+	 * @param result - the list to which the positions of the roads, in the order given to the
+	 * 		constructor, are added in ascending order
+	 */
+	public void edgesWithin(double x, double y, double distance, ArrayList <Integer> result){
+		ArrayList <Integer> segments = new ArrayList <Integer> ();
+		within(x, y, distance, segments);
+		int first = result.size();
+		HashSet <Integer> found = new HashSet <Integer> ();
+		for(int s: segments)
+			if(found.add(segmentEdges[s]))
+				result.add(segmentEdges[s]);
+		Collections.sort(result.subList(first, result.size()));
+	}
+
+	/**
+	 * Snap every point, spreading them over a pool of worker threads
+	 *
+	 * @param points - the points, such as a whole population's homes
+	 * @param maxDistance - how far from a point a road may be
+	 * @param numThreads - the number of workers to use
+	 * @return where each point joins the network, in the same order, or null where no road is
+	 * within maxDistance of it
+	 */
+	public Snap [] snapAll(final List <Coordinate> points, final double maxDistance, int numThreads){
+		final Snap [] result = new Snap [points.size()];
+		WorkerPool.forEach(numThreads, points.size(), new WorkerPool.Range(){
+			public void run(int first, int last){
+				for(int j = first; j < last; j++){
+					Coordinate c = points.get(j);
+					result[j] = snap(c.x, c.y, maxDistance);
+				}
+			}
+		}, "snapping points to the roads");
+		return result;
+	}
+
+	/**
+	 * Snap the points of a set of geometries, such as the features of a population layer
+	 * @see #snapAll(List, double, int)
+	 */
+	public HashMap <Geometry, Snap> snapGeometries(List <? extends Geometry> geometries,
+			double maxDistance, int numThreads){
+		ArrayList <Coordinate> points = new ArrayList <Coordinate> (geometries.size());
+		for(Geometry g: geometries)
+			points.add(g.getCoordinate());
+		Snap [] snaps = snapAll(points, maxDistance, numThreads);
+		HashMap <Geometry, Snap> result = new HashMap <Geometry, Snap> ();
+		for(int i = 0; i < snaps.length; i++)
+			result.put(geometries.get(i), snaps[i]);
+		return result;
+	}
+
+	/**
+	 * @return the segment nearest to (x, y), or -1 if none is within maxDistance of it
+	 */
+	int nearestSegment(double x, double y, double maxDistance){
+		return nearest(x, y, maxDistance);
+	}
+
+	double distance2(int s, double x, double y){
+		double t = project(s, x, y);
+		double dx = x0[s] + t * (x1[s] - x0[s]) - x, dy = y0[s] + t * (y1[s] - y0[s]) - y;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * @return how far along the segment, from 0 at its start to 1 at its end, is the point on it
+	 * nearest to (x, y)
+	 */
+	double project(int s, double x, double y){
+		double dx = x1[s] - x0[s], dy = y1[s] - y0[s];
+		double len2 = dx * dx + dy * dy;
+		if(len2 == 0) return 0;
+		double t = ((x - x0[s]) * dx + (y - y0[s]) * dy) / len2;
+		return t < 0 ? 0 : (t > 1 ? 1 : t);
+	}
+}
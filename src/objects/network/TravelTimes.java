@@ -0,0 +1,373 @@
+package objects.network;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.Bag;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * How long it takes to travel between key facilities, such as hospitals and fire stations, and
+ * every junction of the road network. A Dijkstra search is run to completion from each facility,
+ * the facilities being spread over a pool of worker threads, and the travel times can be summed
+ * up over the areas of a boundary layer and written out.
+ *
+ * Searches are cached by facility and by the state of the network they ran over (the graph and
+ * every arc's cost, so closing a road or routing around floods gives a new state), so asking
+ * again after nothing has changed costs nothing. Each search holds a time for every node, so
+ * only so many are kept: when the cache is full the least recently used is dropped.
+ *
+ */
+public class TravelTimes {
+
+	static final int MAGIC = 0x54544d31; // "TTM1"
+	public static final int DEFAULT_CAPACITY = 64;
+
+	CSRGraph graph;
+	double speed;
+	WorkerPool workers;
+
+	int capacity;
+	LinkedHashMap <Key, float []> cache;
+	int hits = 0, misses = 0;
+
+	// the area of the boundary layer holding each node, if one has been given
+	int [] areaOf = null;
+	String [] areaCodes = null;
+
+	/**
+	 * The travel times from a set of facilities under one state of the network
+	 */
+	public static class Result {
+		public final int [] facilities;
+		final float [][] times; // times[f][node], infinite where a node cannot be reached
+		public final long state;
+
+		Result(int [] facilities, float [][] times, long state){
+			this.facilities = facilities;
+			this.times = times;
+			this.state = state;
+		}
+
+		/** @return the travel time in seconds between the fth facility and the node */
+		public double time(int f, int node){ return times[f][node]; }
+
+		/** @return the travel time in seconds between the node and the nearest facility */
+		public double nearest(int node){
+			double best = Double.POSITIVE_INFINITY;
+			for(float [] t: times)
+				best = Math.min(best, t[node]);
+			return best;
+		}
+
+		/** @return the number of nodes within the given time of the fth facility */
+		public int countWithin(int f, double seconds){
+			int result = 0;
+			for(float t: times[f])
+				if(t <= seconds) result++;
+			return result;
+		}
+	}
+
+	/**
+	 * A search from one facility under one state of the network
+	 */
+	static class Key {
+		final long state;
+		final int facility;
+
+		Key(long state, int facility){
+			this.state = state;
+			this.facility = facility;
+		}
+
+		public boolean equals(Object o){
+			if(!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return k.state == state && k.facility == facility;
+		}
+
+		public int hashCode(){
+			return 31 * (int) (state ^ (state >>> 32)) + facility;
+		}
+	}
+
+	/**
+	 * @param graph - the road graph
+	 * @param speed - the speed of travel in metres per second, by which arc costs are divided
+	 * @param numThreads - the number of workers to use
+	 */
+	public TravelTimes(CSRGraph graph, double speed, int numThreads){
+		this(graph, speed, numThreads, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity - the most searches to keep in the cache
+	 */
+	public TravelTimes(CSRGraph graph, double speed, int numThreads, int capacity){
+		this.graph = graph;
+		this.speed = speed;
+		workers = new WorkerPool(numThreads);
+		this.capacity = capacity;
+		cache = new LinkedHashMap <Key, float []> (16, .75f, true){
+			protected boolean removeEldestEntry(Map.Entry <Key, float []> eldest){
+				return size() > TravelTimes.this.capacity;
+			}
+		};
+	}
+
+	public CSRGraph getGraph(){ return graph; }
+
+	public int getCacheHits(){ return hits; }
+
+	public int getCacheMisses(){ return misses; }
+
+	public synchronized void clearCache(){ cache.clear(); }
+
+	public synchronized int getCacheSize(){ return cache.size(); }
+
+	public int getCapacity(){ return capacity; }
+
+	/**
+	 * @return a key for the state of the network: the graph and every arc's cost
+	 */
+	public long state(double [] weights, boolean reverse){
+		long h = graph.fingerprint();
+		if(weights != null)
+			for(double w: weights)
+				h = 31 * h + Double.doubleToLongBits(w);
+		return 31 * h + (reverse ? 1 : 0);
+	}
+
+	/**
+	 * Find the travel times between each facility and every node
+	 *
+	 * @param facilities - the nodes at which the facilities stand
+	 * @param weights - the cost of each arc, or null for the arc lengths. Closed arcs cost infinity.
+	 * @param reverse - if true, the times are from every node to the facilities rather than from
+	 * 		the facilities to every node
+	 * @return the travel times
+	 */
+	public Result compute(int [] facilities, final double [] weights, final boolean reverse){
+		long startTime = System.currentTimeMillis();
+		long state = state(weights, reverse);
+		final float [][] times = new float [facilities.length][];
+
+		// search from every facility not already in the cache
+		final ArrayList <Integer> missing = new ArrayList <Integer> ();
+		synchronized(this){
+			for(int f = 0; f < facilities.length; f++){
+				times[f] = cache.get(new Key(state, facilities[f]));
+				if(times[f] != null) hits++;
+				else {
+					misses++;
+					missing.add(f);
+				}
+			}
+		}
+
+		final int [] roots = facilities;
+		ArrayList <Callable <Object>> tasks = new ArrayList <Callable <Object>> ();
+		for(final int f: missing)
+			tasks.add(new Callable <Object> (){
+				public Object call(){
+					ShortestPathTree tree = ShortestPathTree.build(graph, roots[f], reverse, weights);
+					float [] t = new float [graph.numNodes()];
+					for(int v = 0; v < t.length; v++)
+						t[v] = (float) (tree.dist[v] / speed);
+					times[f] = t;
+					return null;
+				}
+			});
+		workers.invokeAll(tasks, "finding travel times");
+
+		synchronized(this){
+			for(int f: missing)
+				cache.put(new Key(state, facilities[f]), times[f]);
+		}
+		if(!missing.isEmpty())
+			System.out.println("Travel times from " + missing.size() + " facilities found in "
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		return new Result(facilities.clone(), times, state);
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// AREAS //////////////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Find the area of a boundary layer, such as the LSOAs, holding each node
+	 *
+	 * @param areas - the polygons of the areas
+	 * @param codeAttribute - the attribute naming each area; areas without it are named by
+	 * 		their position in the layer
+	 */
+	public void setAreas(GeomVectorField areas, String codeAttribute){
+		Bag polygons = areas.getGeometries();
+		String [] codes = new String [polygons.size()];
+		for(int i = 0; i < codes.length; i++){
+			MasonGeometry mg = (MasonGeometry) polygons.get(i);
+			if(codeAttribute != null && mg.hasAttribute(codeAttribute))
+				codes[i] = mg.getStringAttribute(codeAttribute);
+		}
+		setAreas(areas, codes);
+	}
+
+	/**
+	 * Find the area of a boundary layer holding each node
+	 *
+	 * @param areas - the polygons of the areas
+	 * @param codes - the name of each area, in the order of the layer, such as a column of an
+	 * 		AttributeTable; areas without one are named by their position in the layer
+	 */
+	public void setAreas(GeomVectorField areas, String [] codes){
+		Bag polygons = areas.getGeometries();
+		areaCodes = new String [polygons.size()];
+		Geometry [] geometries = new Geometry [polygons.size()];
+		STRtree index = new STRtree();
+		for(int i = 0; i < areaCodes.length; i++){
+			MasonGeometry mg = (MasonGeometry) polygons.get(i);
+			areaCodes[i] = codes[i] != null ? codes[i] : String.valueOf(i);
+			geometries[i] = mg.geometry;
+			index.insert(mg.geometry.getEnvelopeInternal(), i);
+		}
+		index.build();
+
+		GeometryFactory fa = new GeometryFactory();
+		PreparedGeometry [] prepared = new PreparedGeometry [geometries.length];
+		areaOf = new int [graph.numNodes()];
+		for(int v = 0; v < areaOf.length; v++){
+			areaOf[v] = -1;
+			Point p = fa.createPoint(new Coordinate(graph.xs[v], graph.ys[v]));
+			for(Object o: index.query(p.getEnvelopeInternal())){
+				int area = (Integer) o;
+				if(prepared[area] == null)
+					prepared[area] = PreparedGeometryFactory.prepare(geometries[area]);
+				if(prepared[area].covers(p)){
+					areaOf[v] = area;
+					break;
+				}
+			}
+		}
+	}
+
+	/** @return the area holding the node, or -1 if it lies in none of them */
+	public int getArea(int node){ return areaOf == null ? -1 : areaOf[node]; }
+
+	public int getNumAreas(){ return areaCodes == null ? 0 : areaCodes.length; }
+
+	public String getAreaCode(int area){ return areaCodes[area]; }
+
+	/**
+	 * Sum up the travel times over each area
+	 *
+	 * @return for each area and each facility (the last column being whichever facility is
+	 * nearest), the number of nodes in the area, the number reached, and the least, mean and
+	 * greatest time in seconds to those reached: result[area][facility][statistic]
+	 */
+	public double [][][] aggregate(Result r){
+		if(areaOf == null)
+			throw new IllegalStateException("No areas have been given");
+		int numAreas = areaCodes.length, numColumns = r.facilities.length + 1;
+		double [][][] result = new double [numAreas][numColumns][5];
+		for(double [][] area: result)
+			for(double [] s: area){
+				s[2] = Double.POSITIVE_INFINITY;
+				s[4] = Double.NEGATIVE_INFINITY;
+			}
+
+		for(int v = 0; v < areaOf.length; v++){
+			int area = areaOf[v];
+			if(area < 0) continue;
+			for(int f = 0; f < numColumns; f++){
+				double t = f < r.facilities.length ? r.time(f, v) : r.nearest(v);
+				double [] s = result[area][f];
+				s[0]++;
+				if(t == Double.POSITIVE_INFINITY) continue;
+				s[1]++;
+				s[2] = Math.min(s[2], t);
+				s[3] += t;
+				s[4] = Math.max(s[4], t);
+			}
+		}
+		for(double [][] area: result)
+			for(double [] s: area){
+				if(s[1] > 0) s[3] /= s[1];
+				else s[2] = s[3] = s[4] = Double.NaN;
+			}
+		return result;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////
+	/////// EXPORT /////////////////////////////////////////////////////////////////
+	////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Write the time between every facility and every node, as a header (magic number, number
+	 * of nodes, number of facilities, graph fingerprint and network state), the facilities'
+	 * node ids, and then each facility's times in seconds as floats
+	 */
+	public void writeNodeTimes(File file, Result r) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(graph.numNodes());
+			out.writeInt(r.facilities.length);
+			out.writeLong(graph.fingerprint());
+			out.writeLong(r.state);
+			for(int f: r.facilities)
+				out.writeInt(f);
+			for(float [] t: r.times)
+				for(float x: t)
+					out.writeFloat(x);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the per-area sums (see aggregate()) as CSV, one row per area and facility
+	 * @param names - a name for each facility, or null to use their node ids
+	 */
+	public void writeAreaTimes(File file, Result r, String [] names) throws IOException {
+		double [][][] stats = aggregate(r);
+		BufferedWriter w = new BufferedWriter(new FileWriter(file));
+		try {
+			w.write("area,facility,nodes,reached,min_s,mean_s,max_s");
+			w.newLine();
+			for(int area = 0; area < stats.length; area++)
+				for(int f = 0; f < stats[area].length; f++){
+					String facility = f == r.facilities.length ? "nearest"
+							: names != null ? names[f] : String.valueOf(r.facilities[f]);
+					double [] s = stats[area][f];
+					w.write(areaCodes[area] + "," + facility + "," + (int) s[0] + "," + (int) s[1] + ","
+							+ format(s[2]) + "," + format(s[3]) + "," + format(s[4]));
+					w.newLine();
+				}
+		} finally {
+			w.close();
+		}
+	}
+
+	static String format(double d){
+		return Double.isNaN(d) ? "" : String.valueOf((float) d);
+	}
+}
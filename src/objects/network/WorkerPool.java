@@ -0,0 +1,157 @@
+package objects.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of worker threads over which independent tasks, such as searches or batches of
+ * points, are spread. The results come back in the order of the tasks, and any failure is passed
+ * on to the caller. The threads are only started once there is work for them, and they are let
+ * go after a while with nothing to do, so a pool can be kept for as long as its owner without
+ * being shut down. With a single worker, or a single task, the work is done on the calling thread.
+ *
+ */
+public class WorkerPool {
+
+	static final long IDLE_SECONDS = 30;
+	static final int BATCHES_PER_THREAD = 8;
+
+	int numThreads;
+	ThreadPoolExecutor workers = null;
+
+	/**
+	 * Work on a range of items
+	 */
+	public interface Range {
+		/** do the work for the items first to last - 1 */
+		void run(int first, int last);
+	}
+
+	/**
+	 * @param numThreads - the most workers to use
+	 */
+	public WorkerPool(int numThreads){
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public int getNumThreads(){ return numThreads; }
+
+	/** @return the number of threads which would work on the given number of tasks */
+	public int threadsFor(int numTasks){
+		return Math.max(1, Math.min(numThreads, numTasks));
+	}
+
+	/**
+	 * Run the tasks
+	 * @param doing - what the tasks do, for reporting failures (e.g. "planning routes")
+	 * @return the results of the tasks, in the order of the tasks
+	 */
+	public <T> ArrayList <T> invokeAll(List <? extends Callable <T>> tasks, String doing){
+		ArrayList <T> result = new ArrayList <T> (tasks.size());
+		if(threadsFor(tasks.size()) == 1){
+			try {
+				for(Callable <T> task: tasks)
+					result.add(task.call());
+			} catch (Exception e){
+				throw new RuntimeException("Failed while " + doing, e);
+			}
+			return result;
+		}
+
+		try {
+			for(Future <T> f: pool().invokeAll(tasks))
+				result.add(f.get()); // pass on any failure
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while " + doing, e);
+		} catch (ExecutionException e){
+			throw new RuntimeException("Failed while " + doing, e.getCause());
+		}
+		return result;
+	}
+
+	/**
+	 * Divide n items into small batches, so that no worker is left with all of the slow ones,
+	 * and work through them
+	 * @param doing - what the work is, for reporting failures
+	 */
+	public void forEach(int n, final Range body, String doing){
+		ArrayList <Callable <Object>> tasks = new ArrayList <Callable <Object>> ();
+		for(final int [] range: ranges(n))
+			tasks.add(new Callable <Object> (){
+				public Object call(){
+					body.run(range[0], range[1]);
+					return null;
+				}
+			});
+		invokeAll(tasks, doing);
+	}
+
+	/**
+	 * @return the ranges [first, last) into which n items are divided for the workers
+	 */
+	public ArrayList <int []> ranges(int n){
+		ArrayList <int []> result = new ArrayList <int []> ();
+		int batchSize = Math.max(1, n / (numThreads * BATCHES_PER_THREAD));
+		for(int i = 0; i < n; i += batchSize)
+			result.add(new int [] {i, Math.min(i + batchSize, n)});
+		return result;
+	}
+
+	/**
+	 * Let the workers go at once, rather than after they have been idle for a while. The pool
+	 * starts new ones if it is given more work.
+	 */
+	public synchronized void shutdown(){
+		if(workers != null) workers.shutdown();
+		workers = null;
+	}
+
+	synchronized ThreadPoolExecutor pool(){
+		if(workers == null){
+			workers = new ThreadPoolExecutor(numThreads, numThreads, IDLE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue <Runnable> (), new ThreadFactory(){
+						public Thread newThread(Runnable r){
+							Thread t = new Thread(r, "worker");
+							t.setDaemon(true); // an idle pool must not keep the simulation running
+							return t;
+						}
+					});
+			workers.allowCoreThreadTimeOut(true);
+		}
+		return workers;
+	}
+
+	/**
+	 * Run the tasks on a pool of the given size, let go once they are done
+	 * @see #invokeAll(List, String)
+	 */
+	public static <T> ArrayList <T> run(int numThreads, List <? extends Callable <T>> tasks, String doing){
+		WorkerPool pool = new WorkerPool(numThreads);
+		try {
+			return pool.invokeAll(tasks, doing);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Work through n items in batches on a pool of the given size, let go once they are done
+	 * @see #forEach(int, Range, String)
+	 */
+	public static void forEach(int numThreads, int n, Range body, String doing){
+		WorkerPool pool = new WorkerPool(numThreads);
+		try {
+			pool.forEach(n, body, doing);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -4,14 +4,20 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 
+import objects.LayerLoader;
+import objects.LayerSchema;
 import objects.NetworkUtilities;
+import objects.network.CSRGraph;
 import objects.network.GeoNode;
 import objects.network.ListEdge;
+import objects.network.NetworkSnapshot;
+import objects.network.NetworkView;
 import objects.agents.Agent;
 import sim.engine.SimState;
 import sim.field.geo.GeomGridField;
@@ -88,6 +94,8 @@ public class EngDBasic extends SimState	{
 	////////////////////// Network ///////////////////////////////
 	public GeomPlanarGraph network = new GeomPlanarGraph();		// Stores road network connections
 	public GeomVectorField junctions = new GeomVectorField();	// nodes for intersections
+	public CSRGraph roadGraph = null;	// compact, read-only copy of network for routing
+	NetworkSnapshot roadSnapshot = null;	// the roads and their graph, as last read or loaded
 
 	///////////////////// Objects ////////////////////////////////
 
@@ -113,8 +121,8 @@ public class EngDBasic extends SimState	{
         return goToWork;
     }
 
-	//Envelope MBR = null;
-	Envelope MBR = roadLayer.getMBR();
+	Envelope MBR = null;	// the standard MBR, once every layer has been read
+	LayerLoader layers = null;	// reads the layers in start()
 	boolean verbose = false;
 
 	public ListEdge goalPoint;
@@ -152,41 +160,30 @@ public class EngDBasic extends SimState	{
 		///////////// READING IN DATA ////////////////
 		//////////////////////////////////////////////
 
+        // read the layers side by side, the roads first so that the network can be built
+        // while the boundaries and flood zones are still being read; the MBRs are standardised
+        // by whichever reader finishes last
+        layers = new LayerLoader(Runtime.getRuntime().availableProcessors());
         try	{
-        	readInVectorLayer(baseLayer, dirName + "Final_LSOA.shp", "Boundaries", new Bag());
-			readInVectorLayer(roadLayer, dirName + "Final_ITN.shp", "Road Network", new Bag());
-			readInVectorLayer(flood3, dirName + "NorfolkFZ3.shp", "Flood Zone 3", new Bag());
-			readInVectorLayer(flood2, dirName + "NorfolkFZ2.shp", "Flood Zone 2", new Bag());
-
-			//////////////////////////////////////////////
-			////////////////// CLEANUP ///////////////////
-			//////////////////////////////////////////////
-
-			// standardize the MBRs so that the visualization lines up
-
-			Envelope MBR = roadLayer.getMBR();
-			MBR.expandToInclude(baseLayer.getMBR());
-
-			//this.grid_width = baseLayer.fieldWidth;
-			//this.grid_height = baseLayer.fieldHeight;
-
-			MBR.expandToInclude(agentsLayer.getMBR());
-			MBR.expandToInclude(flood3.getMBR());
-			MBR.expandToInclude(flood2.getMBR());
-
-			//roadLayer = new GeomVectorField(grid_width, grid_height);
+        	// only the columns each layer's schema lists are read from the DBFs
+        	layers.load(roadLayer, LayerSchema.ROADS, new Runnable()	{
+        		public void run()	{
+        			readInRoads(roadLayer, dirName + "Final_ITN.shp", dirName + "Final_ITN.snapshot");
+        		}
+        	});
+        	layers.load(baseLayer, dirName + "Final_LSOA.shp", "Boundaries", LayerSchema.BOUNDARIES);
+			layers.load(flood3, dirName + "NorfolkFZ3.shp", "Flood Zone 3", LayerSchema.FLOOD_ZONES);
+			layers.load(flood2, dirName + "NorfolkFZ2.shp", "Flood Zone 2", LayerSchema.FLOOD_ZONES);
+			layers.whenAllLoaded(new Runnable()	{
+				public void run()	{
+					standardiseMBR();
+				}
+			});
 
+			layers.await(roadLayer);
 			createNetwork();
 
-			// standardize the MBRs so that the visualization lines up
-            // and everyone knows what the standard MBR is
-			roadLayer.setMBR(MBR);
-			baseLayer.setMBR(MBR);
-			agentsLayer.setMBR(MBR);
-			flood3.setMBR(MBR);
-			flood2.setMBR(MBR);
-
-			System.out.println("Finished reading, cleaning and setting MBR.");
+			System.out.println("Finished reading and cleaning the roads.");
 
 			//////////////////////////////////////////////
 			////////////////// AGENTS ///////////////////
@@ -194,15 +191,16 @@ public class EngDBasic extends SimState	{
 
 			// set up the agents in the simulation
 			setupAgentsFromFile("/data/NorfolkITNAGENT.csv");
-			agentsLayer.setMBR(MBR);
+			setMBRs();
 
 			// for each of the Agents, set up relevant, environment-specific information
 			int aindex = 0;
 			for(Agent a: agents){
 				if(a.familiarRoadNetwork == null){
 
-				// the Agent knows about major roads
-				Network familiar = roads.cloneGraph();
+				// the Agent knows about major roads, shared with every other Agent until it
+				// learns of a closure
+				Network familiar = new NetworkView(roads);
 
 				// connect the major network to the Agent's location
 				//connectToMajorNetwork(a.getNode(), familiar);
@@ -230,6 +228,9 @@ public class EngDBasic extends SimState	{
 			}
 
         }catch (Exception e) { e.printStackTrace();}
+        finally	{
+        	layers.shutdown();
+        }
     }
 
 	/**
@@ -328,7 +329,10 @@ public class EngDBasic extends SimState	{
     private void createNetwork()	{
     	System.out.println("Creating road network..." +roadLayer);
     	System.out.println();
-    	network.createFromGeomField(roadLayer);
+    	if(roadSnapshot != null)
+    		network = roadSnapshot.createGraph();
+    	else
+    		network.createFromGeomField(roadLayer);
 
     	for (Object o : network.getEdges())	{
             GeomPlanarGraphEdge e = (GeomPlanarGraphEdge) o;
@@ -339,6 +343,38 @@ public class EngDBasic extends SimState	{
 
             e.setData(new ArrayList<Agent>());
         }
+
+    	roadGraph = CSRGraph.fromPlanarGraph(network);
+    }
+
+    /**
+     * Read in the road layer from a snapshot of it if there is an up-to-date one, else from
+     * the shapefile, then taking a snapshot for next time
+     * @param layer
+     * @param filename - the shapefile
+     * @param snapshotFilename - where the snapshot is kept
+     */
+    void readInRoads(GeomVectorField layer, String filename, String snapshotFilename)	{
+    	File shapefile = new File(filename), snapshotFile = new File(snapshotFilename);
+    	try {
+    		String[] columns = LayerSchema.ROADS.getNames();
+    		long source = NetworkSnapshot.sourceChecksum(shapefile, columns);
+    		roadSnapshot = NetworkSnapshot.load(snapshotFile, source, fa);
+    		if(roadSnapshot != null)	{
+    			roadSnapshot.fill(layer);
+    			return;
+    		}
+
+    		LayerLoader.readInVectorLayer(layer, filename, "Road Network", LayerSchema.ROADS);
+    		roadSnapshot = NetworkSnapshot.capture(layer, columns);
+    		if(roadSnapshot != null)
+    			roadSnapshot.write(snapshotFile, source);
+    	} catch (IOException e) {
+    		// carry on with whatever has been read; the snapshot is only a shortcut
+    		e.printStackTrace();
+    		if(layer.getGeometries().isEmpty())
+    			LayerLoader.readInVectorLayer(layer, filename, "Road Network", LayerSchema.ROADS);
+    	}
     }
 
     /**
@@ -372,11 +408,49 @@ public class EngDBasic extends SimState	{
 		mySeed = number;
 	}
 
+	/**
+	 * Wait, if need be, until every layer being read by start() is ready and the MBRs have been
+	 * standardised, as the visualization must before it draws them
+	 */
+	void awaitLayers(){
+		if(layers != null)
+			layers.awaitAll();
+	}
+
+	/**
+	 * Standardize the MBRs so that the visualization lines up and everyone knows what the
+	 * standard MBR is. Run by the layer reader once the last layer is in.
+	 */
+	void standardiseMBR(){
+		Envelope envelope = new Envelope(roadLayer.getMBR());
+		envelope.expandToInclude(baseLayer.getMBR());
+		envelope.expandToInclude(flood3.getMBR());
+		envelope.expandToInclude(flood2.getMBR());
+		synchronized(this){
+			MBR = envelope;
+		}
+		setMBRs();
+		System.out.println("Finished reading every layer and setting MBR.");
+	}
+
+	/**
+	 * Give every layer the standard MBR, if it has been worked out yet
+	 */
+	synchronized void setMBRs(){
+		if(MBR == null) return; // standardiseMBR() will do this once every layer is in
+		roadLayer.setMBR(MBR);
+		baseLayer.setMBR(MBR);
+		agentsLayer.setMBR(MBR);
+		flood3.setMBR(MBR);
+		flood2.setMBR(MBR);
+	}
+
 	/**
 	 *  reset the agent layer's MBR
 	 */
-	public void resetAgentLayer(){
-		this.agentsLayer.setMBR(MBR);
+	public synchronized void resetAgentLayer(){
+		if(MBR != null)
+			this.agentsLayer.setMBR(MBR);
 	}
 
 	/**
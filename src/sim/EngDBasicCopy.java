@@ -5,16 +5,37 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import objects.AttributeTable;
+import objects.LayerLoader;
+import objects.LayerSchema;
 import objects.agents.Agent;
 import objects.agents.ElderlyAgent;
 import objects.agents.LimitedActionsAgent;
 import objects.agents.NGOAgent;
+import objects.agents.RoutedAgent;
+import objects.network.AStar;
+import objects.network.BatchRouter;
+import objects.network.CSRAStar;
+import objects.network.CSRGraph;
+import objects.network.CongestionSnapshot;
+import objects.network.ContractionHierarchy;
+import objects.network.DestinationTrees;
+import objects.network.FloodExposure;
 import objects.network.GeoNode;
+import objects.network.LandmarkHeuristic;
+import objects.network.RoadAttributes;
+import objects.network.RouteCache;
+import objects.network.SnapIndex;
+import objects.network.TravelTimes;
+import objects.network.WorkerPool;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.field.geo.GeomVectorField;
@@ -22,6 +43,7 @@ import sim.field.network.Network;
 import sim.io.geo.ShapeFileImporter;
 import sim.util.Bag;
 import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
 import sim.util.geo.GeomPlanarGraphEdge;
 import sim.util.geo.MasonGeometry;
 
@@ -83,6 +105,38 @@ public class EngDBasicCopy extends SimState	{
     ////////////////////// Network ///////////////////////////////
     public GeomPlanarGraph network = new GeomPlanarGraph();	// Stores road network connections
     public GeomVectorField junctions = new GeomVectorField();	// nodes for intersections
+    public CSRGraph roadGraph = null;	// compact, read-only copy of network for routing
+    public ContractionHierarchy hierarchy = null;	// preprocessed roadGraph for fast queries
+    public boolean useContractionHierarchy = false;
+    public CSRAStar landmarkSearch = null;	// A* guided by landmark distances
+    public boolean useLandmarks = false;
+    public int numLandmarks = 16;
+    public boolean useBidirectionalSearch = false;	// plain A* searches from both ends
+    public int numPlanningThreads =	// workers used to plan the agents' routes at start
+    		Runtime.getRuntime().availableProcessors();
+    public DestinationTrees destinationTrees = null;	// paths to every goal from everywhere
+    public boolean useDestinationTrees = false;
+    public RouteCache<GeomPlanarGraphDirectedEdge> routeCache =	// routes shared between agents
+    		new RouteCache<GeomPlanarGraphDirectedEdge>(10000);
+    public CongestionSnapshot congestion = null;	// travel times under the latest traffic
+    public boolean useCongestionRouting = false;
+    public int congestionInterval = 10;	// steps between traffic snapshots
+    public double rerouteFraction = 0.05;	// share of agents replanned after each snapshot
+    public FloodExposure floodExposure = null;	// how much of each road lies in the flood zones
+    public boolean useFloodRouting = false;
+    public double floodZone2Multiplier = 2;	// cost of flooded road relative to dry road
+    public double floodZone3Multiplier = 5;
+    public boolean avoidFloodZone3 = false;	// never route through zone 3 at all
+    public CSRAStar floodSearch = null;	// A* over the flood-aware road costs
+    CSRAStar plainSearch = null;	// A* over routingCosts, for plain routing
+    double[] routingCosts = null;	// the cost of each arc, infinite once its road is closed
+    BatchRouter batchRouter = null;
+    WorkerPool planningWorkers = null;
+    public SnapIndex snapIndex = null;	// the segments of the roads, for placing points on them
+    public TravelTimes travelTimes = null;	// travel times from the key facilities
+    public double travelSpeed = 13.4;	// metres per second (30mph), for travel times
+    public String lsoaCodeAttribute = "LSOA11CD";	// names the areas of baseLayer
+    RoadAttributes roadAttributes = null;	// the one record of which roads are closed
 
     /////////////// Objects //////////////////////////////////////////////
 
@@ -98,6 +152,7 @@ public class EngDBasicCopy extends SimState	{
 	long mySeed = 0;
 
 	Envelope MBR = null;
+	LayerLoader layers = null;	// reads the layers in start()
 
 	boolean verbose = false;
 
@@ -189,6 +244,18 @@ public class EngDBasicCopy extends SimState	{
     		60708, 70353, 75417, 29565, 3715, 15816, 47794, 16561, 70035, 55437
     };
 
+    /**
+     * The key facilities, by ROAD_ID as above, from which travel times are measured
+     */
+    Integer[] facilities =	{
+    		30250, 18081, 46728, 49307
+    };
+
+    String[] facilityNames =	{
+    		"Norfolk & Norwich Hospital", "Queen Elizabeth Hospital", "BRC Norwich Office",
+    		"Sprowston Fire Station"
+    };
+
 
     ///////////////////////////////////////////////////////////////////////////
 	/////////////////////////// BEGIN FUNCTIONS ///////////////////////////////
@@ -225,42 +292,28 @@ public class EngDBasicCopy extends SimState	{
         			MK_2/
         				.java files
          */
+        // read the layers side by side, the roads first so that the network can be built
+        // while the boundaries and flood zones are still being read; anything that needs
+        // one of the others waits for it through awaitLayer(), and the MBRs are standardised
+        // by whichever reader finishes last
+        layers = new LayerLoader(Runtime.getRuntime().availableProcessors());
         try	{
-        	readInVectorLayer(baseLayer, dirName + "Final_LSOA.shp", "Boundaries", new Bag());
-			readInVectorLayer(roadLayer, dirName + "Final_ITN.shp", "Road Network", new Bag());
-			readInVectorLayer(flood3Layer, dirName + "NorfolkFZ3.shp", "Flood Zone 3", new Bag());
-			readInVectorLayer(flood2Layer, dirName + "NorfolkFZ2.shp", "Flood Zone 2", new Bag());
-	
-			//////////////////////////////////////////////
-			////////////////// CLEANUP ///////////////////
-			//////////////////////////////////////////////
-	
-			// standardize the MBRs so that the visualization lines up
-			Envelope MBR = baseLayer.getMBR();
-			MBR.expandToInclude(roadLayer.getMBR());
-	
-			//this.grid_width = baseLayer.fieldWidth;
-			//this.grid_height = baseLayer.fieldHeight;
-	
-			MBR.expandToInclude(agentsLayer.getMBR());
-			MBR.expandToInclude(flood3Layer.getMBR());
-			MBR.expandToInclude(flood2Layer.getMBR());
-	
-			//roadLayer = new GeomVectorField(grid_width, grid_height);
-	
+        	// only the columns each layer's schema lists are read from the DBFs
+        	layers.load(roadLayer, dirName + "Final_ITN.shp", "Road Network", LayerSchema.ROADS);
+        	layers.load(baseLayer, dirName + "Final_LSOA.shp", "Boundaries", LayerSchema.BOUNDARIES);
+			layers.load(flood3Layer, dirName + "NorfolkFZ3.shp", "Flood Zone 3", LayerSchema.FLOOD_ZONES);
+			layers.load(flood2Layer, dirName + "NorfolkFZ2.shp", "Flood Zone 2", LayerSchema.FLOOD_ZONES);
+			layers.whenAllLoaded(new Runnable()	{
+				public void run()	{
+					standardiseMBR();
+				}
+			});
+
+			layers.await(roadLayer);
 			createNetwork();
-	
-			// standardize the MBRs so that the visualization lines up
-			// and everyone knows what the standard MBR is
-			roadLayer.setMBR(MBR);
-			baseLayer.setMBR(MBR);
-			agentsLayer.setMBR(MBR);
-			flood3Layer.setMBR(MBR);
-			flood2Layer.setMBR(MBR);
-			
 			System.out.println();
-			System.out.println("Finished reading, cleaning and setting MBR.");
-			
+			System.out.println("Finished reading and cleaning the roads.");
+	
 			//////////////////////////////////////////////
 			////////////////// AGENTS ///////////////////
 			//////////////////////////////////////////////
@@ -273,18 +326,8 @@ public class EngDBasicCopy extends SimState	{
 			System.out.println();
 			System.out.println("Starting simulation...");
 	
-			// standardize the MBRs so that the visualization lines up
-			// and everyone knows what the standard MBR is
-			roadLayer.setMBR(MBR);
-			baseLayer.setMBR(MBR);
-			flood3Layer.setMBR(MBR);
-			flood2Layer.setMBR(MBR);
-			//householdsFZLayer.setMBR(MBR);
-			//householdsLayer.setMBR(MBR);
-			agentsLayer.setMBR(MBR);
-			ngoAgentsLayer.setMBR(MBR);
-			elderlyAgentsLayer.setMBR(MBR);
-			limitedActionsAgentsLayer.setMBR(MBR);
+			// the agents' layers take the standard MBR too, if it is known yet
+			setMBRs();
 			
 			// Ensure that the spatial index is updated after all the agents move
 			schedule.scheduleRepeating( agentsLayer.scheduleSpatialIndexUpdater(),
@@ -366,6 +409,19 @@ public class EngDBasicCopy extends SimState	{
             
             schedule.scheduleRepeating(flipper, 10);
             // 10? Does it repeat 10 times? Appears to go on forever...
+
+            // route by the traffic as it was at the last snapshot, once everyone has moved
+            if (congestion != null)	{
+            	Steppable congestionUpdater = new Steppable()	{
+            		private static final long serialVersionUID = 1L;
+
+            		@Override
+            		public void step(SimState state)	{
+            			((EngDBasicCopy) state).refreshCongestion();
+            		}
+            	};
+            	schedule.scheduleRepeating(congestionUpdater, 1, congestionInterval);
+            }
             
             // seed the simulation randomly
             seedRandom(System.currentTimeMillis());
@@ -374,6 +430,8 @@ public class EngDBasicCopy extends SimState	{
         	System.out.println();
         	System.out.println("ERROR: issue with Steppable. ");
         	e.printStackTrace();
+        } finally	{
+        	layers.shutdown();
         }
     }
     
@@ -385,6 +443,9 @@ public class EngDBasicCopy extends SimState	{
     	super.finish();
     	System.out.println();
     	System.out.println("Simulation ended by user.");
+    	if (routeCache != null)	{
+    		System.out.println(routeCache);
+    	}
         /*
     	System.out.println("Attempting to export agent data...");
         try	{
@@ -415,9 +476,414 @@ public class EngDBasicCopy extends SimState	{
             e.setData(new ArrayList<Agent>());
         }
 
+        roadGraph = CSRGraph.fromPlanarGraph(network);
+        snapIndex = SnapIndex.forPlanarGraph(network);
+        if (routeCache != null)	{
+        	routeCache.clear();	// any routes held are from a previous run
+        }
+
+        // match the roads against the flood zones once, so that routing only looks up the result
+        double[] costs = null;	// null means plain road lengths
+        if (useFloodRouting)	{
+        	floodExposure = FloodExposure.classify(roadGraph, awaitLayer(flood2Layer),
+        			awaitLayer(flood3Layer), numPlanningThreads);
+        	costs = floodExposure.weights(floodZone2Multiplier, floodZone3Multiplier,
+        			avoidFloodZone3);
+        }
+
+        // the searches over the road graph share these costs, so that closing a road reaches
+        // all of them at once
+        roadAttributes = new RoadAttributes(layers.getTable(roadLayer));
+        routingCosts = costs == null ? roadGraph.copyLengths() : costs.clone();
+        plainSearch = new CSRAStar(roadGraph, routingCosts, null);
+
+        // the hierarchy is saved alongside the road data, so only the first run pays for it.
+        // It is built on road lengths, so it gives way to A* when routing around floods.
+        if (useContractionHierarchy && costs == null)	{
+        	hierarchy = ContractionHierarchy.loadOrBuild(
+        			new File(dirName + "Final_ITN.ch"), roadGraph);
+        }
+        else if (useLandmarks)	{
+        	int [] landmarks = LandmarkHeuristic.selectFarthest(roadGraph, numLandmarks, costs, random);
+        	landmarkSearch = new CSRAStar(roadGraph, routingCosts,
+        			new LandmarkHeuristic(roadGraph, landmarks, costs));
+        }
+        else if (costs != null)	{
+        	floodSearch = new CSRAStar(roadGraph, routingCosts, null);
+        }
+
+        if (useCongestionRouting)	{
+        	congestion = new CongestionSnapshot(roadGraph, costs);
+        }
+
+        // agents only head for a handful of goals, so plan every route to them in one go
+        if (useDestinationTrees)	{
+        	ArrayList<Node> goalNodes = new ArrayList<Node>();
+        	for (Integer[] g : new Integer[][] {goals, goals1, goals2, goals3})	{
+        		for (Integer id : g)	{
+        			GeomPlanarGraphEdge goalEdge = idsToEdges.get(id);
+        			if (goalEdge != null)	{
+        				goalNodes.add(goalEdge.getDirEdge(0).getToNode());
+        			}
+        		}
+        	}
+        	destinationTrees = DestinationTrees.forNodes(roadGraph, goalNodes, costs);
+        }
+
+        // roads the layer marks as closed are closed from the start
+        for (int f = 0; f < roadAttributes.numFeatures(); f++)	{
+        	GeomPlanarGraphEdge road = idsToEdges.get(roadAttributes.getRoadId(f));
+        	if (road != null && roadAttributes.isClosed(f))	{
+        		closeArcs(road);
+        	}
+        }
+
         addIntersectionNodes(network.nodeIterator(), junctions);
     }
     
+    /**
+     * @param c - a point anywhere in the study area
+     * @return the nearest point on the road network, or null if there are no roads
+     */
+    public Coordinate snapPointToRoadNetwork(Coordinate c)	{
+    	SnapIndex.Snap snap = snapIndex.snap(c);
+    	return snap == null ? null : snap.point;
+    }
+
+    /**
+     * @return the road nearest to the point, or null if there are no roads
+     */
+    public GeomPlanarGraphEdge getClosestEdge(Coordinate c)	{
+    	return (GeomPlanarGraphEdge) snapIndex.nearestEdge(c);
+    }
+
+    /**
+     * @return the junction nearest to the point, or null if there are no roads
+     */
+    public Node getClosestNode(Coordinate c)	{
+    	return (Node) snapIndex.nearestNode(c);
+    }
+
+    /**
+     * Place a whole population on the roads at once, spread over the planning threads
+     * @param points - the points, such as the agents' homes
+     * @param maxDistance - how far from a point a road may be
+     * @return where each point joins the network, in the same order, or null where no road
+     * is close enough
+     */
+    public SnapIndex.Snap[] snapPoints(List<Coordinate> points, double maxDistance)	{
+    	return snapIndex.snapAll(points, maxDistance, numPlanningThreads);
+    }
+
+    /**
+     * Plot a path between two junctions of the road network. When routing by congestion, the
+     * quickest path under the latest traffic snapshot is found. Otherwise paths to the goals are
+     * read off the destination trees if they have been built; failing that the contraction
+     * hierarchy is used if one has been built, A* with landmarks if they have been chosen, A*
+     * over the flood-aware costs when routing around floods and plain A* over the road graph
+     * otherwise (bidirectional AStar if useBidirectionalSearch is set). Closed roads are never
+     * used: the hierarchy and AStar know nothing of them, so once a road has been closed A*
+     * over the road graph is used in their place.
+     *
+     * @param from - the junction from which to start
+     * @param to - the goal junction
+     * @return the directed edges from start to goal, empty if there is no path. Paths are
+     * shared between agents through the route cache and must not be modified.
+     */
+    public List<GeomPlanarGraphDirectedEdge> planPath(Node from, Node to)	{
+    	if (routeCache != null)	{
+    		List<GeomPlanarGraphDirectedEdge> cached = routeCache.get(network, from, to);
+    		if (cached != null)	{
+    			return cached;
+    		}
+    	}
+    	return plotPath(from, to);
+    }
+
+    /**
+     * Plot a path with findPath and share it through the route cache, if there is one
+     */
+    List<GeomPlanarGraphDirectedEdge> plotPath(Node from, Node to)	{
+    	List<GeomPlanarGraphDirectedEdge> path = findPath(from, to);
+    	return routeCache == null ? path : routeCache.put(network, from, to, path);
+    }
+
+    /**
+     * Plot a path without consulting the route cache
+     */
+    ArrayList<GeomPlanarGraphDirectedEdge> findPath(Node from, Node to)	{
+    	CSRAStar search = graphSearch(to);
+    	if (search != null)	{
+    		return search.planarPath(from, to);
+    	}
+    	if (destinationTrees != null && destinationTrees.covers(to))	{
+    		return destinationTrees.planarPath(from, to);
+    	}
+    	if (hierarchy != null && roadAttributes.numClosed() == 0)	{
+    		return hierarchy.planarPath(from, to);
+    	}
+    	return new AStar().astarPath(from, to, true);
+    }
+
+    /**
+     * @return the A* search over the road graph with which findPath plots paths to the goal, or
+     * null if they are read off the destination trees or the hierarchy or found by bidirectional
+     * AStar. Plain A* runs over the road graph too, whose arcs cost the same as AStar's edges.
+     */
+    CSRAStar graphSearch(Node to)	{
+    	if (congestion != null)	{
+    		return congestion.getSearch();
+    	}
+    	if ((destinationTrees != null && destinationTrees.covers(to))
+    			|| (hierarchy != null && roadAttributes.numClosed() == 0))	{
+    		return null;
+    	}
+    	if (landmarkSearch != null)	{
+    		return landmarkSearch;
+    	}
+    	if (floodSearch != null)	{
+    		return floodSearch;
+    	}
+    	if (useBidirectionalSearch && roadAttributes.numClosed() == 0)	{
+    		return null;
+    	}
+    	return plainSearch;
+    }
+
+    /**
+     * Close a road to traffic, so that no route planned from now on uses it, whichever routing
+     * mode is in use (see planPath). Routes already cached are dropped, since some of them may
+     * use the road.
+     *
+     * @param roadId - the ROAD_ID of the road
+     * @return whether the road was found
+     */
+    public boolean closeRoad(int roadId)	{
+    	GeomPlanarGraphEdge road = idsToEdges.get(roadId);
+    	int feature = roadAttributes.getFeatureOfRoad(roadId);
+    	if (road == null || feature < 0)	{
+    		return false;
+    	}
+    	roadAttributes.setClosed(feature, true);
+    	closeArcs(road);
+    	if (routeCache != null)	{
+    		routeCache.invalidate(network);
+    	}
+    	return true;
+    }
+
+    /**
+     * Make the road impassable to the searches over the road graph
+     */
+    void closeArcs(GeomPlanarGraphEdge road)	{
+    	for (int i = 0; i < 2; i++)	{
+    		int a = roadGraph.arcId(road.getDirEdge(i));
+    		if (a >= 0)	{
+    			routingCosts[a] = Double.POSITIVE_INFINITY;
+    			if (congestion != null)	{
+    				congestion.close(a);
+    			}
+    		}
+    	}
+    	if (destinationTrees != null)	{
+    		destinationTrees.close(road);
+    	}
+    }
+
+    /**
+     * Find the travel times from each of the key facilities to every junction over the roads as
+     * they stand: closed roads are never used and, under flood conditions, roads in the flood
+     * zones cost as much as when routing around floods. Results are cached, so asking again
+     * before anything changes costs nothing.
+     *
+     * @param flooded - whether to measure under flood conditions
+     * @param names - if not null, the names of the facilities found are added to it, in order
+     * @return the travel times from the facilities whose roads were found
+     */
+    public TravelTimes.Result facilityTravelTimes(boolean flooded, List<String> names)	{
+    	if (travelTimes == null)	{
+    		travelTimes = new TravelTimes(roadGraph, travelSpeed, numPlanningThreads);
+    		AttributeTable areas = layers == null ? null : layers.getTable(baseLayer);
+    		if (areas != null && areas.hasColumn(lsoaCodeAttribute))	{
+    			travelTimes.setAreas(baseLayer, areas.getStringColumn(lsoaCodeAttribute));
+    		}
+    		else	{
+    			travelTimes.setAreas(awaitLayer(baseLayer), lsoaCodeAttribute);
+    		}
+    	}
+
+    	double[] weights;
+    	if (flooded)	{
+    		if (floodExposure == null)	{
+    			floodExposure = FloodExposure.classify(roadGraph, awaitLayer(flood2Layer),
+    					awaitLayer(flood3Layer), numPlanningThreads);
+    		}
+    		weights = floodExposure.weights(floodZone2Multiplier, floodZone3Multiplier,
+    				avoidFloodZone3);
+    	}
+    	else	{
+    		weights = roadGraph.copyLengths();
+    	}
+    	for (int f = 0; f < roadAttributes.numFeatures(); f++)	{
+    		GeomPlanarGraphEdge road = idsToEdges.get(roadAttributes.getRoadId(f));
+    		if (road == null || !roadAttributes.isClosed(f))	{
+    			continue;
+    		}
+    		for (int i = 0; i < 2; i++)	{
+    			int a = roadGraph.arcId(road.getDirEdge(i));
+    			if (a >= 0)	{
+    				weights[a] = Double.POSITIVE_INFINITY;
+    			}
+    		}
+    	}
+
+    	ArrayList<Integer> found = new ArrayList<Integer>();
+    	for (int i = 0; i < facilities.length; i++)	{
+    		GeomPlanarGraphEdge road = idsToEdges.get(facilities[i]);
+    		int node = road == null ? -1 : roadGraph.nodeId(road.getDirEdge(0).getToNode());
+    		if (node < 0)	{
+    			System.out.println("Facility " + facilityNames[i] + " is not on the road network");
+    			continue;
+    		}
+    		found.add(node);
+    		if (names != null)	{
+    			names.add(facilityNames[i]);
+    		}
+    	}
+    	int[] nodes = new int[found.size()];
+    	for (int i = 0; i < nodes.length; i++)	{
+    		nodes[i] = found.get(i);
+    	}
+    	return travelTimes.compute(nodes, weights, false);
+    }
+
+    /**
+     * Write the travel times from the key facilities under normal and flood conditions: every
+     * junction's times to prefix_normal.bin and prefix_flood.bin, and the sums over each LSOA
+     * to prefix_normal_lsoa.csv and prefix_flood_lsoa.csv
+     */
+    public void exportFacilityTravelTimes(String prefix) throws IOException	{
+    	for (int i = 0; i < 2; i++)	{
+    		String condition = i == 0 ? "normal" : "flood";
+    		ArrayList<String> names = new ArrayList<String>();
+    		TravelTimes.Result r = facilityTravelTimes(i == 1, names);
+    		travelTimes.writeNodeTimes(new File(prefix + "_" + condition + ".bin"), r);
+    		travelTimes.writeAreaTimes(new File(prefix + "_" + condition + "_lsoa.csv"), r,
+    				names.toArray(new String[names.size()]));
+    	}
+    }
+
+    /**
+     * Take a snapshot of the traffic on every road and route by it from now on. Cached routes
+     * are dropped, since they were planned under the old traffic, and up to rerouteFraction of
+     * the agents, chosen at random, replan the rest of their trips.
+     */
+    void refreshCongestion()	{
+    	double[] occupancy = new double[roadGraph.numArcs()];
+    	addOccupancy(edgeTraffic, occupancy);
+    	addOccupancy(edgeTraffic1, occupancy);
+    	addOccupancy(edgeTraffic2, occupancy);
+    	addOccupancy(edgeTraffic3, occupancy);
+    	congestion.publish(occupancy);
+    	if (routeCache != null)	{
+    		routeCache.invalidate(network);
+    	}
+
+    	ArrayList<RoutedAgent> everyone = new ArrayList<RoutedAgent>();
+    	everyone.addAll(agentList);
+    	everyone.addAll(ngoAgentList);
+    	everyone.addAll(elderlyAgentList);
+    	everyone.addAll(limitedActionsAgentList);
+    	int budget = Math.min(everyone.size(), (int) Math.ceil(rerouteFraction * everyone.size()));
+
+    	// a partial shuffle picks the agents to reroute
+    	int rerouted = 0;
+    	for (int i = 0; i < budget; i++)	{
+    		int j = i + random.nextInt(everyone.size() - i);
+    		RoutedAgent a = everyone.get(j);
+    		everyone.set(j, everyone.get(i));
+    		everyone.set(i, a);
+    		if (a.reroute(this))	{
+    			rerouted++;
+    		}
+    	}
+    	if (verbose)	{
+    		System.out.println("Traffic snapshot " + congestion.getRefreshes() + ": rerouted "
+    				+ rerouted + " of " + budget + " agents");
+    	}
+    }
+
+    /**
+     * Count the agents on each road towards the occupancy of both of its arcs, since agents
+     * slow each other down whichever way they are going
+     */
+    void addOccupancy(HashMap<GeomPlanarGraphEdge, ? extends List<?>> traffic, double[] occupancy)	{
+    	for (Map.Entry<GeomPlanarGraphEdge, ? extends List<?>> e : traffic.entrySet())	{
+    		int vehicles = e.getValue().size();
+    		if (vehicles == 0)	{
+    			continue;
+    		}
+    		for (int i = 0; i < 2; i++)	{
+    			int a = roadGraph.arcId(e.getKey().getDirEdge(i));
+    			if (a >= 0)	{
+    				occupancy[a] += vehicles;
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * Wait, if need be, until a layer being read by start() is ready
+     * @param layer
+     * @return the layer
+     */
+    GeomVectorField awaitLayer(GeomVectorField layer)	{
+    	return layers == null ? layer : layers.await(layer);
+    }
+
+    /**
+     * Wait, if need be, until every layer being read by start() is ready and the MBRs have been
+     * standardised, as the visualization must before it draws them
+     */
+    void awaitLayers()	{
+    	if (layers != null)	{
+    		layers.awaitAll();
+    	}
+    }
+
+    /**
+     * Standardize the MBRs so that the visualization lines up and everyone knows what the
+     * standard MBR is. Run by the layer reader once the last layer is in.
+     */
+    void standardiseMBR()	{
+    	Envelope envelope = new Envelope(baseLayer.getMBR());
+    	envelope.expandToInclude(roadLayer.getMBR());
+    	envelope.expandToInclude(flood3Layer.getMBR());
+    	envelope.expandToInclude(flood2Layer.getMBR());
+    	synchronized (this)	{
+    		MBR = envelope;
+    	}
+    	setMBRs();
+    	System.out.println("Finished reading every layer and setting MBR.");
+    }
+
+    /**
+     * Give every layer the standard MBR, if it has been worked out yet
+     */
+    synchronized void setMBRs()	{
+    	if (MBR == null)	{
+    		return; // standardiseMBR() will do this once every layer is in
+    	}
+    	roadLayer.setMBR(MBR);
+    	baseLayer.setMBR(MBR);
+    	flood3Layer.setMBR(MBR);
+    	flood2Layer.setMBR(MBR);
+    	agentsLayer.setMBR(MBR);
+    	ngoAgentsLayer.setMBR(MBR);
+    	elderlyAgentsLayer.setMBR(MBR);
+    	limitedActionsAgentsLayer.setMBR(MBR);
+    }
+
     /**
      * Method to read in a vector layer
 	 * @param layer
@@ -453,11 +919,142 @@ public class EngDBasicCopy extends SimState	{
     /**
      *  reset the agent layer's MBR
 	 */
-    public void resetAgentLayer(){
-    	this.agentsLayer.setMBR(MBR);
+    public synchronized void resetAgentLayer(){
+    	if (MBR != null)	{
+    		this.agentsLayer.setMBR(MBR);
+    	}
     	}
     
     
+    /**
+     * Plan the routes of newly created agents in one batch (see planPaths). The agents can then
+     * be started one at a time and in order, exactly as if their routes had been planned
+     * serially.
+     *
+     * @param created - the agents, whose routes are held until they start
+     */
+    void planRoutes(List<? extends RoutedAgent> created)	{
+    	long startTime = System.currentTimeMillis();
+    	ArrayList<RoutedAgent> routed = new ArrayList<RoutedAgent>();
+    	ArrayList<Node> from = new ArrayList<Node>(), to = new ArrayList<Node>();
+    	for (RoutedAgent a : created)	{
+    		Node start = a.getRouteStart(this);
+    		if (start != null)	{	// otherwise the agent will complain when it starts
+    			routed.add(a);
+    			from.add(start);
+    			to.add(a.getRouteGoal());
+    		}
+    	}
+
+    	List<List<GeomPlanarGraphDirectedEdge>> paths = planPaths(from, to);
+    	for (int i = 0; i < routed.size(); i++)	{
+    		routed.get(i).setPlannedRoute(paths.get(i));
+    	}
+
+    	System.out.println("Planned " + routed.size() + " routes in "
+    			+ (System.currentTimeMillis() - startTime) + "ms"
+    			+ (batchRouter == null ? "" : ": " + batchRouter.getLastStats()));
+    }
+
+    /**
+     * Plot many paths at once, each the path planPath would give. Paths are taken from the route
+     * cache where possible. Those findPath finds by A* over the road graph are found by a
+     * BatchRouter over the same search, which answers each distinct pair once and shares
+     * searches between pairs with a common end; the rest (read off the destination trees or
+     * the hierarchy, or found by bidirectional AStar) are plotted by findPath. Either way the
+     * work is spread over numPlanningThreads workers.
+     *
+     * @param from - the junction from which each path starts
+     * @param to - the goal junction of each path
+     * @return the directed edges of each path from start to goal, empty if there is no path, in
+     * the same order as the junctions. Paths must not be modified.
+     */
+    public List<List<GeomPlanarGraphDirectedEdge>> planPaths(List<Node> from, List<Node> to)	{
+    	ArrayList<List<GeomPlanarGraphDirectedEdge>> result =
+    			new ArrayList<List<GeomPlanarGraphDirectedEdge>>(from.size());
+    	ArrayList<Integer> batched = new ArrayList<Integer>(), plotted = new ArrayList<Integer>();
+    	CSRAStar search = null;
+    	for (int i = 0; i < from.size(); i++)	{
+    		Node start = from.get(i), goal = to.get(i);
+    		List<GeomPlanarGraphDirectedEdge> path = null;
+    		if (routeCache != null)	{
+    			path = routeCache.get(network, start, goal);
+    		}
+    		if (path == null)	{
+    			CSRAStar s = graphSearch(goal);
+    			if (s != null && roadGraph.nodeId(start) >= 0 && roadGraph.nodeId(goal) >= 0)	{
+    				search = s;	// the same search for every goal it is used for
+    				batched.add(i);
+    			}
+    			else	{
+    				plotted.add(i);
+    			}
+    		}
+    		result.add(path);
+    	}
+
+    	plotPaths(from, to, plotted, result);
+
+    	if (batched.isEmpty())	{
+    		return result;
+    	}
+    	WorkerPool workers = planningWorkers();
+    	if (batchRouter == null || batchRouter.getSearch() != search)	{
+    		batchRouter = new BatchRouter(search, workers);
+    	}
+
+    	int[] starts = new int[batched.size()], goals = new int[batched.size()];
+    	for (int k = 0; k < batched.size(); k++)	{
+    		starts[k] = roadGraph.nodeId(from.get(batched.get(k)));
+    		goals[k] = roadGraph.nodeId(to.get(batched.get(k)));
+    	}
+    	int[][] arcs = batchRouter.route(starts, goals);
+    	for (int k = 0; k < batched.size(); k++)	{
+    		int i = batched.get(k);
+    		ArrayList<GeomPlanarGraphDirectedEdge> path = arcs[k] == null
+    				? new ArrayList<GeomPlanarGraphDirectedEdge>() : roadGraph.toPlanarPath(arcs[k]);
+    		result.set(i, routeCache == null ? path : routeCache.put(network, from.get(i), to.get(i), path));
+    	}
+    	return result;
+    }
+
+    /**
+     * Plot the given paths with findPath, spreading them over numPlanningThreads workers.
+     * Plotting only reads from the network and the routing structures, so the paths are the
+     * same as if they had been plotted serially. Each worker sets different elements of result,
+     * all of which are seen once the workers have finished.
+     *
+     * @param which - the positions in from and to of the paths to plot
+     * @param result - where each path is put, at the same position
+     */
+    void plotPaths(final List<Node> from, final List<Node> to, final List<Integer> which,
+    		final List<List<GeomPlanarGraphDirectedEdge>> result)	{
+    	planningWorkers().forEach(which.size(), new WorkerPool.Range()	{
+    		public void run(int first, int last)	{
+    			for (int i : which.subList(first, last))	{
+    				result.set(i, plotPath(from.get(i), to.get(i)));
+    			}
+    		}
+    	}, "planning routes");
+    }
+
+    /**
+     * @return the workers over which routes are planned, numPlanningThreads of them, kept from
+     * one batch of routes to the next
+     */
+    WorkerPool planningWorkers()	{
+    	if (planningWorkers == null
+    			|| planningWorkers.getNumThreads() != Math.max(1, numPlanningThreads))	{
+    		if (planningWorkers != null)	{
+    			planningWorkers.shutdown();
+    		}
+    		planningWorkers = new WorkerPool(numPlanningThreads);
+    		batchRouter = null;	// it would go on with the old workers
+    	}
+    	return planningWorkers;
+    }
+
+
     /**
      * Read in the population files and create appropriate populations
      * @param filename
@@ -474,6 +1071,7 @@ public class EngDBasicCopy extends SimState	{
     		String s;
     		// get rid of the header
     		d.readLine();
+    		ArrayList<Agent> created = new ArrayList<Agent>();
     		// read in all data
     		while ((s = d.readLine()) != null)	{
     			String[] bits = s.split(",");
@@ -520,22 +1118,28 @@ public class EngDBasicCopy extends SimState	{
 	              		+ "	id_id: " +id_id + ";	"
 	              		+ "	Road_ID: " +ROAD_ID);
 	              		*/
-					boolean successfulStart = a.start(this);
-					//System.out.println("Starting...");
-					
-					if (!successfulStart)	{
-						System.out.println("Main agents added successfully!!");
-						continue; // DON'T ADD IT if it's bad
-						}
-					// MasonGeometry newGeometry = new MasonGeometry(a.getGeometry());
-					MasonGeometry newGeometry = a.getGeometry();
-					newGeometry.isMovable = true;
-					agentsLayer.addGeometry(newGeometry);
-					agentList.add(a);
-					schedule.scheduleRepeating(a);
+					created.add(a);
 					}
 				}
     		d.close();
+
+    		// plan every route at once, then start the agents in the order they were read
+    		planRoutes(created);
+    		for (Agent a : created)	{
+    			boolean successfulStart = a.start(this);
+    			//System.out.println("Starting...");
+    			
+    			if (!successfulStart)	{
+    				System.out.println("Main agents added successfully!!");
+    				continue; // DON'T ADD IT if it's bad
+    				}
+    			// MasonGeometry newGeometry = new MasonGeometry(a.getGeometry());
+    			MasonGeometry newGeometry = a.getGeometry();
+    			newGeometry.isMovable = true;
+    			agentsLayer.addGeometry(newGeometry);
+    			agentList.add(a);
+    			schedule.scheduleRepeating(a);
+    		}
     		} catch (Exception e) {
     			System.out.println();
     			System.out.println("ERROR: issue with Agent file: ");
@@ -556,6 +1160,7 @@ public class EngDBasicCopy extends SimState	{
     		
     		// get rid of the header
     		d.readLine();
+    		ArrayList<NGOAgent> created = new ArrayList<NGOAgent>();
     		// read in all data
     		while ((s = d.readLine()) != null)	{
     			String[] bits = s.split(",");
@@ -595,21 +1200,27 @@ public class EngDBasicCopy extends SimState	{
 			  			+ "	id_id: " +id_id + ";	"
 			  			+ "	Road_ID: " +ROAD_ID);
 		  			*/
-    				boolean successfulStart = a.start(this);
-    				
-    				if (!successfulStart)	{
-    					System.out.println("NGO agents added successfully!!");
-    					continue; // DON'T ADD IT if it's bad
-    					}
-    				
-    				MasonGeometry newGeometry = a.getGeometry();
-    				newGeometry.isMovable = true;
-    				ngoagents.addGeometry(newGeometry);
-    				ngoAgentList.add(a);
-    				schedule.scheduleRepeating(a);
+    				created.add(a);
     				}
     			}
     		d.close();
+
+    		// plan every route at once, then start the agents in the order they were read
+    		planRoutes(created);
+    		for (NGOAgent a : created)	{
+    			boolean successfulStart = a.start(this);
+    			
+    			if (!successfulStart)	{
+    				System.out.println("NGO agents added successfully!!");
+    				continue; // DON'T ADD IT if it's bad
+    				}
+    			
+    			MasonGeometry newGeometry = a.getGeometry();
+    			newGeometry.isMovable = true;
+    			ngoagents.addGeometry(newGeometry);
+    			ngoAgentList.add(a);
+    			schedule.scheduleRepeating(a);
+    		}
     		} catch (Exception e) {
     			System.out.println();
     			System.out.println("ERROR: issue with NGOAgent file: ");
@@ -630,6 +1241,7 @@ public class EngDBasicCopy extends SimState	{
 
     		// get rid of the header
     		d.readLine();
+    		ArrayList<ElderlyAgent> created = new ArrayList<ElderlyAgent>();
     		// read in all data
     		while ((s = d.readLine()) != null)	{
     			String[] bits = s.split(",");
@@ -669,19 +1281,25 @@ public class EngDBasicCopy extends SimState	{
     				 + "	Pop: " +pop + ";	"
     				 + "	id_id: " +id_id + ";	"
     				 + "	Road_ID: " +ROAD_ID);*/
-    				boolean successfulStart = a.start(this);
-    				if (!successfulStart)	{
-    					System.out.println("Elderly agents added successfully!");
-    					continue; // DON'T ADD IT if it's bad
-    					}
-    				MasonGeometry newGeometry = a.getGeometry();
-    				newGeometry.isMovable = true;
-    				elderlyAgentsLayer.addGeometry(newGeometry);
-    				elderlyAgentList.add(a);
-    				schedule.scheduleRepeating(a);
+    				created.add(a);
     				}
     			}
     		d.close();
+
+    		// plan every route at once, then start the agents in the order they were read
+    		planRoutes(created);
+    		for (ElderlyAgent a : created)	{
+    			boolean successfulStart = a.start(this);
+    			if (!successfulStart)	{
+    				System.out.println("Elderly agents added successfully!");
+    				continue; // DON'T ADD IT if it's bad
+    				}
+    			MasonGeometry newGeometry = a.getGeometry();
+    			newGeometry.isMovable = true;
+    			elderlyAgentsLayer.addGeometry(newGeometry);
+    			elderlyAgentList.add(a);
+    			schedule.scheduleRepeating(a);
+    		}
     		
     	} catch (Exception e) {
     		System.out.println();
@@ -703,6 +1321,7 @@ public class EngDBasicCopy extends SimState	{
 			
 			// get rid of the header
 			d.readLine();
+			ArrayList<LimitedActionsAgent> created = new ArrayList<LimitedActionsAgent>();
 			// read in all data
 			while ((s = d.readLine()) != null)	{
 				String[] bits = s.split(",");
@@ -741,22 +1360,28 @@ public class EngDBasicCopy extends SimState	{
 	              		+ "	Pop: " +pop + ";	"
 	              		+ "	id_id: " +id_id + ";	"
 	              		+ "	Road_ID: " +ROAD_ID);*/
-					boolean successfulStart = a.start(this);
-					
-					if (!successfulStart)	{
-						System.out.println("Limited Actions agents successfully added!");
-						continue; // DON'T ADD IT if it's bad	
-					}
-					
-					MasonGeometry newGeometry = a.getGeometry();
-					newGeometry.isMovable = true;
-					limitedActionsAgentsLayer.addGeometry(newGeometry);
-					limitedActionsAgentList.add(a);
-					schedule.scheduleRepeating(a);	
+					created.add(a);
 				}
 			}
 			
 			d.close();
+
+			// plan every route at once, then start the agents in the order they were read
+			planRoutes(created);
+			for (LimitedActionsAgent a : created)	{
+				boolean successfulStart = a.start(this);
+				
+				if (!successfulStart)	{
+					System.out.println("Limited Actions agents successfully added!");
+					continue; // DON'T ADD IT if it's bad	
+				}
+				
+				MasonGeometry newGeometry = a.getGeometry();
+				newGeometry.isMovable = true;
+				limitedActionsAgentsLayer.addGeometry(newGeometry);
+				limitedActionsAgentList.add(a);
+				schedule.scheduleRepeating(a);	
+			}
 			
 		} catch (Exception e) {
 			System.out.println();
@@ -97,6 +97,10 @@ public class EngDBasicWithUI extends GUIState	{
     public void setupPortrayals() {
 
     	EngDBasic world = (EngDBasic) state;
+
+    	// the boundaries and flood zones may still be being read, and the MBRs are not standard
+    	// until they are
+    	world.awaitLayers();
 		map.setField(world.baseLayer);
 		map.setPortrayalForAll(new AttributePolyPortrayal(
 				new SimpleColorMap(0,13000, new Color(100,80,30), new Color(240,220,200)),
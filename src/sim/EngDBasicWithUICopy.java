@@ -194,6 +194,8 @@ public class EngDBasicWithUICopy extends GUIState	{
         	 * Sets up the portrayals within the map visualization.
         	 */
 
+            // the boundaries may still be being read, and the MBRs are not standard until they are
+            world.awaitLayers();
             roadsPortrayal.setField(world.roadLayer);
             roadsPortrayal.setPortrayalForAll(new GeomPortrayal(Color.DARK_GRAY, 0.0005, false));
 
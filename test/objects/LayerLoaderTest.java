@@ -0,0 +1,63 @@
+package objects;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import sim.field.geo.GeomVectorField;
+
+/**
+ * Checks that LayerLoader hands over each layer on its own, and does what waits for every layer
+ * once, after the last is in
+ *
+ */
+public class LayerLoaderTest {
+
+	@Test
+	public void waitsForTheLastLayerOnly() throws InterruptedException {
+		LayerLoader loader = new LayerLoader(3);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger read = new AtomicInteger(), done = new AtomicInteger();
+		final int [] readWhenDone = new int [1];
+
+		GeomVectorField quick = new GeomVectorField(), slow = new GeomVectorField();
+		loader.load(quick, new Runnable(){
+			public void run(){ read.incrementAndGet(); }
+		});
+		loader.load(slow, new Runnable(){
+			public void run(){
+				try {
+					release.await();
+				} catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+				read.incrementAndGet();
+			}
+		});
+		loader.whenAllLoaded(new Runnable(){
+			public void run(){
+				readWhenDone[0] = read.get();
+				done.incrementAndGet();
+			}
+		});
+
+		// the quick layer is handed over while the slow one is still being read
+		loader.await(quick);
+		assertEquals(1, read.get());
+		assertEquals(0, done.get());
+
+		release.countDown();
+		loader.awaitAll();
+		assertEquals(1, done.get());
+		assertEquals("done before every layer was in", 2, readWhenDone[0]);
+
+		// once every layer is in, the work is done at once
+		loader.whenAllLoaded(new Runnable(){
+			public void run(){ done.incrementAndGet(); }
+		});
+		assertEquals(2, done.get());
+	}
+}
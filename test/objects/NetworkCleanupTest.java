@@ -0,0 +1,112 @@
+package objects;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+
+import objects.network.GeoNode;
+import objects.network.ListEdge;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sim.field.geo.GeomVectorField;
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Checks that NetworkCleanup builds the same network as the point-by-point
+ * NetworkUtilities.multipartNetworkCleanup(), however many threads it uses and however many
+ * networks it has built before
+ *
+ */
+public class NetworkCleanupTest {
+
+	static final double RESOLUTION = 1;
+
+	GeometryFactory fa = new GeometryFactory();
+	GeomVectorField roads;
+	AttributeTable table;
+
+	/**
+	 * Roads meeting end to end, at a point along another road and at the side of another road
+	 * (where it has no point), one ending just short of a junction, and one crossing two others
+	 * with no junction at all
+	 */
+	@Before
+	public void setUp(){
+		roads = new GeomVectorField();
+		road(1, 0, 0, 100, 0, 200, 0); // the main road
+		road(2, 100, 0, 100, 100); // from a point along the main road
+		road(3, 50, 100, 50, 0); // to the side of the main road
+		road(4, 0, 100, 50, 100, 100, 100, 200, 100); // through the ends of the last two
+		road(5, 200, 0, 200, 100);
+		road(6, 0, 0.5, 0, -100); // from just short of the end of the main road
+		road(7, 150, -50, 150, 150); // a bridge over the main road and road 4
+		table = AttributeTable.build(roads, LayerSchema.ROADS);
+	}
+
+	void road(int id, double... xys){
+		Coordinate [] cs = new Coordinate [xys.length / 2];
+		for(int i = 0; i < cs.length; i++)
+			cs[i] = new Coordinate(xys[2 * i], xys[2 * i + 1]);
+		MasonGeometry mg = new MasonGeometry(fa.createLineString(cs));
+		mg.addIntegerAttribute("ROAD_ID", id);
+		roads.addGeometry(mg);
+	}
+
+	/**
+	 * @return each edge of the network as its ends, the road it came from and its length, in
+	 * an order which does not depend on how the network was built
+	 */
+	static ArrayList <String> describe(Network network){
+		ArrayList <String> result = new ArrayList <String> ();
+		HashSet <Edge> seen = new HashSet <Edge> ();
+		for(Object node: network.getAllNodes())
+			for(Object o: network.getEdgesOut(node)){
+				Edge e = (Edge) o;
+				if(!seen.add(e)) continue;
+				String from = point(e.from()), to = point(e.to());
+				LineString line = (LineString) ((MasonGeometry) e.info).geometry;
+				result.add((from.compareTo(to) < 0 ? from + " " + to : to + " " + from)
+						+ " road " + ((ListEdge) e).getRoadId() + " length " + Math.round(line.getLength() * 1000));
+			}
+		Collections.sort(result);
+		return result;
+	}
+
+	static String point(Object node){
+		Coordinate c = ((GeoNode) node).getGeometry().getCoordinate();
+		return "(" + c.x + "," + c.y + ")";
+	}
+
+	@Test
+	public void matchesThePointByPointCleanup(){
+		ArrayList <String> expected = describe(NetworkUtilities.multipartNetworkCleanup(roads, table, RESOLUTION, fa));
+		ArrayList <String> built = describe(NetworkUtilities.multipartNetworkCleanup(roads, table, RESOLUTION, fa, 4));
+		assertEquals(expected, built);
+		assertTrue("the roads were not split at their junctions", expected.size() > roads.getGeometries().size());
+	}
+
+	@Test
+	public void sameNetworkWhateverTheThreads(){
+		ArrayList <String> one = describe(new NetworkCleanup(RESOLUTION, fa, 1).build(roads, table));
+		for(int threads: new int [] {2, 3, 8})
+			assertEquals(threads + " threads", one, describe(new NetworkCleanup(RESOLUTION, fa, threads).build(roads, table)));
+	}
+
+	@Test
+	public void sameNetworkBuiltTwice(){
+		NetworkCleanup cleanup = new NetworkCleanup(RESOLUTION, fa, 4);
+		ArrayList <String> first = describe(cleanup.build(roads, table));
+		assertEquals(first, describe(cleanup.build(roads, table)));
+	}
+}
@@ -0,0 +1,128 @@
+package objects.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.geo.GeomPlanarGraph;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks the components found by Components against a search of the graph, and that
+ * ComponentConnector joins the components of a subnetwork using the roads of the full network
+ *
+ */
+public class ComponentsTest {
+
+	CSRGraph graph;
+	Network network;
+	CSRGraph netGraph; // built from the network, with the Edges to add to subnetworks
+
+	@Before
+	public void setUp(){
+		GeomPlanarGraph planar = new GeomPlanarGraph();
+		planar.createFromGeomField(RoutingBenchmark.grid(12, new MersenneTwisterFast(5)));
+		graph = CSRGraph.fromPlanarGraph(planar);
+		network = RoutingBenchmark.toNetwork(graph);
+		netGraph = CSRGraph.fromNetwork(network);
+	}
+
+	/**
+	 * Every pair of nodes is connected exactly when a search from one reaches the other
+	 */
+	void checkAgainstSearch(Components components, double [] weights){
+		int n = graph.numNodes();
+		assertEquals(n, components.numNodes());
+		int [] sizes = new int [components.numComponents()];
+		for(int s = 0; s < n; s++){
+			ShortestPathTree tree = ShortestPathTree.build(graph, s, false, weights);
+			for(int t = 0; t < n; t++)
+				assertEquals("from " + s + " to " + t, tree.distance(t) < Double.POSITIVE_INFINITY,
+						components.connected(s, t));
+			sizes[components.label(s)]++;
+		}
+		for(int c = 0; c < sizes.length; c++){
+			assertEquals("size of component " + c, sizes[c], components.size(c));
+			assertTrue(components.size(c) <= components.size(components.largest()));
+		}
+	}
+
+	@Test
+	public void componentsOfTheGraphMatchSearch(){
+		checkAgainstSearch(Components.of(graph, null), null);
+	}
+
+	@Test
+	public void closedRoadsSplitComponents(){
+		// close every road crossing the middle of the grid
+		double [] weights = graph.copyLengths();
+		for(int a = 0; a < graph.numArcs(); a++)
+			if((graph.x(graph.sources[a]) < 600) != (graph.x(graph.targets[a]) < 600))
+				weights[a] = Double.POSITIVE_INFINITY;
+		Components components = Components.of(graph, weights);
+		assertTrue(components.numComponents() >= 2);
+		checkAgainstSearch(components, weights);
+	}
+
+	@Test
+	public void componentsOfTheNetworkMatchTheGraph(){
+		Components ofNetwork = Components.of(network), ofGraph = Components.of(graph, null);
+		assertEquals(ofGraph.numComponents(), ofNetwork.numComponents());
+		Object [] nodes = network.getAllNodes().toArray();
+		for(int i = 0; i < nodes.length; i++){
+			assertEquals(ofGraph.label(i), ofNetwork.label(nodes[i]));
+			assertEquals(ofGraph.label(i), ofNetwork.label(i));
+		}
+	}
+
+	@Test
+	public void connectorJoinsTheComponents(){
+		// keep only the roads in three bands of the grid, leaving the bands apart
+		Network subgraph = new Network(false);
+		Object [] nodes = network.getAllNodes().toArray();
+		for(Object node: nodes)
+			subgraph.addNode(node);
+		for(int a = 0; a < netGraph.numArcs(); a++){
+			int band = band(netGraph.x(netGraph.sources[a]));
+			if(band < 0 || band != band(netGraph.x(netGraph.targets[a])) || a > netGraph.twins[a])
+				continue;
+			Edge e = netGraph.getNetworkEdge(a);
+			subgraph.addEdge(e.from(), e.to(), e.info);
+		}
+		Components before = Components.of(subgraph);
+		assertTrue(before.numComponents() > 3);
+
+		ComponentConnector connector = new ComponentConnector(netGraph);
+		int added = connector.connect(subgraph);
+		Components after = Components.of(subgraph);
+		Components full = Components.of(network);
+		assertEquals(full.numComponents(), after.numComponents());
+		assertEquals(before.numComponents() - after.numComponents(), connector.getComponentsJoined());
+		assertTrue(added >= connector.getComponentsJoined());
+
+		// what was connected still is, and nothing is connected that the full network does not join
+		for(int i = 0; i < nodes.length; i++)
+			for(int j = 0; j < nodes.length; j++){
+				if(before.connected(nodes[i], nodes[j]))
+					assertTrue(after.connected(nodes[i], nodes[j]));
+				assertEquals(full.connected(nodes[i], nodes[j]), after.connected(nodes[i], nodes[j]));
+			}
+
+		// a second call has nothing left to join
+		assertEquals(0, connector.connect(subgraph));
+		assertEquals(0, connector.getComponentsJoined());
+	}
+
+	/** @return which of the three kept bands an x falls in, or -1 if none */
+	static int band(double x){
+		if(x < 250) return 0;
+		if(x > 450 && x < 650) return 1;
+		if(x > 850) return 2;
+		return -1;
+	}
+}
@@ -0,0 +1,43 @@
+package objects.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import sim.util.geo.GeomPlanarGraph;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks that publishing a traffic snapshot leaves the times of earlier snapshots, and the
+ * searches over them, as they were
+ *
+ */
+public class CongestionSnapshotTest {
+
+	@Test
+	public void publishingLeavesEarlierSnapshotsAlone(){
+		GeomPlanarGraph planar = new GeomPlanarGraph();
+		planar.createFromGeomField(RoutingBenchmark.grid(8, new MersenneTwisterFast(11)));
+		CSRGraph graph = CSRGraph.fromPlanarGraph(planar);
+		CongestionSnapshot congestion = new CongestionSnapshot(graph);
+
+		CSRAStar before = congestion.getSearch();
+		double [] times = congestion.getWeights(), kept = times.clone();
+		double distance = before.distance(0, graph.numNodes() - 1);
+
+		double [] occupancy = new double [graph.numArcs()];
+		Arrays.fill(occupancy, 1e6); // every road jammed
+		congestion.publish(occupancy);
+
+		assertEquals(1, congestion.getRefreshes());
+		assertTrue("no new search", before != congestion.getSearch());
+		assertArrayEquals("an earlier snapshot was written over", kept, times, 0);
+		assertEquals(distance, before.distance(0, graph.numNodes() - 1), 0);
+		assertTrue(congestion.getSearch().distance(0, graph.numNodes() - 1) > distance);
+	}
+}
@@ -0,0 +1,105 @@
+package objects.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks IndexedHeap against a plain map of ids to keys, searched for its smallest entry, over
+ * random sequences of inserts, decreases, updates and removals
+ *
+ */
+public class IndexedHeapTest {
+
+	@Test
+	public void pollsInKeyOrder(){
+		MersenneTwisterFast random = new MersenneTwisterFast(1);
+		IndexedHeap heap = new IndexedHeap(4); // small, so that it has to grow
+		HashMap <Integer, Double> expected = new HashMap <Integer, Double> ();
+
+		for(int step = 0; step < 20000; step++){
+			int id = random.nextInt(200);
+			double key = random.nextInt(1000); // often equal, so that ties are exercised
+			switch(random.nextInt(5)){
+			case 0:
+			case 1:
+				boolean changed = heap.insertOrDecrease(id, key);
+				Double old = expected.get(id);
+				assertEquals("insertOrDecrease changed the heap", old == null || key < old, changed);
+				if(changed) expected.put(id, key);
+				break;
+			case 2:
+				heap.update(id, key); // leaves an id which is not in the heap out of it
+				if(expected.containsKey(id)) expected.put(id, key);
+				break;
+			case 3:
+				heap.remove(id);
+				expected.remove(id);
+				break;
+			case 4:
+				if(!heap.isEmpty()){
+					double min = smallest(expected);
+					assertEquals(min, heap.minKey(), 0);
+					int polled = heap.poll();
+					assertEquals("key of polled id", min, expected.remove(polled), 0);
+					assertFalse(heap.contains(polled));
+				}
+				break;
+			}
+			assertEquals(expected.size(), heap.size());
+		}
+
+		// draining what is left gives the keys in order
+		double last = Double.NEGATIVE_INFINITY;
+		while(!heap.isEmpty()){
+			double key = heap.minKey();
+			assertTrue("keys out of order", key >= last);
+			assertEquals(key, expected.remove(heap.poll()), 0);
+			last = key;
+		}
+		assertTrue(expected.isEmpty());
+	}
+
+	@Test
+	public void breaksTiesBySecondaryKey(){
+		IndexedHeap heap = new IndexedHeap(16);
+		heap.insertOrUpdate(0, 5, 3);
+		heap.insertOrUpdate(1, 5, 1);
+		heap.insertOrUpdate(2, 5, 2);
+		heap.insertOrUpdate(3, 4, 9);
+		heap.insertOrUpdate(2, 5, 0); // moves ahead of 1
+		assertEquals(3, heap.poll());
+		assertEquals(2, heap.poll());
+		assertEquals(1, heap.poll());
+		assertEquals(0, heap.poll());
+		assertTrue(heap.isEmpty());
+	}
+
+	@Test
+	public void clearEmptiesTheHeap(){
+		IndexedHeap heap = new IndexedHeap(16);
+		for(int i = 0; i < 10; i++)
+			heap.insertOrDecrease(i, 10 - i);
+		heap.poll();
+		heap.clear();
+		assertTrue(heap.isEmpty());
+		for(int i = 0; i < 10; i++)
+			assertFalse(heap.contains(i));
+		assertTrue(heap.insertOrDecrease(3, 1));
+		assertEquals(3, heap.poll());
+	}
+
+	static double smallest(Map <Integer, Double> keys){
+		double min = Double.POSITIVE_INFINITY;
+		for(double key: keys.values())
+			min = Math.min(min, key);
+		return min;
+	}
+}
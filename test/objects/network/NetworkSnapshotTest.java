@@ -0,0 +1,126 @@
+package objects.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.Bag;
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks that a NetworkSnapshot written to disk loads back as the same roads, attributes and
+ * graph, and that stale or damaged snapshots are ignored
+ *
+ */
+public class NetworkSnapshotTest {
+
+	static final String [] ATTRIBUTES = {"TYPE", "SPEED"};
+	static final long SOURCE = 12345;
+
+	GeomVectorField roads;
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		roads = RoutingBenchmark.grid(8, new MersenneTwisterFast(3));
+		Bag all = roads.getGeometries();
+		for(int i = 0; i < all.size(); i++){
+			MasonGeometry road = (MasonGeometry) all.get(i);
+			road.addIntegerAttribute("ROAD_ID", 1000 + i);
+			if(i % 7 != 0) // some roads have no class
+				road.addStringAttribute("TYPE", i % 2 == 0 ? "A Road" : "Minor Road");
+			road.addDoubleAttribute("SPEED", 10 + i / 4.);
+			road.addStringAttribute("NAME", "not kept");
+		}
+		file = File.createTempFile("roads", ".snapshot");
+		file.deleteOnExit();
+	}
+
+	NetworkSnapshot roundTrip() throws IOException {
+		NetworkSnapshot captured = NetworkSnapshot.capture(roads, ATTRIBUTES);
+		assertNotNull(captured);
+		captured.write(file, SOURCE);
+		return NetworkSnapshot.load(file, SOURCE, new GeometryFactory());
+	}
+
+	@Test
+	public void loadsTheRoadsItWrote() throws IOException {
+		NetworkSnapshot loaded = roundTrip();
+		assertNotNull("snapshot not loaded", loaded);
+
+		GeomVectorField layer = new GeomVectorField();
+		loaded.fill(layer);
+		Bag before = roads.getGeometries(), after = layer.getGeometries();
+		assertEquals(before.size(), after.size());
+		for(int i = 0; i < before.size(); i++){
+			MasonGeometry a = (MasonGeometry) before.get(i), b = (MasonGeometry) after.get(i);
+			Coordinate [] ca = a.geometry.getCoordinates(), cb = b.geometry.getCoordinates();
+			assertEquals("points of road " + i, ca.length, cb.length);
+			for(int j = 0; j < ca.length; j++){
+				assertEquals(ca[j].x, cb[j].x, 0);
+				assertEquals(ca[j].y, cb[j].y, 0);
+			}
+			assertEquals(a.getIntegerAttribute("ROAD_ID"), b.getIntegerAttribute("ROAD_ID"));
+			assertEquals(a.getDoubleAttribute("SPEED"), b.getDoubleAttribute("SPEED"), 0);
+			if(a.hasAttribute("TYPE"))
+				assertEquals(a.getStringAttribute("TYPE"), b.getStringAttribute("TYPE"));
+			else
+				assertFalse("road " + i + " gained a TYPE", b.hasAttribute("TYPE"));
+			assertFalse("an attribute not asked for was kept", b.hasAttribute("NAME"));
+		}
+	}
+
+	@Test
+	public void createsTheSameGraph() throws IOException {
+		GeomPlanarGraph read = new GeomPlanarGraph();
+		read.createFromGeomField(roads);
+		CSRGraph expected = CSRGraph.fromPlanarGraph(read);
+		CSRGraph loaded = CSRGraph.fromPlanarGraph(roundTrip().createGraph());
+
+		assertEquals(expected.numNodes(), loaded.numNodes());
+		assertEquals(expected.numArcs(), loaded.numArcs());
+		double total = 0, loadedTotal = 0;
+		for(int a = 0; a < expected.numArcs(); a++){
+			total += expected.length(a);
+			loadedTotal += loaded.length(a);
+		}
+		assertEquals(total, loadedTotal, 1e-6);
+	}
+
+	@Test
+	public void ignoresASnapshotOfOtherRoads() throws IOException {
+		NetworkSnapshot.capture(roads, ATTRIBUTES).write(file, SOURCE);
+		assertNull(NetworkSnapshot.load(file, SOURCE + 1, new GeometryFactory()));
+	}
+
+	@Test
+	public void ignoresADamagedSnapshot() throws IOException {
+		NetworkSnapshot.capture(roads, ATTRIBUTES).write(file, SOURCE);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long middle = raf.length() / 2;
+			raf.seek(middle);
+			int b = raf.read();
+			raf.seek(middle);
+			raf.write(b ^ 0xff);
+		} finally {
+			raf.close();
+		}
+		assertNull(NetworkSnapshot.load(file, SOURCE, new GeometryFactory()));
+	}
+}
@@ -0,0 +1,195 @@
+package objects.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.Bag;
+import sim.util.geo.GeomPlanarGraph;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks that a NetworkView shows just what a copy of its base would show after the same
+ * changes, without the base itself changing
+ *
+ */
+public class NetworkViewTest {
+
+	Network base;
+	Network copy; // a plain copy of the base, changed alongside the view
+	int baseEdges;
+
+	@Before
+	public void setUp(){
+		GeomPlanarGraph planar = new GeomPlanarGraph();
+		planar.createFromGeomField(RoutingBenchmark.grid(6, new MersenneTwisterFast(9)));
+		base = RoutingBenchmark.toNetwork(CSRGraph.fromPlanarGraph(planar));
+		copy = new Network(false);
+		for(Object node: base.getAllNodes())
+			copy.addNode(node);
+		for(Edge e: edges(base)){
+			copy.addEdge(e.from(), e.to(), e.info);
+			baseEdges++;
+		}
+	}
+
+	/** @return every edge of the network, once each */
+	static ArrayList <Edge> edges(Network network){
+		ArrayList <Edge> result = new ArrayList <Edge> ();
+		HashSet <Edge> seen = new HashSet <Edge> ();
+		for(Object node: network.getAllNodes())
+			for(Object o: network.getEdgesOut(node))
+				if(seen.add((Edge) o)) result.add((Edge) o);
+		return result;
+	}
+
+	/** @return the edge of the network carrying the info, or null if there is none */
+	static Edge find(Network network, Object info){
+		for(Edge e: edges(network))
+			if(e.info == info) return e;
+		return null;
+	}
+
+	/** @return the infos of the edges leaving the node, which are unique to each edge */
+	static HashSet <Object> infos(Bag edges){
+		HashSet <Object> result = new HashSet <Object> ();
+		for(Object o: edges)
+			result.add(((Edge) o).info);
+		return result;
+	}
+
+	/**
+	 * The view must show the same nodes and edges as the copy, and index and list them consistently
+	 */
+	void checkSame(NetworkView view){
+		Bag nodes = view.getAllNodes();
+		assertEquals(new HashSet <Object> (copy.getAllNodes()), new HashSet <Object> (nodes));
+		assertEquals(copy.getAllNodes().size(), nodes.size());
+		Edge [][] list = view.getAdjacencyList(true);
+		Edge [][] matrix = view.getAdjacencyMatrix();
+		Edge [][][] multi = view.getMultigraphAdjacencyMatrix();
+		for(int i = 0; i < nodes.numObjs; i++){
+			Object node = nodes.objs[i];
+			assertEquals(i, view.getNodeIndex(node));
+			Bag out = view.getEdgesOut(node);
+			assertEquals("edges at node " + i, infos(copy.getEdgesOut(node)), infos(out));
+			assertEquals(out.numObjs, list[i].length);
+			int count = 0;
+			for(int j = 0; j < nodes.numObjs; j++){
+				count += multi[i][j].length;
+				assertEquals(multi[i][j].length > 0, matrix[i][j] != null);
+				for(Edge e: multi[i][j])
+					assertSame(nodes.objs[j], e.getOtherNode(node));
+			}
+			assertEquals(out.numObjs, count);
+		}
+	}
+
+	@Test
+	public void showsTheSameAsAChangedCopy(){
+		NetworkView view = new NetworkView(base);
+		checkSame(view);
+		MersenneTwisterFast random = new MersenneTwisterFast(11);
+		ArrayList <Edge> removedFromBase = new ArrayList <Edge> ();
+		for(int step = 0; step < 400; step++){
+			Bag nodes = view.getAllNodes();
+			Object a = nodes.objs[random.nextInt(nodes.numObjs)], b = nodes.objs[random.nextInt(nodes.numObjs)];
+			ArrayList <Edge> shown = edges(view);
+			switch(random.nextInt(6)){
+			case 0: // remove an edge
+				if(shown.isEmpty()) break;
+				Edge e = shown.get(random.nextInt(shown.size()));
+				assertSame(e, view.removeEdge(e));
+				copy.removeEdge(find(copy, e.info));
+				if(find(base, e.info) != null) removedFromBase.add(e);
+				assertNull("removed twice", view.removeEdge(e));
+				break;
+			case 1: // add a new edge
+				Object info = new Object();
+				view.addEdge(a, b, info);
+				copy.addEdge(a, b, info);
+				break;
+			case 2: // restore an edge of the base
+				if(removedFromBase.isEmpty()) break;
+				Edge restored = removedFromBase.remove(random.nextInt(removedFromBase.size()));
+				view.addEdge(restored);
+				copy.addEdge(restored.from(), restored.to(), restored.info);
+				break;
+			case 3: // an edge the view already shows is not added again
+				if(shown.isEmpty()) break;
+				Edge again = shown.get(random.nextInt(shown.size()));
+				if(find(base, again.info) != null) view.addEdge(again);
+				break;
+			case 4: // remove a node
+				for(Edge at: edges(view))
+					if((at.from() == a || at.to() == a) && find(base, at.info) != null) removedFromBase.add(at);
+				assertSame(a, view.removeNode(a));
+				copy.removeNode(a);
+				assertEquals(-1, view.getNodeIndex(a));
+				assertNull(view.removeNode(a));
+				if(random.nextBoolean()){ // and show it again, without its edges
+					view.addNode(a);
+					copy.addNode(a);
+				}
+				break;
+			case 5: // update an edge
+				if(shown.isEmpty()) break;
+				Edge old = shown.get(random.nextInt(shown.size()));
+				Object newInfo = new Object();
+				Edge updated = view.updateEdge(old, a, b, newInfo);
+				assertSame(newInfo, updated.info);
+				copy.removeEdge(find(copy, old.info));
+				copy.addEdge(a, b, newInfo);
+				if(find(base, old.info) != null) removedFromBase.add(old);
+				break;
+			}
+			checkSame(view);
+		}
+		assertEquals("the base changed", baseEdges, edges(base).size());
+	}
+
+	@Test
+	public void clearHidesTheBase(){
+		NetworkView view = new NetworkView(base);
+		Object a = base.getAllNodes().objs[0], b = base.getAllNodes().objs[1];
+		Bag shown = view.clear();
+		assertEquals(base.getAllNodes().size(), shown.size());
+		assertEquals(0, view.getAllNodes().size());
+		assertEquals(0, view.getEdgesOut(a).size());
+		assertEquals(-1, view.getNodeIndex(a));
+
+		view.addEdge((Edge) base.getEdgesOut(a).objs[0]);
+		assertEquals(2, view.getAllNodes().size());
+		assertEquals(1, view.getEdgesOut(a).size());
+		view.addEdge(a, b, "new");
+		assertEquals(2, edges(view).size());
+
+		view.reset();
+		assertTrue(view.isUnchanged());
+		assertEquals(base.getAllNodes().size(), view.getAllNodes().size());
+		assertEquals(baseEdges, edges(view).size());
+	}
+
+	@Test
+	public void clonesChangeApart(){
+		NetworkView view = new NetworkView(base);
+		Edge e = edges(base).get(0);
+		view.removeEdge(e);
+		NetworkView clone = (NetworkView) view.cloneGraph();
+		assertTrue(clone.isRemoved(e));
+		clone.addEdge(e);
+		assertTrue(view.isRemoved(e));
+		assertEquals(baseEdges - 1, edges(view).size());
+		assertEquals(baseEdges, edges(clone).size());
+	}
+}
@@ -0,0 +1,462 @@
+package objects.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.planargraph.Node;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks that every routing engine finds paths exactly as cheap as Dijkstra's algorithm does
+ * (a ShortestPathTree) between the same pairs of nodes of the benchmark's jittered grids, the
+ * correctness RoutingBenchmark takes for granted when it compares their speeds. Every path is
+ * also checked to run unbroken from the start to the goal.
+ *
+ */
+public class RoutingEnginesTest {
+
+	static final int [] SIZES = {6, 15};
+	static final int NUM_PAIRS = 150;
+
+	CSRGraph [] graphs;
+	Network [] networks; // the same graphs as MASON networks, with nodes in the same order
+	CSRGraph [] networkGraphs; // built from the networks, for reading their paths
+	int [][][] pairs;
+
+	@Before
+	public void setUp(){
+		MersenneTwisterFast random = new MersenneTwisterFast(42);
+		graphs = new CSRGraph [SIZES.length];
+		networks = new Network [SIZES.length];
+		networkGraphs = new CSRGraph [SIZES.length];
+		pairs = new int [SIZES.length][][];
+		for(int g = 0; g < SIZES.length; g++){
+			GeomPlanarGraph planar = new GeomPlanarGraph();
+			planar.createFromGeomField(RoutingBenchmark.grid(SIZES[g], random));
+			graphs[g] = CSRGraph.fromPlanarGraph(planar);
+			networks[g] = RoutingBenchmark.toNetwork(graphs[g]);
+			networkGraphs[g] = CSRGraph.fromNetwork(networks[g]);
+			pairs[g] = RoutingBenchmark.drawPairs(graphs[g], NUM_PAIRS, random);
+		}
+	}
+
+	/**
+	 * A routing engine under test, searching between nodes given by their ids
+	 */
+	static abstract class Engine {
+		/** @return the cost of the path found, checked to be unbroken, or infinity if there is none */
+		abstract double cost(CSRGraph graph, int s, int t);
+	}
+
+	/**
+	 * Route between every pair of every graph, failing on the first cost which differs from Dijkstra's
+	 */
+	void check(String name, Engine engine){
+		for(int g = 0; g < graphs.length; g++){
+			CSRGraph graph = graphs[g];
+			for(int [] pair: pairs[g]){
+				double expected = ShortestPathTree.build(graph, pair[0], false, null).distance(pair[1]);
+				double actual = engine.cost(graph, pair[0], pair[1]);
+				assertEquals(name + " from " + pair[0] + " to " + pair[1] + " on grid" + SIZES[g],
+						expected, actual, 1e-9 * Math.max(1, expected));
+			}
+		}
+	}
+
+	/**
+	 * @return the cost of the arcs, having checked that they lead from s to t
+	 */
+	static double arcCost(CSRGraph graph, int [] arcs, int s, int t){
+		if(arcs == null) return Double.POSITIVE_INFINITY;
+		double cost = 0;
+		int node = s;
+		for(int a: arcs){
+			assertEquals("path broken at arc " + a, node, graph.sources[a]);
+			cost += graph.lengths[a];
+			node = graph.targets[a];
+		}
+		assertEquals("path does not reach the goal", t, node);
+		return cost;
+	}
+
+	/**
+	 * @return the cost of a path in the format used by AStar, empty if there is no path
+	 */
+	static double planarCost(CSRGraph graph, List <GeomPlanarGraphDirectedEdge> path, int s, int t){
+		if(path.isEmpty()) return s == t ? 0 : Double.POSITIVE_INFINITY;
+		int [] arcs = new int [path.size()];
+		for(int i = 0; i < arcs.length; i++)
+			arcs[i] = graph.arcId(path.get(i));
+		return arcCost(graph, arcs, s, t);
+	}
+
+	/**
+	 * @return the cost of a path in the format used by AStarNew: edges from the goal back to the
+	 * start, or null if there is no path
+	 */
+	double networkCost(CSRGraph graph, ArrayList <Edge> path, int s, int t){
+		if(path == null) return Double.POSITIVE_INFINITY;
+		int g = indexOf(graph);
+		CSRGraph netGraph = networkGraphs[g];
+		Object [] nodes = networks[g].getAllNodes().toArray();
+		CompactPath p = CompactPath.fromNetworkPath(netGraph, path, nodes[s]);
+		assertNotNull("path broken", p);
+		int [] arcs = new int [p.size()];
+		for(int i = 0; i < arcs.length; i++)
+			arcs[i] = p.arc(i);
+		return arcCost(netGraph, arcs, netGraph.nodeId(nodes[s]), netGraph.nodeId(nodes[t]));
+	}
+
+	int indexOf(CSRGraph graph){
+		for(int g = 0; g < graphs.length; g++)
+			if(graphs[g] == graph) return g;
+		throw new IllegalArgumentException("Not a test graph");
+	}
+
+	GeoNode node(CSRGraph graph, int id){
+		return (GeoNode) networks[indexOf(graph)].getAllNodes().get(id);
+	}
+
+	@Test
+	public void csrAStarMatchesDijkstra(){
+		check("CSRAStar", new Engine(){
+			double cost(CSRGraph graph, int s, int t){
+				CSRAStar search = new CSRAStar(graph);
+				int [] arcs = search.path(s, t);
+				double cost = arcCost(graph, arcs, s, t);
+				assertEquals("reported cost", cost, search.getPathCost(), 1e-9 * Math.max(1, cost));
+				return cost;
+			}
+		});
+	}
+
+	@Test
+	public void landmarksMatchDijkstra(){
+		final MersenneTwisterFast random = new MersenneTwisterFast(7);
+		check("CSRAStar-landmarks", new Engine(){
+			CSRGraph last = null;
+			CSRAStar search;
+			double cost(CSRGraph graph, int s, int t){
+				if(graph != last){
+					int [] landmarks = LandmarkHeuristic.selectFarthest(graph, 8, null, random);
+					search = new CSRAStar(graph, null, new LandmarkHeuristic(graph, landmarks, null));
+					last = graph;
+				}
+				return arcCost(graph, search.path(s, t), s, t);
+			}
+		});
+	}
+
+	@Test
+	public void contractionHierarchyMatchesDijkstra(){
+		check("ContractionHierarchy", new Engine(){
+			CSRGraph last = null;
+			ContractionHierarchy hierarchy;
+			double cost(CSRGraph graph, int s, int t){
+				if(graph != last){
+					hierarchy = ContractionHierarchy.build(graph);
+					last = graph;
+				}
+				double cost = arcCost(graph, hierarchy.arcPath(s, t), s, t);
+				assertEquals("reported distance", cost, hierarchy.distance(s, t), 1e-9 * Math.max(1, cost));
+				return cost;
+			}
+		});
+	}
+
+	/**
+	 * A saved hierarchy loads back to give the same distances, and saving it again replaces the
+	 * file without leaving the one it was written to first
+	 */
+	@Test
+	public void contractionHierarchySavesAndLoads() throws IOException {
+		CSRGraph graph = graphs[0];
+		ContractionHierarchy hierarchy = ContractionHierarchy.build(graph);
+		File file = File.createTempFile("roads", ".ch");
+		file.deleteOnExit();
+		hierarchy.save(file);
+		hierarchy.save(file);
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		ContractionHierarchy loaded = ContractionHierarchy.load(file, graph);
+		assertNotNull(loaded);
+		for(int [] pair: pairs[0])
+			assertEquals(hierarchy.distance(pair[0], pair[1]), loaded.distance(pair[0], pair[1]), 0);
+	}
+
+	@Test
+	public void destinationTreesMatchDijkstra(){
+		check("DestinationTrees", new Engine(){
+			double cost(CSRGraph graph, int s, int t){
+				DestinationTrees trees = new DestinationTrees(graph, new int [] {t}, null);
+				return arcCost(graph, trees.path(s, t), s, t);
+			}
+		});
+	}
+
+	/**
+	 * Paths read while roads are being closed and reopened are never broken, and once every road
+	 * is open again the trees give the paths they gave at first
+	 */
+	@Test
+	public void destinationTreesCanBeReadWhileRoadsClose(){
+		final CSRGraph graph = graphs[1];
+		final int [] destinations = {pairs[1][0][1], pairs[1][1][1], pairs[1][2][1]};
+		final DestinationTrees trees = new DestinationTrees(graph, destinations, null);
+		final double [] lengths = graph.copyLengths();
+		ArrayList <Callable <Object>> tasks = new ArrayList <Callable <Object>> ();
+		tasks.add(new Callable <Object> (){
+			public Object call(){
+				MersenneTwisterFast random = new MersenneTwisterFast(5);
+				for(int i = 0; i < 200; i++){
+					int a = random.nextInt(graph.numArcs());
+					trees.setWeight(a, Double.POSITIVE_INFINITY);
+					trees.setWeight(a, lengths[a]);
+				}
+				return null;
+			}
+		});
+		for(int r = 0; r < 3; r++)
+			tasks.add(new Callable <Object> (){
+				public Object call(){
+					for(int i = 0; i < 20; i++)
+						for(int [] pair: pairs[1])
+							for(int t: destinations)
+								arcCost(graph, trees.path(pair[0], t), pair[0], t);
+					return null;
+				}
+			});
+		WorkerPool.run(tasks.size(), tasks, "reading paths");
+
+		for(int t: destinations){
+			ShortestPathTree fresh = ShortestPathTree.build(graph, t, true, lengths);
+			for(int [] pair: pairs[1])
+				assertEquals(fresh.distance(pair[0]), trees.distance(pair[0], t), 1e-9);
+		}
+	}
+
+	@Test
+	public void batchRouterMatchesDijkstra(){
+		for(int g = 0; g < graphs.length; g++){
+			CSRGraph graph = graphs[g];
+
+			// repeat some starts and goals, so that the one-to-many searches are used too
+			int n = pairs[g].length;
+			int [] starts = new int [n], goals = new int [n];
+			for(int i = 0; i < n; i++){
+				starts[i] = pairs[g][i % 10][0];
+				goals[i] = pairs[g][i][1];
+			}
+			int [][] arcs = new BatchRouter(new CSRAStar(graph), 3).route(starts, goals);
+			for(int i = 0; i < n; i++){
+				double expected = ShortestPathTree.build(graph, starts[i], false, null).distance(goals[i]);
+				assertEquals("BatchRouter from " + starts[i] + " to " + goals[i], expected,
+						arcCost(graph, arcs[i], starts[i], goals[i]), 1e-9 * Math.max(1, expected));
+			}
+		}
+	}
+
+	@Test
+	public void aStarMatchesDijkstra(){
+		check("AStar", new Engine(){
+			double cost(CSRGraph graph, int s, int t){
+				return planarCost(graph, new AStar().astarPath((Node) graph.nodes[s], (Node) graph.nodes[t]), s, t);
+			}
+		});
+	}
+
+	/**
+	 * The bidirectional search stops once the two frontiers can no longer improve on the best
+	 * meeting found, which is only right if that rule is applied correctly
+	 */
+	@Test
+	public void bidirectionalAStarMatchesDijkstra(){
+		check("AStar-bidirectional", new Engine(){
+			double cost(CSRGraph graph, int s, int t){
+				return planarCost(graph, new AStar().astarPath((Node) graph.nodes[s], (Node) graph.nodes[t], true), s, t);
+			}
+		});
+	}
+
+	@Test
+	public void aStarNewMatchesDijkstra(){
+		check("AStarNew", new Engine(){
+			double cost(CSRGraph graph, int s, int t){
+				Network network = networks[indexOf(graph)];
+				return networkCost(graph, new AStarNew().astarPath(node(graph, s), node(graph, t), network), s, t);
+			}
+		});
+	}
+
+	@Test
+	public void weightedAStarMatchesDijkstraWhenUnweighted(){
+		check("AStar_SWise", new Engine(){
+			double cost(CSRGraph graph, int s, int t){
+				Network network = networks[indexOf(graph)];
+				return networkCost(graph, new AStar_SWise().astarWeightedPath(node(graph, s), node(graph, t),
+						network, new HashSet <Object> (), 1), s, t);
+			}
+		});
+	}
+
+	/**
+	 * On a directed network a weighted search keeps to the direction of the roads, as the
+	 * weighted searches it replaced did, even when going against one would be shorter
+	 */
+	@Test
+	public void weightedAStarKeepsToDirectedRoads(){
+		GeometryFactory fa = new GeometryFactory();
+		Coordinate [] corners = {new Coordinate(0, 0), new Coordinate(100, 0), new Coordinate(100, 100),
+				new Coordinate(0, 100)};
+		GeoNode [] ring = new GeoNode [corners.length];
+		Network network = new Network(true);
+		for(int i = 0; i < ring.length; i++){
+			ring[i] = new GeoNode(fa.createPoint(corners[i]));
+			network.addNode(ring[i]);
+		}
+		for(int i = 0; i < ring.length; i++){ // one way round the ring, from 0 to 1 to 2 to 3
+			int j = (i + 1) % ring.length;
+			network.addEdge(new Edge(ring[i], ring[j],
+					new MasonGeometry(fa.createLineString(new Coordinate [] {corners[i], corners[j]}))));
+		}
+		ArrayList <Edge> path = new AStar_SWise().astarWeightedPath(ring[1], ring[0], network,
+				new HashSet <Object> (), 1);
+		assertNotNull(path);
+		assertEquals("the long way round", 3, path.size());
+	}
+
+	@Test
+	public void dStarLiteMatchesDijkstra(){
+		check("DStarLite", new Engine(){
+			double cost(CSRGraph graph, int s, int t){
+				Network network = networks[indexOf(graph)];
+				return networkCost(graph, new DStarLite(network, node(graph, t)).path(node(graph, s)), s, t);
+			}
+		});
+	}
+
+	/**
+	 * After a road on the path is closed, the repaired path must be as cheap as Dijkstra's
+	 * without that road
+	 */
+	@Test
+	public void dStarLiteRepairMatchesDijkstra(){
+		CSRGraph graph = graphs[1], netGraph = networkGraphs[1];
+		for(int [] pair: pairs[1]){
+			GeoNode start = node(graph, pair[0]), goal = node(graph, pair[1]);
+			DStarLite planner = new DStarLite(networks[1], goal);
+			ArrayList <Edge> path = planner.path(start);
+			if(path == null || path.isEmpty()) continue;
+
+			Edge closed = path.get(path.size() / 2);
+			planner.closeEdge(closed);
+			double [] weights = netGraph.copyLengths();
+			int a = netGraph.arcId(closed);
+			weights[a] = weights[netGraph.twins[a]] = Double.POSITIVE_INFINITY;
+			double expected = ShortestPathTree.build(netGraph, netGraph.nodeId(start), false, weights)
+					.distance(netGraph.nodeId(goal));
+
+			ArrayList <Edge> repaired = planner.path(start);
+			if(repaired != null && repaired.contains(closed))
+				fail("DStarLite used the closed road");
+			assertEquals("DStarLite repair from " + pair[0] + " to " + pair[1], expected,
+					networkCost(graph, repaired, pair[0], pair[1]), 1e-9 * Math.max(1, expected));
+		}
+	}
+
+	/**
+	 * A road already marked as CLOSED when the first path is planned must not be used
+	 */
+	@Test
+	public void dStarLiteAvoidsRoadsClosedBeforeItStarts(){
+		GeometryFactory fa = new GeometryFactory();
+		Coordinate [] corners = {new Coordinate(0, 0), new Coordinate(100, 0), new Coordinate(100, 100),
+				new Coordinate(0, 100)};
+		GeoNode [] ring = new GeoNode [corners.length];
+		Network network = new Network(false);
+		for(int i = 0; i < ring.length; i++){
+			ring[i] = new GeoNode(fa.createPoint(corners[i]));
+			network.addNode(ring[i]);
+		}
+		Edge closed = null;
+		for(int i = 0; i < ring.length; i++){
+			int j = (i + 1) % ring.length;
+			MasonGeometry road = new MasonGeometry(fa.createLineString(new Coordinate [] {corners[i], corners[j]}));
+			Edge e = new Edge(ring[i], ring[j], road);
+			network.addEdge(e);
+			if(i == 0){
+				road.addStringAttribute("open", RoadAttributes.CLOSED);
+				closed = e;
+			}
+		}
+		ArrayList <Edge> path = new DStarLite(network, ring[1]).path(ring[0]);
+		assertNotNull(path);
+		assertEquals("the way round", 3, path.size());
+		assertFalse(path.contains(closed));
+	}
+
+	/**
+	 * Closing a road cut into several edges through the planner records it in the road's
+	 * attributes, and keeps the planner off every edge of the road until it is reopened
+	 */
+	@Test
+	public void dStarLiteClosesTheWholeRoad(){
+		GeometryFactory fa = new GeometryFactory();
+		Coordinate [] points = {new Coordinate(0, 0), new Coordinate(50, 0), new Coordinate(100, 0),
+				new Coordinate(100, 100), new Coordinate(0, 100)};
+		GeoNode [] nodes = new GeoNode [points.length];
+		Network network = new Network(false);
+		for(int i = 0; i < nodes.length; i++){
+			nodes[i] = new GeoNode(fa.createPoint(points[i]));
+			network.addNode(nodes[i]);
+		}
+		// road 0 runs from node 0 to node 2, cut at node 1; roads 1 to 3 lead the way round
+		RoadAttributes attributes = new RoadAttributes(4);
+		int [][] edges = {{0, 1, 0}, {1, 2, 0}, {2, 3, 1}, {3, 4, 2}, {4, 0, 3}};
+		ListEdge cut = null;
+		for(int [] e: edges){
+			MasonGeometry mg = new MasonGeometry(fa.createLineString(new Coordinate [] {points[e[0]], points[e[1]]}));
+			ListEdge edge = new ListEdge(new Edge(nodes[e[0]], nodes[e[1]], mg), points[e[0]].distance(points[e[1]]));
+			edge.setFeature(attributes, e[2]);
+			network.addEdge(edge);
+			if(e[0] == 1) cut = edge;
+		}
+
+		DStarLite planner = new DStarLite(network, nodes[2]);
+		assertEquals(2, planner.path(nodes[0]).size());
+		planner.closeEdge(cut);
+		assertTrue(attributes.isClosed(0));
+		assertEquals(1, attributes.numClosed());
+		ArrayList <Edge> path = planner.path(nodes[0]);
+		assertNotNull(path);
+		assertEquals("the way round", 3, path.size());
+		for(Edge e: path)
+			assertFalse(((ListEdge) e).getFeature() == 0);
+
+		planner.reopenEdge(cut);
+		assertFalse(attributes.isClosed(0));
+		assertEquals(2, planner.path(nodes[0]).size());
+	}
+}
@@ -0,0 +1,112 @@
+package objects.network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.GeomPlanarGraphEdge;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks the grids of SnapIndex and PointGrid against looking at every road and point in turn
+ *
+ */
+public class SnapIndexTest {
+
+	static final int NUM_QUERIES = 300;
+
+	GeometryFactory fa = new GeometryFactory();
+	GeomPlanarGraph planar;
+	SnapIndex index;
+	MersenneTwisterFast random;
+
+	@Before
+	public void setUp(){
+		random = new MersenneTwisterFast(17);
+		planar = new GeomPlanarGraph();
+		planar.createFromGeomField(RoutingBenchmark.grid(10, random));
+		index = SnapIndex.forPlanarGraph(planar);
+	}
+
+	/** @return a point in and somewhat around the grid */
+	Coordinate somewhere(){
+		return new Coordinate(-200 + 1400 * random.nextDouble(), -200 + 1400 * random.nextDouble());
+	}
+
+	@Test
+	public void snapsToTheNearestRoad(){
+		for(int q = 0; q < NUM_QUERIES; q++){
+			Coordinate c = somewhere();
+			Point p = fa.createPoint(c);
+			double best = Double.POSITIVE_INFINITY;
+			for(Object o: planar.getEdges())
+				best = Math.min(best, ((GeomPlanarGraphEdge) o).getLine().distance(p));
+
+			SnapIndex.Snap snap = index.snap(c);
+			assertEquals("distance from " + c, best, snap.distance, 1e-9);
+			LineString road = ((GeomPlanarGraphEdge) snap.edge).getLine();
+			assertEquals(best, road.distance(p), 1e-9);
+			assertEquals(0, road.distance(fa.createPoint(snap.point)), 1e-9);
+
+			assertEquals(best > 50 ? null : snap.edge, edgeOrNull(index.snap(c.x, c.y, 50)));
+		}
+	}
+
+	static Object edgeOrNull(SnapIndex.Snap snap){ return snap == null ? null : snap.edge; }
+
+	@Test
+	public void findsEveryRoadWithin(){
+		Object [] edges = planar.getEdges().toArray();
+		for(int q = 0; q < NUM_QUERIES; q++){
+			Coordinate c = somewhere();
+			Point p = fa.createPoint(c);
+			double distance = 150 * random.nextDouble();
+			HashSet <Integer> expected = new HashSet <Integer> ();
+			for(int e = 0; e < edges.length; e++)
+				if(((GeomPlanarGraphEdge) index.edges[e]).getLine().distance(p) <= distance)
+					expected.add(e);
+
+			ArrayList <Integer> found = new ArrayList <Integer> ();
+			index.edgesWithin(c.x, c.y, distance, found);
+			assertEquals(expected, new HashSet <Integer> (found));
+			assertEquals("found twice", expected.size(), found.size());
+		}
+	}
+
+	@Test
+	public void pointGridFindsTheNearestAndThoseWithin(){
+		int n = 500;
+		double [] xs = new double [n], ys = new double [n];
+		for(int i = 0; i < n; i++){
+			xs[i] = 1000 * random.nextDouble();
+			ys[i] = 100 * random.nextDouble(); // long and thin
+		}
+		PointGrid grid = new PointGrid(xs, ys, null);
+		for(int q = 0; q < NUM_QUERIES; q++){
+			Coordinate c = somewhere();
+			double distance = 60 * random.nextDouble(), best = Double.POSITIVE_INFINITY;
+			HashSet <Integer> expected = new HashSet <Integer> ();
+			for(int i = 0; i < n; i++){
+				double d = Math.hypot(xs[i] - c.x, ys[i] - c.y);
+				best = Math.min(best, d);
+				if(d <= distance) expected.add(i);
+			}
+			assertEquals(best, grid.nearestDistance(c.x, c.y), 1e-9);
+			ArrayList <Integer> found = new ArrayList <Integer> ();
+			grid.within(c.x, c.y, distance, found);
+			assertEquals(expected, new HashSet <Integer> (found));
+			assertEquals(expected.size(), found.size());
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package objects.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sim.util.geo.GeomPlanarGraph;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Checks that TravelTimes gives Dijkstra's times, and that its cache tells the states of the
+ * network and the facilities apart while holding no more searches than it may
+ *
+ */
+public class TravelTimesTest {
+
+	static final double SPEED = 10;
+
+	CSRGraph graph;
+
+	@Before
+	public void setUp(){
+		GeomPlanarGraph planar = new GeomPlanarGraph();
+		planar.createFromGeomField(RoutingBenchmark.grid(8, new MersenneTwisterFast(21)));
+		graph = CSRGraph.fromPlanarGraph(planar);
+	}
+
+	void checkTimes(TravelTimes.Result r, double [] weights){
+		for(int f = 0; f < r.facilities.length; f++){
+			ShortestPathTree tree = ShortestPathTree.build(graph, r.facilities[f], false, weights);
+			for(int v = 0; v < graph.numNodes(); v++)
+				assertEquals((float) (tree.distance(v) / SPEED), r.time(f, v), 0);
+		}
+	}
+
+	@Test
+	public void cachesEachStateApart(){
+		TravelTimes times = new TravelTimes(graph, SPEED, 3);
+		int [] facilities = {0, 1, 2, graph.numNodes() - 1};
+		double [] closed = graph.copyLengths();
+		for(int a = 0; a < graph.numArcs(); a += 3)
+			closed[a] = Double.POSITIVE_INFINITY;
+
+		checkTimes(times.compute(facilities, null, false), null);
+		checkTimes(times.compute(facilities, closed, false), closed);
+		assertEquals(2 * facilities.length, times.getCacheMisses());
+
+		// asked again, every search comes from the cache, each under its own state
+		checkTimes(times.compute(facilities, closed, false), closed);
+		checkTimes(times.compute(facilities, null, false), null);
+		assertEquals(2 * facilities.length, times.getCacheHits());
+	}
+
+	@Test
+	public void dropsTheLeastRecentlyUsed(){
+		TravelTimes times = new TravelTimes(graph, SPEED, 2, 3);
+		for(int v = 0; v < 10; v++)
+			times.compute(new int [] {v}, null, false);
+		assertEquals(3, times.getCacheSize());
+
+		times.compute(new int [] {7}, null, false); // the oldest still held, which is then kept
+		times.compute(new int [] {0}, null, false);
+		assertEquals(1, times.getCacheHits());
+		times.compute(new int [] {7}, null, false);
+		assertEquals(2, times.getCacheHits());
+		assertTrue(times.getCacheSize() <= times.getCapacity());
+	}
+}
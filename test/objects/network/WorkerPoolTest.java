@@ -0,0 +1,78 @@
+package objects.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+/**
+ * Checks that a WorkerPool gives the results in the order of the tasks, works through every
+ * item once, passes failures on and can be used again
+ *
+ */
+public class WorkerPoolTest {
+
+	static ArrayList <Callable <Integer>> squares(int n){
+		ArrayList <Callable <Integer>> tasks = new ArrayList <Callable <Integer>> ();
+		for(int i = 0; i < n; i++){
+			final int x = i;
+			tasks.add(new Callable <Integer> (){
+				public Integer call(){ return x * x; }
+			});
+		}
+		return tasks;
+	}
+
+	@Test
+	public void resultsComeInOrder(){
+		for(int threads: new int [] {1, 4}){
+			WorkerPool pool = new WorkerPool(threads);
+			for(int round = 0; round < 3; round++){ // the same pool, batch after batch
+				ArrayList <Integer> result = pool.invokeAll(squares(100), "squaring");
+				for(int i = 0; i < 100; i++)
+					assertEquals(i * i, (int) result.get(i));
+			}
+			pool.shutdown();
+			assertEquals(49, (int) pool.invokeAll(squares(8), "squaring").get(7));
+		}
+	}
+
+	@Test
+	public void everyItemOnce(){
+		for(int n: new int [] {0, 1, 7, 1000}){
+			final AtomicIntegerArray seen = new AtomicIntegerArray(Math.max(1, n));
+			WorkerPool.forEach(3, n, new WorkerPool.Range(){
+				public void run(int first, int last){
+					for(int i = first; i < last; i++)
+						seen.incrementAndGet(i);
+				}
+			}, "counting");
+			for(int i = 0; i < n; i++)
+				assertEquals(1, seen.get(i));
+		}
+	}
+
+	@Test
+	public void failuresArePassedOn(){
+		final IllegalStateException cause = new IllegalStateException("no");
+		for(int threads: new int [] {1, 4}){
+			ArrayList <Callable <Integer>> tasks = squares(20);
+			tasks.set(13, new Callable <Integer> (){
+				public Integer call(){ throw cause; }
+			});
+			try {
+				WorkerPool.run(threads, tasks, "squaring");
+				fail("the failure was lost");
+			} catch (RuntimeException e){
+				assertSame(cause, e.getCause());
+				assertTrue(e.getMessage().contains("squaring"));
+			}
+		}
+	}
+}